@@ -0,0 +1,10 @@
+#!/bin/sh
+# 运行基准测试, 带上内存分配的统计(-prof gc), 结果以 JSON 格式保存, 用于和之前的结果比较
+# 用法: benchmarks/run.sh [基准测试名的正则] [其它JMH参数 ...]
+# 结果文件: benchmarks/results/<提交>.json, 可以用 RESULT 环境变量指定
+set -e
+cd "$(dirname "$0")"
+mkdir -p results
+result=${RESULT:-results/$(git rev-parse --short HEAD 2>/dev/null || echo local).json}
+java -jar target/benchmarks.jar -prof gc -rf json -rff "$result" "$@"
+echo "results: benchmarks/$result"
@@ -0,0 +1,89 @@
+package com.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 位图的 BITCOUNT / BITPOS / BITOP
+ * bm1/bm2 是 bytes 字节的随机位图, sparse 只有最后一位是1 (BITPOS 要扫描整个位图)
+ * bitcountBytewise 是逐字节 Integer.bitCount 的对照, 128MB 时 bitcount 的耗时除以字节数就是扫描的带宽
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+public class BitopsBenchmark {
+    @Param({"1048576", "134217728"})
+    int bytes;
+
+    RedisServer.RedisDB db;
+    RedisServer.RedisRequest bitcount;
+    RedisServer.RedisRequest bitpos;
+    RedisServer.RedisRequest bitop;
+    byte[] bm1;
+
+    @Setup
+    public void setup() {
+        RedisServer.maxmemory = Long.MAX_VALUE;
+        db = new RedisServer.RedisDB();
+        Random random = new Random(1);
+        bm1 = new byte[bytes];
+        random.nextBytes(bm1);
+        byte[] bm2 = new byte[bytes];
+        random.nextBytes(bm2);
+        byte[] sparse = new byte[bytes];
+        sparse[bytes - 1] = 1;
+        RedisServer.dbAdd(db, "bm1", new RedisServer.RedisObject(new RedisString.Sds(bm1)));
+        RedisServer.dbAdd(db, "bm2", new RedisServer.RedisObject(new RedisString.Sds(bm2)));
+        RedisServer.dbAdd(db, "sparse", new RedisServer.RedisObject(new RedisString.Sds(sparse)));
+        bitcount = request("bitcount", "bm1");
+        bitpos = request("bitpos", "sparse", "1");
+        bitop = request("bitop", "and", "dest", "bm1", "bm2");
+    }
+
+    private static RedisServer.RedisRequest request(String command, String... args) {
+        RedisServer.RedisRequest redisRequest = new RedisServer.RedisRequest();
+        redisRequest.command = command;
+        redisRequest.args = Arrays.asList(args);
+        return redisRequest;
+    }
+
+    @Benchmark
+    public Object bitcount() {
+        return Bitops.bitcount(db, bitcount);
+    }
+
+    @Benchmark
+    public long bitcountBytewise() {
+        long count = 0;
+        for (byte b : bm1) {
+            count += Integer.bitCount(b & 0xff);
+        }
+        return count;
+    }
+
+    @Benchmark
+    public Object bitpos() {
+        return Bitops.bitpos(db, bitpos);
+    }
+
+    @Benchmark
+    public Object bitopAnd() {
+        return Bitops.bitop(db, bitop);
+    }
+}
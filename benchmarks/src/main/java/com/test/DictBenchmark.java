@@ -0,0 +1,121 @@
+package com.test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 字典的 get / set 和 dictGetRandomKey, 字典中有 keys 个key
+ * 1. Plain: 没有在进行渐进式哈希, 所有key都在 ht[0]
+ * 2. Rehashing: rehash != -1, 一半的key已经迁移到 ht[1], 查找 ht[1] 中的key要查两张表
+ * 访问的key预先随机选好 PROBES 个, 循环使用, 不在测量中生成字符串
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+public class DictBenchmark {
+    static final int PROBES = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Plain {
+        @Param({"10000", "1000000", "10000000"})
+        int keys;
+
+        RedisServer.Dict<RedisServer.RedisObject> dict;
+        String[] probes;
+        RedisServer.RedisObject value;
+        int next;
+
+        @Setup
+        public void setup() {
+            dict = new RedisServer.Dict<>();
+            value = new RedisServer.RedisObject("value");
+            for (int i = 0; i < keys; i++) {
+                dict.set("key:" + i, value);
+            }
+            probes = randomKeys(keys, 0, keys);
+        }
+
+        String nextProbe() {
+            return probes[next++ & (PROBES - 1)];
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Rehashing {
+        @Param({"10000", "1000000", "10000000"})
+        int keys;
+
+        RedisServer.Dict<RedisServer.RedisObject> dict;
+        String[] probes;
+        RedisServer.RedisObject value;
+        int next;
+
+        @Setup
+        public void setup() {
+            dict = new RedisServer.Dict<>();
+            value = new RedisServer.RedisObject("value");
+            int half = keys / 2;
+            for (int i = 0; i < half; i++) {
+                dict.set("key:" + i, value);
+            }
+            dict.rehash = 0;
+            for (int i = half; i < keys; i++) {
+                dict.set("key:" + i, value);
+            }
+            // 只访问已经迁移到 ht[1] 的key
+            probes = randomKeys(keys, half, keys);
+        }
+
+        String nextProbe() {
+            return probes[next++ & (PROBES - 1)];
+        }
+    }
+
+    static String[] randomKeys(int keys, int from, int to) {
+        Random random = new Random(42);
+        String[] probes = new String[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probes[i] = "key:" + (from + random.nextInt(to - from));
+        }
+        return probes;
+    }
+
+    @Benchmark
+    public Object get(Plain plain) {
+        return plain.dict.get(plain.nextProbe());
+    }
+
+    @Benchmark
+    public void set(Plain plain) {
+        plain.dict.set(plain.nextProbe(), plain.value);
+    }
+
+    @Benchmark
+    public Object getRehashing(Rehashing rehashing) {
+        return rehashing.dict.get(rehashing.nextProbe());
+    }
+
+    @Benchmark
+    public void setRehashing(Rehashing rehashing) {
+        rehashing.dict.set(rehashing.nextProbe(), rehashing.value);
+    }
+
+    @Benchmark
+    public String dictGetRandomKey(Plain plain) {
+        return RedisServer.dictGetRandomKey(plain.dict);
+    }
+}
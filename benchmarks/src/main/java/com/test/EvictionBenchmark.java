@@ -0,0 +1,60 @@
+package com.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 内存淘汰 (freeMemoryIfNeeded)
+ * 0 号数据库中有 keys 个key, maxmemory 正好等于 keys, 每次调用先写入一个新key再淘汰一个,
+ * 相当于内存已满时每个写命令之前的淘汰开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+public class EvictionBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    int keys;
+
+    @Param({"allkeys-lru", "allkeys-random"})
+    String policy;
+
+    RedisServer.RedisDB db;
+    long next;
+
+    @Setup
+    public void setup() {
+        RedisServer.redisDB = new RedisServer.RedisDB[16];
+        for (int i = 0; i < RedisServer.redisDB.length; i++) {
+            RedisServer.redisDB[i] = new RedisServer.RedisDB();
+            RedisServer.redisDB[i].id = i;
+        }
+        db = RedisServer.redisDB[0];
+        for (int i = 0; i < keys; i++) {
+            RedisServer.dbAdd(db, "key:" + i, new RedisServer.RedisObject("value"));
+        }
+        next = keys;
+        Config.configSet("maxmemory", String.valueOf(keys));
+        Config.configSet("maxmemory-policy", policy);
+        Config.configSet("lazyfree-lazy-eviction", "no");
+    }
+
+    @Benchmark
+    public int writeAndEvict() {
+        RedisServer.dbAdd(db, "key:" + next++, new RedisServer.RedisObject("value"));
+        return RedisServer.freeMemoryIfNeeded();
+    }
+}
@@ -0,0 +1,79 @@
+package com.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 主动过期 (beforeSleep 中的快速 activeExpireCycle)
+ * 0 号数据库中有 keys 个还没到期的key, 每次调用之前补齐 EXPIRED 个已经到期的key,
+ * 测量一轮清理的耗时; 同时测量开启和关闭过期键索引(active-expire-index)两种情况
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+public class ExpireBenchmark {
+    static final int EXPIRED = 64;
+
+    @Param({"10000", "1000000", "10000000"})
+    int keys;
+
+    @Param({"no", "yes"})
+    String expireIndex;
+
+    RedisServer.RedisDB db;
+    String[] expiredKeys;
+
+    @Setup
+    public void setup() {
+        RedisServer.redisDB = new RedisServer.RedisDB[16];
+        for (int i = 0; i < RedisServer.redisDB.length; i++) {
+            RedisServer.redisDB[i] = new RedisServer.RedisDB();
+            RedisServer.redisDB[i].id = i;
+        }
+        Config.configSet("active-expire-index", expireIndex);
+        Config.configSet("lazyfree-lazy-expire", "no");
+        db = RedisServer.redisDB[0];
+        long future = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        for (int i = 0; i < keys; i++) {
+            String key = "key:" + i;
+            RedisServer.dbAdd(db, key, new RedisServer.RedisObject("value"));
+            RedisServer.setExpire(db, key, future);
+        }
+        expiredKeys = new String[EXPIRED];
+        for (int i = 0; i < EXPIRED; i++) {
+            expiredKeys[i] = "expired:" + i;
+        }
+    }
+
+    // 上一轮没有删掉的不重复添加, 保证每轮开始时正好有 EXPIRED 个到期的key
+    @Setup(Level.Invocation)
+    public void addExpiredKeys() {
+        long past = System.currentTimeMillis() - 1000;
+        for (String key : expiredKeys) {
+            if (db.dict.get(key) == null) {
+                RedisServer.dbAdd(db, key, new RedisServer.RedisObject("value"));
+                RedisServer.setExpire(db, key, past);
+            }
+        }
+    }
+
+    @Benchmark
+    public void activeExpireCycle() {
+        RedisServer.activeExpireCycle(true);
+    }
+}
@@ -0,0 +1,99 @@
+package com.test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * KEYS 的模式匹配: 编译后的 GlobPattern 和原来的动态规划实现对比
+ * 10 万个key, 形如 user:<id>:profile / user:<id>:session / cache:item:<n> / session:<hex>
+ * 每次调用匹配全部key, 结果是每轮的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlobBenchmark {
+    // DP 不支持 [...] 所以只比较两者都支持的语法
+    @Param({"user:*", "*:profile", "user:1*:session", "cache:item:??7", "*"})
+    String pattern;
+
+    String[] keys;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        keys = new String[100000];
+        for (int i = 0; i < keys.length; i++) {
+            switch (i % 4) {
+                case 0:
+                    keys[i] = "user:" + random.nextInt(1000000) + ":profile";
+                    break;
+                case 1:
+                    keys[i] = "user:" + random.nextInt(1000000) + ":session";
+                    break;
+                case 2:
+                    keys[i] = "cache:item:" + random.nextInt(100000);
+                    break;
+                default:
+                    keys[i] = "session:" + Long.toHexString(random.nextLong());
+            }
+        }
+    }
+
+    @Benchmark
+    public int compiled() {
+        GlobPattern glob = GlobPattern.compile(pattern);
+        int n = 0;
+        for (String key : keys) {
+            if (glob.matches(key)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int dynamicProgramming() {
+        int n = 0;
+        for (String key : keys) {
+            if (dpMatch(key, pattern)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // 原来 RedisServer.isMatch 的实现, 每个key分配一个 (sLen+1)*(pLen+1) 的表
+    static boolean dpMatch(String s, String p) {
+        boolean[][] dp = new boolean[s.length() + 1][p.length() + 1];
+        dp[0][0] = true;
+        for (int j = 1; j <= p.length() && p.charAt(j - 1) == '*'; j++) {
+            dp[0][j] = true;
+        }
+        for (int i = 1; i <= s.length(); i++) {
+            for (int j = 1; j <= p.length(); j++) {
+                char c = p.charAt(j - 1);
+                if (c == '*') {
+                    dp[i][j] = dp[i][j - 1] || dp[i - 1][j];
+                } else if (c == '?' || c == s.charAt(i - 1)) {
+                    dp[i][j] = dp[i - 1][j - 1];
+                }
+            }
+        }
+        return dp[s.length()][p.length()];
+    }
+}
@@ -0,0 +1,79 @@
+package com.test;
+
+/**
+ * 哈希对象的内存占用报告
+ * 同样的 N 个对象、每个对象 F 个字段, 比较三种存法每个字段平均占用的堆内存:
+ * 1. flattened: 每个字段一个顶层key (user:<id>:<field>)
+ * 2. hash-ziplist: 每个对象一个哈希key, 压缩列表编码
+ * 3. hash-ht: 每个对象一个哈希key, 字典编码
+ *
+ * 运行: java -cp benchmarks/target/benchmarks.jar com.test.HashMemoryReport [对象数]
+ */
+public class HashMemoryReport {
+    private static final int[] FIELDS = {5, 20, 100};
+
+    public static void main(String[] args) throws InterruptedException {
+        int objects = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        System.out.printf("%-14s %8s %8s %14s%n", "layout", "objects", "fields", "bytes/field");
+        for (int fields : FIELDS) {
+            report("flattened", objects, fields, measureFlattened(objects, fields));
+            report("hash-ziplist", objects, fields, measureHash(objects, fields, Integer.MAX_VALUE));
+            report("hash-ht", objects, fields, measureHash(objects, fields, 0));
+        }
+    }
+
+    private static void report(String layout, int objects, int fields, long bytes) {
+        System.out.printf("%-14s %8d %8d %14.1f%n", layout, objects, fields, (double) bytes / objects / fields);
+    }
+
+    private static long measureFlattened(int objects, int fields) throws InterruptedException {
+        long before = usedMemory();
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        for (int i = 0; i < objects; i++) {
+            for (int f = 0; f < fields; f++) {
+                db.dict.set("user:" + i + ":field" + f, new RedisServer.RedisObject("value-" + i + "-" + f));
+            }
+        }
+        long after = usedMemory();
+        // 保证 db 在测量之后仍然可达
+        if (db.dict.getDictSize() != (long) objects * fields) {
+            throw new IllegalStateException();
+        }
+        return after - before;
+    }
+
+    private static long measureHash(int objects, int fields, int maxZiplistEntries) throws InterruptedException {
+        int saved = Hash.hash_max_ziplist_entries;
+        Hash.hash_max_ziplist_entries = maxZiplistEntries;
+        try {
+            long before = usedMemory();
+            RedisServer.RedisDB db = new RedisServer.RedisDB();
+            for (int i = 0; i < objects; i++) {
+                RedisServer.RedisObject o = Hash.createHashObject();
+                if (maxZiplistEntries == 0) {
+                    Hash.hashTypeConvert(o);
+                }
+                for (int f = 0; f < fields; f++) {
+                    Hash.hashTypeSet(o, "field" + f, "value-" + i + "-" + f);
+                }
+                db.dict.set("user:" + i, o);
+            }
+            long after = usedMemory();
+            if (db.dict.getDictSize() != objects) {
+                throw new IllegalStateException();
+            }
+            return after - before;
+        } finally {
+            Hash.hash_max_ziplist_entries = saved;
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
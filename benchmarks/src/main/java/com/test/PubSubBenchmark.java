@@ -0,0 +1,72 @@
+package com.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PUBLISH 的扇出吞吐量 (每秒消息数)
+ * 一个频道上有 1 / 1k / 10k 个订阅者, 每条消息 64 字节
+ * 每次发布之后把所有订阅者的输出队列清空, 相当于 socket 写完, 不包含网络开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PubSubBenchmark {
+    @Param({"1", "1000", "10000"})
+    int subscribers;
+
+    List<RedisServer.RedisClient> clients;
+    RedisServer.RedisRequest publish;
+
+    @Setup
+    public void setup() {
+        RedisServer.RedisRequest subscribe = new RedisServer.RedisRequest();
+        subscribe.command = "subscribe";
+        subscribe.args = Arrays.asList("news");
+        clients = new ArrayList<>(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            RedisServer.RedisClient client = new RedisServer.RedisClient();
+            PubSub.subscribe(client, subscribe);
+            clients.add(client);
+        }
+        char[] message = new char[64];
+        Arrays.fill(message, 'm');
+        publish = new RedisServer.RedisRequest();
+        publish.command = "publish";
+        publish.args = Arrays.asList("news", new String(message));
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (RedisServer.RedisClient client : clients) {
+            PubSub.unsubscribeAll(client);
+        }
+    }
+
+    @Benchmark
+    public Object publish() {
+        Object receivers = PubSub.publish(publish);
+        for (RedisServer.RedisClient client : clients) {
+            RedisServer.freeClientReplies(client);
+        }
+        return receivers;
+    }
+}
@@ -0,0 +1,107 @@
+package com.test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RESP 协议的解析和编码
+ * 1. parsePipeline: 一次读到 frames 个流水线的 SET key value, 和 processQueryBuf 一样循环解析到缓冲区结束
+ * 2. format*: 各种回复的编码, 值是 64 字节的字符串
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RespBenchmark {
+    @State(Scope.Benchmark)
+    public static class Pipeline {
+        @Param({"1", "16", "128"})
+        int frames;
+
+        byte[] bytes;
+
+        @Setup
+        public void setup() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < frames; i++) {
+                String key = "key:" + i;
+                String frame = "*3\r\n$3\r\nSET\r\n$" + key.length() + "\r\n" + key + "\r\n$16\r\nvalue-0123456789\r\n";
+                byte[] b = frame.getBytes(StandardCharsets.UTF_8);
+                out.write(b, 0, b.length);
+            }
+            bytes = out.toByteArray();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Values {
+        String value;
+        Object[] elements;
+
+        @Setup
+        public void setup() {
+            char[] chars = new char[64];
+            Arrays.fill(chars, 'v');
+            value = new String(chars);
+            elements = new Object[10];
+            Arrays.fill(elements, value);
+        }
+    }
+
+    @Benchmark
+    public int parsePipeline(Pipeline pipeline) {
+        byte[] bytes = pipeline.bytes;
+        int offset = 0;
+        int parsed = 0;
+        while (offset < bytes.length) {
+            RedisServer.RedisRequest redisRequest = new RedisServer.RedisRequest();
+            int n = RespUtil.parseCommand(bytes, offset, bytes.length - offset, redisRequest);
+            if (n <= 0) {
+                throw new IllegalStateException("parse failed at " + offset);
+            }
+            offset += n;
+            parsed++;
+        }
+        return parsed;
+    }
+
+    @Benchmark
+    public byte[] formatSimpleString() {
+        return RespUtil.formatSimpleString("OK");
+    }
+
+    @Benchmark
+    public byte[] formatError() {
+        return RespUtil.formatError("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+
+    @Benchmark
+    public byte[] formatInteger() {
+        return RespUtil.formatInteger(123456);
+    }
+
+    @Benchmark
+    public byte[] formatBulkString(Values values) {
+        return RespUtil.formatBulkString(values.value);
+    }
+
+    @Benchmark
+    public byte[] formatArray(Values values) {
+        return RespUtil.formatArray(values.elements);
+    }
+}
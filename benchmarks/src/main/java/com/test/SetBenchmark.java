@@ -0,0 +1,64 @@
+package com.test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 集合的 SINTER / SISMEMBER
+ * 三个集合各有 size 个成员, 两两之间有一半重合, 三者的交集是 1/4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class SetBenchmark {
+    @Param({"1000", "1000000"})
+    int size;
+
+    RedisServer.RedisDB db;
+    RedisServer.RedisRequest sinter;
+    RedisServer.RedisObject s1;
+
+    @Setup
+    public void setup() {
+        RedisServer.maxmemory = Long.MAX_VALUE;
+        db = new RedisServer.RedisDB();
+        for (int s = 0; s < 3; s++) {
+            RedisServer.RedisObject set = RedisSet.setTypeCreate("tag");
+            for (int i = 0; i < size; i++) {
+                // s0 是 0..size, s1 保留其中的偶数, s2 保留 i % 4 < 2 的部分, 三者的交集是 i % 4 == 0
+                int id = s == 0 ? i : s == 1 ? (i % 2 == 0 ? i : i + size) : (i % 4 < 2 ? i : i + 2 * size);
+                RedisSet.setTypeAdd(set, "item:" + id);
+            }
+            RedisServer.dbAdd(db, "s" + s, set);
+        }
+        s1 = db.dict.getRedisObject("s0");
+        sinter = new RedisServer.RedisRequest();
+        sinter.command = "sinter";
+        sinter.args = Arrays.asList("s0", "s1", "s2");
+    }
+
+    @Benchmark
+    public Object sinter() {
+        return RedisSet.sinter(db, sinter);
+    }
+
+    @Benchmark
+    public boolean sismember() {
+        return RedisSet.setTypeIsMember(s1, "item:" + (size / 2));
+    }
+}
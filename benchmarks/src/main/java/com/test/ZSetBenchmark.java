@@ -0,0 +1,72 @@
+package com.test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 有序集合的 ZADD / ZRANK / ZRANGEBYSCORE
+ * 成员数为 1k 和 1M, 都已经超过压缩列表的阈值, 测的是跳表编码
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZSetBenchmark {
+    @Param({"1000", "1000000"})
+    int size;
+
+    RedisServer.RedisObject zset;
+    String[] members;
+    double[] scores;
+
+    @Setup
+    public void setup() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        zset = ZSet.createZsetObject();
+        members = new String[size];
+        scores = new double[size];
+        for (int i = 0; i < size; i++) {
+            members[i] = "member:" + i;
+            scores[i] = random.nextInt(size);
+            ZSet.zsetAdd(zset, scores[i], members[i], 0, null);
+        }
+    }
+
+    // 更新已有成员的分数, 集合大小保持不变
+    @Benchmark
+    public int zadd() {
+        int i = ThreadLocalRandom.current().nextInt(size);
+        return ZSet.zsetAdd(zset, ThreadLocalRandom.current().nextInt(size), members[i], 0, null);
+    }
+
+    @Benchmark
+    public long zrank() {
+        return ZSet.zsetRank(zset, members[ThreadLocalRandom.current().nextInt(size)], false);
+    }
+
+    // 随机取一个宽度约为10个成员的分数区间, 带 WITHSCORES 编码回复
+    @Benchmark
+    public int zrangeByScore() {
+        int min = ThreadLocalRandom.current().nextInt(size);
+        ZSet.RangeSpec range = new ZSet.RangeSpec();
+        range.min = min;
+        range.max = min + 10;
+        ReplyBuffer reply = new ReplyBuffer();
+        ZSet.zsetRangeByScore(zset, range, 0, -1, true, reply);
+        return reply.length();
+    }
+}
@@ -0,0 +1,69 @@
+package com.test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ZipList 的 push / pop / range, 列表中有 size 个 16 字节的元素
+ * push 和 pop 成对执行, 每次调用之后列表的大小不变
+ * size 没有用其他套件的 10k/1M/10M: 压缩列表是一整块连续的字节数组, 头部插入删除要移动整个数组,
+ * 本来只用于小对象, 128 和 512 正好是有序集合和哈希的 ziplist entries 阈值, 16 是一个很小的对象
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZipListBenchmark {
+    static final String ELEMENT = "element-01234567";
+
+    @Param({"16", "128", "512"})
+    int size;
+
+    ZipList zipList;
+
+    @Setup
+    public void setup() {
+        zipList = new ZipList();
+        for (int i = 0; i < size; i++) {
+            zipList.insertFromTail(ELEMENT);
+        }
+    }
+
+    @Benchmark
+    public String pushTailPopTail() {
+        zipList.insertFromTail(ELEMENT);
+        return zipList.pop();
+    }
+
+    @Benchmark
+    public String pushHeadPopTail() {
+        zipList.insertFromHead(ELEMENT);
+        return zipList.pop();
+    }
+
+    // LRANGE key 0 9
+    @Benchmark
+    public List<String> rangeFirst10() {
+        return zipList.range(0, 9);
+    }
+
+    // LRANGE key 0 -1
+    @Benchmark
+    public List<String> rangeAll() {
+        return zipList.range(0, -1);
+    }
+}
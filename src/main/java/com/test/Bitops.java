@@ -0,0 +1,411 @@
+package com.test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 位图
+ * 1. 位图就是字符串, 值是 RedisString.Sds 字节数组, 第 n 位在第 n/8 个字节中, 每个字节从最高位开始编号
+ *    SETBIT 写到末尾之后时按 SDS 的策略扩容, 新增的部分为 0
+ * 2. BITCOUNT/BITPOS/BITOP 每次处理 8 个字节(一个 long), 只有首尾不足 8 个字节的部分逐字节处理
+ *    BITCOUNT 用 Long.bitCount (JIT 编译成 popcnt 指令), BITPOS 用 Long.numberOfLeadingZeros
+ *    (按大端读取 long 时第一个字节的最高位就是 long 的最高位, 所以第一个匹配的位是前导0的个数)
+ */
+public class Bitops {
+    private static final String WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+    private static final String NOT_INTEGER = "ERR value is not an integer or out of range";
+    private static final String BIT_OFFSET = "ERR bit offset is not an integer or out of range";
+
+    private static final int BITOP_AND = 0;
+    private static final int BITOP_OR = 1;
+    private static final int BITOP_XOR = 2;
+    private static final int BITOP_NOT = 3;
+
+    private static RedisServer.RedisObject checkType(RedisServer.RedisObject o) {
+        if (o != null && o.type != RedisConstants.REDIS_STRING) {
+            throw new IllegalStateException(WRONGTYPE);
+        }
+        return o;
+    }
+
+    // 只读命令使用的字节内容, 不改变对象的编码
+    private static RedisString.Sds readBytes(RedisServer.RedisObject o) {
+        if (o.value instanceof RedisString.Sds) {
+            return (RedisString.Sds) o.value;
+        }
+        return new RedisString.Sds(o.value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 位偏移: 0 到 512MB * 8 - 1
+    private static long parseBitOffset(String s) {
+        long[] ll = new long[1];
+        if (!RedisSet.string2ll(s, ll) || ll[0] < 0 || ll[0] >= RedisString.PROTO_MAX_BULK_LEN * 8) {
+            return -1;
+        }
+        return ll[0];
+    }
+
+    private static int getBit(byte[] buf, long bitoffset) {
+        return (buf[(int) (bitoffset >> 3)] >> (7 - (int) (bitoffset & 7))) & 1;
+    }
+
+    /**
+     * 统计 [start, end) 字节中1的个数
+     * 每次处理 4 个 long, 4 个累加器互不依赖, 多条 popcnt 可以并行执行
+     */
+    static long popcount(byte[] buf, int start, int end) {
+        // 计数和字节序无关, 按本机字节序读取省掉字节交换
+        ByteBuffer bb = ByteBuffer.wrap(buf).order(ByteOrder.nativeOrder());
+        long c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+        int i = start;
+        for (; i + 32 <= end; i += 32) {
+            c0 += Long.bitCount(bb.getLong(i));
+            c1 += Long.bitCount(bb.getLong(i + 8));
+            c2 += Long.bitCount(bb.getLong(i + 16));
+            c3 += Long.bitCount(bb.getLong(i + 24));
+        }
+        for (; i + 8 <= end; i += 8) {
+            c0 += Long.bitCount(bb.getLong(i));
+        }
+        for (; i < end; i++) {
+            c0 += Integer.bitCount(buf[i] & 0xff);
+        }
+        return c0 + c1 + c2 + c3;
+    }
+
+    /**
+     * 在 [start, end] 位中查找第一个等于 bit 的位
+     * @return 位的偏移, 没有找到返回-1
+     */
+    static long bitpos(byte[] buf, long start, long end, int bit) {
+        long pos = start;
+        // 开头没有对齐到字节的部分逐位检查
+        for (; pos <= end && (pos & 7) != 0; pos++) {
+            if (getBit(buf, pos) == bit) {
+                return pos;
+            }
+        }
+        // 找1时跳过全0的 long, 找0时跳过全1的 long
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        long skip = bit == 1 ? 0 : -1L;
+        for (; pos + 64 <= end + 1; pos += 64) {
+            long word = bb.getLong((int) (pos >> 3));
+            if (word != skip) {
+                return pos + Long.numberOfLeadingZeros(bit == 1 ? word : ~word);
+            }
+        }
+        for (; pos <= end; pos++) {
+            if (getBit(buf, pos) == bit) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 把 start/end 换算成 [0, total) 中的闭区间, 负数从末尾开始计算
+     * @return {start, end}, 区间为空时返回 null
+     */
+    private static long[] range(long start, long end, long total) {
+        if (start < 0) {
+            start = total + start;
+        }
+        if (end < 0) {
+            end = total + end;
+        }
+        if (start < 0) {
+            start = 0;
+        }
+        if (end < 0) {
+            end = 0;
+        }
+        if (end >= total) {
+            end = total - 1;
+        }
+        if (total == 0 || start > end) {
+            return null;
+        }
+        return new long[]{start, end};
+    }
+
+    // SETBIT key offset value, 返回这一位原来的值
+    public static Object setbit(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() != 3) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'setbit' command");
+        }
+        long bitoffset = parseBitOffset(redisRequest.args.get(1));
+        if (bitoffset == -1) {
+            return new RedisServer.ErrorObject(BIT_OFFSET);
+        }
+        String value = redisRequest.args.get(2);
+        if (!"0".equals(value) && !"1".equals(value)) {
+            return new RedisServer.ErrorObject("ERR bit is not an integer or out of range");
+        }
+        String key = redisRequest.args.get(0);
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyWrite(db, key));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        int byteIndex = (int) (bitoffset >> 3);
+        RedisString.Sds sds;
+        if (o == null) {
+            sds = new RedisString.Sds(new byte[byteIndex + 1]);
+            RedisServer.dbAdd(db, key, new RedisServer.RedisObject(sds));
+        } else {
+            sds = RedisString.toSds(o);
+            sds.growZero(byteIndex + 1);
+        }
+        int shift = 7 - (int) (bitoffset & 7);
+        int old = (sds.buf[byteIndex] >> shift) & 1;
+        if (value.charAt(0) == '1') {
+            sds.buf[byteIndex] |= (byte) (1 << shift);
+        } else {
+            sds.buf[byteIndex] &= (byte) ~(1 << shift);
+        }
+        RedisServer.signalModifiedKey(db, key);
+        return (long) old;
+    }
+
+    // GETBIT key offset
+    public static Object getbit(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() != 2) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'getbit' command");
+        }
+        long bitoffset = parseBitOffset(redisRequest.args.get(1));
+        if (bitoffset == -1) {
+            return new RedisServer.ErrorObject(BIT_OFFSET);
+        }
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (o == null) {
+            return 0L;
+        }
+        RedisString.Sds sds = readBytes(o);
+        if ((bitoffset >> 3) >= sds.len) {
+            return 0L;
+        }
+        return (long) getBit(sds.buf, bitoffset);
+    }
+
+    // 解析 [start end [BYTE|BIT]] 中的单位, 返回是否按位计算, 语法错误返回 null
+    private static Boolean parseUnit(List<String> args, int index) {
+        if (args.size() <= index) {
+            return false;
+        }
+        if (args.size() == index + 1) {
+            if ("bit".equalsIgnoreCase(args.get(index))) {
+                return true;
+            }
+            if ("byte".equalsIgnoreCase(args.get(index))) {
+                return false;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * BITCOUNT key [start end [BYTE|BIT]]
+     * 整字节的部分用 popcount, 按位指定范围时再减去首尾字节中范围之外的位
+     */
+    public static Object bitcount(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        if (args.size() != 1 && args.size() != 3 && args.size() != 4) {
+            return new RedisServer.ErrorObject(args.size() == 2 ? "ERR syntax error"
+                    : "ERR wrong number of arguments for 'bitcount' command");
+        }
+        long[] ll = new long[1];
+        long start = 0, end = -1;
+        Boolean isBit = false;
+        if (args.size() > 1) {
+            if (!RedisSet.string2ll(args.get(1), ll)) {
+                return new RedisServer.ErrorObject(NOT_INTEGER);
+            }
+            start = ll[0];
+            if (!RedisSet.string2ll(args.get(2), ll)) {
+                return new RedisServer.ErrorObject(NOT_INTEGER);
+            }
+            end = ll[0];
+            isBit = parseUnit(args, 3);
+            if (isBit == null) {
+                return new RedisServer.ErrorObject("ERR syntax error");
+            }
+        }
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyReadObject(db, args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (o == null) {
+            return 0L;
+        }
+        RedisString.Sds sds = readBytes(o);
+        long[] r = range(start, end, isBit ? (long) sds.len * 8 : sds.len);
+        if (r == null) {
+            return 0L;
+        }
+        if (!isBit) {
+            return popcount(sds.buf, (int) r[0], (int) r[1] + 1);
+        }
+        int first = (int) (r[0] >> 3);
+        int last = (int) (r[1] >> 3);
+        long count = popcount(sds.buf, first, last + 1);
+        // 第一个字节中 start 之前的高位, 最后一个字节中 end 之后的低位
+        count -= Integer.bitCount(sds.buf[first] & (0xff00 >> (r[0] & 7)) & 0xff);
+        count -= Integer.bitCount(sds.buf[last] & ((1 << (7 - (r[1] & 7))) - 1));
+        return count;
+    }
+
+    /**
+     * BITPOS key bit [start [end [BYTE|BIT]]]
+     * 找0时如果没有指定 end 并且范围内全是1, 返回范围之后的第一位(字符串右边看作无限多的0)
+     */
+    public static Object bitpos(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        if (args.size() < 2 || args.size() > 5) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'bitpos' command");
+        }
+        String bitArg = args.get(1);
+        if (!"0".equals(bitArg) && !"1".equals(bitArg)) {
+            return new RedisServer.ErrorObject("ERR The bit argument must be 1 or 0.");
+        }
+        int bit = bitArg.charAt(0) - '0';
+        long[] ll = new long[1];
+        long start = 0, end = -1;
+        boolean endGiven = args.size() > 3;
+        Boolean isBit = false;
+        if (args.size() > 2) {
+            if (!RedisSet.string2ll(args.get(2), ll)) {
+                return new RedisServer.ErrorObject(NOT_INTEGER);
+            }
+            start = ll[0];
+        }
+        if (endGiven) {
+            if (!RedisSet.string2ll(args.get(3), ll)) {
+                return new RedisServer.ErrorObject(NOT_INTEGER);
+            }
+            end = ll[0];
+            isBit = parseUnit(args, 4);
+            if (isBit == null) {
+                return new RedisServer.ErrorObject("ERR syntax error");
+            }
+        }
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyReadObject(db, args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (o == null) {
+            return bit == 1 ? -1L : 0L;
+        }
+        RedisString.Sds sds = readBytes(o);
+        long[] r = range(start, end, isBit ? (long) sds.len * 8 : sds.len);
+        if (r == null) {
+            return -1L;
+        }
+        long first = isBit ? r[0] : r[0] * 8;
+        long last = isBit ? r[1] : r[1] * 8 + 7;
+        long pos = bitpos(sds.buf, first, last, bit);
+        if (pos == -1 && bit == 0 && !endGiven) {
+            return last + 1;
+        }
+        return pos;
+    }
+
+    /**
+     * BITOP AND|OR|XOR|NOT destkey key [key ...]
+     * 较短的值看作右边补0, 结果的长度是最长的值的长度
+     * 所有值都有的前 minLen 个字节按 long 处理, 之后逐字节处理
+     */
+    public static Object bitop(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        if (args.size() < 3) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'bitop' command");
+        }
+        String opName = args.get(0);
+        int op;
+        if ("and".equalsIgnoreCase(opName)) {
+            op = BITOP_AND;
+        } else if ("or".equalsIgnoreCase(opName)) {
+            op = BITOP_OR;
+        } else if ("xor".equalsIgnoreCase(opName)) {
+            op = BITOP_XOR;
+        } else if ("not".equalsIgnoreCase(opName)) {
+            op = BITOP_NOT;
+        } else {
+            return new RedisServer.ErrorObject("ERR syntax error");
+        }
+        if (op == BITOP_NOT && args.size() != 3) {
+            return new RedisServer.ErrorObject("ERR BITOP NOT must be called with a single source key.");
+        }
+        int n = args.size() - 2;
+        RedisString.Sds[] src = new RedisString.Sds[n];
+        int maxLen = 0;
+        int minLen = Integer.MAX_VALUE;
+        for (int k = 0; k < n; k++) {
+            RedisServer.RedisObject o;
+            try {
+                o = checkType(RedisServer.lookUpKeyReadObject(db, args.get(k + 2)));
+            } catch (IllegalStateException e) {
+                return new RedisServer.ErrorObject(e.getMessage());
+            }
+            src[k] = o == null ? new RedisString.Sds(new byte[0]) : readBytes(o);
+            maxLen = Math.max(maxLen, src[k].len);
+            minLen = Math.min(minLen, src[k].len);
+        }
+        String destkey = args.get(1);
+        if (maxLen == 0) {
+            if (RedisServer.dbDelete(db, destkey, false)) {
+                RedisServer.signalModifiedKey(db, destkey);
+            }
+            return 0L;
+        }
+        byte[] res = new byte[maxLen];
+        ByteBuffer out = ByteBuffer.wrap(res);
+        ByteBuffer[] in = new ByteBuffer[n];
+        for (int k = 0; k < n; k++) {
+            in[k] = ByteBuffer.wrap(src[k].buf);
+        }
+        int i = 0;
+        for (; i + 8 <= minLen; i += 8) {
+            long word = in[0].getLong(i);
+            for (int k = 1; k < n; k++) {
+                long v = in[k].getLong(i);
+                if (op == BITOP_AND) {
+                    word &= v;
+                } else if (op == BITOP_OR) {
+                    word |= v;
+                } else {
+                    word ^= v;
+                }
+            }
+            out.putLong(i, op == BITOP_NOT ? ~word : word);
+        }
+        for (; i < maxLen; i++) {
+            int b = i < src[0].len ? src[0].buf[i] : 0;
+            for (int k = 1; k < n; k++) {
+                int v = i < src[k].len ? src[k].buf[i] : 0;
+                if (op == BITOP_AND) {
+                    b &= v;
+                } else if (op == BITOP_OR) {
+                    b |= v;
+                } else {
+                    b ^= v;
+                }
+            }
+            res[i] = (byte) (op == BITOP_NOT ? ~b : b);
+        }
+        RedisServer.setKey(db, destkey, new RedisServer.RedisObject(new RedisString.Sds(res)), false);
+        RedisServer.signalModifiedKey(db, destkey);
+        return (long) maxLen;
+    }
+}
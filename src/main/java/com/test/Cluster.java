@@ -0,0 +1,1043 @@
+package com.test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 集群模式 (cluster-enabled yes)
+ * 1. key 通过 CRC16(key) % 16384 映射到哈希槽, key 中有 {hashtag} 时只计算花括号中的部分,
+ *    这样相关的 key 可以放在同一个槽中; 集群模式下只使用 0 号数据库
+ * 2. 每个节点负责一部分槽, processCommand 在执行之前检查命令中的 key:
+ *    不在同一个槽 -CROSSSLOT, 槽由其它节点负责 -MOVED <slot> <ip:port>,
+ *    槽正在迁出并且 key 已经不在本节点 -ASK <slot> <ip:port>
+ * 3. 节点之间没有单独的集群总线, 通过普通端口互相发送 CLUSTER GOSSIP (对方不回复):
+ *    消息中带着发送者负责的槽和它知道的其它节点, CLUSTER MEET 一次之后所有节点会互相认识
+ * 4. 槽的归属冲突时 configEpoch 大的节点胜出; SETSLOT NODE 导入完成时本节点的 configEpoch 加一
+ * 5. 每个槽的 key 单独建索引, 用于 COUNTKEYSINSLOT / GETKEYSINSLOT 和迁移;
+ *    MIGRATE 把 key 编码成重建数据的命令(和全量同步的快照相同)同步发送给目标节点, 成功后删除本地的 key
+ * 注: 没有故障转移, 超过 cluster-node-timeout 没有收到消息的节点只标记为 fail?
+ */
+public class Cluster {
+    static final int CLUSTER_SLOTS = 16384;
+
+    static boolean cluster_enabled = false;
+    static long cluster_node_timeout = 15000;        // 毫秒
+    static String cluster_announce_ip = "127.0.0.1"; // 告诉其它节点的本节点地址
+    static boolean cluster_require_full_coverage = true;
+
+    // 集群中的节点
+    static class ClusterNode {
+        String name;                  // 节点ID, 40个十六进制字符
+        String ip;
+        int port;
+        long configEpoch;
+        BitSet slots = new BitSet(CLUSTER_SLOTS);
+        boolean handshake;            // MEET 之后还不知道对方真正的ID
+        long ctime = System.currentTimeMillis();
+        long pongReceived;            // 最后一次收到它的消息的时间
+        long pingSent;                // 最后一次给它发消息的时间
+
+        // 发往这个节点的连接
+        RedisServer.RedisClient link;
+        SocketChannel connecting;
+        long connectStart;
+
+        ClusterNode(String name, String ip, int port) {
+            this.name = name;
+            this.ip = ip;
+            this.port = port;
+        }
+
+        boolean isMyself() {
+            return this == myself;
+        }
+
+        String ip() {
+            return isMyself() ? cluster_announce_ip : ip;
+        }
+
+        int port() {
+            return isMyself() ? RedisServer.port : port;
+        }
+
+        boolean timedOut(long now) {
+            return !isMyself() && now - Math.max(pongReceived, ctime) > cluster_node_timeout;
+        }
+    }
+
+    static ClusterNode myself;
+    static Map<String, ClusterNode> nodes = new LinkedHashMap<>();
+    static long currentEpoch = 0;
+    static final ClusterNode[] slots = new ClusterNode[CLUSTER_SLOTS];
+    static final ClusterNode[] migrating_slots_to = new ClusterNode[CLUSTER_SLOTS];
+    static final ClusterNode[] importing_slots_from = new ClusterNode[CLUSTER_SLOTS];
+    private static int assignedSlots = 0;
+    // 被 FORGET 的节点在一段时间内不再通过 gossip 加回来
+    private static final Map<String, Long> blacklist = new HashMap<>();
+    private static final long BLACKLIST_TTL = 60000;
+
+    // 每个槽中的 key (只有 0 号数据库), 没有 key 的槽为 null
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Set<String>[] slotKeys = new Set[CLUSTER_SLOTS];
+
+    static long stats_messages_sent = 0;
+    static long stats_messages_received = 0;
+    private static long lastCronTime = 0;
+
+    // MIGRATE 的连接缓存, 连续迁移同一个槽时不用每个 key 重新连接
+    private static final long MIGRATE_SOCKET_TTL = 10000;
+    private static final Map<String, MigrateSocket> migrateSockets = new HashMap<>();
+
+    private static class MigrateSocket {
+        Socket socket;
+        InputStream in;  // 带缓冲, 读回复时不用每个字节一次系统调用
+        long lastUse;
+    }
+
+    // initServer 中调用, 每次启动生成新的节点ID
+    static void init() {
+        myself = new ClusterNode(RedisServer.genRunId(), cluster_announce_ip, RedisServer.port);
+        nodes.put(myself.name, myself);
+        Log.notice("No cluster configuration found, I'm " + myself.name);
+    }
+
+    // ============= 哈希槽 =============
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        // CRC16-CCITT (XMODEM), 多项式 0x1021
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    static int crc16(byte[] buf, int off, int len) {
+        int crc = 0;
+        for (int i = off; i < off + len; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ buf[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    /**
+     * key 所在的槽
+     * 有 {...} 并且花括号中不为空时只计算第一对花括号中的内容
+     */
+    static int keyHashSlot(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int s;
+        for (s = 0; s < bytes.length; s++) {
+            if (bytes[s] == '{') {
+                break;
+            }
+        }
+        if (s == bytes.length) {
+            return crc16(bytes, 0, bytes.length) & (CLUSTER_SLOTS - 1);
+        }
+        int e;
+        for (e = s + 1; e < bytes.length; e++) {
+            if (bytes[e] == '}') {
+                break;
+            }
+        }
+        if (e == bytes.length || e == s + 1) {
+            return crc16(bytes, 0, bytes.length) & (CLUSTER_SLOTS - 1);
+        }
+        return crc16(bytes, s + 1, e - s - 1) & (CLUSTER_SLOTS - 1);
+    }
+
+    private static void setSlot(int slot, ClusterNode node) {
+        ClusterNode old = slots[slot];
+        if (old == node) {
+            return;
+        }
+        if (old != null) {
+            old.slots.clear(slot);
+            assignedSlots--;
+        }
+        if (node != null) {
+            node.slots.set(slot);
+            assignedSlots++;
+        }
+        slots[slot] = node;
+    }
+
+    static boolean clusterStateOk() {
+        return !cluster_require_full_coverage || assignedSlots == CLUSTER_SLOTS;
+    }
+
+    // ============= 槽中的 key =============
+
+    // dbAdd / setKey 新建 key 时调用
+    static void slotKeyAdd(RedisServer.RedisDB db, String key) {
+        if (!cluster_enabled || db.id != 0) {
+            return;
+        }
+        int slot = keyHashSlot(key);
+        if (slotKeys[slot] == null) {
+            slotKeys[slot] = new HashSet<>();
+        }
+        slotKeys[slot].add(key);
+    }
+
+    // dbDelete 删除 key 时调用
+    static void slotKeyDel(RedisServer.RedisDB db, String key) {
+        if (!cluster_enabled || db.id != 0) {
+            return;
+        }
+        int slot = keyHashSlot(key);
+        Set<String> keys = slotKeys[slot];
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            slotKeys[slot] = null;
+        }
+    }
+
+    // emptyDb 时调用
+    static void slotKeysClear(RedisServer.RedisDB db) {
+        if (!cluster_enabled || db.id != 0) {
+            return;
+        }
+        for (int i = 0; i < CLUSTER_SLOTS; i++) {
+            slotKeys[i] = null;
+        }
+    }
+
+    static int countKeysInSlot(int slot) {
+        return slotKeys[slot] == null ? 0 : slotKeys[slot].size();
+    }
+
+    // ============= 命令路由 =============
+
+    /**
+     * 检查命令中的 key 是否由本节点处理 (processCommand 中调用)
+     * @return null 表示在本节点执行, 否则是重定向或者错误的回复
+     */
+    static Object getNodeByQuery(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        // ASKING 只对下一条命令有效
+        boolean asking = (redisClient.flags & RedisConstants.REDIS_ASKING) != 0;
+        if (!"asking".equalsIgnoreCase(redisRequest.command)) {
+            redisClient.flags &= ~RedisConstants.REDIS_ASKING;
+        }
+        // 主服务器发来的命令不重定向
+        if ((redisClient.flags & RedisConstants.REDIS_MASTER) != 0) {
+            return null;
+        }
+        RedisCommand redisCommand = RedisCommand.lookupCommand(redisRequest.command);
+        if (redisCommand == null || redisCommand.firstKey <= 0) {
+            return null;
+        }
+        int last = redisCommand.lastKeyIndex(redisRequest.args);
+        int slot = -1;
+        int keys = 0;
+        for (int i = redisCommand.firstKey - 1; i >= 0 && i <= last; i += redisCommand.keyStep) {
+            int keySlot = keyHashSlot(redisRequest.args.get(i));
+            if (slot == -1) {
+                slot = keySlot;
+            } else if (keySlot != slot) {
+                return new RedisServer.ErrorObject("CROSSSLOT Keys in request don't hash to the same slot");
+            }
+            keys++;
+        }
+        if (slot == -1) {
+            return null;
+        }
+        if (!clusterStateOk()) {
+            return new RedisServer.ErrorObject("CLUSTERDOWN The cluster is down");
+        }
+        ClusterNode owner = slots[slot];
+        if (owner == null) {
+            return new RedisServer.ErrorObject("CLUSTERDOWN Hash slot not served");
+        }
+        if (owner == myself) {
+            // 正在迁出: key 都已经迁走时让客户端去目标节点问一次, 只迁走一部分时稍后重试
+            if (migrating_slots_to[slot] != null) {
+                int missing = missingKeys(redisClient, redisCommand, redisRequest, last);
+                if (missing == keys) {
+                    ClusterNode target = migrating_slots_to[slot];
+                    return new RedisServer.ErrorObject("ASK " + slot + " " + target.ip() + ":" + target.port());
+                }
+                if (missing > 0) {
+                    return new RedisServer.ErrorObject("TRYAGAIN Multiple keys request during rehashing of slot");
+                }
+            }
+            return null;
+        }
+        // 正在迁入: 带着 ASKING 来的请求在本节点执行
+        if (importing_slots_from[slot] != null && asking) {
+            if (keys > 1 && missingKeys(redisClient, redisCommand, redisRequest, last) > 0) {
+                return new RedisServer.ErrorObject("TRYAGAIN Multiple keys request during rehashing of slot");
+            }
+            return null;
+        }
+        return new RedisServer.ErrorObject("MOVED " + slot + " " + owner.ip() + ":" + owner.port());
+    }
+
+    private static int missingKeys(RedisServer.RedisClient redisClient, RedisCommand redisCommand,
+                                   RedisServer.RedisRequest redisRequest, int last) {
+        int missing = 0;
+        for (int i = redisCommand.firstKey - 1; i >= 0 && i <= last; i += redisCommand.keyStep) {
+            String key = redisRequest.args.get(i);
+            if (redisClient.selectDB.dict.getRedisObject(key) == null || RedisServer.keyIsExpired(redisClient.selectDB, key)) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    // ASKING
+    public static Object asking(RedisServer.RedisClient redisClient) {
+        if (!cluster_enabled) {
+            return new RedisServer.ErrorObject("ERR This instance has cluster support disabled");
+        }
+        redisClient.flags |= RedisConstants.REDIS_ASKING;
+        return "OK";
+    }
+
+    // ============= CLUSTER 命令 =============
+
+    public static Object cluster(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        if (!cluster_enabled) {
+            return new RedisServer.ErrorObject("ERR This instance has cluster support disabled");
+        }
+        List<String> args = redisRequest.args;
+        if (args.isEmpty()) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'cluster' command");
+        }
+        String sub = args.get(0);
+        try {
+            if ("gossip".equalsIgnoreCase(sub)) {
+                processGossip(redisClient, args);
+                return RedisServer.NO_REPLY;
+            }
+            if ("info".equalsIgnoreCase(sub) && args.size() == 1) {
+                return new RedisServer.VerbatimObject("txt", clusterInfo());
+            }
+            if ("myid".equalsIgnoreCase(sub) && args.size() == 1) {
+                return myself.name;
+            }
+            if ("nodes".equalsIgnoreCase(sub) && args.size() == 1) {
+                return new RedisServer.VerbatimObject("txt", clusterNodes());
+            }
+            if ("slots".equalsIgnoreCase(sub) && args.size() == 1) {
+                return clusterSlots();
+            }
+            if ("keyslot".equalsIgnoreCase(sub) && args.size() == 2) {
+                return (long) keyHashSlot(args.get(1));
+            }
+            if ("countkeysinslot".equalsIgnoreCase(sub) && args.size() == 2) {
+                return (long) countKeysInSlot(parseSlot(args.get(1)));
+            }
+            if ("getkeysinslot".equalsIgnoreCase(sub) && args.size() == 3) {
+                int slot = parseSlot(args.get(1));
+                long count = Long.parseLong(args.get(2));
+                if (count < 0) {
+                    return new RedisServer.ErrorObject("ERR Invalid number of keys");
+                }
+                List<Object> keys = new ArrayList<>();
+                if (slotKeys[slot] != null) {
+                    for (String key : slotKeys[slot]) {
+                        if (keys.size() >= count) {
+                            break;
+                        }
+                        keys.add(key);
+                    }
+                }
+                return new RedisServer.ArrayObject(keys.toArray());
+            }
+            if (("addslots".equalsIgnoreCase(sub) || "delslots".equalsIgnoreCase(sub)) && args.size() >= 2) {
+                List<Integer> slotList = new ArrayList<>();
+                for (int i = 1; i < args.size(); i++) {
+                    slotList.add(parseSlot(args.get(i)));
+                }
+                return addOrDelSlots(slotList, "addslots".equalsIgnoreCase(sub));
+            }
+            if (("addslotsrange".equalsIgnoreCase(sub) || "delslotsrange".equalsIgnoreCase(sub))
+                    && args.size() >= 3 && args.size() % 2 == 1) {
+                List<Integer> slotList = new ArrayList<>();
+                for (int i = 1; i < args.size(); i += 2) {
+                    int start = parseSlot(args.get(i));
+                    int end = parseSlot(args.get(i + 1));
+                    if (start > end) {
+                        return new RedisServer.ErrorObject("ERR start slot number " + start + " is greater than end slot number " + end);
+                    }
+                    for (int slot = start; slot <= end; slot++) {
+                        slotList.add(slot);
+                    }
+                }
+                return addOrDelSlots(slotList, "addslotsrange".equalsIgnoreCase(sub));
+            }
+            if ("setslot".equalsIgnoreCase(sub) && args.size() >= 3) {
+                return setSlotCommand(args);
+            }
+            if ("meet".equalsIgnoreCase(sub) && args.size() == 3) {
+                String ip = args.get(1);
+                int port = Integer.parseInt(args.get(2));
+                if (findNodeByAddress(ip, port) == null) {
+                    ClusterNode node = new ClusterNode(RedisServer.genRunId(), ip, port);
+                    node.handshake = true;
+                    nodes.put(node.name, node);
+                    connectNode(node);
+                }
+                return "OK";
+            }
+            if ("forget".equalsIgnoreCase(sub) && args.size() == 2) {
+                ClusterNode node = nodes.get(args.get(1));
+                if (node == null) {
+                    return new RedisServer.ErrorObject("ERR Unknown node " + args.get(1));
+                }
+                if (node == myself) {
+                    return new RedisServer.ErrorObject("ERR I tried hard but I can't forget myself...");
+                }
+                blacklist.put(node.name, System.currentTimeMillis() + BLACKLIST_TTL);
+                delNode(node);
+                return "OK";
+            }
+        } catch (NumberFormatException e) {
+            return new RedisServer.ErrorObject("ERR value is not an integer or out of range");
+        } catch (IllegalArgumentException e) {
+            return new RedisServer.ErrorObject("ERR " + e.getMessage());
+        }
+        return new RedisServer.ErrorObject("ERR unknown subcommand '" + sub + "'. Try CLUSTER HELP.");
+    }
+
+    private static int parseSlot(String s) {
+        int slot = Integer.parseInt(s);
+        if (slot < 0 || slot >= CLUSTER_SLOTS) {
+            throw new IllegalArgumentException("Invalid or out of range slot");
+        }
+        return slot;
+    }
+
+    private static Object addOrDelSlots(List<Integer> slotList, boolean add) {
+        for (int slot : slotList) {
+            if (add && slots[slot] != null) {
+                return new RedisServer.ErrorObject("ERR Slot " + slot + " is already busy");
+            }
+            if (!add && slots[slot] == null) {
+                return new RedisServer.ErrorObject("ERR Slot " + slot + " is already unassigned");
+            }
+        }
+        for (int slot : slotList) {
+            setSlot(slot, add ? myself : null);
+            importing_slots_from[slot] = null;
+            migrating_slots_to[slot] = null;
+        }
+        return "OK";
+    }
+
+    // CLUSTER SETSLOT <slot> IMPORTING <node> | MIGRATING <node> | STABLE | NODE <node>
+    private static Object setSlotCommand(List<String> args) {
+        int slot = parseSlot(args.get(1));
+        String action = args.get(2);
+        if ("stable".equalsIgnoreCase(action) && args.size() == 3) {
+            importing_slots_from[slot] = null;
+            migrating_slots_to[slot] = null;
+            return "OK";
+        }
+        if (args.size() != 4) {
+            return new RedisServer.ErrorObject("ERR Invalid CLUSTER SETSLOT action or number of arguments. Try CLUSTER HELP");
+        }
+        ClusterNode node = nodes.get(args.get(3));
+        if (node == null) {
+            return new RedisServer.ErrorObject("ERR I don't know about node " + args.get(3));
+        }
+        if ("migrating".equalsIgnoreCase(action)) {
+            if (slots[slot] != myself) {
+                return new RedisServer.ErrorObject("ERR I'm not the owner of hash slot " + slot);
+            }
+            if (node == myself) {
+                return new RedisServer.ErrorObject("ERR I'm already the owner of hash slot " + slot);
+            }
+            migrating_slots_to[slot] = node;
+            return "OK";
+        }
+        if ("importing".equalsIgnoreCase(action)) {
+            if (slots[slot] == myself) {
+                return new RedisServer.ErrorObject("ERR I'm already the owner of hash slot " + slot);
+            }
+            importing_slots_from[slot] = node;
+            return "OK";
+        }
+        if ("node".equalsIgnoreCase(action)) {
+            if (slots[slot] == myself && node != myself && countKeysInSlot(slot) != 0) {
+                return new RedisServer.ErrorObject("ERR Can't assign hashslot " + slot
+                        + " to a different node while I still hold keys for this hash slot.");
+            }
+            if (node != myself) {
+                migrating_slots_to[slot] = null;
+            }
+            // 导入完成: 提高自己的 configEpoch, 这样其它节点收到 gossip 时会接受新的归属
+            if (node == myself && importing_slots_from[slot] != null) {
+                importing_slots_from[slot] = null;
+                myself.configEpoch = ++currentEpoch;
+                Log.notice("configEpoch updated after importing slot " + slot + ": " + myself.configEpoch);
+            }
+            setSlot(slot, node);
+            return "OK";
+        }
+        return new RedisServer.ErrorObject("ERR Invalid CLUSTER SETSLOT action or number of arguments. Try CLUSTER HELP");
+    }
+
+    private static String clusterInfo() {
+        int pfail = 0;
+        int size = 0;
+        long now = System.currentTimeMillis();
+        for (ClusterNode node : nodes.values()) {
+            if (!node.slots.isEmpty()) {
+                size++;
+                if (node.timedOut(now)) {
+                    pfail += node.slots.cardinality();
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("cluster_enabled:1\r\n");
+        sb.append("cluster_state:").append(clusterStateOk() ? "ok" : "fail").append("\r\n");
+        sb.append("cluster_slots_assigned:").append(assignedSlots).append("\r\n");
+        sb.append("cluster_slots_ok:").append(assignedSlots - pfail).append("\r\n");
+        sb.append("cluster_slots_pfail:").append(pfail).append("\r\n");
+        sb.append("cluster_slots_fail:0\r\n");
+        sb.append("cluster_known_nodes:").append(nodes.size()).append("\r\n");
+        sb.append("cluster_size:").append(size).append("\r\n");
+        sb.append("cluster_current_epoch:").append(currentEpoch).append("\r\n");
+        sb.append("cluster_my_epoch:").append(myself.configEpoch).append("\r\n");
+        sb.append("cluster_stats_messages_sent:").append(stats_messages_sent).append("\r\n");
+        sb.append("cluster_stats_messages_received:").append(stats_messages_received).append("\r\n");
+        return sb.toString();
+    }
+
+    // 每个节点一行: <id> <ip:port@cport> <flags> <master> <ping-sent> <pong-recv> <config-epoch> <link-state> <slot> ...
+    private static String clusterNodes() {
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (ClusterNode node : nodes.values()) {
+            sb.append(node.name).append(' ').append(node.ip()).append(':').append(node.port())
+                    .append('@').append(node.port()).append(' ');
+            if (node.isMyself()) {
+                sb.append("myself,");
+            }
+            sb.append("master");
+            if (node.handshake) {
+                sb.append(",handshake");
+            } else if (node.timedOut(now)) {
+                sb.append(",fail?");
+            }
+            sb.append(" - ").append(node.pingSent).append(' ').append(node.pongReceived).append(' ').append(node.configEpoch)
+                    .append(node.isMyself() || node.link != null ? " connected" : " disconnected");
+            String ranges = slotRanges(node.slots);
+            if (!ranges.isEmpty()) {
+                sb.append(' ').append(ranges.replace(',', ' '));
+            }
+            if (node.isMyself()) {
+                for (int slot = 0; slot < CLUSTER_SLOTS; slot++) {
+                    if (migrating_slots_to[slot] != null) {
+                        sb.append(" [").append(slot).append("->-").append(migrating_slots_to[slot].name).append(']');
+                    } else if (importing_slots_from[slot] != null) {
+                        sb.append(" [").append(slot).append("-<-").append(importing_slots_from[slot].name).append(']');
+                    }
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    // 每个连续的槽区间一项: [start, end, [ip, port, id]]
+    private static RedisServer.ArrayObject clusterSlots() {
+        List<Object> ranges = new ArrayList<>();
+        int start = -1;
+        for (int slot = 0; slot <= CLUSTER_SLOTS; slot++) {
+            ClusterNode node = slot < CLUSTER_SLOTS ? slots[slot] : null;
+            if (start != -1 && (slot == CLUSTER_SLOTS || node != slots[start])) {
+                ClusterNode owner = slots[start];
+                ranges.add(new RedisServer.ArrayObject((long) start, (long) (slot - 1),
+                        new RedisServer.ArrayObject(owner.ip(), (long) owner.port(), owner.name)));
+                start = -1;
+            }
+            if (start == -1 && node != null) {
+                start = slot;
+            }
+        }
+        return new RedisServer.ArrayObject(ranges.toArray());
+    }
+
+    // 槽的区间, 例如 0-5460,5462
+    static String slotRanges(BitSet bits) {
+        StringBuilder sb = new StringBuilder();
+        for (int start = bits.nextSetBit(0); start >= 0; ) {
+            int end = bits.nextClearBit(start) - 1;
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(start);
+            if (end > start) {
+                sb.append('-').append(end);
+            }
+            start = bits.nextSetBit(end + 1);
+        }
+        return sb.toString();
+    }
+
+    static BitSet parseSlotRanges(String s) {
+        BitSet bits = new BitSet(CLUSTER_SLOTS);
+        if ("-".equals(s)) {
+            return bits;
+        }
+        for (String range : s.split(",")) {
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                bits.set(parseSlot(range));
+            } else {
+                bits.set(parseSlot(range.substring(0, dash)), parseSlot(range.substring(dash + 1)) + 1);
+            }
+        }
+        return bits;
+    }
+
+    // ============= 节点之间的消息 =============
+
+    private static ClusterNode findNodeByAddress(String ip, int port) {
+        for (ClusterNode node : nodes.values()) {
+            if (node.ip().equals(ip) && node.port() == port) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static void delNode(ClusterNode node) {
+        for (int slot = 0; slot < CLUSTER_SLOTS; slot++) {
+            if (slots[slot] == node) {
+                setSlot(slot, null);
+            }
+            if (migrating_slots_to[slot] == node) {
+                migrating_slots_to[slot] = null;
+            }
+            if (importing_slots_from[slot] == node) {
+                importing_slots_from[slot] = null;
+            }
+        }
+        nodes.remove(node.name);
+        freeLink(node);
+    }
+
+    private static void freeLink(ClusterNode node) {
+        if (node.connecting != null) {
+            try {
+                node.connecting.close();
+            } catch (IOException ignored) {
+            }
+            node.connecting = null;
+        }
+        if (node.link != null) {
+            RedisServer.RedisClient link = node.link;
+            node.link = null;
+            RedisServer.freeClient(link);
+        }
+    }
+
+    /**
+     * CLUSTER GOSSIP <sender-id> <sender-port> <sender-epoch> <sender-slots> [<id> <ip> <port>] ...
+     * 发送者的地址取连接的对端地址
+     */
+    private static void processGossip(RedisServer.RedisClient redisClient, List<String> args) {
+        stats_messages_received++;
+        String senderName = args.get(1);
+        int senderPort = Integer.parseInt(args.get(2));
+        long senderEpoch = Long.parseLong(args.get(3));
+        BitSet claimed = parseSlotRanges(args.get(4));
+        String senderIp = redisClient.addr.substring(0, redisClient.addr.lastIndexOf(':'));
+        if (senderName.equals(myself.name) || blacklist.containsKey(senderName)) {
+            return;
+        }
+
+        ClusterNode sender = nodes.get(senderName);
+        if (sender == null) {
+            // MEET 之后第一次收到对方的消息, 把握手中的节点换成真正的ID
+            ClusterNode handshake = findNodeByAddress(senderIp, senderPort);
+            if (handshake != null && handshake.handshake) {
+                nodes.remove(handshake.name);
+                handshake.name = senderName;
+                handshake.handshake = false;
+                sender = handshake;
+            } else {
+                sender = new ClusterNode(senderName, senderIp, senderPort);
+            }
+            nodes.put(senderName, sender);
+            Log.notice("Node " + senderName + " (" + senderIp + ":" + senderPort + ") joined the cluster");
+        }
+        sender.ip = senderIp;
+        sender.port = senderPort;
+        sender.configEpoch = senderEpoch;
+        sender.pongReceived = System.currentTimeMillis();
+        if (senderEpoch > currentEpoch) {
+            currentEpoch = senderEpoch;
+        }
+        updateSlotsFromGossip(sender, claimed);
+
+        for (int i = 5; i + 2 < args.size(); i += 3) {
+            String name = args.get(i);
+            if (nodes.containsKey(name) || blacklist.containsKey(name)) {
+                continue;
+            }
+            String ip = args.get(i + 1);
+            int port = Integer.parseInt(args.get(i + 2));
+            ClusterNode node = findNodeByAddress(ip, port);
+            if (node != null && node.handshake) {
+                continue;
+            }
+            nodes.put(name, new ClusterNode(name, ip, port));
+            Log.notice("Node " + name + " (" + ip + ":" + port + ") learned from " + senderName);
+        }
+    }
+
+    /**
+     * 发送者声明的槽: 没有归属, 或者原来就是它的, 或者它的 configEpoch 更大时归它
+     * 以前属于它但是不再声明的槽变成没有归属
+     */
+    private static void updateSlotsFromGossip(ClusterNode sender, BitSet claimed) {
+        for (int slot = claimed.nextSetBit(0); slot >= 0; slot = claimed.nextSetBit(slot + 1)) {
+            ClusterNode owner = slots[slot];
+            if (owner == sender) {
+                continue;
+            }
+            // 正在导入的槽由 SETSLOT NODE 完成
+            if (owner == myself && importing_slots_from[slot] != null) {
+                continue;
+            }
+            if (owner == null || sender.configEpoch > owner.configEpoch) {
+                if (owner == myself) {
+                    Log.warning("Slot " + slot + " is now served by " + sender.name + " with a greater configEpoch");
+                    migrating_slots_to[slot] = null;
+                }
+                setSlot(slot, sender);
+            }
+        }
+        BitSet dropped = (BitSet) sender.slots.clone();
+        dropped.andNot(claimed);
+        for (int slot = dropped.nextSetBit(0); slot >= 0; slot = dropped.nextSetBit(slot + 1)) {
+            setSlot(slot, null);
+        }
+    }
+
+    private static byte[] gossipMessage() {
+        List<String> argv = new ArrayList<>();
+        argv.add("CLUSTER");
+        argv.add("GOSSIP");
+        argv.add(myself.name);
+        argv.add(String.valueOf(RedisServer.port));
+        argv.add(String.valueOf(myself.configEpoch));
+        String ranges = slotRanges(myself.slots);
+        argv.add(ranges.isEmpty() ? "-" : ranges);
+        for (ClusterNode node : nodes.values()) {
+            if (node.isMyself() || node.handshake) {
+                continue;
+            }
+            argv.add(node.name);
+            argv.add(node.ip);
+            argv.add(String.valueOf(node.port));
+        }
+        ReplyBuffer buf = new ReplyBuffer(256);
+        Replication.addCommand(buf, argv.toArray(new String[0]));
+        return buf.toByteArray();
+    }
+
+    private static void sendGossip(ClusterNode node) {
+        RedisServer.addReplyRaw(node.link, gossipMessage());
+        node.pingSent = System.currentTimeMillis();
+        stats_messages_sent++;
+    }
+
+    private static void connectNode(ClusterNode node) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(node.ip, node.port));
+            channel.register(RedisServer.selector, SelectionKey.OP_CONNECT, node);
+            node.connecting = channel;
+            node.connectStart = System.currentTimeMillis();
+        } catch (IOException e) {
+            Log.verbose("Unable to connect to node " + node.name + ": " + e.getMessage());
+        }
+    }
+
+    // 到其它节点的连接建立, 注册成普通客户端(对方不回复), 马上发送一次 gossip
+    static void handleConnect(SelectionKey key) {
+        ClusterNode node = (ClusterNode) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        node.connecting = null;
+        try {
+            channel.finishConnect();
+        } catch (IOException e) {
+            Log.verbose("Connection with node " + node.name + " failed: " + e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+        RedisServer.RedisClient client = new RedisServer.RedisClient();
+        client.channel = channel;
+        client.addr = node.ip + ":" + node.port;
+        client.flags = RedisConstants.REDIS_CLUSTER_LINK;
+        client.selectDB = RedisServer.redisDB[0];
+        client.lastinteraction = System.currentTimeMillis();
+        key.attach(ByteBuffer.allocate(1024));
+        key.interestOps(SelectionKey.OP_READ);
+        RedisServer.clientsMap.put(key, client);
+        RedisServer.clients.add(client);
+        node.link = client;
+        sendGossip(node);
+    }
+
+    // 连接断开 (closeClient 中调用)
+    static void handleLinkDisconnect(RedisServer.RedisClient client) {
+        if ((client.flags & RedisConstants.REDIS_CLUSTER_LINK) == 0) {
+            return;
+        }
+        for (ClusterNode node : nodes.values()) {
+            if (node.link == client) {
+                node.link = null;
+            }
+        }
+    }
+
+    // serverCron 中调用, 每秒执行一次
+    static void clusterCron() {
+        if (!cluster_enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastCronTime < 1000) {
+            return;
+        }
+        lastCronTime = now;
+
+        blacklist.values().removeIf(expire -> expire < now);
+        Iterator<Map.Entry<String, MigrateSocket>> sockets = migrateSockets.entrySet().iterator();
+        while (sockets.hasNext()) {
+            MigrateSocket ms = sockets.next().getValue();
+            if (now - ms.lastUse > MIGRATE_SOCKET_TTL) {
+                closeQuietly(ms.socket);
+                sockets.remove();
+            }
+        }
+
+        for (ClusterNode node : new ArrayList<>(nodes.values())) {
+            if (node.isMyself()) {
+                continue;
+            }
+            // MEET 的节点一直没有回应
+            if (node.handshake && now - node.ctime > cluster_node_timeout) {
+                Log.warning("Clusterbus handshake timeout: unable to join " + node.ip + ":" + node.port);
+                delNode(node);
+                continue;
+            }
+            if (node.connecting != null && now - node.connectStart > cluster_node_timeout) {
+                freeLink(node);
+            }
+            if (node.link == null && node.connecting == null) {
+                connectNode(node);
+            } else if (node.link != null) {
+                sendGossip(node);
+            }
+        }
+    }
+
+    // ============= MIGRATE =============
+
+    /**
+     * MIGRATE host port key|"" destination-db timeout [COPY] [REPLACE] [KEYS key ...]
+     * 同步执行: 每个 key 在目标节点上先 DEL 再用重建数据的命令写入, 每条命令前面加 ASKING;
+     * 目标节点全部执行成功之后(除非 COPY)删除本地的 key
+     */
+    public static Object migrate(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        if (args.size() < 5) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'migrate' command");
+        }
+        String host = args.get(0);
+        int port;
+        int dbid;
+        long timeout;
+        try {
+            port = Integer.parseInt(args.get(1));
+            dbid = Integer.parseInt(args.get(3));
+            timeout = Long.parseLong(args.get(4));
+        } catch (NumberFormatException e) {
+            return new RedisServer.ErrorObject("ERR value is not an integer or out of range");
+        }
+        if (timeout <= 0) {
+            timeout = 1000;
+        }
+        boolean copy = false;
+        boolean replace = false;
+        List<String> keys = new ArrayList<>();
+        for (int i = 5; i < args.size(); i++) {
+            String option = args.get(i);
+            if ("copy".equalsIgnoreCase(option)) {
+                copy = true;
+            } else if ("replace".equalsIgnoreCase(option)) {
+                replace = true;
+            } else if ("keys".equalsIgnoreCase(option)) {
+                if (!args.get(2).isEmpty()) {
+                    return new RedisServer.ErrorObject("ERR When using MIGRATE KEYS option, the key argument must be set to the empty string");
+                }
+                keys.addAll(args.subList(i + 1, args.size()));
+                break;
+            } else {
+                return new RedisServer.ErrorObject("ERR syntax error");
+            }
+        }
+        if (keys.isEmpty()) {
+            keys.add(args.get(2));
+        }
+
+        RedisServer.RedisDB db = redisClient.selectDB;
+        List<String> found = new ArrayList<>();
+        List<RedisServer.RedisObject> values = new ArrayList<>();
+        for (String key : keys) {
+            RedisServer.RedisObject o = RedisServer.lookUpKeyWrite(db, key);
+            if (o != null) {
+                found.add(key);
+                values.add(o);
+            }
+        }
+        if (found.isEmpty()) {
+            return "NOKEY";
+        }
+
+        String target = host + ":" + port;
+        try {
+            MigrateSocket socket = migrateSocket(host, port, timeout);
+            socket.socket.setSoTimeout((int) timeout);
+            // 没有 REPLACE 时目标节点上不能已经有这些 key
+            if (!replace) {
+                ReplyBuffer check = new ReplyBuffer(256);
+                Replication.addCommand(check, "SELECT", String.valueOf(dbid));
+                for (String key : found) {
+                    Replication.addCommand(check, "ASKING");
+                    Replication.addCommand(check, "EXISTS", key);
+                }
+                List<String> replies = sendAndRead(socket, check, 1 + found.size() * 2);
+                for (int i = 0; i < found.size(); i++) {
+                    if (!":0".equals(replies.get(2 + i * 2))) {
+                        return new RedisServer.ErrorObject("BUSYKEY Target key name already exists.");
+                    }
+                }
+            }
+            ReplyBuffer payload = new ReplyBuffer(1024);
+            int commands = 1;
+            Replication.addCommand(payload, "SELECT", String.valueOf(dbid));
+            for (int i = 0; i < found.size(); i++) {
+                String key = found.get(i);
+                Replication.addCommand(payload, "ASKING");
+                Replication.addCommand(payload, "DEL", key);
+                commands += 2;
+                commands += Replication.addObject(payload, key, values.get(i), true);
+                Long when = db.expires.getTTL(key);
+                if (when != null) {
+                    Replication.addCommand(payload, "ASKING");
+                    Replication.addCommand(payload, "PEXPIREAT", key, String.valueOf(when));
+                    commands += 2;
+                }
+            }
+            for (String reply : sendAndRead(socket, payload, commands)) {
+                if (reply.startsWith("-")) {
+                    return new RedisServer.ErrorObject("ERR Target instance replied with error: " + reply.substring(1));
+                }
+            }
+        } catch (IOException e) {
+            closeMigrateSocket(target);
+            return new RedisServer.ErrorObject("IOERR error or timeout reading to target instance");
+        }
+
+        if (!copy) {
+            for (String key : found) {
+                RedisServer.dbDelete(db, key, RedisServer.lazyfree_lazy_server_del);
+                RedisServer.signalModifiedKey(db, key);
+                Replication.propagate(db, "DEL", key);
+            }
+        }
+        return "OK";
+    }
+
+    private static MigrateSocket migrateSocket(String host, int port, long timeout) throws IOException {
+        String target = host + ":" + port;
+        MigrateSocket ms = migrateSockets.get(target);
+        if (ms == null) {
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), (int) timeout);
+            ms = new MigrateSocket();
+            ms.socket = socket;
+            ms.in = new BufferedInputStream(socket.getInputStream());
+            migrateSockets.put(target, ms);
+        }
+        ms.lastUse = System.currentTimeMillis();
+        return ms;
+    }
+
+    private static void closeMigrateSocket(String target) {
+        MigrateSocket ms = migrateSockets.remove(target);
+        if (ms != null) {
+            closeQuietly(ms.socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // 发送命令并读取回复, 这里用到的命令的回复都是单行的 (+OK / :n / -ERR)
+    private static List<String> sendAndRead(MigrateSocket socket, ReplyBuffer payload, int replies) throws IOException {
+        OutputStream out = socket.socket.getOutputStream();
+        out.write(payload.buf, 0, payload.len);
+        out.flush();
+        InputStream in = socket.in;
+        List<String> lines = new ArrayList<>(replies);
+        StringBuilder line = new StringBuilder();
+        while (lines.size() < replies) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("connection closed");
+            }
+            if (b == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                lines.add(line.toString());
+                line.setLength(0);
+            } else {
+                line.append((char) b);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,271 @@
+package com.test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 服务器配置
+ * 1. CONFIG GET pattern 读取配置
+ * 2. CONFIG SET name value 修改配置
+ * 3. 启动参数 --name value 在 initServer 之前加载配置
+ */
+public class Config {
+    // 配置项: 名称 -> 读写方法
+    static class ConfigEntry {
+        String name;
+        Supplier<String> getter;
+        Consumer<String> setter;
+    }
+
+    // 所有的配置项 (保持注册顺序, CONFIG GET * 按顺序返回)
+    static Map<String, ConfigEntry> configs = new LinkedHashMap<>();
+
+    // 内存淘汰策略名称, 下标就是 RedisServer 中的策略编号
+    static final String[] MAXMEMORY_POLICY_NAMES = {
+            "volatile-lru", "volatile-ttl", "volatile-random",
+            "allkeys-lru", "allkeys-random", "noeviction"
+    };
+
+    static {
+        register("port", () -> String.valueOf(RedisServer.port), v -> RedisServer.port = Integer.parseInt(v));
+        register("hz", () -> String.valueOf(RedisServer.hz), v -> {
+            int hz = Integer.parseInt(v);
+            if (hz < 1 || hz > 500) {
+                throw new IllegalArgumentException("argument must be between 1 and 500 inclusive");
+            }
+            RedisServer.hz = hz;
+        });
+        register("maxmemory", () -> String.valueOf(RedisServer.maxmemory), v -> RedisServer.maxmemory = Long.parseLong(v));
+        register("maxmemory-policy", () -> MAXMEMORY_POLICY_NAMES[RedisServer.maxmemory_policy], v -> {
+            for (int i = 0; i < MAXMEMORY_POLICY_NAMES.length; i++) {
+                if (MAXMEMORY_POLICY_NAMES[i].equalsIgnoreCase(v)) {
+                    RedisServer.maxmemory_policy = i;
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("argument(s) must be one of the following: " + String.join(", ", MAXMEMORY_POLICY_NAMES));
+        });
+        // 惰性删除: 淘汰 / 过期 / 覆盖写(服务器内部隐式删除) 时是否交给后台线程释放
+        registerBool("lazyfree-lazy-eviction", () -> RedisServer.lazyfree_lazy_eviction, v -> RedisServer.lazyfree_lazy_eviction = v);
+        registerBool("lazyfree-lazy-expire", () -> RedisServer.lazyfree_lazy_expire, v -> RedisServer.lazyfree_lazy_expire = v);
+        registerBool("lazyfree-lazy-server-del", () -> RedisServer.lazyfree_lazy_server_del, v -> RedisServer.lazyfree_lazy_server_del = v);
+        // 有序集合压缩列表编码的阈值
+        register("zset-max-ziplist-entries", () -> String.valueOf(ZSet.zset_max_ziplist_entries), v -> ZSet.zset_max_ziplist_entries = Integer.parseInt(v));
+        register("zset-max-ziplist-value", () -> String.valueOf(ZSet.zset_max_ziplist_value), v -> ZSet.zset_max_ziplist_value = Integer.parseInt(v));
+        // 哈希压缩列表编码的阈值
+        register("hash-max-ziplist-entries", () -> String.valueOf(Hash.hash_max_ziplist_entries), v -> Hash.hash_max_ziplist_entries = Integer.parseInt(v));
+        register("hash-max-ziplist-value", () -> String.valueOf(Hash.hash_max_ziplist_value), v -> Hash.hash_max_ziplist_value = Integer.parseInt(v));
+        // 集合整数集合编码的阈值
+        register("set-max-intset-entries", () -> String.valueOf(RedisSet.set_max_intset_entries), v -> RedisSet.set_max_intset_entries = Integer.parseInt(v));
+        // 主动过期是否使用按过期时间排序的索引
+        registerBool("active-expire-index", () -> RedisServer.active_expire_index, RedisServer::setActiveExpireIndex);
+        // 耗时超过这个毫秒数的事件记录到 LATENCY 中, 0 表示关闭
+        register("latency-monitor-threshold", () -> String.valueOf(LatencyMonitor.latency_monitor_threshold),
+                v -> LatencyMonitor.latency_monitor_threshold = Long.parseLong(v));
+        // 慢查询日志: 阈值(微秒) 和最多保存的条数
+        register("slowlog-log-slower-than", () -> String.valueOf(SlowLog.slowlog_log_slower_than),
+                v -> SlowLog.slowlog_log_slower_than = Long.parseLong(v));
+        register("slowlog-max-len", () -> String.valueOf(SlowLog.slowlog_max_len), v -> SlowLog.setMaxLen(Integer.parseInt(v)));
+        register("loglevel", () -> Log.LEVEL_NAMES[Log.verbosity], Log::setVerbosity);
+        // 空字符串表示标准输出, 修改之后由写日志的线程重新打开
+        register("logfile", () -> Log.logfile, v -> Log.logfile = v);
+        // 主从复制: 主服务器地址 "host port" 或者 "no one", 从服务器是否只读, 超时和 PING 的间隔(秒)
+        register("replicaof", Config::getReplicaof, Config::setReplicaof);
+        registerBool("replica-read-only", () -> Replication.repl_slave_ro, v -> Replication.repl_slave_ro = v);
+        register("repl-timeout", () -> String.valueOf(Replication.repl_timeout), v -> Replication.repl_timeout = Integer.parseInt(v));
+        // 复制积压缓冲区的大小(字节), 修改后清空已有的数据
+        register("repl-backlog-size", () -> String.valueOf(Replication.repl_backlog_size),
+                v -> Replication.resizeReplicationBacklog(Math.max(Integer.parseInt(v), Replication.REPL_BACKLOG_MIN_SIZE)));
+        register("repl-ping-replica-period", () -> String.valueOf(Replication.repl_ping_replica_period),
+                v -> Replication.repl_ping_replica_period = Integer.parseInt(v));
+        // 集群模式只能在启动参数中打开; 节点超时(毫秒), 告诉其它节点的本节点IP, 是否要求所有槽都有节点负责
+        registerBool("cluster-enabled", () -> Cluster.cluster_enabled, v -> {
+            if (RedisServer.selector != null) {
+                throw new IllegalArgumentException("can't change cluster-enabled at runtime");
+            }
+            Cluster.cluster_enabled = v;
+        });
+        register("cluster-node-timeout", () -> String.valueOf(Cluster.cluster_node_timeout),
+                v -> Cluster.cluster_node_timeout = Long.parseLong(v));
+        register("cluster-announce-ip", () -> Cluster.cluster_announce_ip, v -> Cluster.cluster_announce_ip = v);
+        registerBool("cluster-require-full-coverage", () -> Cluster.cluster_require_full_coverage,
+                v -> Cluster.cluster_require_full_coverage = v);
+        // 客户端缓存跟踪表的最大key数, 0 表示不限制
+        register("tracking-table-max-keys", () -> String.valueOf(Tracking.tracking_table_max_keys),
+                v -> Tracking.tracking_table_max_keys = Long.parseLong(v));
+        // 输出缓冲区限制, 格式: <class> <hard limit> <soft limit> <soft seconds> ...
+        register("client-output-buffer-limit", Config::getClientOutputBufferLimit, Config::setClientOutputBufferLimit);
+    }
+
+    private static String getReplicaof() {
+        return Replication.isReplica() ? Replication.masterhost + " " + Replication.masterport : "";
+    }
+
+    private static void setReplicaof(String value) {
+        String[] parts = value.trim().split("\\s+");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("argument must be '<host> <port>' or 'no one'");
+        }
+        if ("no".equalsIgnoreCase(parts[0]) && "one".equalsIgnoreCase(parts[1])) {
+            Replication.replicationUnsetMaster();
+        } else {
+            Replication.replicationSetMaster(parts[0], Integer.parseInt(parts[1]));
+        }
+    }
+
+    private static String getClientOutputBufferLimit() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < RedisServer.client_obuf_limits.length; i++) {
+            RedisServer.ClientBufferLimit limit = RedisServer.client_obuf_limits[i];
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(RedisServer.CLIENT_TYPE_NAMES[i]).append(' ').append(limit.hardLimitBytes)
+                    .append(' ').append(limit.softLimitBytes).append(' ').append(limit.softLimitSeconds);
+        }
+        return sb.toString();
+    }
+
+    // 可以只修改其中几类客户端, 全部解析成功之后才生效
+    private static void setClientOutputBufferLimit(String value) {
+        String[] parts = value.trim().split("\\s+");
+        if (parts.length % 4 != 0) {
+            throw new IllegalArgumentException("Wrong number of arguments in buffer limit configuration.");
+        }
+        RedisServer.ClientBufferLimit[] limits = RedisServer.client_obuf_limits.clone();
+        for (int i = 0; i < parts.length; i += 4) {
+            int type = -1;
+            for (int j = 0; j < RedisServer.CLIENT_TYPE_NAMES.length; j++) {
+                if (RedisServer.CLIENT_TYPE_NAMES[j].equalsIgnoreCase(parts[i])) {
+                    type = j;
+                }
+            }
+            // replica 是 slave 的别名
+            if ("replica".equalsIgnoreCase(parts[i])) {
+                type = RedisServer.CLIENT_TYPE_SLAVE;
+            }
+            if (type == -1) {
+                throw new IllegalArgumentException("Invalid client class specified in buffer limit configuration.");
+            }
+            long hard = memtoll(parts[i + 1]);
+            long soft = memtoll(parts[i + 2]);
+            long seconds = Long.parseLong(parts[i + 3]);
+            if (hard < 0 || soft < 0 || seconds < 0) {
+                throw new IllegalArgumentException("Negative number in buffer limit configuration.");
+            }
+            limits[type] = new RedisServer.ClientBufferLimit(hard, soft, seconds);
+        }
+        RedisServer.client_obuf_limits = limits;
+    }
+
+    /**
+     * 带单位的内存大小, 例如 32mb / 8m / 1gb / 100, 单位不区分大小写
+     * k/m/g 是 1000 的倍数, kb/mb/gb 是 1024 的倍数 (和Redis一样)
+     */
+    static long memtoll(String value) {
+        String v = value.toLowerCase();
+        long mul = 1;
+        int unitLen = 0;
+        if (v.endsWith("kb")) {
+            mul = 1024L; unitLen = 2;
+        } else if (v.endsWith("mb")) {
+            mul = 1024L * 1024; unitLen = 2;
+        } else if (v.endsWith("gb")) {
+            mul = 1024L * 1024 * 1024; unitLen = 2;
+        } else if (v.endsWith("k")) {
+            mul = 1000L; unitLen = 1;
+        } else if (v.endsWith("m")) {
+            mul = 1000L * 1000; unitLen = 1;
+        } else if (v.endsWith("g")) {
+            mul = 1000L * 1000 * 1000; unitLen = 1;
+        } else if (v.endsWith("b")) {
+            unitLen = 1;
+        }
+        return Long.parseLong(v.substring(0, v.length() - unitLen)) * mul;
+    }
+
+    static void register(String name, Supplier<String> getter, Consumer<String> setter) {
+        ConfigEntry entry = new ConfigEntry();
+        entry.name = name;
+        entry.getter = getter;
+        entry.setter = setter;
+        configs.put(name, entry);
+    }
+
+    // yes/no 类型的配置项
+    static void registerBool(String name, Supplier<Boolean> getter, Consumer<Boolean> setter) {
+        register(name, () -> getter.get() ? "yes" : "no", v -> {
+            if ("yes".equalsIgnoreCase(v)) {
+                setter.accept(true);
+            } else if ("no".equalsIgnoreCase(v)) {
+                setter.accept(false);
+            } else {
+                throw new IllegalArgumentException("argument must be 'yes' or 'no'");
+            }
+        });
+    }
+
+    /**
+     * 加载启动参数, 格式: --name value
+     */
+    public static void loadServerConfigFromArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Bad config argument: " + arg);
+            }
+            String error = configSet(arg.substring(2), args[++i]);
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+        }
+    }
+
+    /**
+     * 修改配置
+     * @return 修改成功返回null, 失败返回错误描述
+     */
+    static String configSet(String name, String value) {
+        ConfigEntry entry = configs.get(name.toLowerCase());
+        if (entry == null) {
+            return "Unknown option or number of arguments for CONFIG SET - '" + name + "'";
+        }
+        try {
+            entry.setter.accept(value);
+        } catch (RuntimeException e) {
+            return "Invalid argument '" + value + "' for CONFIG SET '" + name + "' - " + e.getMessage();
+        }
+        return null;
+    }
+
+    // CONFIG 命令
+    public static Object config(RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.isEmpty()) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'config' command");
+        }
+        String subCommand = redisRequest.args.get(0);
+        if ("get".equalsIgnoreCase(subCommand) && redisRequest.args.size() == 2) {
+            GlobPattern pattern = GlobPattern.compile(redisRequest.args.get(1).toLowerCase());
+            List<Object> reply = new ArrayList<>();
+            for (ConfigEntry entry : configs.values()) {
+                if (pattern.matches(entry.name)) {
+                    reply.add(entry.name);
+                    reply.add(entry.getter.get());
+                }
+            }
+            return new RedisServer.MapObject(reply.toArray());
+        }
+        if ("set".equalsIgnoreCase(subCommand) && redisRequest.args.size() == 3) {
+            String error = configSet(redisRequest.args.get(1), redisRequest.args.get(2));
+            if (error != null) {
+                return new RedisServer.ErrorObject(error);
+            }
+            return "OK";
+        }
+        return new RedisServer.ErrorObject("ERR unknown subcommand or wrong number of arguments for '" + subCommand + "'");
+    }
+}
@@ -0,0 +1,151 @@
+package com.test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 按过期时间排序的过期键索引 (expires 的二级索引)
+ * 1. 每个桶对应一个过期时间(毫秒), 桶内是在这一毫秒过期的所有key
+ * 2. 桶按过期时间有序存放, activeExpireCycle 只需要从最早的桶开始依次弹出到期的key
+ *    不再需要随机采样, 也不会在没有到期key的时候白白消耗时间
+ * 3. 大部分桶只有一个key, 这时直接存放String, 有多个key时才升级为HashSet
+ * 4. 已经到期但还没有回收的key数随增删维护, 时间前进时只累加新跨过的桶, INFO 不需要遍历积压的key
+ */
+public class ExpireIndex {
+    // 过期时间 -> String(单个key) 或 Set<String>(多个key)
+    private final TreeMap<Long, Object> buckets = new TreeMap<>();
+    // 索引中key的总数
+    private long size;
+    // 过期时间 <= dueTime 的key的数量, dueTime 只会向前推进
+    private long dueTime = Long.MIN_VALUE;
+    private long dueCount;
+
+    // 添加一个key, 调用方需要保证先移除这个key旧的过期时间
+    @SuppressWarnings("unchecked")
+    public void add(String key, long when) {
+        Object bucket = buckets.get(when);
+        if (bucket == null) {
+            buckets.put(when, key);
+        } else if (bucket instanceof String) {
+            if (bucket.equals(key)) {
+                return;
+            }
+            Set<String> set = new HashSet<>();
+            set.add((String) bucket);
+            set.add(key);
+            buckets.put(when, set);
+        } else if (!((Set<String>) bucket).add(key)) {
+            return;
+        }
+        size++;
+        if (when <= dueTime) {
+            dueCount++;
+        }
+    }
+
+    // 移除一个key, when 是这个key当前的过期时间
+    @SuppressWarnings("unchecked")
+    public void remove(String key, long when) {
+        Object bucket = buckets.get(when);
+        if (bucket == null) {
+            return;
+        }
+        if (bucket instanceof String) {
+            if (bucket.equals(key)) {
+                buckets.remove(when);
+                removed(when);
+            }
+            return;
+        }
+        Set<String> set = (Set<String>) bucket;
+        if (set.remove(key)) {
+            removed(when);
+            if (set.isEmpty()) {
+                buckets.remove(when);
+            }
+        }
+    }
+
+    private void removed(long when) {
+        size--;
+        if (when <= dueTime) {
+            dueCount--;
+        }
+    }
+
+    /**
+     * 把 dueTime 推进到 now, 只统计 (dueTime, now] 之间的桶
+     * 每个桶只在时间第一次跨过它时统计一次
+     */
+    @SuppressWarnings("unchecked")
+    private void advanceDue(long now) {
+        if (now <= dueTime) {
+            return;
+        }
+        for (Object bucket : buckets.subMap(dueTime, false, now, true).values()) {
+            dueCount += bucket instanceof String ? 1 : ((Set<String>) bucket).size();
+        }
+        dueTime = now;
+    }
+
+    /**
+     * 弹出最多 max 个已经到期(过期时间 <= now)的key
+     * 弹出的key已经从索引中移除, 但还在 expires 中, 由调用方负责真正删除
+     * @return 弹出的key的数量
+     */
+    @SuppressWarnings("unchecked")
+    public int pollDue(long now, int max, List<String> out) {
+        // 弹出的key过期时间都 <= now, 推进之后都计入了 dueCount
+        advanceDue(now);
+        int polled = 0;
+        while (polled < max && !buckets.isEmpty()) {
+            Map.Entry<Long, Object> first = buckets.firstEntry();
+            if (first.getKey() > now) {
+                break;
+            }
+            Object bucket = first.getValue();
+            if (bucket instanceof String) {
+                out.add((String) bucket);
+                buckets.pollFirstEntry();
+                polled++;
+                removed(first.getKey());
+                continue;
+            }
+            // 一个桶里有多个key时按批次弹出, 保证每次调用的工作量有上限
+            Set<String> set = (Set<String>) bucket;
+            Iterator<String> iterator = set.iterator();
+            while (polled < max && iterator.hasNext()) {
+                out.add(iterator.next());
+                iterator.remove();
+                polled++;
+                removed(first.getKey());
+            }
+            if (set.isEmpty()) {
+                buckets.pollFirstEntry();
+            }
+        }
+        return polled;
+    }
+
+    /**
+     * 已经到期但还没有被回收的key的数量
+     * now 比之前的调用还早时(时钟回拨)返回按之前的时间统计的数量
+     */
+    public long countDue(long now) {
+        advanceDue(now);
+        return dueCount;
+    }
+
+    // 最早的过期时间, 索引为空时返回-1
+    public long nextExpireTime() {
+        return buckets.isEmpty() ? -1 : buckets.firstKey();
+    }
+
+    public long size() {
+        return size;
+    }
+}
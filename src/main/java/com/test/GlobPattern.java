@@ -0,0 +1,225 @@
+package com.test;
+
+import java.util.Arrays;
+
+/**
+ * 编译后的 glob 模式
+ * 1. 支持和Redis一样的语法: * ? [abc] [^abc] [a-z] 以及 \ 转义
+ * 2. 模式只编译一次(订阅时 / KEYS 开始遍历之前), 匹配时不再解析模式字符串, 也不需要动态规划的二维数组
+ * 3. 匹配使用回溯到最近一个 * 的贪心算法, 只需要常数的额外空间, 匹配过程不分配内存
+ * 4. literalPrefix 是模式开头的固定前缀, 用来在前缀树中索引模式
+ * 5. 常见的模式走快速路径: "*" 直接匹配, 没有通配符时直接比较字符串,
+ *    "prefix*suffix" 只比较开头和结尾; 其他模式先检查固定前缀和固定后缀, 不符合的不进入回溯
+ */
+public class GlobPattern {
+    // 每个位置的类型
+    private static final byte LITERAL = 0; // 普通字符
+    private static final byte ANY = 1;     // ?
+    private static final byte STAR = 2;   // *
+    private static final byte CLASS = 3;  // [...]
+
+    // 匹配方式
+    private static final byte MATCH_ALL = 0;     // 只有 *
+    private static final byte MATCH_EXACT = 1;   // 没有通配符
+    private static final byte MATCH_AFFIX = 2;   // 固定前缀 + 一个 * + 固定后缀
+    private static final byte MATCH_GENERAL = 3; // 其他情况
+
+    final String pattern;
+    private final byte[] kinds;
+    private final char[] chars;
+    // 字符集合: 每个集合是若干个 [from, to] 区间
+    private final char[][] classes;
+    private final boolean[] negated;
+    private final int length;
+    private final String literalPrefix;
+    // 最后一个 * 之后全部是普通字符时的固定后缀, 否则为空串
+    private final String literalSuffix;
+    private final byte matchKind;
+
+    private GlobPattern(String pattern) {
+        this.pattern = pattern;
+        int n = pattern.length();
+        byte[] kinds = new byte[n];
+        char[] chars = new char[n];
+        char[][] classes = new char[n][];
+        boolean[] negated = new boolean[n];
+        int len = 0;
+        // 遇到第一个通配符之后前缀就结束了
+        boolean prefixDone = false;
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                // 连续的 * 合并成一个
+                if (len == 0 || kinds[len - 1] != STAR) {
+                    kinds[len++] = STAR;
+                }
+            } else if (c == '?') {
+                kinds[len++] = ANY;
+            } else if (c == '[') {
+                int end = parseClass(pattern, i + 1, len, classes, negated);
+                kinds[len++] = CLASS;
+                i = end;
+            } else {
+                if (c == '\\' && i + 1 < n) {
+                    c = pattern.charAt(++i);
+                }
+                kinds[len] = LITERAL;
+                chars[len++] = c;
+                if (!prefixDone) {
+                    prefix.append(c);
+                }
+                continue;
+            }
+            prefixDone = true;
+        }
+        this.kinds = kinds;
+        this.chars = chars;
+        this.classes = classes;
+        this.negated = negated;
+        this.length = len;
+        this.literalPrefix = prefix.toString();
+        this.literalSuffix = literalSuffix(kinds, chars, len);
+        this.matchKind = matchKind(kinds, len);
+    }
+
+    private static String literalSuffix(byte[] kinds, char[] chars, int len) {
+        int start = len;
+        while (start > 0 && kinds[start - 1] == LITERAL) {
+            start--;
+        }
+        // 没有 * 的模式整体都是固定长度, 由精确匹配或者回溯处理
+        if (start == 0 || kinds[start - 1] != STAR) {
+            return "";
+        }
+        return new String(chars, start, len - start);
+    }
+
+    private static byte matchKind(byte[] kinds, int len) {
+        int stars = 0;
+        for (int i = 0; i < len; i++) {
+            if (kinds[i] == STAR) {
+                stars++;
+            } else if (kinds[i] != LITERAL) {
+                return MATCH_GENERAL;
+            }
+        }
+        if (stars == 0) {
+            return MATCH_EXACT;
+        }
+        if (stars > 1) {
+            return MATCH_GENERAL;
+        }
+        return len == 1 ? MATCH_ALL : MATCH_AFFIX;
+    }
+
+    /**
+     * 解析 [...] 中的字符集合, start 是 '[' 后面的位置
+     * @return ']' 的位置, 没有 ']' 时返回模式的最后一个位置
+     */
+    private static int parseClass(String pattern, int start, int slot, char[][] classes, boolean[] negated) {
+        int n = pattern.length();
+        int i = start;
+        if (i < n && pattern.charAt(i) == '^') {
+            negated[slot] = true;
+            i++;
+        }
+        char[] ranges = new char[Math.max(2, (n - i) * 2)];
+        int count = 0;
+        for (; i < n && pattern.charAt(i) != ']'; i++) {
+            char from = pattern.charAt(i);
+            if (from == '\\' && i + 1 < n) {
+                from = pattern.charAt(++i);
+            }
+            char to = from;
+            if (i + 2 < n && pattern.charAt(i + 1) == '-' && pattern.charAt(i + 2) != ']') {
+                to = pattern.charAt(i + 2);
+                i += 2;
+                if (from > to) {
+                    char t = from;
+                    from = to;
+                    to = t;
+                }
+            }
+            ranges[count++] = from;
+            ranges[count++] = to;
+        }
+        classes[slot] = Arrays.copyOf(ranges, count);
+        return Math.min(i, n - 1);
+    }
+
+    public static GlobPattern compile(String pattern) {
+        return new GlobPattern(pattern);
+    }
+
+    // 模式开头的固定前缀(第一个通配符之前的部分)
+    public String literalPrefix() {
+        return literalPrefix;
+    }
+
+    private boolean matchOne(int p, char c) {
+        switch (kinds[p]) {
+            case LITERAL:
+                return chars[p] == c;
+            case ANY:
+                return true;
+            case CLASS:
+                char[] ranges = classes[p];
+                boolean in = false;
+                for (int i = 0; i < ranges.length; i += 2) {
+                    if (c >= ranges[i] && c <= ranges[i + 1]) {
+                        in = true;
+                        break;
+                    }
+                }
+                return in != negated[p];
+            default:
+                return false;
+        }
+    }
+
+    public boolean matches(String s) {
+        switch (matchKind) {
+            case MATCH_ALL:
+                return true;
+            case MATCH_EXACT:
+                return literalPrefix.equals(s);
+            case MATCH_AFFIX:
+                return s.length() >= literalPrefix.length() + literalSuffix.length()
+                        && s.startsWith(literalPrefix) && s.endsWith(literalSuffix);
+            default:
+                if (!s.startsWith(literalPrefix) || !s.endsWith(literalSuffix)) {
+                    return false;
+                }
+                return backtrackingMatch(s);
+        }
+    }
+
+    private boolean backtrackingMatch(String s) {
+        int n = s.length();
+        int si = 0;
+        int p = 0;
+        // 最近一个 * 的位置, 以及它当前匹配到的字符串位置
+        int starP = -1;
+        int starS = 0;
+        while (si < n) {
+            if (p < length && kinds[p] == STAR) {
+                starP = p++;
+                starS = si;
+            } else if (p < length && matchOne(p, s.charAt(si))) {
+                si++;
+                p++;
+            } else if (starP != -1) {
+                // 匹配失败, 让最近的 * 多吃掉一个字符再试
+                p = starP + 1;
+                si = ++starS;
+            } else {
+                return false;
+            }
+        }
+        while (p < length && kinds[p] == STAR) {
+            p++;
+        }
+        return p == length;
+    }
+}
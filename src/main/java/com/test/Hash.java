@@ -0,0 +1,315 @@
+package com.test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Hashtable;
+import java.util.Map;
+
+/**
+ * 哈希
+ * 1. 小哈希使用压缩列表编码: field 和 value 相邻存放在同一块字节数组中
+ *    一个对象的所有字段只占用一个key, 比把每个字段拆成一个顶层key省掉了大量的字典节点和对象头
+ * 2. 字段数超过 hash-max-ziplist-entries 或 field/value 长度超过 hash-max-ziplist-value 时
+ *    转换为字典编码(项目中的 Dict)
+ */
+public class Hash {
+    // 压缩列表编码的阈值
+    static int hash_max_ziplist_entries = 512;
+    static int hash_max_ziplist_value = 64;
+
+    private static final String WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+
+    static RedisServer.RedisObject createHashObject() {
+        RedisServer.RedisObject redisObject = new RedisServer.RedisObject(new ZipList());
+        redisObject.type = RedisConstants.REDIS_HASH;
+        redisObject.encoding = RedisConstants.REDIS_ENCODING_ZIPLIST;
+        return redisObject;
+    }
+
+    // 压缩列表编码转换为字典编码
+    static void hashTypeConvert(RedisServer.RedisObject o) {
+        ZipList zl = (ZipList) o.value;
+        RedisServer.Dict<String> dict = new RedisServer.Dict<>();
+        for (int pos = zl.head(); pos != -1; ) {
+            String field = zl.get(pos);
+            pos = zl.next(pos);
+            dict.set(field, zl.get(pos));
+            pos = zl.next(pos);
+        }
+        o.value = dict;
+        o.encoding = RedisConstants.REDIS_ENCODING_HT;
+    }
+
+    // 写入前检查长度, 超过阈值的 field/value 会让压缩列表退化, 提前转换为字典
+    static void hashTypeTryConversion(RedisServer.RedisObject o, RedisServer.RedisRequest redisRequest, int start) {
+        if (o.encoding != RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            return;
+        }
+        for (int i = start; i < redisRequest.args.size(); i++) {
+            if (redisRequest.args.get(i).getBytes(StandardCharsets.UTF_8).length > hash_max_ziplist_value) {
+                hashTypeConvert(o);
+                return;
+            }
+        }
+    }
+
+    static long hashTypeLength(RedisServer.RedisObject o) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            return ((ZipList) o.value).size() / 2;
+        }
+        return ((RedisServer.Dict) o.value).getDictSize();
+    }
+
+    // 查找 field 所在 entry 的偏移量, 不存在返回-1
+    private static int zipListFindField(ZipList zl, String field) {
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        for (int pos = zl.head(); pos != -1; pos = zl.next(zl.next(pos))) {
+            if (zl.equalsAt(pos, bytes)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    // 获取 field 的值, 不存在返回null
+    @SuppressWarnings("unchecked")
+    static String hashTypeGetValue(RedisServer.RedisObject o, String field) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) o.value;
+            int pos = zipListFindField(zl, field);
+            return pos == -1 ? null : zl.get(zl.next(pos));
+        }
+        return ((RedisServer.Dict<String>) o.value).get(field);
+    }
+
+    /**
+     * 设置 field 的值
+     * @return field 是新增的返回true, 更新已有 field 返回false
+     */
+    @SuppressWarnings("unchecked")
+    static boolean hashTypeSet(RedisServer.RedisObject o, String field, String value) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) o.value;
+            int pos = zipListFindField(zl, field);
+            boolean update = pos != -1;
+            if (update) {
+                // 删除旧值, 在原位置插入新值
+                int valuePos = zl.next(pos);
+                int nextPos = zl.deleteAt(valuePos);
+                zl.insertAt(nextPos, value);
+            } else {
+                zl.insertAt(-1, field);
+                zl.insertAt(-1, value);
+            }
+            if (zl.size() / 2 > hash_max_ziplist_entries) {
+                hashTypeConvert(o);
+            }
+            return !update;
+        }
+        RedisServer.Dict<String> dict = (RedisServer.Dict<String>) o.value;
+        boolean update = dict.get(field) != null;
+        dict.set(field, value);
+        return !update;
+    }
+
+    // 删除 field, 返回是否存在
+    @SuppressWarnings("unchecked")
+    static boolean hashTypeDelete(RedisServer.RedisObject o, String field) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) o.value;
+            int pos = zipListFindField(zl, field);
+            if (pos == -1) {
+                return false;
+            }
+            zl.deleteAt(pos);
+            zl.deleteAt(pos);
+            return true;
+        }
+        RedisServer.Dict<String> dict = (RedisServer.Dict<String>) o.value;
+        if (dict.get(field) == null) {
+            return false;
+        }
+        dict.remove(field);
+        return true;
+    }
+
+    // ============= 命令 =============
+
+    private static RedisServer.RedisObject checkType(RedisServer.RedisObject o) {
+        if (o != null && o.type != RedisConstants.REDIS_HASH) {
+            throw new IllegalStateException(WRONGTYPE);
+        }
+        return o;
+    }
+
+    // 写操作查找哈希对象, 不存在时创建
+    private static RedisServer.RedisObject lookupOrCreate(RedisServer.RedisDB db, String key) {
+        RedisServer.RedisObject o = checkType(RedisServer.lookUpKeyWrite(db, key));
+        if (o == null) {
+            o = createHashObject();
+            RedisServer.dbAdd(db, key, o);
+        }
+        return o;
+    }
+
+    // HSET key field value [field value ...]
+    public static Object hset(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() < 3 || redisRequest.args.size() % 2 != 1) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'hset' command");
+        }
+        String key = redisRequest.args.get(0);
+        RedisServer.RedisObject o;
+        try {
+            o = lookupOrCreate(db, key);
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        hashTypeTryConversion(o, redisRequest, 1);
+        long created = 0;
+        for (int i = 1; i < redisRequest.args.size(); i += 2) {
+            if (hashTypeSet(o, redisRequest.args.get(i), redisRequest.args.get(i + 1))) {
+                created++;
+            }
+        }
+        RedisServer.signalModifiedKey(db, key);
+        return created;
+    }
+
+    // HGET key field
+    public static Object hget(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        try {
+            RedisServer.RedisObject o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+            return o == null ? null : hashTypeGetValue(o, redisRequest.args.get(1));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+    }
+
+    // HMGET key field [field ...]
+    public static Object hmget(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        ReplyBuffer reply = new ReplyBuffer();
+        reply.addArrayLen(redisRequest.args.size() - 1);
+        for (int i = 1; i < redisRequest.args.size(); i++) {
+            reply.addBulk(o == null ? null : hashTypeGetValue(o, redisRequest.args.get(i)));
+        }
+        return reply.toByteArray();
+    }
+
+    // HDEL key field [field ...]
+    public static Object hdel(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        String key = redisRequest.args.get(0);
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyWrite(db, key));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (o == null) {
+            return 0L;
+        }
+        long deleted = 0;
+        for (int i = 1; i < redisRequest.args.size(); i++) {
+            if (hashTypeDelete(o, redisRequest.args.get(i))) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            if (hashTypeLength(o) == 0) {
+                RedisServer.dbDelete(db, key, false);
+            }
+            RedisServer.signalModifiedKey(db, key);
+        }
+        return deleted;
+    }
+
+    // HLEN key
+    public static Object hlen(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        try {
+            RedisServer.RedisObject o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+            return o == null ? 0L : hashTypeLength(o);
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+    }
+
+    // HEXISTS key field
+    public static Object hexists(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        try {
+            RedisServer.RedisObject o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+            return o != null && hashTypeGetValue(o, redisRequest.args.get(1)) != null ? 1L : 0L;
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+    }
+
+    // HGETALL key, 边遍历边编码
+    @SuppressWarnings("unchecked")
+    public static Object hgetall(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        ReplyBuffer reply = new ReplyBuffer();
+        if (o == null) {
+            return reply.addMapLen(0).toByteArray();
+        }
+        reply.addMapLen(hashTypeLength(o));
+        if (o.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) o.value;
+            for (int pos = zl.head(); pos != -1; pos = zl.next(pos)) {
+                reply.addBulk(zl.get(pos));
+            }
+        } else {
+            for (Hashtable<String, String> table : ((RedisServer.Dict<String>) o.value).ht) {
+                for (Map.Entry<String, String> entry : table.entrySet()) {
+                    reply.addBulk(entry.getKey());
+                    reply.addBulk(entry.getValue());
+                }
+            }
+        }
+        return reply.toByteArray();
+    }
+
+    // HINCRBY key field increment
+    public static Object hincrby(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        long incr;
+        try {
+            incr = Long.parseLong(redisRequest.args.get(2));
+        } catch (NumberFormatException e) {
+            return new RedisServer.ErrorObject("ERR value is not an integer or out of range");
+        }
+        String key = redisRequest.args.get(0);
+        RedisServer.RedisObject o;
+        try {
+            o = lookupOrCreate(db, key);
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        String field = redisRequest.args.get(1);
+        String current = hashTypeGetValue(o, field);
+        long value = 0;
+        if (current != null) {
+            try {
+                value = Long.parseLong(current);
+            } catch (NumberFormatException e) {
+                return new RedisServer.ErrorObject("ERR hash value is not an integer");
+            }
+        }
+        long result = value + incr;
+        // 同号相加结果变号说明溢出
+        if (((value ^ result) & (incr ^ result)) < 0) {
+            return new RedisServer.ErrorObject("ERR increment or decrement would overflow");
+        }
+        hashTypeTryConversion(o, redisRequest, 1);
+        hashTypeSet(o, field, Long.toString(result));
+        RedisServer.signalModifiedKey(db, key);
+        return result;
+    }
+}
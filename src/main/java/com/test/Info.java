@@ -0,0 +1,358 @@
+package com.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * INFO 命令
+ * 1. 每次调用都按当前状态生成, 不再返回固定的字符串
+ * 2. INFO [section ...]: 没有参数(或 default)返回默认的几个部分, all / everything 额外包括
+ *    commandstats 和 latencystats, 也可以指定部分的名称
+ */
+public class Info {
+    private static final List<String> DEFAULT_SECTIONS = Arrays.asList(
+            "server", "clients", "memory", "persistence", "stats", "replication",
+            "cpu", "pubsub", "lazyfree", "expire", "cluster", "keyspace");
+    private static final List<String> ALL_SECTIONS;
+
+    static {
+        ALL_SECTIONS = new ArrayList<>(DEFAULT_SECTIONS);
+        ALL_SECTIONS.add("commandstats");
+        ALL_SECTIONS.add("latencystats");
+    }
+
+    public static Object info(RedisServer.RedisRequest redisRequest) {
+        Set<String> sections = new HashSet<>();
+        if (redisRequest.args.isEmpty()) {
+            sections.addAll(DEFAULT_SECTIONS);
+        }
+        for (String arg : redisRequest.args) {
+            String name = arg.toLowerCase();
+            if ("default".equals(name)) {
+                sections.addAll(DEFAULT_SECTIONS);
+            } else if ("all".equals(name) || "everything".equals(name)) {
+                sections.addAll(ALL_SECTIONS);
+            } else {
+                sections.add(name);
+            }
+        }
+        return new RedisServer.VerbatimObject("txt", genRedisInfoString(sections));
+    }
+
+    static String genRedisInfoString(Set<String> sections) {
+        StringBuilder info = new StringBuilder();
+        // 按固定的顺序输出
+        for (String section : ALL_SECTIONS) {
+            if (!sections.contains(section)) {
+                continue;
+            }
+            if (info.length() > 0) {
+                info.append("\r\n");
+            }
+            switch (section) {
+                case "server": server(info); break;
+                case "clients": clients(info); break;
+                case "memory": memory(info); break;
+                case "persistence": persistence(info); break;
+                case "stats": stats(info); break;
+                case "replication": replication(info); break;
+                case "cpu": cpu(info); break;
+                case "pubsub": pubsub(info); break;
+                case "lazyfree": lazyfree(info); break;
+                case "expire": expire(info); break;
+                case "cluster": cluster(info); break;
+                case "keyspace": keyspace(info); break;
+                case "commandstats": commandstats(info); break;
+                case "latencystats": latencystats(info); break;
+                default: break;
+            }
+        }
+        return info.toString();
+    }
+
+    private static void field(StringBuilder info, String name, Object value) {
+        info.append(name).append(':').append(value).append("\r\n");
+    }
+
+    private static void server(StringBuilder info) {
+        long uptime = (System.currentTimeMillis() - RedisServer.stat_starttime) / 1000;
+        info.append("# Server\r\n");
+        field(info, "redis_version", "7.0.0");
+        field(info, "redis_mode", Cluster.cluster_enabled ? "cluster" : "standalone");
+        field(info, "os", System.getProperty("os.name") + " " + System.getProperty("os.version") + " " + System.getProperty("os.arch"));
+        field(info, "arch_bits", System.getProperty("sun.arch.data.model", "64"));
+        field(info, "multiplexing_api", "java.nio");
+        field(info, "java_version", System.getProperty("java.version"));
+        field(info, "process_id", processId());
+        field(info, "run_id", RedisServer.run_id);
+        field(info, "tcp_port", RedisServer.port);
+        field(info, "uptime_in_seconds", uptime);
+        field(info, "uptime_in_days", uptime / 86400);
+        field(info, "hz", RedisServer.hz);
+    }
+
+    // RuntimeMXBean 的名字是 pid@hostname
+    static String processId() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        return at > 0 ? name.substring(0, at) : name;
+    }
+
+    private static void clients(StringBuilder info) {
+        int blocked = 0;
+        int pubsub = 0;
+        int readPaused = 0;
+        long pendingReplyBytes = 0;
+        long maxInputBuffer = 0;
+        for (RedisServer.RedisClient client : RedisServer.clients) {
+            if ((client.flags & RedisConstants.REDIS_BLOCKED) != 0) {
+                blocked++;
+            }
+            if (RedisServer.getClientType(client) == RedisServer.CLIENT_TYPE_PUBSUB) {
+                pubsub++;
+            }
+            if (client.readPaused) {
+                readPaused++;
+            }
+            pendingReplyBytes += client.replyBytes;
+            maxInputBuffer = Math.max(maxInputBuffer, client.queryBuf.length);
+        }
+        info.append("# Clients\r\n");
+        field(info, "connected_clients", RedisServer.clients.size());
+        field(info, "client_recent_max_input_buffer", maxInputBuffer);
+        field(info, "blocked_clients", blocked);
+        field(info, "pubsub_clients", pubsub);
+        field(info, "client_output_pending_bytes", pendingReplyBytes);
+        field(info, "client_read_paused", readPaused);
+        field(info, "tracking_clients", Tracking.trackingClients.size());
+    }
+
+    private static void memory(StringBuilder info) {
+        long used = RedisServer.usedHeapMemory();
+        long peak = Math.max(RedisServer.stat_peak_memory, used);
+        info.append("# Memory\r\n");
+        field(info, "used_memory", used);
+        field(info, "used_memory_human", bytesToHuman(used));
+        field(info, "used_memory_peak", peak);
+        field(info, "used_memory_peak_human", bytesToHuman(peak));
+        field(info, "used_memory_peak_perc", String.format("%.2f%%", peak == 0 ? 0 : used * 100.0 / peak));
+        field(info, "total_system_memory", Runtime.getRuntime().maxMemory());
+        // maxmemory 在这里按对象的数量计算 (见 RedisServer.getUsedMemory)
+        field(info, "maxmemory", RedisServer.maxmemory);
+        field(info, "maxmemory_used", RedisServer.getUsedMemory());
+        field(info, "maxmemory_policy", Config.MAXMEMORY_POLICY_NAMES[RedisServer.maxmemory_policy]);
+        field(info, "mem_allocator", "jvm");
+    }
+
+    static String bytesToHuman(long n) {
+        if (n < 1024) {
+            return n + "B";
+        }
+        if (n < 1024L * 1024) {
+            return String.format("%.2fK", n / 1024.0);
+        }
+        if (n < 1024L * 1024 * 1024) {
+            return String.format("%.2fM", n / (1024.0 * 1024));
+        }
+        return String.format("%.2fG", n / (1024.0 * 1024 * 1024));
+    }
+
+    // 没有持久化
+    private static void persistence(StringBuilder info) {
+        info.append("# Persistence\r\n");
+        field(info, "loading", 0);
+        field(info, "rdb_changes_since_last_save", 0);
+        field(info, "rdb_bgsave_in_progress", 0);
+        field(info, "aof_enabled", 0);
+    }
+
+    private static void stats(StringBuilder info) {
+        LatencyHistogram eventloop = RedisServer.eventloop_latency;
+        info.append("# Stats\r\n");
+        field(info, "total_connections_received", RedisServer.stat_numconnections);
+        field(info, "total_commands_processed", RedisServer.stat_numcommands);
+        field(info, "instantaneous_ops_per_sec", RedisServer.getInstantaneousOpsPerSec());
+        field(info, "rejected_connections", 0);
+        field(info, "evicted_keys", RedisServer.stat_evictedkeys);
+        field(info, "keyspace_hits", RedisServer.stat_keyspace_hits);
+        field(info, "keyspace_misses", RedisServer.stat_keyspace_misses);
+        field(info, "client_output_buffer_limit_disconnections", RedisServer.stat_client_outbuf_limit_disconnections);
+        field(info, "log_dropped_messages", Log.log_dropped_messages.get());
+        field(info, "tracking_total_keys", Tracking.trackingTable.size());
+        field(info, "tracking_total_items", Tracking.tracking_total_items);
+        field(info, "tracking_total_prefixes", Tracking.prefixTable.size());
+        // 事件循环每一轮的耗时, 不包括在 select 中等待的时间
+        field(info, "eventloop_cycles", eventloop.count());
+        field(info, "eventloop_duration_sum", eventloop.sum() / 1000);
+        field(info, "eventloop_duration_p50_usec", usec(eventloop.percentile(50)));
+        field(info, "eventloop_duration_p99_usec", usec(eventloop.percentile(99)));
+        field(info, "eventloop_duration_max_usec", usec(eventloop.max()));
+    }
+
+    private static void replication(StringBuilder info) {
+        long now = System.currentTimeMillis();
+        info.append("# Replication\r\n");
+        field(info, "role", Replication.isReplica() ? "slave" : "master");
+        if (Replication.isReplica()) {
+            RedisServer.RedisClient master = Replication.master;
+            boolean linkUp = Replication.repl_state == Replication.REPL_STATE_CONNECTED;
+            field(info, "master_host", Replication.masterhost);
+            field(info, "master_port", Replication.masterport);
+            field(info, "master_link_status", linkUp ? "up" : "down");
+            field(info, "master_last_io_seconds_ago", master == null ? -1 : (now - master.lastinteraction) / 1000);
+            field(info, "master_sync_in_progress",
+                    Replication.repl_state == Replication.REPL_STATE_TRANSFER || Replication.repl_transfer_left > 0 ? 1 : 0);
+            if (Replication.repl_transfer_left > 0) {
+                field(info, "master_sync_left_bytes", Replication.repl_transfer_left);
+            }
+            field(info, "slave_repl_offset", Replication.master_repl_offset);
+            if (!linkUp) {
+                field(info, "master_link_down_since_seconds",
+                        Replication.repl_down_since == 0 ? -1 : (now - Replication.repl_down_since) / 1000);
+            }
+            field(info, "slave_read_only", Replication.repl_slave_ro ? 1 : 0);
+        }
+        field(info, "connected_slaves", Replication.slaves.size());
+        for (int i = 0; i < Replication.slaves.size(); i++) {
+            RedisServer.RedisClient slave = Replication.slaves.get(i);
+            String ip = slave.addr.substring(0, slave.addr.lastIndexOf(':'));
+            field(info, "slave" + i, "ip=" + ip + ",port=" + slave.slaveListeningPort + ",state=online"
+                    + ",offset=" + slave.replAckOff + ",lag=" + (now - slave.replAckTime) / 1000);
+        }
+        field(info, "master_replid", Replication.master_replid);
+        field(info, "master_replid2", Replication.master_replid2 == null ? "0000000000000000000000000000000000000000" : Replication.master_replid2);
+        field(info, "master_repl_offset", Replication.master_repl_offset);
+        field(info, "second_repl_offset", Replication.second_replid_offset);
+        field(info, "repl_backlog_active", Replication.repl_backlog == null ? 0 : 1);
+        field(info, "repl_backlog_size", Replication.repl_backlog_size);
+        field(info, "repl_backlog_first_byte_offset", Replication.repl_backlog == null ? 0 : Replication.repl_backlog_off);
+        field(info, "repl_backlog_histlen", Replication.repl_backlog_histlen);
+        field(info, "sync_full", Replication.stat_sync_full);
+        field(info, "sync_partial_ok", Replication.stat_sync_partial_ok);
+        field(info, "sync_partial_err", Replication.stat_sync_partial_err);
+    }
+
+    // 事件循环线程(也就是执行 INFO 的线程)的 CPU 时间
+    private static void cpu(StringBuilder info) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpu = threads.getCurrentThreadCpuTime();
+        long user = threads.getCurrentThreadUserTime();
+        info.append("# CPU\r\n");
+        field(info, "used_cpu_sys_main_thread", String.format("%.6f", (cpu - user) / 1e9));
+        field(info, "used_cpu_user_main_thread", String.format("%.6f", user / 1e9));
+    }
+
+    private static void pubsub(StringBuilder info) {
+        info.append("# Pubsub\r\n");
+        field(info, "pubsub_channels", RedisServer.pubsub_Channels.size());
+        field(info, "pubsub_patterns", PubSub.pubsub_patterns.size());
+        field(info, "pubsub_shared_reply_bytes", SharedReply.shared_reply_bytes);
+    }
+
+    private static void lazyfree(StringBuilder info) {
+        info.append("# Lazyfree\r\n");
+        field(info, "lazyfree_pending_objects", LazyFree.pendingObjects());
+        field(info, "lazyfreed_objects", LazyFree.lazyfreed_objects.get());
+    }
+
+    private static void expire(StringBuilder info) {
+        long now = System.currentTimeMillis();
+        long expiredStale = 0;
+        for (RedisServer.RedisDB db : RedisServer.redisDB) {
+            if (db.expireIndex != null) {
+                expiredStale += db.expireIndex.countDue(now);
+            } else {
+                // 没有索引时只能用随机采样的比例估算
+                expiredStale += (long) (db.expires.getDictSize() * RedisServer.stat_expired_stale_perc);
+            }
+        }
+        long expired = RedisServer.stat_expiredkeys;
+        info.append("# Expire\r\n");
+        field(info, "active_expire_index", RedisServer.active_expire_index ? 1 : 0);
+        field(info, "expired_keys", expired);
+        field(info, "expired_stale_keys", expiredStale);
+        field(info, "expired_stale_perc", String.format("%.2f", RedisServer.stat_expired_stale_perc * 100));
+        field(info, "expired_lag_avg_ms", expired == 0 ? 0 : RedisServer.stat_expired_lag_sum / expired);
+        field(info, "expired_lag_max_ms", RedisServer.stat_expired_lag_max);
+    }
+
+    // 只报告是否开启集群模式, 槽和节点的状态用 CLUSTER INFO 查看
+    private static void cluster(StringBuilder info) {
+        info.append("# Cluster\r\n");
+        field(info, "cluster_enabled", Cluster.cluster_enabled ? 1 : 0);
+    }
+
+    // 只列出有key的数据库, avg_ttl 由前 100 个设置了过期时间的key估算
+    private static void keyspace(StringBuilder info) {
+        long now = System.currentTimeMillis();
+        info.append("# Keyspace\r\n");
+        for (int i = 0; i < RedisServer.redisDB.length; i++) {
+            RedisServer.RedisDB db = RedisServer.redisDB[i];
+            long keys = db.dict.getDictSize();
+            if (keys == 0) {
+                continue;
+            }
+            long sum = 0;
+            int sampled = 0;
+            Iterator<Long> it = db.expires.ht[0].values().iterator();
+            while (it.hasNext() && sampled < 100) {
+                sum += Math.max(0, it.next() - now);
+                sampled++;
+            }
+            info.append("db").append(i).append(":keys=").append(keys)
+                    .append(",expires=").append(db.expires.getDictSize())
+                    .append(",avg_ttl=").append(sampled == 0 ? 0 : sum / sampled).append("\r\n");
+        }
+    }
+
+    // 按命令名排序
+    private static Map<String, RedisCommand> executedCommands() {
+        Map<String, RedisCommand> commands = new TreeMap<>();
+        for (RedisCommand command : RedisCommand.commandTable.values()) {
+            if (command.calls > 0 || command.rejectedCalls > 0) {
+                commands.put(command.name, command);
+            }
+        }
+        return commands;
+    }
+
+    private static void commandstats(StringBuilder info) {
+        info.append("# Commandstats\r\n");
+        for (RedisCommand command : executedCommands().values()) {
+            long usec = command.latency.sum() / 1000;
+            info.append("cmdstat_").append(command.name)
+                    .append(":calls=").append(command.calls)
+                    .append(",usec=").append(usec)
+                    .append(",usec_per_call=").append(String.format("%.2f", command.calls == 0 ? 0 : (double) usec / command.calls))
+                    .append(",rejected_calls=").append(command.rejectedCalls)
+                    .append(",failed_calls=").append(command.failedCalls).append("\r\n");
+        }
+    }
+
+    private static void latencystats(StringBuilder info) {
+        info.append("# Latencystats\r\n");
+        for (RedisCommand command : executedCommands().values()) {
+            if (command.calls == 0) {
+                continue;
+            }
+            LatencyHistogram latency = command.latency;
+            info.append("latency_percentiles_usec_").append(command.name)
+                    .append(":p50=").append(usec(latency.percentile(50)))
+                    .append(",p99=").append(usec(latency.percentile(99)))
+                    .append(",p99.9=").append(usec(latency.percentile(99.9))).append("\r\n");
+        }
+    }
+
+    // 纳秒转换成微秒, 保留3位小数
+    private static String usec(long nanos) {
+        return String.format("%.3f", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,191 @@
+package com.test;
+
+import java.util.Arrays;
+
+/**
+ * 整数集合
+ * 1. 元素有序存放在基本类型数组中, 查找使用二分查找
+ * 2. 根据当前最大的元素自动选择 int16 / int32 / int64 的数组宽度
+ *    只有当新元素超出当前宽度的表示范围时才升级, 升级后不会降级
+ * 3. 新元素超出当前宽度时一定比所有已有元素大(或小), 所以升级时直接放在数组尾部(或头部)
+ */
+public class IntSet {
+    // 编码: 每个元素占用的字节数
+    static final int INTSET_ENC_INT16 = 2;
+    static final int INTSET_ENC_INT32 = 4;
+    static final int INTSET_ENC_INT64 = 8;
+
+    int encoding = INTSET_ENC_INT16;
+    int length;
+
+    // 当前编码对应的数组, 同一时刻只有一个不为null
+    private short[] contents16 = new short[4];
+    private int[] contents32;
+    private long[] contents64;
+
+    // 能够容纳 value 的最小编码
+    static int valueEncoding(long value) {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return INTSET_ENC_INT64;
+        }
+        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+            return INTSET_ENC_INT32;
+        }
+        return INTSET_ENC_INT16;
+    }
+
+    public int size() {
+        return length;
+    }
+
+    // 占用的字节数
+    public long blobLen() {
+        return (long) length * encoding;
+    }
+
+    // 获取第 pos 个元素
+    public long get(int pos) {
+        switch (encoding) {
+            case INTSET_ENC_INT16:
+                return contents16[pos];
+            case INTSET_ENC_INT32:
+                return contents32[pos];
+            default:
+                return contents64[pos];
+        }
+    }
+
+    /**
+     * 二分查找 value
+     * @return 找到返回下标, 找不到返回 -(插入位置) - 1
+     */
+    int search(long value) {
+        if (valueEncoding(value) > encoding) {
+            return value < 0 ? -1 : -(length + 1);
+        }
+        switch (encoding) {
+            case INTSET_ENC_INT16:
+                return Arrays.binarySearch(contents16, 0, length, (short) value);
+            case INTSET_ENC_INT32:
+                return Arrays.binarySearch(contents32, 0, length, (int) value);
+            default:
+                return Arrays.binarySearch(contents64, 0, length, value);
+        }
+    }
+
+    public boolean find(long value) {
+        return search(value) >= 0;
+    }
+
+    /**
+     * 添加元素
+     * @return 添加成功返回true, 元素已存在返回false
+     */
+    public boolean add(long value) {
+        if (valueEncoding(value) > encoding) {
+            upgradeAndAdd(value);
+            return true;
+        }
+        int pos = search(value);
+        if (pos >= 0) {
+            return false;
+        }
+        pos = -pos - 1;
+        ensureCapacity(length + 1);
+        moveTail(pos, pos + 1);
+        set(pos, value);
+        length++;
+        return true;
+    }
+
+    /**
+     * 删除元素
+     * @return 删除成功返回true, 元素不存在返回false
+     */
+    public boolean remove(long value) {
+        int pos = search(value);
+        if (pos < 0) {
+            return false;
+        }
+        moveTail(pos + 1, pos);
+        length--;
+        return true;
+    }
+
+    // 升级编码并添加一个超出当前范围的元素
+    private void upgradeAndAdd(long value) {
+        int newEncoding = valueEncoding(value);
+        // 负数一定是最小的, 放在头部; 正数一定是最大的, 放在尾部
+        int prepend = value < 0 ? 1 : 0;
+        int capacity = Math.max(4, (length + 1) * 2);
+        if (newEncoding == INTSET_ENC_INT32) {
+            int[] upgraded = new int[capacity];
+            for (int i = 0; i < length; i++) {
+                upgraded[i + prepend] = (int) get(i);
+            }
+            contents32 = upgraded;
+        } else {
+            long[] upgraded = new long[capacity];
+            for (int i = 0; i < length; i++) {
+                upgraded[i + prepend] = get(i);
+            }
+            contents64 = upgraded;
+            contents32 = null;
+        }
+        contents16 = null;
+        encoding = newEncoding;
+        set(prepend == 1 ? 0 : length, value);
+        length++;
+    }
+
+    private void set(int pos, long value) {
+        switch (encoding) {
+            case INTSET_ENC_INT16:
+                contents16[pos] = (short) value;
+                break;
+            case INTSET_ENC_INT32:
+                contents32[pos] = (int) value;
+                break;
+            default:
+                contents64[pos] = value;
+        }
+    }
+
+    // 把 from 开始的尾部元素整体移动到 to
+    private void moveTail(int from, int to) {
+        int count = length - from;
+        if (count <= 0) {
+            return;
+        }
+        switch (encoding) {
+            case INTSET_ENC_INT16:
+                System.arraycopy(contents16, from, contents16, to, count);
+                break;
+            case INTSET_ENC_INT32:
+                System.arraycopy(contents32, from, contents32, to, count);
+                break;
+            default:
+                System.arraycopy(contents64, from, contents64, to, count);
+        }
+    }
+
+    // 容量不足时按两倍扩容, 避免每次添加都重新分配数组
+    private void ensureCapacity(int capacity) {
+        switch (encoding) {
+            case INTSET_ENC_INT16:
+                if (capacity > contents16.length) {
+                    contents16 = Arrays.copyOf(contents16, Math.max(capacity, contents16.length * 2));
+                }
+                break;
+            case INTSET_ENC_INT32:
+                if (capacity > contents32.length) {
+                    contents32 = Arrays.copyOf(contents32, Math.max(capacity, contents32.length * 2));
+                }
+                break;
+            default:
+                if (capacity > contents64.length) {
+                    contents64 = Arrays.copyOf(contents64, Math.max(capacity, contents64.length * 2));
+                }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.test;
+
+import java.util.Arrays;
+
+/**
+ * 按对数分桶的延迟直方图 (HDR Histogram 的简化版), 单位是纳秒
+ * 1. 小于 64 的值每个值一个桶; 更大的值按最高位分组, 每组(2的幂区间)再均分成 32 个桶,
+ *    所以每个桶的相对误差不超过 1/32 (约3%)
+ * 2. 桶的下标只用移位计算, record 不分配内存, 只有一次数组自增
+ * 3. 只在事件循环线程中记录和读取, 不需要加锁
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;   // 32
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;       // 64, 以下每个值一个桶
+    // 最大可以记录 2^40 纳秒(约18分钟), 更大的值记在最后一个桶中
+    private static final int MAX_BITS = 40;
+    static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_BITS - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long max;
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit >= MAX_BITS) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = highestBit - SUB_BUCKET_BITS;
+        // 最高的 6 位, 范围 [32, 64)
+        int top = (int) (value >>> shift);
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + (top - SUB_BUCKET_COUNT);
+    }
+
+    // 桶中最小的值
+    static long bucketLowest(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+        long top = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return top << shift;
+    }
+
+    // 桶中最大的值
+    static long bucketHighest(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+        return bucketLowest(index) + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        counts[bucketIndex(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * 百分位数, 例如 percentile(99.9)
+     * @return 所在桶的最大值(不超过记录过的最大值), 没有数据时返回0
+     */
+    public long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketHighest(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 小于等于 value 的记录数
+     * 只按桶统计, value 落在桶的中间时整个桶都算进去
+     */
+    public long countAtOrBelow(long value) {
+        int last = bucketIndex(value);
+        long n = 0;
+        for (int i = 0; i <= last; i++) {
+            n += counts[i];
+        }
+        return n;
+    }
+
+    // 把另一个直方图的记录加到这个直方图中
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+}
@@ -0,0 +1,180 @@
+package com.test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 延迟监控 (LATENCY 命令)
+ * 1. 耗时超过 latency-monitor-threshold 毫秒的事件记录为一个采样, 0 表示关闭
+ *    事件: command(命令) / cron(serverCron) / expire-cycle(主动过期) / eviction-cycle(内存淘汰)
+ * 2. 每个事件保存最近 160 个采样, 同一秒内的多个采样只保留最大值
+ * 3. LATENCY LATEST / HISTORY / RESET 和Redis一样; LATENCY HISTOGRAM 返回每个命令的延迟分布
+ */
+public class LatencyMonitor {
+    static final int LATENCY_TS_LEN = 160;
+
+    static long latency_monitor_threshold = 0;
+
+    // 一个事件的采样
+    static class LatencyEvent {
+        long[] times = new long[LATENCY_TS_LEN];     // 秒级时间戳
+        long[] latencies = new long[LATENCY_TS_LEN]; // 毫秒
+        int idx;     // 下一个采样写入的位置
+        int samples; // 已有的采样数, 最多 LATENCY_TS_LEN
+        long max;    // 所有采样中的最大值
+
+        void add(long time, long latency) {
+            int prev = (idx + LATENCY_TS_LEN - 1) % LATENCY_TS_LEN;
+            if (samples > 0 && times[prev] == time) {
+                latencies[prev] = Math.max(latencies[prev], latency);
+            } else {
+                times[idx] = time;
+                latencies[idx] = latency;
+                idx = (idx + 1) % LATENCY_TS_LEN;
+                if (samples < LATENCY_TS_LEN) {
+                    samples++;
+                }
+            }
+            max = Math.max(max, latency);
+        }
+    }
+
+    static Map<String, LatencyEvent> latency_events = new LinkedHashMap<>();
+
+    /**
+     * 耗时超过阈值时记录一个采样
+     * @param durationNanos 事件的耗时(纳秒)
+     */
+    static void addSampleIfNeeded(String event, long durationNanos) {
+        if (latency_monitor_threshold <= 0) {
+            return;
+        }
+        long ms = durationNanos / 1000000;
+        if (ms < latency_monitor_threshold) {
+            return;
+        }
+        LatencyEvent latencyEvent = latency_events.get(event);
+        if (latencyEvent == null) {
+            latencyEvent = new LatencyEvent();
+            latency_events.put(event, latencyEvent);
+        }
+        latencyEvent.add(System.currentTimeMillis() / 1000, ms);
+    }
+
+    // LATENCY LATEST | HISTORY event | RESET [event ...] | HISTOGRAM [command ...]
+    public static Object latency(RedisServer.RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        String sub = args.isEmpty() ? "" : args.get(0);
+        if ("latest".equalsIgnoreCase(sub) && args.size() == 1) {
+            return latest();
+        }
+        if ("history".equalsIgnoreCase(sub) && args.size() == 2) {
+            return history(args.get(1));
+        }
+        if ("reset".equalsIgnoreCase(sub)) {
+            return reset(args.subList(1, args.size()));
+        }
+        if ("histogram".equalsIgnoreCase(sub)) {
+            return histogram(args.subList(1, args.size()));
+        }
+        return new RedisServer.ErrorObject("ERR unknown subcommand or wrong number of arguments for '" + sub + "'");
+    }
+
+    // 每个事件: 名称, 最近一次采样的时间, 最近一次采样的延迟, 最大延迟
+    private static Object latest() {
+        ReplyBuffer reply = new ReplyBuffer();
+        reply.addArrayLen(latency_events.size());
+        for (Map.Entry<String, LatencyEvent> entry : latency_events.entrySet()) {
+            LatencyEvent event = entry.getValue();
+            int last = (event.idx + LATENCY_TS_LEN - 1) % LATENCY_TS_LEN;
+            reply.addArrayLen(4);
+            reply.addBulk(entry.getKey());
+            reply.addLong(event.times[last]);
+            reply.addLong(event.latencies[last]);
+            reply.addLong(event.max);
+        }
+        return reply.toByteArray();
+    }
+
+    // 事件的所有采样, 从旧到新
+    private static Object history(String name) {
+        LatencyEvent event = latency_events.get(name);
+        ReplyBuffer reply = new ReplyBuffer();
+        if (event == null) {
+            return reply.addArrayLen(0).toByteArray();
+        }
+        reply.addArrayLen(event.samples);
+        int start = (event.idx - event.samples + LATENCY_TS_LEN) % LATENCY_TS_LEN;
+        for (int i = 0; i < event.samples; i++) {
+            int j = (start + i) % LATENCY_TS_LEN;
+            reply.addArrayLen(2);
+            reply.addLong(event.times[j]);
+            reply.addLong(event.latencies[j]);
+        }
+        return reply.toByteArray();
+    }
+
+    // 没有参数时清空所有事件, 返回清空的事件数
+    private static Object reset(List<String> names) {
+        if (names.isEmpty()) {
+            long n = latency_events.size();
+            latency_events.clear();
+            return n;
+        }
+        long n = 0;
+        for (String name : names) {
+            if (latency_events.remove(name) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 每个命令: 名称, calls, 调用次数, histogram_usec, [上界(微秒), 累计次数 ...]
+     * 上界是 1, 2, 4, 8 ... 微秒, 和Redis一样只输出有变化的桶; 没有参数时输出所有执行过的命令
+     */
+    private static Object histogram(List<String> names) {
+        List<RedisCommand> commands = new ArrayList<>();
+        if (names.isEmpty()) {
+            for (RedisCommand command : RedisCommand.commandTable.values()) {
+                if (command.calls > 0) {
+                    commands.add(command);
+                }
+            }
+        } else {
+            for (String name : names) {
+                RedisCommand command = RedisCommand.lookupCommand(name);
+                if (command != null && command.calls > 0 && !commands.contains(command)) {
+                    commands.add(command);
+                }
+            }
+        }
+        ReplyBuffer reply = new ReplyBuffer();
+        reply.addArrayLen(commands.size() * 2);
+        for (RedisCommand command : commands) {
+            reply.addBulk(command.name);
+            reply.addArrayLen(4);
+            reply.addBulk("calls");
+            reply.addLong(command.calls);
+            reply.addBulk("histogram_usec");
+            ReplyBuffer buckets = new ReplyBuffer();
+            int n = 0;
+            long previous = 0;
+            for (long usec = 1; previous < command.latency.count(); usec <<= 1) {
+                long cumulative = command.latency.countAtOrBelow(usec * 1000);
+                if (cumulative != previous) {
+                    buckets.addLong(usec);
+                    buckets.addLong(cumulative);
+                    n++;
+                    previous = cumulative;
+                }
+            }
+            reply.addArrayLen(n * 2);
+            reply.addRaw(buckets.buf, buckets.len);
+        }
+        return reply.toByteArray();
+    }
+}
@@ -0,0 +1,182 @@
+package com.test;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 惰性删除 (lazy free)
+ * 1. UNLINK / FLUSHDB ASYNC / FLUSHALL ASYNC 在主线程中只把value从字典中摘除(O(1))
+ * 2. 摘除下来的大对象交给后台线程回收, 避免在事件循环线程上遍历整个大对象
+ * 3. 等待回收的对象仍然占用内存, 所以会计入已使用内存(见 RedisServer.getUsedMemory)
+ *
+ * 注: 在JVM中真正的内存回收由GC完成, 后台线程做的是Redis中 decrRefCount 的那部分工作:
+ * 逐一断开大对象内部的引用(LinkedList/Hashtable的clear都是O(N)的), 并维护待回收计数
+ * 同步删除和小对象只摘除引用交给GC, 不在主线程上做这些O(N)的工作
+ */
+public class LazyFree {
+    // 释放开销小于等于这个值的对象直接在主线程释放, 不值得交给后台线程 (和Redis的LAZYFREE_THRESHOLD一致)
+    static final int LAZYFREE_THRESHOLD = 64;
+
+    // 等待后台线程回收的对象数(以key为单位, 和 getDbSize 的单位保持一致)
+    static final AtomicLong lazyfree_pending_objects = new AtomicLong();
+    // 后台线程已经回收的对象数
+    static final AtomicLong lazyfreed_objects = new AtomicLong();
+
+    // 回收任务队列
+    private static final LinkedBlockingQueue<Job> jobs = new LinkedBlockingQueue<>();
+    private static Thread thread;
+
+    // 回收任务: 一个被摘除的对象或者一整个被清空的数据库
+    private static class Job {
+        RedisServer.RedisObject object;
+        RedisServer.Dict<RedisServer.RedisObject> dict;
+        RedisServer.Dict<Long> expires;
+        long count; // 这个任务占用的待回收计数
+    }
+
+    // 启动后台回收线程
+    public static synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(LazyFree::run, "lazyfree");
+        // 守护线程, 不影响进程退出
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void run() {
+        while (true) {
+            Job job;
+            try {
+                job = jobs.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            process(job);
+            lazyfree_pending_objects.addAndGet(-job.count);
+            lazyfreed_objects.addAndGet(job.count);
+        }
+    }
+
+    // 执行一个回收任务
+    private static void process(Job job) {
+        if (job.object != null) {
+            freeObject(job.object);
+        }
+        if (job.dict != null) {
+            // 先释放字典中的每个大对象, 再清空字典本身
+            for (int i = 0; i < job.dict.ht.length; i++) {
+                for (RedisServer.RedisObject redisObject : job.dict.ht[i].values()) {
+                    freeObject(redisObject);
+                }
+                job.dict.ht[i].clear();
+            }
+        }
+        if (job.expires != null) {
+            for (int i = 0; i < job.expires.ht.length; i++) {
+                job.expires.ht[i].clear();
+            }
+        }
+    }
+
+    /**
+     * 计算释放一个对象的开销(需要断开的内部引用数)
+     * ZipList 是一整块字节数组, 释放开销为1
+     */
+    static long getFreeEffort(RedisServer.RedisObject redisObject) {
+        if (redisObject == null || redisObject.value == null) {
+            return 0;
+        }
+        if (redisObject.encoding == RedisConstants.REDIS_ENCODING_LINKEDLIST) {
+            return ((LinkedList) redisObject.value).size();
+        }
+        if (redisObject.encoding == RedisConstants.REDIS_ENCODING_HT) {
+            // 集合的哈希表编码是 HashSet, 哈希的是 Dict
+            if (redisObject.type == RedisConstants.REDIS_SET) {
+                return ((Set) redisObject.value).size();
+            }
+            return ((RedisServer.Dict) redisObject.value).getDictSize();
+        }
+        if (redisObject.encoding == RedisConstants.REDIS_ENCODING_SKIPLIST) {
+            return ((ZSet.ZSetObject) redisObject.value).zsl.length;
+        }
+        return 1;
+    }
+
+    // 断开对象内部的引用, 只在后台线程中调用
+    static void freeObject(RedisServer.RedisObject redisObject) {
+        if (redisObject == null || redisObject.value == null) {
+            return;
+        }
+        if (redisObject.encoding == RedisConstants.REDIS_ENCODING_LINKEDLIST) {
+            ((LinkedList) redisObject.value).clear();
+        } else if (redisObject.encoding == RedisConstants.REDIS_ENCODING_HT && redisObject.type == RedisConstants.REDIS_SET) {
+            ((Set) redisObject.value).clear();
+        } else if (redisObject.encoding == RedisConstants.REDIS_ENCODING_HT) {
+            for (Hashtable<?, ?> table : ((RedisServer.Dict<?>) redisObject.value).ht) {
+                table.clear();
+            }
+        } else if (redisObject.encoding == RedisConstants.REDIS_ENCODING_SKIPLIST) {
+            // 逐个断开跳表节点之间的引用
+            ZSet.ZSetObject zs = (ZSet.ZSetObject) redisObject.value;
+            ZSet.ZSkipListNode node = zs.zsl.header.forward[0];
+            while (node != null) {
+                ZSet.ZSkipListNode next = node.forward[0];
+                node.backward = null;
+                Arrays.fill(node.forward, null);
+                node = next;
+            }
+            for (Hashtable<?, ?> table : zs.dict.ht) {
+                table.clear();
+            }
+        }
+        redisObject.value = null;
+    }
+
+    /**
+     * 异步释放一个已经从数据库中摘除的对象
+     * 小对象直接丢弃引用由GC回收, 大对象交给后台线程
+     * @return 是否交给了后台线程
+     */
+    static boolean freeObjectAsync(RedisServer.RedisObject redisObject) {
+        if (getFreeEffort(redisObject) <= LAZYFREE_THRESHOLD || thread == null) {
+            return false;
+        }
+        Job job = new Job();
+        job.object = redisObject;
+        job.count = 1;
+        submit(job);
+        return true;
+    }
+
+    /**
+     * 异步清空数据库: 调用方已经把旧的字典从数据库上摘下来并换上了新的空字典
+     * 这里只负责把旧字典交给后台线程
+     */
+    static void emptyDbAsync(RedisServer.Dict<RedisServer.RedisObject> dict, RedisServer.Dict<Long> expires) {
+        Job job = new Job();
+        job.dict = dict;
+        job.expires = expires;
+        job.count = dict.getDictSize();
+        // 后台线程没有启动时退化为同步释放: 直接丢弃旧字典
+        if (thread != null) {
+            submit(job);
+        }
+    }
+
+    private static void submit(Job job) {
+        // 先增加计数再入队, 保证后台线程减计数时不会出现负数
+        lazyfree_pending_objects.addAndGet(job.count);
+        jobs.add(job);
+    }
+
+    // 等待回收的对象数
+    static long pendingObjects() {
+        return lazyfree_pending_objects.get();
+    }
+}
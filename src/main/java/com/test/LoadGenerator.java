@@ -0,0 +1,479 @@
+package com.test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 压测工具 (相当于 redis-benchmark)
+ * 用法: java -cp target/classes com.test.LoadGenerator [--选项 值 ...], 选项见 usage()
+ * 1. 单线程 NIO, clients 个连接, 每个连接最多 pipeline 个还没有收到回复的请求, 每收到一个回复就补发一个
+ * 2. 命令按 mix 中的权重随机选择 (get / set / lpush / blpop / publish)
+ *    字符串用 key:N, 列表用 list:N, 频道用 channel:N, 不同类型的命令不会互相产生 WRONGTYPE
+ * 3. N 在 keyspace 个中按 uniform 或 zipf 分布选择, zipf 预先计算累积分布, 每次二分查找
+ * 4. 每个请求从写入发送缓冲区到读到完整回复的时间记录到 LatencyHistogram,
+ *    每秒输出一次当前的 ops/sec, 结束时按命令输出 ops/sec 和 p50 / p99 / p999
+ */
+public class LoadGenerator {
+    static final int CMD_GET = 0;
+    static final int CMD_SET = 1;
+    static final int CMD_LPUSH = 2;
+    static final int CMD_BLPOP = 3;
+    static final int CMD_PUBLISH = 4;
+    static final String[] COMMAND_NAMES = {"get", "set", "lpush", "blpop", "publish"};
+
+    private static final byte[] KEY_PREFIX = "key:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LIST_PREFIX = "list:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CHANNEL_PREFIX = "channel:".getBytes(StandardCharsets.UTF_8);
+
+    // ===== 选项 =====
+    static String host = "127.0.0.1";
+    static int port = 6379;
+    static int clients = 50;
+    static int pipeline = 1;
+    static int keyspace = 10000;
+    static int datasize = 3;
+    static int[] weights = {1, 1, 0, 0, 0};  // 默认 get:set = 1:1
+    static boolean zipf = false;
+    static double zipf_exponent = 0.99;
+    static int duration = 10;  // 秒
+    static int blpop_timeout = 1;  // 秒, 列表为空时 BLPOP 最多阻塞这么久
+
+    // ===== 运行状态 =====
+    private static final SplittableRandom random = new SplittableRandom();
+    private static byte[] value;
+    private static double[] zipfCdf;
+    private static int weightSum;
+    static LatencyHistogram[] latencies = new LatencyHistogram[COMMAND_NAMES.length];
+    static long[] errors = new long[COMMAND_NAMES.length];
+    static String[] lastErrors = new String[COMMAND_NAMES.length];
+
+    // 一个连接
+    static class Connection {
+        SocketChannel channel;
+        ByteBuffer out = ByteBuffer.allocate(16 * 1024);  // 写模式, position 之前是还没有发送的数据
+        byte[] in = new byte[16 * 1024];
+        int inLen;
+
+        // 已发送还没有收到回复的请求, 回复按发送顺序返回, 所以是一个环形队列
+        long[] sentTimes = new long[pipeline];
+        int[] sentCommands = new int[pipeline];
+        int head;
+        int pending;
+    }
+
+    public static void main(String[] args) throws IOException {
+        parseArgs(args);
+        init();
+
+        Selector selector = Selector.open();
+        List<Connection> connections = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            Connection connection = new Connection();
+            connection.channel = SocketChannel.open(new InetSocketAddress(host, port));
+            connection.channel.socket().setTcpNoDelay(true);
+            connection.channel.configureBlocking(false);
+            connection.channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+        System.out.println("====== " + clients + " clients, pipeline " + pipeline + ", " + keyspace + " keys (" + (zipf ? "zipf " + zipf_exponent : "uniform")
+                + "), " + datasize + " bytes payload, " + duration + " seconds ======");
+
+        long start = System.nanoTime();
+        long end = start + duration * 1_000_000_000L;
+        long nextReport = start + 1_000_000_000L;
+        long lastCompleted = 0;
+        for (Connection connection : connections) {
+            fill(connection);
+            flush(connection, connection.channel.keyFor(selector));
+        }
+        long now = start;
+        while (now < end) {
+            selector.select(Math.max(1, Math.min(end, nextReport) - now) / 1_000_000 + 1);
+            for (SelectionKey key : selector.selectedKeys()) {
+                Connection connection = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    read(connection);
+                    fill(connection);
+                }
+                flush(connection, key);
+            }
+            selector.selectedKeys().clear();
+            now = System.nanoTime();
+            if (now >= nextReport) {
+                long completed = completed();
+                System.out.printf("%6.1fs: %.2f ops/sec%n", (now - start) / 1e9, (completed - lastCompleted) * 1e9 / (now - nextReport + 1_000_000_000L));
+                lastCompleted = completed;
+                nextReport += 1_000_000_000L;
+            }
+        }
+        report(now - start);
+        for (Connection connection : connections) {
+            connection.channel.close();
+        }
+        selector.close();
+    }
+
+    static void usage() {
+        System.out.println("Usage: java -cp target/classes com.test.LoadGenerator [options]\n"
+                + "  --host <hostname>       server hostname (default 127.0.0.1)\n"
+                + "  --port <port>           server port (default 6379)\n"
+                + "  --clients <n>           number of parallel connections (default 50)\n"
+                + "  --pipeline <n>          max requests in flight per connection (default 1)\n"
+                + "  --keyspace <n>          number of distinct keys / lists / channels (default 10000)\n"
+                + "  --datasize <bytes>      value size for SET / LPUSH / PUBLISH (default 3)\n"
+                + "  --mix <cmd=weight,...>  command mix of get, set, lpush, blpop, publish (default get=1,set=1)\n"
+                + "  --distribution <name>   key distribution: uniform or zipf (default uniform)\n"
+                + "  --zipf-exponent <s>     zipf exponent (default 0.99)\n"
+                + "  --duration <seconds>    test duration (default 10)\n"
+                + "  --blpop-timeout <sec>   BLPOP timeout (default 1)");
+    }
+
+    static void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--help".equals(arg)) {
+                usage();
+                System.exit(0);
+            }
+            if (!arg.startsWith("--") || i + 1 >= args.length) {
+                usage();
+                throw new IllegalArgumentException("Bad argument: " + arg);
+            }
+            String v = args[++i];
+            switch (arg.substring(2)) {
+                case "host": host = v; break;
+                case "port": port = Integer.parseInt(v); break;
+                case "clients": clients = positive(arg, v); break;
+                case "pipeline": pipeline = positive(arg, v); break;
+                case "keyspace": keyspace = positive(arg, v); break;
+                case "datasize": datasize = positive(arg, v); break;
+                case "mix": weights = parseMix(v); break;
+                case "distribution":
+                    if (!"uniform".equalsIgnoreCase(v) && !"zipf".equalsIgnoreCase(v)) {
+                        throw new IllegalArgumentException("--distribution must be uniform or zipf");
+                    }
+                    zipf = "zipf".equalsIgnoreCase(v);
+                    break;
+                case "zipf-exponent": zipf_exponent = Double.parseDouble(v); break;
+                case "duration": duration = positive(arg, v); break;
+                case "blpop-timeout": blpop_timeout = Integer.parseInt(v); break;
+                default:
+                    usage();
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    private static int positive(String name, String v) {
+        int n = Integer.parseInt(v);
+        if (n <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return n;
+    }
+
+    // get=80,set=20
+    static int[] parseMix(String mix) {
+        int[] result = new int[COMMAND_NAMES.length];
+        for (String part : mix.split(",")) {
+            String[] kv = part.split("=");
+            int index = Arrays.asList(COMMAND_NAMES).indexOf(kv[0].trim().toLowerCase());
+            if (index < 0 || kv.length != 2) {
+                throw new IllegalArgumentException("Bad command mix: " + part);
+            }
+            result[index] = Integer.parseInt(kv[1].trim());
+        }
+        if (Arrays.stream(result).sum() <= 0) {
+            throw new IllegalArgumentException("Command mix has no commands");
+        }
+        return result;
+    }
+
+    static void init() {
+        value = new byte[datasize];
+        Arrays.fill(value, (byte) 'x');
+        weightSum = Arrays.stream(weights).sum();
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        if (zipf) {
+            zipfCdf = zipfCdf(keyspace, zipf_exponent);
+        }
+    }
+
+    // 第 k 个 (从0开始) 的概率和 1 / (k+1)^s 成正比, 0 最热
+    static double[] zipfCdf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, s);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cdf[k] /= sum;
+        }
+        return cdf;
+    }
+
+    static int nextKey() {
+        if (!zipf) {
+            return random.nextInt(keyspace);
+        }
+        int index = Arrays.binarySearch(zipfCdf, random.nextDouble());
+        // 没找到时返回 -(插入位置) - 1, 插入位置就是第一个大于它的值
+        return Math.min(index < 0 ? -index - 1 : index, keyspace - 1);
+    }
+
+    static int nextCommand() {
+        int r = random.nextInt(weightSum);
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i];
+            if (r < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    // 补满 pipeline 个请求
+    static void fill(Connection connection) {
+        while (connection.pending < pipeline) {
+            int command = nextCommand();
+            ByteBuffer out = ensureCapacity(connection, 64 + datasize);
+            int key = nextKey();
+            switch (command) {
+                case CMD_GET:
+                    writeArrayLen(out, 2);
+                    writeBulk(out, "GET");
+                    writeKey(out, KEY_PREFIX, key);
+                    break;
+                case CMD_SET:
+                    writeArrayLen(out, 3);
+                    writeBulk(out, "SET");
+                    writeKey(out, KEY_PREFIX, key);
+                    writeBulk(out, value);
+                    break;
+                case CMD_LPUSH:
+                    writeArrayLen(out, 3);
+                    writeBulk(out, "LPUSH");
+                    writeKey(out, LIST_PREFIX, key);
+                    writeBulk(out, value);
+                    break;
+                case CMD_BLPOP:
+                    writeArrayLen(out, 3);
+                    writeBulk(out, "BLPOP");
+                    writeKey(out, LIST_PREFIX, key);
+                    writeBulk(out, String.valueOf(blpop_timeout));
+                    break;
+                default:
+                    writeArrayLen(out, 3);
+                    writeBulk(out, "PUBLISH");
+                    writeKey(out, CHANNEL_PREFIX, key);
+                    writeBulk(out, value);
+                    break;
+            }
+            int slot = (connection.head + connection.pending) % pipeline;
+            connection.sentTimes[slot] = System.nanoTime();
+            connection.sentCommands[slot] = command;
+            connection.pending++;
+        }
+    }
+
+    private static ByteBuffer ensureCapacity(Connection connection, int n) {
+        if (connection.out.remaining() < n) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(connection.out.capacity() * 2, connection.out.position() + n));
+            connection.out.flip();
+            bigger.put(connection.out);
+            connection.out = bigger;
+        }
+        return connection.out;
+    }
+
+    private static void writeArrayLen(ByteBuffer out, int n) {
+        out.put((byte) '*');
+        writeLong(out, n);
+        out.put((byte) '\r').put((byte) '\n');
+    }
+
+    private static void writeBulk(ByteBuffer out, String s) {
+        writeBulk(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBulk(ByteBuffer out, byte[] data) {
+        out.put((byte) '$');
+        writeLong(out, data.length);
+        out.put((byte) '\r').put((byte) '\n');
+        out.put(data);
+        out.put((byte) '\r').put((byte) '\n');
+    }
+
+    // prefix + 十进制的 n, 不生成字符串
+    private static void writeKey(ByteBuffer out, byte[] prefix, int n) {
+        out.put((byte) '$');
+        writeLong(out, prefix.length + digits(n));
+        out.put((byte) '\r').put((byte) '\n');
+        out.put(prefix);
+        writeLong(out, n);
+        out.put((byte) '\r').put((byte) '\n');
+    }
+
+    private static int digits(long n) {
+        int d = 1;
+        while (n >= 10) {
+            n /= 10;
+            d++;
+        }
+        return d;
+    }
+
+    private static void writeLong(ByteBuffer out, long n) {
+        int d = digits(n);
+        int pos = out.position();
+        for (int i = d - 1; i >= 0; i--) {
+            out.put(pos + i, (byte) ('0' + n % 10));
+            n /= 10;
+        }
+        out.position(pos + d);
+    }
+
+    // 发送缓冲区中的数据, 没有发完时关注写事件
+    static void flush(Connection connection, SelectionKey key) throws IOException {
+        ByteBuffer out = connection.out;
+        if (out.position() > 0) {
+            out.flip();
+            connection.channel.write(out);
+            out.compact();
+        }
+        key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    // 读取回复, 每个完整的回复对应队首的一个请求
+    static void read(Connection connection) throws IOException {
+        if (connection.inLen == connection.in.length) {
+            connection.in = Arrays.copyOf(connection.in, connection.in.length * 2);
+        }
+        int n = connection.channel.read(ByteBuffer.wrap(connection.in, connection.inLen, connection.in.length - connection.inLen));
+        if (n < 0) {
+            throw new IOException("Server closed the connection");
+        }
+        connection.inLen += n;
+        long now = System.nanoTime();
+        int offset = 0;
+        int len;
+        while (connection.pending > 0 && (len = replyLength(connection.in, offset, connection.inLen)) > 0) {
+            int command = connection.sentCommands[connection.head];
+            latencies[command].record(now - connection.sentTimes[connection.head]);
+            if (connection.in[offset] == '-') {
+                errors[command]++;
+                lastErrors[command] = new String(connection.in, offset + 1, len - 3, StandardCharsets.UTF_8);
+            }
+            connection.head = (connection.head + 1) % pipeline;
+            connection.pending--;
+            offset += len;
+        }
+        System.arraycopy(connection.in, offset, connection.in, 0, connection.inLen - offset);
+        connection.inLen -= offset;
+    }
+
+    /**
+     * 从 offset 开始的一个完整回复的长度
+     * @return 数据还不完整时返回 -1
+     */
+    static int replyLength(byte[] b, int offset, int end) {
+        if (offset >= end) {
+            return -1;
+        }
+        int lineEnd = -1;
+        for (int i = offset + 1; i + 1 < end; i++) {
+            if (b[i] == '\r' && b[i + 1] == '\n') {
+                lineEnd = i;
+                break;
+            }
+        }
+        if (lineEnd < 0) {
+            return -1;
+        }
+        int headerLen = lineEnd + 2 - offset;
+        switch (b[offset]) {
+            case '+':
+            case '-':
+            case ':':
+                return headerLen;
+            case '$': {
+                long n = parseLong(b, offset + 1, lineEnd);
+                if (n < 0) {
+                    return headerLen;
+                }
+                long total = headerLen + n + 2;
+                return total <= end - offset ? (int) total : -1;
+            }
+            case '*': {
+                long n = parseLong(b, offset + 1, lineEnd);
+                int pos = offset + headerLen;
+                for (long i = 0; i < n; i++) {
+                    int len = replyLength(b, pos, end);
+                    if (len < 0) {
+                        return -1;
+                    }
+                    pos += len;
+                }
+                return pos - offset;
+            }
+            default:
+                throw new IllegalStateException("Protocol error, unexpected reply type '" + (char) b[offset] + "'");
+        }
+    }
+
+    private static long parseLong(byte[] b, int from, int to) {
+        boolean negative = b[from] == '-';
+        long n = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            n = n * 10 + (b[i] - '0');
+        }
+        return negative ? -n : n;
+    }
+
+    private static long completed() {
+        long n = 0;
+        for (LatencyHistogram histogram : latencies) {
+            n += histogram.count();
+        }
+        return n;
+    }
+
+    static void report(long elapsedNanos) {
+        LatencyHistogram all = new LatencyHistogram();
+        System.out.println();
+        System.out.printf("%-8s %12s %14s %10s %10s %10s %10s %8s%n", "command", "requests", "ops/sec", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)", "errors");
+        long totalErrors = 0;
+        for (int i = 0; i < COMMAND_NAMES.length; i++) {
+            LatencyHistogram histogram = latencies[i];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            printRow(COMMAND_NAMES[i], histogram, elapsedNanos, errors[i]);
+            all.merge(histogram);
+            totalErrors += errors[i];
+        }
+        printRow("all", all, elapsedNanos, totalErrors);
+        for (int i = 0; i < COMMAND_NAMES.length; i++) {
+            if (lastErrors[i] != null) {
+                System.out.println("last " + COMMAND_NAMES[i] + " error: " + lastErrors[i]);
+            }
+        }
+    }
+
+    private static void printRow(String name, LatencyHistogram histogram, long elapsedNanos, long errors) {
+        System.out.printf("%-8s %12d %14.2f %10.3f %10.3f %10.3f %10.3f %8d%n", name, histogram.count(), histogram.count() * 1e9 / elapsedNanos,
+                histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6, histogram.percentile(99.9) / 1e6, histogram.max() / 1e6, errors);
+    }
+}
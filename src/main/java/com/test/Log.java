@@ -0,0 +1,190 @@
+package com.test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志
+ * 1. 和Redis一样分为 debug / verbose / notice / warning 四个级别, 低于 loglevel 的日志直接丢弃
+ * 2. 事件循环线程只把日志放进无锁的环形队列, 格式化和写文件(或标准输出)都在后台线程中完成
+ * 3. 队列满了不等待, 直接丢弃并计数(log_dropped_messages), 日志不能拖慢事件循环
+ * 4. 多个线程都可以写日志(事件循环 / lazyfree 线程), 写入位置用 CAS 抢占, 读取只有后台线程
+ */
+public class Log {
+    static final int LL_DEBUG = 0;
+    static final int LL_VERBOSE = 1;
+    static final int LL_NOTICE = 2;
+    static final int LL_WARNING = 3;
+    static final String[] LEVEL_NAMES = {"debug", "verbose", "notice", "warning"};
+    // 每个级别在日志行中的标记 (和Redis一样)
+    private static final char[] LEVEL_MARKS = {'.', '-', '*', '#'};
+
+    static final int LOG_QUEUE_SIZE = 1 << 14;
+
+    static volatile int verbosity = LL_NOTICE;
+    // 日志文件, 空字符串表示标准输出
+    static volatile String logfile = "";
+
+    static final AtomicLong log_dropped_messages = new AtomicLong();
+
+    private static class Record {
+        final long time;
+        final int level;
+        final String message;
+        final char role;  // M 主服务器, S 从服务器 (记录时的角色)
+
+        Record(long time, int level, String message, char role) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+            this.role = role;
+        }
+    }
+
+    private static final AtomicReferenceArray<Record> queue = new AtomicReferenceArray<>(LOG_QUEUE_SIZE);
+    // 下一个写入位置(生产者抢占) 和下一个读取位置(只有后台线程修改)
+    private static final AtomicLong writeIndex = new AtomicLong();
+    private static volatile long readIndex;
+
+    private static Thread thread;
+
+    static boolean enabled(int level) {
+        return level >= verbosity;
+    }
+
+    public static void debug(String message) {
+        log(LL_DEBUG, message);
+    }
+
+    public static void verbose(String message) {
+        log(LL_VERBOSE, message);
+    }
+
+    public static void notice(String message) {
+        log(LL_NOTICE, message);
+    }
+
+    public static void warning(String message) {
+        log(LL_WARNING, message);
+    }
+
+    static void log(int level, String message) {
+        if (level < verbosity) {
+            return;
+        }
+        while (true) {
+            long w = writeIndex.get();
+            if (w - readIndex >= LOG_QUEUE_SIZE) {
+                log_dropped_messages.incrementAndGet();
+                return;
+            }
+            if (writeIndex.compareAndSet(w, w + 1)) {
+                queue.set((int) (w & (LOG_QUEUE_SIZE - 1)), new Record(System.currentTimeMillis(), level, message,
+                        Replication.isReplica() ? 'S' : 'M'));
+                return;
+            }
+        }
+    }
+
+    static void setVerbosity(String name) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+                verbosity = i;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("argument(s) must be one of the following: " + String.join(", ", LEVEL_NAMES));
+    }
+
+    // 启动后台写日志的线程, 进程退出时把队列中剩下的日志写完
+    public static synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(Log::run, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            synchronized (Log.class) {
+                PrintStream out = stream();
+                drain(out);
+                out.flush();
+            }
+        }, "log-flush"));
+    }
+
+    // 以下只在后台线程(以及退出时)使用
+    private static PrintStream openedStream;
+    private static String openedFile;
+    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("dd MMM yyyy HH:mm:ss.SSS");
+    private static final String pid = Info.processId();
+
+    private static void run() {
+        while (true) {
+            boolean wrote;
+            synchronized (Log.class) {
+                PrintStream out = stream();
+                wrote = drain(out);
+                if (wrote) {
+                    out.flush();
+                }
+            }
+            // 队列为空时休眠一会儿, 不需要生产者唤醒
+            if (!wrote) {
+                LockSupport.parkNanos(10_000_000L);
+            }
+        }
+    }
+
+    // 当前的输出流, logfile 被修改之后重新打开
+    private static PrintStream stream() {
+        String file = logfile;
+        if (openedStream != null && file.equals(openedFile)) {
+            return openedStream;
+        }
+        if (openedStream != null && openedStream != System.out) {
+            openedStream.close();
+        }
+        OutputStream os = System.out;
+        if (!file.isEmpty()) {
+            try {
+                os = new FileOutputStream(file, true);
+            } catch (IOException e) {
+                System.out.println("Can't open the log file: " + e.getMessage());
+            }
+        }
+        openedStream = os == System.out ? System.out : new PrintStream(os, false);
+        openedFile = file;
+        return openedStream;
+    }
+
+    /**
+     * 写出队列中已经发布的日志
+     * @return 是否写出了日志
+     */
+    private static boolean drain(PrintStream out) {
+        boolean wrote = false;
+        long r = readIndex;
+        while (r < writeIndex.get()) {
+            int slot = (int) (r & (LOG_QUEUE_SIZE - 1));
+            Record record = queue.get(slot);
+            if (record == null) {
+                // 生产者已经抢到位置但还没有写入, 下次再读
+                break;
+            }
+            queue.set(slot, null);
+            r++;
+            readIndex = r;
+            out.print(pid + ":" + record.role + " " + dateFormat.format(new Date(record.time)) + " " + LEVEL_MARKS[record.level] + " " + record.message + "\n");
+            wrote = true;
+        }
+        return wrote;
+    }
+}
@@ -1,8 +1,9 @@
 package com.test;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 事务的处理
@@ -19,99 +20,217 @@ public class Multi {
     public static final String WATCH = "WATCH";
     public static final String UNWATCH = "UNWATCH";
 
+    /**
+     * 事务状态
+     * 入队的命令存放在数组中, 入队时已经解析好命令表项, EXEC 时不需要再查找
+     * 事务结束后只清空引用, 数组留给这个客户端的下一个事务继续使用
+     */
     public static class MultiState{
-        LinkedList<RedisServer.RedisRequest> commands = new LinkedList<>();  // 事务队列, 在redis中是用链表实现的
+        RedisServer.RedisRequest[] commands = new RedisServer.RedisRequest[16];  // 事务队列
+        RedisCommand[] cmds = new RedisCommand[16];  // 每个命令对应的命令表项
         int count = 0; // 事务计数器
+
+        // EXEC 的回复缓冲区, 所有命令的回复依次编码到这里
+        ReplyBuffer reply = new ReplyBuffer(256);
+
+        void add(RedisServer.RedisRequest redisRequest, RedisCommand cmd) {
+            if (count == commands.length) {
+                commands = Arrays.copyOf(commands, count * 2);
+                cmds = Arrays.copyOf(cmds, count * 2);
+            }
+            commands[count] = redisRequest;
+            cmds[count] = cmd;
+            count++;
+        }
+
+        void clear() {
+            Arrays.fill(commands, 0, count, null);
+            Arrays.fill(cmds, 0, count, null);
+            count = 0;
+        }
     }
 
-    // 入队
-    public static void queueMultiCommand(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+    // 入队, 命令不存在时标记事务失败; 参数个数在 processCommand 中已经检查过
+    public static Object queueMultiCommand(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        RedisCommand cmd = RedisCommand.lookupCommand(redisRequest.command);
+        if (cmd == null) {
+            flagTransaction(redisClient);
+            return new RedisServer.ErrorObject("ERR unknown command '" + redisRequest.command + "'");
+        }
         if (redisClient.multiState == null) {
             redisClient.multiState = new MultiState();
         }
+        redisClient.multiState.add(redisRequest, cmd);
+        return "QUEUED";
+    }
 
-        redisClient.multiState.commands.add(redisRequest);
-        redisClient.multiState.count++;
+    // 事务中的命令入队失败, EXEC 时放弃整个事务
+    public static void flagTransaction(RedisServer.RedisClient redisClient) {
+        if ((redisClient.flags & RedisConstants.REDIS_MULTI) != 0) {
+            redisClient.flags |= RedisConstants.REDIS_DIRTY_EXEC;
+        }
     }
 
     // 开启事务
     public static Object multi(RedisServer.RedisClient redisClient){
-        if (redisClient.flags == 3){
+        if ((redisClient.flags & RedisConstants.REDIS_MULTI) != 0){
             return new RedisServer.ErrorObject("ERR MULTI calls can not be nested");
         }
-        redisClient.flags = 3;
+        redisClient.flags |= RedisConstants.REDIS_MULTI;
         return "OK";
     }
 
-    // 执行事务
-    public static Object exec(RedisServer.RedisClient redisClient, RedisServer.RedisDB selectedDB, String key){
-        if (redisClient.flags != 3){
+    // 结束事务: 清空队列, 清除事务相关的标志, 取消所有监控
+    private static void discardTransaction(RedisServer.RedisClient redisClient){
+        if (redisClient.multiState != null) {
+            redisClient.multiState.clear();
+        }
+        redisClient.flags &= ~(RedisConstants.REDIS_MULTI | RedisConstants.REDIS_DIRTY_CAS | RedisConstants.REDIS_DIRTY_EXEC);
+        unwatchAllKeys(redisClient);
+    }
+
+    /**
+     * 执行事务
+     * 监控的key被修改时返回空数组(*-1), 入队出错时返回 EXECABORT
+     * 否则依次执行队列中的命令, 把所有回复编码成一个数组一次性返回
+     */
+    public static Object exec(RedisServer.RedisClient redisClient){
+        if ((redisClient.flags & RedisConstants.REDIS_MULTI) == 0){
             return new RedisServer.ErrorObject("ERR EXEC without MULTI");
         }
 
-        // 判断watch key是否被修改
-        if (redisClient.flags == 5){
-            // 取消事务
-            redisClient.flags = 0;
-            redisClient.multiState = new MultiState();
-            return new RedisServer.ErrorObject("ERR WATCH not supported");
+        // 判断watch key是否被修改, 或者入队时是否出错
+        if ((redisClient.flags & (RedisConstants.REDIS_DIRTY_CAS | RedisConstants.REDIS_DIRTY_EXEC)) != 0){
+            boolean execError = (redisClient.flags & RedisConstants.REDIS_DIRTY_EXEC) != 0;
+            discardTransaction(redisClient);
+            if (execError) {
+                return new RedisServer.ErrorObject("EXECABORT Transaction discarded because of previous errors.");
+            }
+            return new ReplyBuffer(8).addNullArray().toByteArray();
         }
 
-        // 执行命令
-        redisClient.multiState.commands.forEach(redisRequest -> {
-            RedisServer.call(redisClient, redisRequest, selectedDB, key);
-        });
+        // 先取消监控, 事务自己的写命令不需要再通知自己
+        unwatchAllKeys(redisClient);
+        redisClient.flags &= ~RedisConstants.REDIS_MULTI;
 
-        // 修改flag
-        redisClient.flags = 0;
-        // 清空命令列表
-        redisClient.multiState.commands = new LinkedList<>();
-        return "OK";
+        MultiState multiState = redisClient.multiState;
+        if (multiState == null) {
+            multiState = redisClient.multiState = new MultiState();
+        }
+        ReplyBuffer reply = multiState.reply.reset();
+        reply.resp = redisClient.resp;
+        reply.addArrayLen(multiState.count);
+        for (int i = 0; i < multiState.count; i++) {
+            RedisServer.RedisRequest redisRequest = multiState.commands[i];
+            String key = redisRequest.args.isEmpty() ? null : redisRequest.args.get(0);
+            // SELECT 会修改客户端的数据库, 所以每个命令都重新取当前数据库
+            Object result;
+            try {
+                result = RedisServer.call(redisClient, redisRequest, redisClient.selectDB, key);
+            } catch (Exception e) {
+                result = new RedisServer.ErrorObject("ERR Error Args or Command, Please check your Command!");
+            }
+            reply.addReply(result);
+        }
+        multiState.clear();
+        byte[] bytes = reply.toByteArray();
+        // 偶尔特别大的事务不要一直占着缓冲区
+        if (reply.buf.length > 64 * 1024) {
+            multiState.reply = new ReplyBuffer(256);
+        }
+        return bytes;
     }
 
     // 取消事务
     public static Object discard(RedisServer.RedisClient redisClient){
-        redisClient.flags = 0;
-        redisClient.multiState.commands = new LinkedList<>();
-        redisClient.multiState.count = 0;
+        if ((redisClient.flags & RedisConstants.REDIS_MULTI) == 0){
+            return new RedisServer.ErrorObject("ERR DISCARD without MULTI");
+        }
+        discardTransaction(redisClient);
         return "OK";
     }
 
     /**
      * “触碰”一个键，如果这个键正在被某个/某些客户端监视着，
      * 那么这个/这些客户端在执行 EXEC 时事务将失败。
+     * 没有客户端监视这个键时只需要一次哈希查找
      */
-    public static void touchWatchedKeys(RedisServer.RedisClient redisClient, RedisServer.RedisRequest request){
-        List<RedisServer.RedisDB.WatchedKeyClient> watchedKeys = redisClient.selectDB.watched_keys;
-        if (watchedKeys.size() == 0){
+    public static void touchWatchedKey(RedisServer.RedisDB db, String key){
+        if (db.watched_keys.isEmpty()){
+            return;
+        }
+        List<RedisServer.RedisClient> clients = db.watched_keys.get(key);
+        if (clients == null){
             return;
         }
-        // 遍历当前DB中所有正在被监控的key
-        for (RedisServer.RedisDB.WatchedKeyClient watchedKeyClient : watchedKeys) {
-            // 如果当前传入过来的参数和当前正在被监控的参数相同，则代表这个key已经被修改过了，将flag设置为5
-            if (watchedKeyClient.key.equalsIgnoreCase(request.args.get(0))){
-                watchedKeyClient.redisClient.flags = 5;
+        for (RedisServer.RedisClient redisClient : clients) {
+            // 标记监控的key已经被修改过了
+            redisClient.flags |= RedisConstants.REDIS_DIRTY_CAS;
+        }
+    }
+
+    /**
+     * 清空数据库时, 所有被监视并且还存在的键都视为被修改
+     */
+    public static void touchAllWatchedKeysInDb(RedisServer.RedisDB db){
+        for (Map.Entry<String, List<RedisServer.RedisClient>> entry : db.watched_keys.entrySet()) {
+            if (db.dict.get(entry.getKey()) == null){
+                continue;
+            }
+            for (RedisServer.RedisClient redisClient : entry.getValue()) {
+                redisClient.flags |= RedisConstants.REDIS_DIRTY_CAS;
             }
         }
     }
 
     // 监控
     public static Object watch(RedisServer.RedisClient redisClient, RedisServer.RedisRequest request){
-        RedisServer.RedisClient.WatchedKey watchedKey = new RedisServer.RedisClient.WatchedKey();
-        RedisServer.RedisDB.WatchedKeyClient watchedKeyClient = new RedisServer.RedisDB.WatchedKeyClient();
-        watchedKey.key = request.args.get(0);
-        watchedKey.db = redisClient.selectDB.id;
+        if ((redisClient.flags & RedisConstants.REDIS_MULTI) != 0){
+            return new RedisServer.ErrorObject("ERR WATCH inside MULTI is not allowed");
+        }
+        for (String key : request.args) {
+            watchForKey(redisClient, key);
+        }
+        return "OK";
+    }
 
-        watchedKeyClient.redisClient = redisClient;
-        watchedKeyClient.key = request.args.get(0);
-        redisClient.selectDB.watched_keys.add(watchedKeyClient);
+    private static void watchForKey(RedisServer.RedisClient redisClient, String key){
+        RedisServer.RedisDB db = redisClient.selectDB;
+        // 已经监控过的key不重复添加
+        for (RedisServer.RedisClient.WatchedKey watchedKey : redisClient.watched_keys) {
+            if (watchedKey.db == db.id && watchedKey.key.equals(key)){
+                return;
+            }
+        }
+        db.watched_keys.computeIfAbsent(key, k -> new ArrayList<>()).add(redisClient);
 
+        RedisServer.RedisClient.WatchedKey watchedKey = new RedisServer.RedisClient.WatchedKey();
+        watchedKey.key = key;
+        watchedKey.db = db.id;
         redisClient.watched_keys.add(watchedKey);
-        return "OK";
     }
 
     public static Object unwatch(RedisServer.RedisClient redisClient){
-        redisClient.watched_keys.clear();
+        unwatchAllKeys(redisClient);
         return "OK";
     }
+
+    /**
+     * 取消客户端对所有键的监控, 同时从数据库的 watched_keys 中移除这个客户端
+     * EXEC / DISCARD / UNWATCH / 断开连接时调用
+     */
+    public static void unwatchAllKeys(RedisServer.RedisClient redisClient){
+        for (RedisServer.RedisClient.WatchedKey watchedKey : redisClient.watched_keys) {
+            Map<String, List<RedisServer.RedisClient>> dbWatchedKeys = RedisServer.redisDB[watchedKey.db].watched_keys;
+            List<RedisServer.RedisClient> clients = dbWatchedKeys.get(watchedKey.key);
+            if (clients == null){
+                continue;
+            }
+            clients.remove(redisClient);
+            if (clients.isEmpty()){
+                dbWatchedKeys.remove(watchedKey.key);
+            }
+        }
+        redisClient.watched_keys.clear();
+    }
 }
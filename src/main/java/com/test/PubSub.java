@@ -0,0 +1,304 @@
+package com.test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 发布订阅
+ * 1. SUBSCRIBE / UNSUBSCRIBE 订阅频道, 频道 -> 订阅者 保存在 RedisServer.pubsub_Channels 中
+ * 2. PSUBSCRIBE / PUNSUBSCRIBE 订阅模式, 模式在订阅时编译一次(GlobPattern)
+ * 3. 模式按照开头的固定前缀放入前缀树, PUBLISH 时沿着频道名走一遍前缀树,
+ *    只有前缀是频道名前缀的模式才需要真正匹配, 开销和可能匹配的模式数量有关, 和模式总数无关
+ * 4. 消息编码成 RESP 的 message / pmessage 数组, 每条消息只编码一次(SharedReply),
+ *    所有订阅者的输出队列中放的是同一份数据的引用
+ * 5. RESP3 的客户端收到的消息和订阅回复是推送类型(>), 和普通命令的回复可以区分,
+ *    同一个连接上可以继续执行其它命令; RESP2 的客户端订阅之后只能执行订阅相关的命令
+ */
+public class PubSub {
+    private static final byte[] MESSAGE = "message".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PMESSAGE = "pmessage".getBytes(StandardCharsets.UTF_8);
+
+    // 一个模式以及订阅了它的客户端
+    static class PatternSubscription {
+        GlobPattern pattern;
+        List<RedisServer.RedisClient> clients = new ArrayList<>();
+    }
+
+    // 前缀树的节点, 子节点数量通常很少, 用两个数组线性查找
+    static class TrieNode {
+        char[] keys = new char[0];
+        TrieNode[] children = new TrieNode[0];
+        // 固定前缀正好是从根到这个节点的路径的模式
+        List<PatternSubscription> patterns;
+
+        TrieNode child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        TrieNode addChild(char c) {
+            TrieNode node = new TrieNode();
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            keys[keys.length - 1] = c;
+            children[children.length - 1] = node;
+            return node;
+        }
+
+        void removeChild(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    int last = keys.length - 1;
+                    keys[i] = keys[last];
+                    children[i] = children[last];
+                    keys = Arrays.copyOf(keys, last);
+                    children = Arrays.copyOf(children, last);
+                    return;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return keys.length == 0 && (patterns == null || patterns.isEmpty());
+        }
+    }
+
+    // 模式 -> 订阅, 用于订阅和退订时按模式字符串查找
+    static Map<String, PatternSubscription> pubsub_patterns = new HashMap<>();
+    // 按固定前缀索引所有的模式
+    static TrieNode patternTrie = new TrieNode();
+
+    // ============= 模式索引 =============
+
+    private static PatternSubscription addPattern(String pattern) {
+        PatternSubscription sub = pubsub_patterns.get(pattern);
+        if (sub != null) {
+            return sub;
+        }
+        sub = new PatternSubscription();
+        sub.pattern = GlobPattern.compile(pattern);
+        pubsub_patterns.put(pattern, sub);
+
+        TrieNode node = patternTrie;
+        String prefix = sub.pattern.literalPrefix();
+        for (int i = 0; i < prefix.length(); i++) {
+            TrieNode child = node.child(prefix.charAt(i));
+            node = child != null ? child : node.addChild(prefix.charAt(i));
+        }
+        if (node.patterns == null) {
+            node.patterns = new ArrayList<>();
+        }
+        node.patterns.add(sub);
+        return sub;
+    }
+
+    // 模式没有订阅者之后从索引中删除, 同时删除路径上已经空了的节点
+    private static void removePattern(PatternSubscription sub) {
+        pubsub_patterns.remove(sub.pattern.pattern);
+        String prefix = sub.pattern.literalPrefix();
+        TrieNode[] path = new TrieNode[prefix.length() + 1];
+        path[0] = patternTrie;
+        for (int i = 0; i < prefix.length(); i++) {
+            path[i + 1] = path[i].child(prefix.charAt(i));
+        }
+        TrieNode node = path[prefix.length()];
+        node.patterns.remove(sub);
+        for (int i = prefix.length(); i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].removeChild(prefix.charAt(i - 1));
+        }
+    }
+
+    // ============= 订阅 / 退订 =============
+
+    // 客户端订阅的频道和模式总数
+    private static long subscriptionCount(RedisServer.RedisClient redisClient) {
+        return redisClient.subscribedChannels.size() + redisClient.subscribedPatterns.size();
+    }
+
+    private static void addSubscribeReply(ReplyBuffer reply, String kind, String name, long count) {
+        reply.addPushLen(3);
+        reply.addBulk(kind);
+        reply.addBulk(name);
+        reply.addLong(count);
+    }
+
+    // RESP2 的订阅模式下允许执行的命令
+    static boolean allowedInSubscribeContext(String command) {
+        return "subscribe".equalsIgnoreCase(command) || "unsubscribe".equalsIgnoreCase(command)
+                || "psubscribe".equalsIgnoreCase(command) || "punsubscribe".equalsIgnoreCase(command)
+                || "ping".equalsIgnoreCase(command) || "quit".equalsIgnoreCase(command)
+                || "reset".equalsIgnoreCase(command);
+    }
+
+    // SUBSCRIBE channel [channel ...]
+    public static Object subscribe(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        ReplyBuffer reply = new ReplyBuffer();
+        for (String channel : redisRequest.args) {
+            // 已经订阅过的频道不重复添加
+            if (!redisClient.subscribedChannels.contains(channel)) {
+                redisClient.subscribedChannels.add(channel);
+                RedisServer.pubsub_Channels.computeIfAbsent(channel, k -> new ArrayList<>()).add(redisClient);
+            }
+            addSubscribeReply(reply, "subscribe", channel, subscriptionCount(redisClient));
+        }
+        return reply.toByteArray();
+    }
+
+    // 退订一个频道, 返回是否订阅过
+    private static boolean unsubscribeChannel(RedisServer.RedisClient redisClient, String channel) {
+        if (!redisClient.subscribedChannels.remove(channel)) {
+            return false;
+        }
+        List<RedisServer.RedisClient> clients = RedisServer.pubsub_Channels.get(channel);
+        if (clients != null) {
+            clients.remove(redisClient);
+            if (clients.isEmpty()) {
+                RedisServer.pubsub_Channels.remove(channel);
+            }
+        }
+        return true;
+    }
+
+    // UNSUBSCRIBE [channel ...], 没有参数时退订所有频道
+    public static Object unsubscribe(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        ReplyBuffer reply = new ReplyBuffer();
+        List<String> channels = redisRequest.args.isEmpty()
+                ? new ArrayList<>(redisClient.subscribedChannels) : redisRequest.args;
+        for (String channel : channels) {
+            unsubscribeChannel(redisClient, channel);
+            addSubscribeReply(reply, "unsubscribe", channel, subscriptionCount(redisClient));
+        }
+        if (channels.isEmpty()) {
+            addSubscribeReply(reply, "unsubscribe", null, subscriptionCount(redisClient));
+        }
+        return reply.toByteArray();
+    }
+
+    // PSUBSCRIBE pattern [pattern ...]
+    public static Object psubscribe(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        ReplyBuffer reply = new ReplyBuffer();
+        for (String pattern : redisRequest.args) {
+            if (!redisClient.subscribedPatterns.contains(pattern)) {
+                redisClient.subscribedPatterns.add(pattern);
+                addPattern(pattern).clients.add(redisClient);
+            }
+            addSubscribeReply(reply, "psubscribe", pattern, subscriptionCount(redisClient));
+        }
+        return reply.toByteArray();
+    }
+
+    // 退订一个模式, 返回是否订阅过
+    private static boolean unsubscribePattern(RedisServer.RedisClient redisClient, String pattern) {
+        if (!redisClient.subscribedPatterns.remove(pattern)) {
+            return false;
+        }
+        PatternSubscription sub = pubsub_patterns.get(pattern);
+        if (sub != null) {
+            sub.clients.remove(redisClient);
+            if (sub.clients.isEmpty()) {
+                removePattern(sub);
+            }
+        }
+        return true;
+    }
+
+    // PUNSUBSCRIBE [pattern ...], 没有参数时退订所有模式
+    public static Object punsubscribe(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        ReplyBuffer reply = new ReplyBuffer();
+        List<String> patterns = redisRequest.args.isEmpty()
+                ? new ArrayList<>(redisClient.subscribedPatterns) : redisRequest.args;
+        for (String pattern : patterns) {
+            unsubscribePattern(redisClient, pattern);
+            addSubscribeReply(reply, "punsubscribe", pattern, subscriptionCount(redisClient));
+        }
+        if (patterns.isEmpty()) {
+            addSubscribeReply(reply, "punsubscribe", null, subscriptionCount(redisClient));
+        }
+        return reply.toByteArray();
+    }
+
+    // 客户端断开连接时退订所有的频道和模式
+    public static void unsubscribeAll(RedisServer.RedisClient redisClient) {
+        for (String channel : new ArrayList<>(redisClient.subscribedChannels)) {
+            unsubscribeChannel(redisClient, channel);
+        }
+        for (String pattern : new ArrayList<>(redisClient.subscribedPatterns)) {
+            unsubscribePattern(redisClient, pattern);
+        }
+    }
+
+    // ============= 发布 =============
+
+    /**
+     * PUBLISH channel message
+     * @return 收到消息的客户端数量
+     */
+    public static Object publish(RedisServer.RedisRequest redisRequest) {
+        String channel = redisRequest.args.get(0);
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = redisRequest.args.get(1).getBytes(StandardCharsets.UTF_8);
+        long receivers = 0;
+
+        // 订阅了这个频道的客户端
+        List<RedisServer.RedisClient> clients = RedisServer.pubsub_Channels.get(channel);
+        if (clients != null && !clients.isEmpty()) {
+            // 每种协议只编码一次, 所有订阅者共享同一份数据
+            SharedReply[] frames = new SharedReply[2];
+            for (RedisServer.RedisClient client : clients) {
+                RedisServer.addReplyShared(client, pushFrame(frames, client.resp, MESSAGE, channelBytes, messageBytes));
+                receivers++;
+            }
+        }
+
+        // 沿着频道名走前缀树, 路径上每个节点的模式的固定前缀都是频道名的前缀
+        TrieNode node = patternTrie;
+        for (int i = 0; node != null; i++) {
+            if (node.patterns != null) {
+                for (PatternSubscription sub : node.patterns) {
+                    if (sub.pattern.matches(channel)) {
+                        receivers += publishPattern(sub, channelBytes, messageBytes);
+                    }
+                }
+            }
+            node = i < channel.length() ? node.child(channel.charAt(i)) : null;
+        }
+        return receivers;
+    }
+
+    private static long publishPattern(PatternSubscription sub, byte[] channelBytes, byte[] messageBytes) {
+        SharedReply[] frames = new SharedReply[2];
+        byte[] patternBytes = sub.pattern.pattern.getBytes(StandardCharsets.UTF_8);
+        for (RedisServer.RedisClient client : sub.clients) {
+            RedisServer.addReplyShared(client, pushFrame(frames, client.resp, PMESSAGE, patternBytes, channelBytes, messageBytes));
+        }
+        return sub.clients.size();
+    }
+
+    /**
+     * 按协议版本取推送消息, 第一次用到时编码
+     * @param frames 下标 0 是 RESP2 的数组, 1 是 RESP3 的推送
+     */
+    static SharedReply pushFrame(SharedReply[] frames, int resp, byte[]... elements) {
+        int index = resp >= 3 ? 1 : 0;
+        if (frames[index] == null) {
+            int size = 16;
+            for (byte[] element : elements) {
+                size += element.length + 16;
+            }
+            ReplyBuffer buf = new ReplyBuffer(size, resp).addPushLen(elements.length);
+            for (byte[] element : elements) {
+                buf.addBulk(element);
+            }
+            frames[index] = new SharedReply(buf.toByteArray());
+        }
+        return frames[index];
+    }
+}
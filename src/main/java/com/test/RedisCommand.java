@@ -0,0 +1,179 @@
+package com.test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 命令表
+ * 1. 每个命令的标志: 写命令 / 只读命令 / 内存不足时拒绝执行
+ * 2. 每个命令的key在参数中的位置: firstKey / lastKey / keyStep
+ *    位置和Redis一样从命令名开始计数, 命令名是0, 第一个参数是1, lastKey为负数时从末尾倒数
+ * 3. 写命令只传播真正修改了数据的执行(dirty 增加), 被修改的key由命令自己通知(WATCH/Tracking)
+ * 4. 每个命令的参数个数(arity), 和Redis一样在执行或者入队之前检查
+ * 5. 每个命令的执行统计(INFO commandstats / latencystats), 在 RedisServer.call 中记录
+ */
+public class RedisCommand {
+    static final int CMD_WRITE = 1;     // 写命令, 会修改数据
+    static final int CMD_READONLY = 2;  // 只读命令
+    static final int CMD_DENYOOM = 4;   // 可能增加内存占用, 内存不足时拒绝执行
+
+    String name;
+    int arity;    // 参数个数(包括命令名), 负数表示至少 -arity 个
+    int flags;
+    int firstKey; // 第一个key的位置, 0表示没有key
+    int lastKey;  // 最后一个key的位置, -1表示最后一个参数
+    int keyStep;  // key之间的间隔
+
+    long calls;          // 执行次数
+    long rejectedCalls;  // 执行之前被拒绝的次数(例如内存不足)
+    long failedCalls;    // 执行结果是错误的次数
+    final LatencyHistogram latency = new LatencyHistogram();  // 执行耗时(纳秒)
+
+    static final Map<String, RedisCommand> commandTable = new HashMap<>();
+
+    static {
+        addCommand("get", 2, CMD_READONLY, 1, 1, 1);
+        addCommand("set", -3, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("incr", 2, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("decr", 2, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("incrby", 3, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("decrby", 3, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("append", 3, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("setrange", 4, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("getrange", 4, CMD_READONLY, 1, 1, 1);
+        addCommand("strlen", 2, CMD_READONLY, 1, 1, 1);
+        addCommand("setbit", 4, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("getbit", 3, CMD_READONLY, 1, 1, 1);
+        addCommand("bitcount", -2, CMD_READONLY, 1, 1, 1);
+        addCommand("bitpos", -3, CMD_READONLY, 1, 1, 1);
+        addCommand("bitop", -4, CMD_WRITE | CMD_DENYOOM, 2, -1, 1);
+        addCommand("restore-string", 3, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("setex", 4, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("psetex", 4, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("expire", 3, CMD_WRITE, 1, 1, 1);
+        addCommand("pexpire", 3, CMD_WRITE, 1, 1, 1);
+        addCommand("expireat", 3, CMD_WRITE, 1, 1, 1);
+        addCommand("pexpireat", 3, CMD_WRITE, 1, 1, 1);
+        addCommand("persist", 2, CMD_WRITE, 1, 1, 1);
+        addCommand("ttl", 2, CMD_READONLY, 1, 1, 1);
+        addCommand("pttl", 2, CMD_READONLY, 1, 1, 1);
+        addCommand("del", -2, CMD_WRITE, 1, -1, 1);
+        addCommand("unlink", -2, CMD_WRITE, 1, -1, 1);
+        addCommand("exists", -2, CMD_READONLY, 1, -1, 1);
+        addCommand("mget", -2, CMD_READONLY, 1, -1, 1);
+        addCommand("mset", -3, CMD_WRITE | CMD_DENYOOM, 1, -1, 2);
+        addCommand("msetnx", -3, CMD_WRITE | CMD_DENYOOM, 1, -1, 2);
+        addCommand("keys", 2, CMD_READONLY, 0, 0, 0);
+        addCommand("select", 2, 0, 0, 0, 0);
+        addCommand("flushdb", -1, CMD_WRITE, 0, 0, 0);
+        addCommand("flushall", -1, CMD_WRITE, 0, 0, 0);
+
+        addCommand("lpush", -3, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("lrange", 4, CMD_READONLY, 1, 1, 1);
+        addCommand("blpop", -3, CMD_WRITE, 1, -2, 1);
+
+        addCommand("zadd", -4, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("zincrby", 4, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("zrem", -3, CMD_WRITE, 1, 1, 1);
+        addCommand("zcard", 2, CMD_READONLY, 1, 1, 1);
+        addCommand("zscore", 3, CMD_READONLY, 1, 1, 1);
+        addCommand("zrank", 3, CMD_READONLY, 1, 1, 1);
+        addCommand("zrevrank", 3, CMD_READONLY, 1, 1, 1);
+        addCommand("zrange", -4, CMD_READONLY, 1, 1, 1);
+        addCommand("zrevrange", -4, CMD_READONLY, 1, 1, 1);
+        addCommand("zrangebyscore", -4, CMD_READONLY, 1, 1, 1);
+        addCommand("zcount", 4, CMD_READONLY, 1, 1, 1);
+
+        addCommand("hset", -4, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("hincrby", 4, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("hdel", -3, CMD_WRITE, 1, 1, 1);
+        addCommand("hget", 3, CMD_READONLY, 1, 1, 1);
+        addCommand("hmget", -3, CMD_READONLY, 1, 1, 1);
+        addCommand("hlen", 2, CMD_READONLY, 1, 1, 1);
+        addCommand("hexists", 3, CMD_READONLY, 1, 1, 1);
+        addCommand("hgetall", 2, CMD_READONLY, 1, 1, 1);
+
+        addCommand("sadd", -3, CMD_WRITE | CMD_DENYOOM, 1, 1, 1);
+        addCommand("srem", -3, CMD_WRITE, 1, 1, 1);
+        addCommand("sismember", 3, CMD_READONLY, 1, 1, 1);
+        addCommand("scard", 2, CMD_READONLY, 1, 1, 1);
+        addCommand("smembers", 2, CMD_READONLY, 1, 1, 1);
+        addCommand("sinter", -2, CMD_READONLY, 1, -1, 1);
+        addCommand("sunion", -2, CMD_READONLY, 1, -1, 1);
+        addCommand("sdiff", -2, CMD_READONLY, 1, -1, 1);
+
+        addCommand("multi", 1, 0, 0, 0, 0);
+        addCommand("exec", 1, 0, 0, 0, 0);
+        addCommand("discard", 1, 0, 0, 0, 0);
+        addCommand("watch", -2, 0, 1, -1, 1);
+        addCommand("unwatch", 1, 0, 0, 0, 0);
+
+        addCommand("subscribe", -2, 0, 0, 0, 0);
+        addCommand("unsubscribe", -1, 0, 0, 0, 0);
+        addCommand("psubscribe", -2, 0, 0, 0, 0);
+        addCommand("punsubscribe", -1, 0, 0, 0, 0);
+        addCommand("publish", 3, 0, 0, 0, 0);
+
+        addCommand("auth", -2, 0, 0, 0, 0);
+        addCommand("ping", -1, 0, 0, 0, 0);
+        addCommand("info", -1, 0, 0, 0, 0);
+        addCommand("latency", -2, 0, 0, 0, 0);
+        addCommand("slowlog", -2, 0, 0, 0, 0);
+        addCommand("config", -2, 0, 0, 0, 0);
+        addCommand("hello", -1, 0, 0, 0, 0);
+        addCommand("client", -2, 0, 0, 0, 0);
+        addCommand("replicaof", 3, 0, 0, 0, 0);
+        addCommand("slaveof", 3, 0, 0, 0, 0);
+        addCommand("sync", 1, 0, 0, 0, 0);
+        addCommand("psync", 3, 0, 0, 0, 0);
+        addCommand("replconf", -1, 0, 0, 0, 0);
+        addCommand("cluster", -2, 0, 0, 0, 0);
+        addCommand("asking", 1, 0, 0, 0, 0);
+        addCommand("migrate", -6, 0, 0, 0, 0);
+        addCommand("command", -1, 0, 0, 0, 0);
+    }
+
+    static void addCommand(String name, int arity, int flags, int firstKey, int lastKey, int keyStep) {
+        RedisCommand command = new RedisCommand();
+        command.name = name;
+        command.arity = arity;
+        command.flags = flags;
+        command.firstKey = firstKey;
+        command.lastKey = lastKey;
+        command.keyStep = keyStep;
+        commandTable.put(name, command);
+    }
+
+    // 查找命令, 命令名不区分大小写, 找不到返回null
+    static RedisCommand lookupCommand(String name) {
+        RedisCommand command = commandTable.get(name);
+        if (command == null) {
+            command = commandTable.get(name.toLowerCase());
+        }
+        return command;
+    }
+
+    // 参数个数是否符合命令表中的 arity, args 不包含命令名
+    boolean checkArity(List<String> args) {
+        int argc = args.size() + 1;
+        return arity > 0 ? argc == arity : argc >= -arity;
+    }
+
+    boolean isWrite() {
+        return (flags & CMD_WRITE) != 0;
+    }
+
+    boolean isDenyoom() {
+        return (flags & CMD_DENYOOM) != 0;
+    }
+
+    // 最后一个key在 args 中的下标(args 不包含命令名), 没有key时返回-1
+    int lastKeyIndex(List<String> args) {
+        if (firstKey == 0) {
+            return -1;
+        }
+        int last = lastKey < 0 ? args.size() + 1 + lastKey : lastKey;
+        return Math.min(last, args.size()) - 1;
+    }
+}
@@ -79,4 +79,22 @@ public class RedisConstants {
      * (实际内部使用 QUICKLIST 实现，但编码常量仍为 REDIS_ENCODING_ZIPLIST)
      */
 
-}
\ No newline at end of file
+    /**
+     * 客户端状态 (RedisClient.flags), 每一位表示一种状态, 可以同时存在
+     */
+    public static final int REDIS_SLAVE = 1;           // 从服务器
+    public static final int REDIS_MASTER = 1 << 1;     // 主服务器
+    public static final int REDIS_MONITOR = 1 << 2;    // 从服务器监视器
+    public static final int REDIS_MULTI = 1 << 3;      // 事务中
+    public static final int REDIS_BLOCKED = 1 << 4;    // 被阻塞命令阻塞
+    public static final int REDIS_DIRTY_CAS = 1 << 5;  // 监控的key被修改, EXEC 会失败
+    public static final int REDIS_DIRTY_EXEC = 1 << 6; // 入队时出错, EXEC 会失败
+    public static final int REDIS_CLOSE_ASAP = 1 << 7; // 超过输出缓冲区限制, 在 clientsCron 中关闭
+    public static final int REDIS_MASTER_FORCE_REPLY = 1 << 8; // 临时允许向主服务器的连接写数据(握手和ACK)
+    public static final int REDIS_ASKING = 1 << 9;       // 收到 ASKING, 下一条命令可以访问正在导入的槽
+    public static final int REDIS_CLUSTER_LINK = 1 << 10; // 本节点发往其它集群节点的连接, 收到的数据丢弃
+    public static final int REDIS_TRACKING = 1 << 11;        // CLIENT TRACKING ON, 接收失效通知
+    public static final int REDIS_TRACKING_BCAST = 1 << 12;  // 按前缀广播, 不记录读过的key
+    public static final int REDIS_TRACKING_NOLOOP = 1 << 13; // 自己修改的key不通知自己
+    public static final int REDIS_TRACKING_BROKEN_REDIR = 1 << 14; // 重定向的连接已经断开
+}
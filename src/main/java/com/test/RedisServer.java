@@ -5,6 +5,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.*;
 import java.util.List;
 
@@ -27,6 +28,77 @@ public class RedisServer
     static long maxmemory = 3;//模拟最大内存大小
     static int maxmemory_policy = REDIS_MAXMEMORY_ALLKEYS_LRU;
 
+    /* 惰性删除配置: 开启后对应场景下删除的大对象交给后台线程回收 */
+    static boolean lazyfree_lazy_eviction = false;   // 内存淘汰
+    static boolean lazyfree_lazy_expire = false;     // 过期键删除
+    static boolean lazyfree_lazy_server_del = false; // 服务器内部隐式删除(例如SET覆盖旧值)
+
+    // 监听端口
+    static int port = 6379;
+
+    // 是否为过期字典维护按过期时间排序的索引, 开启后主动过期不再随机采样
+    static boolean active_expire_index = false;
+
+    /* 过期键统计 */
+    static long stat_expiredkeys = 0;          // 已经删除的过期键数量
+    static long stat_expired_lag_sum = 0;      // 过期键从到期到被删除的延迟总和(毫秒)
+    static long stat_expired_lag_max = 0;      // 最大的回收延迟(毫秒)
+    static double stat_expired_stale_perc = 0; // 随机采样估算出的已过期未删除键的比例
+
+    /* 通用统计 (INFO) */
+    static long stat_starttime = System.currentTimeMillis(); // 服务器启动时间
+    static String run_id = genRunId();         // 每次启动随机生成
+    static long stat_numcommands = 0;          // 执行的命令数
+    static long stat_numconnections = 0;       // 接受的连接数
+    static long stat_keyspace_hits = 0;        // 读操作找到key的次数
+    static long stat_keyspace_misses = 0;      // 读操作没有找到key的次数
+    static long stat_evictedkeys = 0;          // 内存淘汰删除的key数量
+    static long dirty = 0;                     // 修改数据的次数, call 据此判断写命令是否需要传播
+    static long stat_peak_memory = 0;          // serverCron 中采样到的最大堆内存
+    // 事件循环每一轮的耗时(纳秒), 不包括在 select 中等待的时间
+    static LatencyHistogram eventloop_latency = new LatencyHistogram();
+    // 每秒命令数: serverCron 每次采样一次, 取最近 STATS_METRIC_SAMPLES 次的平均值
+    static final int STATS_METRIC_SAMPLES = 16;
+    static long[] ops_sec_samples = new long[STATS_METRIC_SAMPLES];
+    static int ops_sec_idx = 0;
+    static long ops_sec_last_sample_time = System.currentTimeMillis();
+    static long ops_sec_last_sample_count = 0;
+
+    // 编码回复用的临时缓冲区超过这个大小, 用完之后换成新的小缓冲区
+    static final int REPLY_BUFFER_SHRINK_SIZE = 64 * 1024;
+    // 一次 gathering write 最多合并的回复数
+    static final int MAX_WRITE_BUFFERS = 64;
+    // 待发送的回复超过这个大小时暂停读取客户端的请求, 发送到一半以下再恢复
+    static final long REPLY_PAUSE_READ_BYTES = 1024 * 1024;
+    // 命令的回复先编码到这里再复制到客户端的回复块中 (单线程, 所有客户端共用)
+    static ReplyBuffer replyScratch = new ReplyBuffer(1024);
+
+    /* 客户端输出缓冲区限制, 按客户端类型区分 */
+    static final int CLIENT_TYPE_NORMAL = 0;
+    static final int CLIENT_TYPE_SLAVE = 1;
+    static final int CLIENT_TYPE_PUBSUB = 2;
+    static final String[] CLIENT_TYPE_NAMES = {"normal", "slave", "pubsub"};
+
+    static class ClientBufferLimit {
+        long hardLimitBytes;   // 超过立即断开, 0表示不限制
+        long softLimitBytes;   // 持续超过 softLimitSeconds 秒后断开, 0表示不限制
+        long softLimitSeconds;
+
+        ClientBufferLimit(long hardLimitBytes, long softLimitBytes, long softLimitSeconds) {
+            this.hardLimitBytes = hardLimitBytes;
+            this.softLimitBytes = softLimitBytes;
+            this.softLimitSeconds = softLimitSeconds;
+        }
+    }
+
+    // 默认值和Redis一样: 普通客户端不限制, 从服务器 256mb 64mb 60, 订阅客户端 32mb 8mb 60
+    static ClientBufferLimit[] client_obuf_limits = {
+            new ClientBufferLimit(0, 0, 0),
+            new ClientBufferLimit(256L * 1024 * 1024, 64L * 1024 * 1024, 60),
+            new ClientBufferLimit(32L * 1024 * 1024, 8L * 1024 * 1024, 60)
+    };
+    static long stat_client_outbuf_limit_disconnections = 0;
+
     // Redis的16个数据库实例
     static RedisDB[] redisDB;
     // 保存所有客户端连接的列表
@@ -44,15 +116,13 @@ public class RedisServer
         public Dict<RedisObject> dict = new Dict();
         // 存储键值对过期时间
         public Dict<Long> expires = new Dict();
+        // 按过期时间排序的过期键索引, 没有开启 active-expire-index 时为null
+        public ExpireIndex expireIndex;
         // 数据库的索引
         public int id;
 
-        // 表示redisDB所对应的客户端以及客户端监控的key
-        public List<WatchedKeyClient> watched_keys = new ArrayList<>();
-        public static class WatchedKeyClient{
-            RedisClient redisClient;
-            String key;
-        }
+        // 被监控的key -> 监控这个key的客户端
+        public Map<String, List<RedisClient>> watched_keys = new HashMap<>();
     }
 
     // 字典
@@ -95,6 +165,15 @@ public class RedisServer
             return ht[0].size() + ht[1].size();
         }
 
+        // 通用的查找方法
+        public T get(String key){
+            T value = ht[0].get(key);
+            if (value == null && rehash != -1){
+                value = ht[1].get(key);
+            }
+            return value;
+        }
+
         // dict方法
         public RedisObject getRedisObject(String key){
             if (rehash == 1){
@@ -158,33 +237,52 @@ public class RedisServer
 
     // 客户端
     static class RedisClient{
+        long id = next_client_id++;
+        String name;  // HELLO SETNAME
+        int resp = 2;  // 协议版本, HELLO 3 切换到 RESP3
+        // ===== CLIENT TRACKING =====
+        long trackingRedirectId;  // 失效通知发给这个ID的客户端, 0 表示发给自己
+        RedisClient trackingRedirect;  // 重定向的客户端, 断开之后为 null
+        Set<String> trackingPrefixes = new HashSet<>();  // BCAST 模式订阅的前缀
         // 当前连接的redis数据库
         RedisDB selectDB;
 
         byte[] queryBuf = new byte[1024];  // 输入缓冲区
         int queryBufLen;  // 输入缓冲区长度
 
-        byte[] outBuf = new byte[1024];  // 输出缓冲区
-        int outBufLen;  // 输出缓冲区长度
+        /**
+         * 待发送的回复队列, 按顺序发送
+         * 元素是客户端私有的 ReplyBlock(普通命令的回复追加在队尾的块中) 或者多个客户端共享的 SharedReply
+         */
+        ArrayDeque<Object> reply = new ArrayDeque<>();
+        ReplyBlock spareBlock;  // 发送完的块留一个下次复用, 避免每次回复都分配新块
+        int sentLen;  // 队首元素已经发送的字节数
+        long replyBytes;  // 队列中还没有发送的字节数(共享回复按完整大小计算), 用于输出缓冲区限制
+        long obufSoftLimitReachedTime;  // 第一次超过软限制的时间, 0表示没有超过
+        boolean readPaused;  // 回复积压太多, 暂停读取请求
+        long lastinteraction;  // 最后一次收到数据的时间
+
+        // ===== 主从复制, 只有从服务器的连接使用 =====
+        int slaveListeningPort;  // REPLCONF listening-port
+        long replAckOff;  // 从服务器确认的偏移量
+        long replAckTime;  // 最后一次收到 REPLCONF ACK 的时间
+        SharedReply replSnapshot;  // 还没有发送完的全量同步快照, 不计入输出缓冲区限制
 
         // ===== 非redis数据结构 =====
-        Object returnValue; // 返回值
         SocketChannel channel; // NIO连接
+        String addr;  // 客户端地址 ip:port
         // 双向记录表示订阅哪些channel
         List<String> subscribedChannels = new ArrayList<>();
+        // 订阅的模式
+        List<String> subscribedPatterns = new ArrayList<>();
 
         boolean read;  // 是否可读
         boolean write;  // 是否可写
         boolean accept;  // 是否接收连接
 
         /**
-         * 客户端状态
-         * 0: slave
-         * 1: master
-         * 2: slave monitor
-         * 3: multi 事务中 $$$
-         * 4: blocked
-         * 5: watched key modified $$$
+         * 客户端状态, 按位组合 (见 RedisConstants.REDIS_SLAVE ~ REDIS_DIRTY_EXEC)
+         * 例如事务中监控的key被修改: REDIS_MULTI | REDIS_DIRTY_CAS
          */
         int flags = 0;
         Multi.MultiState multiState;
@@ -214,8 +312,9 @@ public class RedisServer
                 int bytesToCopy = buffer.remaining();
                 // 此方法用来确保容量足够
                 ensureQueryBufCapacity(bytesToCopy);
-                buffer.get(queryBuf, 0, bytesToCopy);
-                queryBufLen = bytesToCopy;
+                // 追加在还没有处理的数据后面(上次没读完整的命令, 或者暂停读取时积压的命令)
+                buffer.get(queryBuf, queryBufLen, bytesToCopy);
+                queryBufLen += bytesToCopy;
             }finally {
                 // 无论是否成功都必须清空缓冲区
                 buffer.clear();
@@ -235,6 +334,9 @@ public class RedisServer
     // 订阅频道key表示channel value表示channel对应的redisClient
     static Map<String, List<RedisClient>> pubsub_Channels = new HashMap<>();
 
+    // 命令已经自己处理了回复(或者不需要回复), processQueryBuf 不再回复
+    static final Object NO_REPLY = new Object();
+
     // 数组对象
     static class ArrayObject {
         Object[] elements;
@@ -245,6 +347,34 @@ public class RedisServer
         }
     }
 
+    // 映射对象, key value 交替存放, RESP2 客户端收到的是数组
+    static class MapObject {
+        Object[] keysAndValues;
+
+        MapObject(Object... keysAndValues) {
+            this.keysAndValues = keysAndValues;
+        }
+    }
+
+    // 原样字符串(例如 INFO 的文本), RESP2 客户端收到的是批量字符串
+    static class VerbatimObject {
+        String format;
+        String text;
+
+        VerbatimObject(String format, String text) {
+            this.format = format;
+            this.text = text;
+        }
+    }
+
+    // 正在执行命令的客户端, 命令自己编码的回复按它的协议版本
+    static RedisClient current_client;
+    static long next_client_id = 1;
+
+    static int currentResp() {
+        return current_client == null ? 2 : current_client.resp;
+    }
+
     // 时间事件
     public static long eventTime = System.currentTimeMillis();
 
@@ -254,15 +384,21 @@ public class RedisServer
 
     private static void beforeSleep() {
         // 过期键的主动删除
+        long start = System.nanoTime();
         activeExpireCycle(true);
+        LatencyMonitor.addSampleIfNeeded("expire-cycle", System.nanoTime() - start);
+        // BCAST 模式的失效通知, 这一轮被修改的key合并发送
+        Tracking.broadcastInvalidationMessages();
     }
     public static void main( String[] args ) throws IOException, InterruptedException {
+        Config.loadServerConfigFromArgs(args);
         initServer();
 
         // 下次执行公事（例如持久化等操作）的时间
 //        long nextEventTime = System.currentTimeMillis();
         // 事件循环event loop开始
         while(true){
+            long cycleStart = System.nanoTime();
             beforeSleep();
 //            // 记录当前时间
 //            long now = System.currentTimeMillis();
@@ -285,19 +421,25 @@ public class RedisServer
             // 优化后的逻辑
             long now = System.currentTimeMillis();
             long timeout = eventTime - now;
+            // 开启过期键索引时, 最多睡到最早的key到期, 由 beforeSleep 中的快速过期及时删除
+            long nextExpireTime = nextExpireTime();
+            if (nextExpireTime != -1 && nextExpireTime - now < timeout){
+                timeout = nextExpireTime - now;
+            }
 
             // 防止timeout为0导致cpu空转
             if (timeout <= 0){
                 timeout = 1;
             }
             // 在容忍时间(timeout)里处理请求事件
-            aeProcessEvents(timeout);
+            long waited = aeProcessEvents(timeout);
 
             // 当前时间比下一次处理公共事件还要大那么就处理公事
             if (now >= eventTime){
                 serverCron();
                 eventTime = now + 1000 / hz;
             }
+            eventloop_latency.record(System.nanoTime() - cycleStart - waited);
         }
     }
 
@@ -308,11 +450,14 @@ public class RedisServer
          * 从配置文件读取配置信息
          */
         int dbCount = 16;
-        int port = 6379;
 
         redisDB = new RedisDB[dbCount];
         for (int i = 0; i < dbCount; i++){
             redisDB[i] = new RedisDB();
+            redisDB[i].id = i;
+            if (active_expire_index){
+                redisDB[i].expireIndex = new ExpireIndex();
+            }
         }
 
         // 打开通道
@@ -325,12 +470,26 @@ public class RedisServer
         selector = Selector.open();
         // 注册channel到选择器
         serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        // 启动惰性删除的后台回收线程
+        LazyFree.start();
+        // 启动写日志的后台线程
+        Log.start();
+
+        if (Cluster.cluster_enabled){
+            Cluster.init();
+        }
     }
 
-    // 处理请求事件
-    private static void aeProcessEvents(long timeout) throws IOException {
+    /**
+     * 处理请求事件
+     * @return 在 select 中等待的时间(纳秒)
+     */
+    private static long aeProcessEvents(long timeout) throws IOException {
+        long start = System.nanoTime();
         // 此方法会使当前线程进入休眠状态, 直到有I/O事件发生或者超时
         selector.select(timeout);
+        long waited = System.nanoTime() - start;
         // 将所有选择键移到selectedKeys集合中(SelectionKey表示一个channel在Selector上注册它包含了该channel的事件兴趣和状态)
         Set<SelectionKey> selectionKeys = selector.selectedKeys();
         // 使用迭代器遍历selectedKeys集合
@@ -340,12 +499,23 @@ public class RedisServer
             SelectionKey key = iterator.next();
             // 将选择键从selectedKeys集合中移除，以防误重复处理
             iterator.remove();
+            // 同一批事件中前面的处理可能已经关闭了这个连接(例如 REPLICAOF 断开从服务器)
+            if (!key.isValid()){
+                continue;
+            }
             // 处理事件
             // System.out.println("处理事件:" + key);
 
             if (key.isAcceptable()){
                 // 接收连接
                 handleAccept(key);
+            }else if (key.isConnectable()){
+                // 连接其它集群节点, 或者从服务器连接主服务器
+                if (key.attachment() instanceof Cluster.ClusterNode){
+                    Cluster.handleConnect(key);
+                }else {
+                    Replication.handleConnect(key);
+                }
             }else if (key.isReadable()){
                 handleRead(key);
             }else if (key.isWritable()){
@@ -353,6 +523,7 @@ public class RedisServer
                 handleWrite(key);
             }
         }
+        return waited;
     }
 
     /**
@@ -366,14 +537,16 @@ public class RedisServer
         SocketChannel clientChannel = serverSocketChannel.accept();
         if (clientChannel == null) return;
 
-
-        System.out.println("接受连接" + clientChannel);
+        stat_numconnections++;
         clientChannel.configureBlocking(false);
 
         /*==注册可读事件==*/
         clientChannel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(1024));
         // 为客户端绑定socket
         redisClient.channel = clientChannel;
+        InetSocketAddress remote = (InetSocketAddress) clientChannel.getRemoteAddress();
+        redisClient.addr = remote.getAddress().getHostAddress() + ":" + remote.getPort();
+        Log.verbose("Accepted " + redisClient.addr);
         // 默认选择0号数据库
         redisClient.selectDB = redisDB[0];
 
@@ -405,16 +578,217 @@ public class RedisServer
             }
         } catch (IOException e) {
             closeClient(socketChannel, key, redisClient);
+            return;
         }
         // System.out.println("读取数据" +  new String(buffer.array()));
+        redisClient.lastinteraction = System.currentTimeMillis();
+        // 发往其它集群节点的连接上对方不回复, 收到的数据(例如错误)直接丢弃
+        if ((redisClient.flags & RedisConstants.REDIS_CLUSTER_LINK) != 0){
+            buffer.clear();
+            return;
+        }
 
         // 将缓冲区数据移动到queryBuf中
         redisClient.appendToQueryBuf(buffer);
+        // 主服务器的连接先处理握手的回复, 之后才是快照和命令流
+        if (redisClient == Replication.master && Replication.repl_state == Replication.REPL_STATE_TRANSFER
+                && !Replication.processSyncReply(redisClient)){
+            return;
+        }
         // 处理客户端缓冲区的内容
         processQueryBuf(redisClient);
     }
 
 
+    /**
+     * 把回复追加到客户端的输出队列, 并注册写事件
+     */
+    static void addReply(RedisClient client, Object reply) {
+        ReplyBuffer scratch = replyScratch.reset();
+        scratch.resp = client.resp;
+        scratch.addReply(reply);
+        appendReply(client, scratch.buf, scratch.len);
+        // 偶尔的大回复不要一直占着内存
+        if (scratch.buf.length > REPLY_BUFFER_SHRINK_SIZE) {
+            replyScratch = new ReplyBuffer(1024);
+        }
+    }
+
+    // 追加已经编码好的回复
+    static void addReplyRaw(RedisClient client, byte[] data) {
+        appendReply(client, data, data.length);
+    }
+
+    // 追加共享的回复, 只放入引用
+    static void addReplyShared(RedisClient client, SharedReply shared) {
+        if (!prepareClientToWrite(client)) {
+            return;
+        }
+        shared.retain();
+        client.reply.addLast(shared);
+        client.replyBytes += shared.data.length;
+        afterReplyAdded(client);
+    }
+
+    // 把数据复制到队尾的块中, 队尾的块写满(或者队尾是共享回复)时新开一个块
+    private static void appendReply(RedisClient client, byte[] data, int length) {
+        if (!prepareClientToWrite(client)) {
+            return;
+        }
+        Object last = client.reply.peekLast();
+        ReplyBlock tail = last instanceof ReplyBlock ? (ReplyBlock) last : null;
+        int off = 0;
+        while (off < length) {
+            if (tail == null || tail.free() == 0) {
+                tail = newReplyBlock(client);
+                client.reply.addLast(tail);
+            }
+            off += tail.append(data, off, length - off);
+        }
+        client.replyBytes += length;
+        afterReplyAdded(client);
+    }
+
+    /**
+     * 客户端是否接收回复
+     * 1. 马上要被关闭的客户端不再接收回复
+     * 2. 主服务器发来的命令不回复, 只有从服务器主动发给主服务器的命令(握手, ACK)带上 REDIS_MASTER_FORCE_REPLY 写出
+     */
+    private static boolean prepareClientToWrite(RedisClient client) {
+        if ((client.flags & RedisConstants.REDIS_CLOSE_ASAP) != 0) {
+            return false;
+        }
+        return (client.flags & RedisConstants.REDIS_MASTER) == 0
+                || (client.flags & RedisConstants.REDIS_MASTER_FORCE_REPLY) != 0;
+    }
+
+    private static ReplyBlock newReplyBlock(RedisClient client) {
+        ReplyBlock block = client.spareBlock;
+        if (block == null) {
+            return new ReplyBlock();
+        }
+        client.spareBlock = null;
+        return block;
+    }
+
+    private static void afterReplyAdded(RedisClient client) {
+        installWriteHandler(client);
+        // 超过硬限制的客户端马上标记关闭, 软限制的持续时间在 clientsCron 中检查
+        if (checkClientOutputBufferLimits(client)) {
+            asyncCloseClient(client);
+            return;
+        }
+        // 主从之间的连接不暂停: 从服务器的 REPLCONF ACK 读不到会被当成超时断开, 积压由输出缓冲区限制处理
+        if (!client.readPaused && client.replyBytes >= REPLY_PAUSE_READ_BYTES
+                && (client.flags & (RedisConstants.REDIS_SLAVE | RedisConstants.REDIS_MASTER)) == 0) {
+            pauseClientReading(client);
+        }
+    }
+
+    // 发送完成(或者断开连接)后释放队首元素
+    private static void releaseReplyHead(RedisClient client) {
+        Object head = client.reply.pollFirst();
+        client.sentLen = 0;
+        if (head == client.replSnapshot) {
+            client.replSnapshot = null;
+        }
+        if (head instanceof SharedReply) {
+            ((SharedReply) head).release();
+        } else if (head instanceof ReplyBlock && client.spareBlock == null) {
+            ReplyBlock block = (ReplyBlock) head;
+            block.used = 0;
+            client.spareBlock = block;
+        }
+    }
+
+    // 丢弃所有待发送的回复
+    static void freeClientReplies(RedisClient client) {
+        while (!client.reply.isEmpty()) {
+            releaseReplyHead(client);
+        }
+        client.replyBytes = 0;
+    }
+
+    // ============= 输出缓冲区限制 =============
+
+    static int getClientType(RedisClient client) {
+        if ((client.flags & RedisConstants.REDIS_SLAVE) != 0) {
+            return CLIENT_TYPE_SLAVE;
+        }
+        if (!client.subscribedChannels.isEmpty() || !client.subscribedPatterns.isEmpty()) {
+            return CLIENT_TYPE_PUBSUB;
+        }
+        return CLIENT_TYPE_NORMAL;
+    }
+
+    /**
+     * 检查客户端的输出是否超过了限制, 同时维护超过软限制的开始时间
+     * @return 超过硬限制, 或者超过软限制的时间达到了 softLimitSeconds 时返回true
+     */
+    static boolean checkClientOutputBufferLimits(RedisClient client) {
+        ClientBufferLimit limit = client_obuf_limits[getClientType(client)];
+        long used = client.replyBytes;
+        if (client.replSnapshot != null) {
+            // 快照是一次性生成的, 只限制快照之后积压的命令流
+            int sent = client.reply.peekFirst() == client.replSnapshot ? client.sentLen : 0;
+            used -= client.replSnapshot.data.length - sent;
+        }
+        if (limit.hardLimitBytes > 0 && used >= limit.hardLimitBytes) {
+            return true;
+        }
+        if (limit.softLimitBytes > 0 && used >= limit.softLimitBytes) {
+            long now = System.currentTimeMillis();
+            if (client.obufSoftLimitReachedTime == 0) {
+                client.obufSoftLimitReachedTime = now;
+                return false;
+            }
+            return now - client.obufSoftLimitReachedTime >= limit.softLimitSeconds * 1000;
+        }
+        client.obufSoftLimitReachedTime = 0;
+        return false;
+    }
+
+    // 标记客户端在 clientsCron 中关闭, 不在发送回复的调用栈中直接关闭连接
+    private static void asyncCloseClient(RedisClient client) {
+        if ((client.flags & RedisConstants.REDIS_CLOSE_ASAP) != 0) {
+            return;
+        }
+        client.flags |= RedisConstants.REDIS_CLOSE_ASAP;
+        stat_client_outbuf_limit_disconnections++;
+        Log.warning("Client " + client.addr + " scheduled to be closed ASAP for overcoming of output buffer limits. ("
+                + CLIENT_TYPE_NAMES[getClientType(client)] + ", " + client.replyBytes + " bytes)");
+        // 已经积压的回复不会再发送了, 马上释放
+        freeClientReplies(client);
+    }
+
+    // 回复积压时不再读取新的请求, 让 TCP 的流量控制把压力传回给客户端
+    private static void pauseClientReading(RedisClient client) {
+        client.readPaused = true;
+        SelectionKey key = client.channel == null ? null : client.channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private static void resumeClientReading(RedisClient client, SelectionKey key) {
+        client.readPaused = false;
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        // 暂停期间已经读进来的请求继续处理
+        processQueryBuf(client);
+    }
+
+    private static void installWriteHandler(RedisClient client) {
+        if (client.write || client.channel == null) {
+            return;
+        }
+        client.write = true;
+        SelectionKey key = client.channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            // 叠加事件(让一个连接具备多种状态)
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
     /**
      * 处理写事件
      * @param key
@@ -425,85 +799,57 @@ public class RedisServer
         if (client == null){
             return;
         }
-        Object returnValue = client.returnValue;
-
         SocketChannel socketChannel = (SocketChannel) key.channel();
 
-        // ============= 新增 RESP 协议封装逻辑 =============
-        if (client.returnValue == null) {
-            // redis resp null处理 "$"代表是字符串 resp必须以"\r\n"结尾
-            client.outBuf = "$-1\r\n".getBytes(StandardCharsets.UTF_8);
-        } else if (client.returnValue instanceof String) {
-            // 如果是String类型
-            String rawValue = (String) client.returnValue;
-            // 判断响应类型（示例逻辑，需根据实际命令完善）
-            if ("OK".equals(rawValue)) {
-                // 如果返回OK那么就按照简单字符串的resp协议来进行封装
-                client.outBuf = RespUtil.formatSimpleString(rawValue); // +OK\r\n
-            } else {
-                // 其他字符串就按大字符串的resp协议进行封装 "$长度\r\n内容\r\n"
-                client.outBuf = RespUtil.formatBulkString(rawValue);    // $5\r\n内容\r\n
-            }
-        } else if (client.returnValue instanceof Integer) {
-            // 如果是Integer类型那么就按:数值"\r\n"进行封装
-            client.outBuf = RespUtil.formatInteger((Integer) client.returnValue); // :42\r\n
-        } else if (client.returnValue instanceof Long) {
-            Long retValue = (Long) client.returnValue;
-            int i = retValue.intValue();
-            client.outBuf = RespUtil.formatInteger(i); // :42\r\n
-        }  else if (client.returnValue instanceof Throwable) {
-            // 如果是错误描述那么封装为 "-ERR 错误描述\r\n"
-            Throwable status = (Throwable) client.returnValue;
-            client.outBuf = RespUtil.formatError(status.getMessage()); // -ERR...
-        }else if (client.returnValue instanceof ErrorObject){
-            client.outBuf = RespUtil.formatError(((ErrorObject) client.returnValue).message);
-        }else if (client.returnValue instanceof ArrayObject) {
-            ArrayObject retValue = (ArrayObject) client.returnValue;
-            client.outBuf = RespUtil.formatArray(retValue.elements);
-        }
-
-        // ================================================
-
-        // 将字节数组包装成 Buffer，因为 NIO 的 Channel 只认 Buffer
-        ByteBuffer buffer = ByteBuffer.wrap(client.outBuf);
         try {
-            // 记录本次成功写入的长度
-            int totalWritten = 0;
-            // 如果buffer中还有数据没有写入
-            while (buffer.hasRemaining()) {
-                int bytesWritten = socketChannel.write(buffer);
-                // 如果wirte()返回0，则说明网络缓冲区被瞬间写满了必须立刻break
-                if (bytesWritten <= 0) break;
-                // 如果正常写入就将写入长度的记录加上
-                totalWritten += bytesWritten;
-            }
-
-            // 如果buffer中还有数据没有写完
-            if (buffer.hasRemaining()) {
-                // 分片写入优化
-                // 此处做二次判断是为了性能上的优化
-                // 1: 如果网络极其拥塞一个字节也没发出去, 那么如果不加此判断就会导致创建一个新的内存块影响性能
-                // 2: 同时二次判断截取数组是为了对齐已发送的数据和剩余未发送的数据
-                if (totalWritten < client.outBuf.length) {
-                    client.outBuf = Arrays.copyOfRange(
-                            client.outBuf, totalWritten, client.outBuf.length
-                    );
+            // 每次把队列前面的若干个元素一起交给 socket (gathering write), 共享回复直接从共享的数组发送
+            while (!client.reply.isEmpty()) {
+                ByteBuffer[] buffers = new ByteBuffer[Math.min(client.reply.size(), MAX_WRITE_BUFFERS)];
+                int n = 0;
+                for (Object item : client.reply) {
+                    if (n == buffers.length) {
+                        break;
+                    }
+                    int offset = n == 0 ? client.sentLen : 0;
+                    if (item instanceof SharedReply) {
+                        byte[] data = ((SharedReply) item).data;
+                        buffers[n++] = ByteBuffer.wrap(data, offset, data.length - offset);
+                    } else {
+                        ReplyBlock block = (ReplyBlock) item;
+                        buffers[n++] = ByteBuffer.wrap(block.buf, offset, block.used - offset);
+                    }
+                }
+                long written = socketChannel.write(buffers, 0, n);
+                client.replyBytes -= written;
+                // 释放已经发送完的元素, 没发完的记下发送到的位置, 下次从这里继续, 不需要复制
+                for (int i = 0; i < n; i++) {
+                    if (buffers[i].hasRemaining()) {
+                        client.sentLen = buffers[i].position();
+                        break;
+                    }
+                    releaseReplyHead(client);
                 }
+                // 如果wirte()返回0，则说明网络缓冲区被写满了必须立刻break
+                if (written <= 0 || buffers[n - 1].hasRemaining()) {
+                    break;
+                }
+            }
+
+            if (!client.reply.isEmpty()) {
                 // 数据没有发完确保继续写,所以这里叠加一次写事件
                 key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
                 client.write = true;
             } else {
-                // 状态清零与事件切换
-                //client.outBuf = null;
-                client.returnValue = null;
                 // 取消写事件
                 // 用位运算的原因是避免干扰到其他可能存在的状态，只单独取消写事件
                 key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
-                //key.interestOps(SelectionKey.OP_READ);
                 client.write = false;
             }
+            if (client.readPaused && client.replyBytes < REPLY_PAUSE_READ_BYTES / 2) {
+                resumeClientReading(client, key);
+            }
         } catch (Exception e) {
-            System.out.println("write error: " + e.getMessage());
+            Log.verbose("Error writing to client " + client.addr + ": " + e.getMessage());
             closeClient(socketChannel, key, client); // 需实现资源释放
         }
     }
@@ -518,13 +864,18 @@ public class RedisServer
      * 4: queryBuf可以构成多个完整的resp(2个以上) (都是完整的)
      */
     private static void processQueryBuf(RedisClient client) {
-        while (client.queryBufLen > 0) {
+        // 暂停读取时也不处理已经读进来的请求, 否则回复还会继续积压
+        while (client.queryBufLen > 0 && !client.readPaused) {
             RedisRequest redisRequest = new RedisRequest();
             // 读取命令
             int processed = RespUtil.parseCommand(client.queryBuf, 0, client.queryBufLen, redisRequest);
 
             if (processed > 0) {
                 // 处理完整命令
+                if ((client.flags & RedisConstants.REDIS_MASTER) != 0){
+                    // 主服务器的命令流在平移之前原样转发
+                    Replication.masterProcessed(client.queryBuf, processed);
+                }
                 // 内存平移
                 // 切割剩下的数据(虽然读进来了，但还没来得及处理的残余字节)
                 byte[] remaining = Arrays.copyOfRange(client.queryBuf, processed, client.queryBufLen);
@@ -539,18 +890,12 @@ public class RedisServer
                 }catch (Exception e){
                     result = new ErrorObject("Error Args or Command, Please check your Command!");
                 }
-                // 如果有返回值才注册写事件
-                if (result != null) {
-                    // 标记回复状态
-                    client.returnValue = result;
-                    client.write = true;
-
-                    // 注册写事件
-                    SelectionKey key = client.channel.keyFor(selector);
-                    // 叠加事件(让一个连接具备多种状态)
-                    // eg: 为了不丢失之前事件的状态，需要使用位运算叠加
-                    // 如果客户端在发完第一个指令后紧接着发了第二个指令，服务器就会因为不再关注“读”事件而完全听不到，导致请求丢失或延迟
-                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                // 返回null的命令(例如GET不存在的key)回复空值, 只有被阻塞的客户端和 NO_REPLY 不回复
+                if (result == NO_REPLY) {
+                    continue;
+                }
+                if (result != null || (client.flags & RedisConstants.REDIS_BLOCKED) == 0) {
+                    addReply(client, result);
                 }
             } else if (processed == 0) {
                 break; // 数据不完整，等待下次读取
@@ -562,18 +907,250 @@ public class RedisServer
     }
 
     public static Object lookUpKeyRead(RedisDB redisDB, String key){
+        RedisObject redisObject = lookUpKeyReadObject(redisDB, key);
+        return redisObject == null ? null : redisObject.value;
+    }
+
+    // 读操作查找key, 返回整个RedisObject(用于需要检查类型和编码的命令), 同时统计命中率
+    static RedisObject lookUpKeyReadObject(RedisDB redisDB, String key){
+        RedisObject redisObject = lookUpKeyWrite(redisDB, key);
+        // 从服务器不删除过期键, 但是对读命令表现得和已经删除一样
+        if (redisObject != null && Replication.isReplica() && keyIsExpired(redisDB, key)){
+            redisObject = null;
+        }
+        if (redisObject == null){
+            stat_keyspace_misses ++;
+        }else {
+            stat_keyspace_hits ++;
+        }
+        // 开启了跟踪的客户端读过的key, 修改时通知它
+        Tracking.rememberKey(key);
+        return redisObject;
+    }
+
+    // 写操作查找key, 不计入命中率
+    static RedisObject lookUpKeyWrite(RedisDB redisDB, String key){
         // 惰性删除
         expireIfNeeded(redisDB, key);
-        return lookUpKey(redisDB, key);
+        RedisObject redisObject = redisDB.dict.getRedisObject(key);
+        if (redisObject != null){
+            redisObject.lru = System.currentTimeMillis();
+        }
+        return redisObject;
     }
 
-    // 惰性删除
+    /**
+     * 惰性删除
+     * 从服务器的过期键由主服务器传播的 DEL 删除, 这样主从删除的时机和顺序一致
+     */
     private static void expireIfNeeded(RedisDB redisDB, String key) {
         Long expireTime = redisDB.expires.getTTL(key);
-        if (expireTime != null && expireTime <= System.currentTimeMillis()){
-            redisDB.dict.remove(key);
-            redisDB.expires.remove(key);
+        long now = System.currentTimeMillis();
+        if (expireTime != null && expireTime <= now && !Replication.isReplica()){
+            dbDelete(redisDB, key, lazyfree_lazy_expire);
+            updateExpiredStats(now - expireTime);
+            Tracking.invalidateKey(key);
+            Replication.propagate(redisDB, "DEL", key);
+        }
+    }
+
+    static boolean keyIsExpired(RedisDB redisDB, String key) {
+        Long expireTime = redisDB.expires.getTTL(key);
+        return expireTime != null && expireTime <= System.currentTimeMillis();
+    }
+
+    // 记录一个过期键被删除, lag 是从到期到被删除经过的时间
+    private static void updateExpiredStats(long lag) {
+        stat_expiredkeys ++;
+        stat_expired_lag_sum += lag;
+        if (lag > stat_expired_lag_max){
+            stat_expired_lag_max = lag;
+        }
+    }
+
+    // 设置key的过期时间(毫秒时间戳)
+    static void setExpire(RedisDB redisDB, String key, long when) {
+        if (redisDB.expireIndex != null){
+            Long old = redisDB.expires.getTTL(key);
+            if (old != null){
+                redisDB.expireIndex.remove(key, old);
+            }
+            redisDB.expireIndex.add(key, when);
+        }
+        redisDB.expires.set(key, when);
+    }
+
+    /**
+     * EXPIRE/PEXPIRE/EXPIREAT/PEXPIREAT key time
+     * @param basetime 相对时间的基准, 0 表示参数是时间戳
+     * @param seconds 参数的单位是秒
+     * @return key不存在返回0
+     */
+    static Object expire(RedisDB redisDB, RedisRequest redisRequest, long basetime, boolean seconds) {
+        if (redisRequest.args.size() != 2){
+            return new ErrorObject("ERR wrong number of arguments for '" + redisRequest.command.toLowerCase() + "' command");
+        }
+        long[] ll = new long[1];
+        if (!RedisSet.string2ll(redisRequest.args.get(1), ll)){
+            return new ErrorObject("ERR value is not an integer or out of range");
+        }
+        long when = ll[0];
+        // 过期时间已经过去的key之后由惰性删除或者定期删除处理, 这样删除仍然以 DEL 传播
+        if (seconds){
+            if (when > Long.MAX_VALUE / 1000 || when < Long.MIN_VALUE / 1000){
+                return new ErrorObject("ERR invalid expire time in '" + redisRequest.command.toLowerCase() + "' command");
+            }
+            when *= 1000;
+        }
+        if (when > Long.MAX_VALUE - basetime){
+            return new ErrorObject("ERR invalid expire time in '" + redisRequest.command.toLowerCase() + "' command");
+        }
+        when += basetime;
+        String key = redisRequest.args.get(0);
+        if (lookUpKeyWrite(redisDB, key) == null){
+            return 0;
+        }
+        setExpire(redisDB, key, when);
+        signalModifiedKey(redisDB, key);
+        return 1;
+    }
+
+    /**
+     * TTL/PTTL key
+     * @return key不存在返回-2, 没有过期时间返回-1, TTL 四舍五入到秒
+     */
+    static Object ttl(RedisDB redisDB, String key, boolean milliseconds) {
+        if (lookUpKeyReadObject(redisDB, key) == null){
+            return -2L;
+        }
+        Long when = redisDB.expires.getTTL(key);
+        if (when == null){
+            return -1L;
+        }
+        long ttl = Math.max(0, when - System.currentTimeMillis());
+        return milliseconds ? ttl : (ttl + 500) / 1000;
+    }
+
+    // 移除key的过期时间
+    static void removeExpire(RedisDB redisDB, String key) {
+        if (redisDB.expireIndex != null){
+            Long old = redisDB.expires.getTTL(key);
+            if (old != null){
+                redisDB.expireIndex.remove(key, old);
+            }
+        }
+        redisDB.expires.remove(key);
+    }
+
+    // 所有数据库中最早的过期时间, 只有开启了过期键索引才能O(1)得到, 否则返回-1
+    static long nextExpireTime() {
+        long next = -1;
+        for (RedisDB db : redisDB){
+            if (db.expireIndex == null){
+                continue;
+            }
+            long when = db.expireIndex.nextExpireTime();
+            if (when != -1 && (next == -1 || when < next)){
+                next = when;
+            }
+        }
+        return next;
+    }
+
+    // 开启或关闭过期键索引, 开启时需要用现有的过期字典重建索引
+    static void setActiveExpireIndex(boolean enabled) {
+        active_expire_index = enabled;
+        if (redisDB == null){
+            // 启动参数在 initServer 之前加载, 由 initServer 创建索引
+            return;
+        }
+        for (RedisDB db : redisDB){
+            if (!enabled){
+                db.expireIndex = null;
+                continue;
+            }
+            if (db.expireIndex != null){
+                continue;
+            }
+            ExpireIndex expireIndex = new ExpireIndex();
+            for (Hashtable<String, Long> table : db.expires.ht){
+                for (Map.Entry<String, Long> entry : table.entrySet()){
+                    expireIndex.add(entry.getKey(), entry.getValue());
+                }
+            }
+            db.expireIndex = expireIndex;
+        }
+    }
+
+    // 添加一个新的key, 调用方需要保证key不存在
+    static void dbAdd(RedisDB redisDB, String key, RedisObject redisObject) {
+        redisDB.dict.set(key, redisObject);
+        Cluster.slotKeyAdd(redisDB, key);
+    }
+
+    /**
+     * 设置key的值, 不论key是否存在
+     * 覆盖旧值时, 旧值的释放属于服务器内部的隐式删除, 由 lazyfree-lazy-server-del 决定是否异步释放
+     * @param keepTtl 保留旧的过期时间(SET KEEPTTL), 否则新值没有过期时间
+     */
+    static void setKey(RedisDB redisDB, String key, RedisObject redisObject, boolean keepTtl) {
+        if (!keepTtl && redisDB.expires.getDictSize() > 0){
+            removeExpire(redisDB, key);
+        }
+        RedisObject old = redisDB.dict.getRedisObject(key);
+        redisDB.dict.set(key, redisObject);
+        if (old == null){
+            Cluster.slotKeyAdd(redisDB, key);
+        }
+        // 同步释放只是丢弃旧值的引用, 由GC回收
+        if (old != null && old != redisObject && lazyfree_lazy_server_del){
+            LazyFree.freeObjectAsync(old);
+        }
+    }
+
+    /**
+     * 删除key
+     * @param lazy 为true时只把value从字典中摘除, 大对象交给后台线程释放
+     * @return key是否存在
+     */
+    static boolean dbDelete(RedisDB redisDB, String key, boolean lazy) {
+        // 过期字典中没有value, 直接删除即可
+        if (redisDB.expires.getDictSize() > 0){
+            removeExpire(redisDB, key);
+        }
+        RedisObject redisObject = redisDB.dict.getRedisObject(key);
+        if (redisObject == null){
+            return false;
+        }
+        redisDB.dict.remove(key);
+        Cluster.slotKeyDel(redisDB, key);
+        if (lazy){
+            LazyFree.freeObjectAsync(redisObject);
         }
+        return true;
+    }
+
+    /**
+     * 清空数据库
+     * 两种方式都换上新的空字典, 主线程开销为O(1)
+     * @param async 为true时旧字典交给后台线程释放, 否则直接丢弃由GC回收
+     * @return 被删除的key的数量
+     */
+    static long emptyDb(RedisDB redisDB, boolean async) {
+        long removed = redisDB.dict.getDictSize();
+        Multi.touchAllWatchedKeysInDb(redisDB);
+        Cluster.slotKeysClear(redisDB);
+        Dict<RedisObject> oldDict = redisDB.dict;
+        Dict<Long> oldExpires = redisDB.expires;
+        redisDB.dict = new Dict<>();
+        redisDB.expires = new Dict<>();
+        if (redisDB.expireIndex != null){
+            redisDB.expireIndex = new ExpireIndex();
+        }
+        if (async){
+            LazyFree.emptyDbAsync(oldDict, oldExpires);
+        }
+        return removed;
     }
     // 寻找key对应的value
     private static Object lookUpKey(RedisDB redisDB, String key) {
@@ -588,7 +1165,6 @@ public class RedisServer
 
 
     public static Object processCommand(RedisClient redisClient, RedisRequest redisRequest) {
-        System.out.println("handle command: " + redisRequest.command + " args: " + redisRequest.args);
         RedisDB selectedDB = redisClient.selectDB;
         // 为了防止连接redis client发送command命令，这里对command进行过滤
         if("command".equalsIgnoreCase(redisRequest.command)){
@@ -600,33 +1176,74 @@ public class RedisServer
         }
         String command = redisRequest.command;
 
-        // 如果当前正在事务状态中并且命令不是控制事务本身的命令，则加入事务队列
-        if (redisClient.flags == 3 &&
-                !command.equalsIgnoreCase(Multi.MULTI) && !command.equalsIgnoreCase(Multi.DISCARD) &&
-                !command.equalsIgnoreCase(Multi.WATCH) && !command.equalsIgnoreCase(Multi.EXEC)) {
-            Multi.queueMultiCommand(redisClient, redisRequest);
-            return "OK";
+        // 参数个数不对的命令不执行, 事务中入队之前就让整个事务失败
+        RedisCommand redisCommand = RedisCommand.lookupCommand(command);
+        if (redisCommand != null && !redisCommand.checkArity(redisRequest.args)){
+            redisCommand.rejectedCalls ++;
+            Multi.flagTransaction(redisClient);
+            return new ErrorObject("ERR wrong number of arguments for '" + redisCommand.name + "' command");
+        }
+
+        // 集群模式下检查key所在的槽是否由本节点负责
+        if (Cluster.cluster_enabled){
+            Object redirect = Cluster.getNodeByQuery(redisClient, redisRequest);
+            if (redirect != null){
+                Multi.flagTransaction(redisClient);
+                return redirect;
+            }
+        }
+
+        // 只读的从服务器只执行主服务器发来的写命令
+        if (Replication.isReplica() && Replication.repl_slave_ro && (redisClient.flags & RedisConstants.REDIS_MASTER) == 0){
+            if (redisCommand != null && redisCommand.isWrite()){
+                Multi.flagTransaction(redisClient);
+                return new ErrorObject("READONLY You can't write against a read only replica.");
+            }
         }
 
-        // 内存淘汰策略
-        if (maxmemory > 0){
+        // 内存淘汰策略, 从服务器不淘汰key, 和主服务器保持一致
+        if (maxmemory > 0 && !Replication.isReplica()){
             // 每次set的时候都要检查内存
+            long start = System.nanoTime();
             int retval = freeMemoryIfNeeded();
-            if (retval == -1 && isCmdDenyoom(redisRequest.command)){
-                // 等于-1代表失败
-                return new ErrorObject("OOM Command not allowed when used mempry > 'maxmemory'.");
+            if (retval > 0){
+                LatencyMonitor.addSampleIfNeeded("eviction-cycle", System.nanoTime() - start);
+            }
+            if (retval == -1 && redisCommand != null && redisCommand.isDenyoom()){
+                // 等于-1代表失败, 事务中入队失败的命令会让整个事务失败
+                redisCommand.rejectedCalls ++;
+                Multi.flagTransaction(redisClient);
+                return new ErrorObject("OOM command not allowed when used memory > 'maxmemory'.");
             }
         }
 
+        // RESP2 的订阅模式下回复和消息没有区别, 只允许订阅相关的命令; RESP3 的消息是推送类型, 可以执行任意命令
+        if (redisClient.resp == 2 && (!redisClient.subscribedChannels.isEmpty() || !redisClient.subscribedPatterns.isEmpty())
+                && !PubSub.allowedInSubscribeContext(command)){
+            return new ErrorObject("ERR Can't execute '" + command.toLowerCase()
+                    + "': only (P)SUBSCRIBE / (P)UNSUBSCRIBE / PING / QUIT / RESET are allowed in this context");
+        }
+
+        // 如果当前正在事务状态中并且命令不是控制事务本身的命令，则加入事务队列
+        if ((redisClient.flags & RedisConstants.REDIS_MULTI) != 0 &&
+                !command.equalsIgnoreCase(Multi.MULTI) && !command.equalsIgnoreCase(Multi.DISCARD) &&
+                !command.equalsIgnoreCase(Multi.WATCH) && !command.equalsIgnoreCase(Multi.EXEC)) {
+            return Multi.queueMultiCommand(redisClient, redisRequest);
+        }
+
         return call(redisClient, redisRequest, selectedDB, key);
     }
 
-    private static int freeMemoryIfNeeded() {
-        long dbSize = getDbSize();
+    static int freeMemoryIfNeeded() {
+        long dbSize = getUsedMemory();
         if (dbSize < maxmemory){
             // 内存充足
             return 0;
         }
+        if (getDbSize() < maxmemory){
+            // 超出的部分全部是等待后台线程回收的对象, 回收完成后内存自然会降下来, 不需要再淘汰key
+            return 0;
+        }
 
         // 内存不足并且内存淘汰策略是 noeviction的情况下直接返回-1抛出异常
         if (maxmemory_policy == REDIS_MAXMEMORY_NO_EVICTION){
@@ -706,11 +1323,15 @@ public class RedisServer
                 }
 
                 if (deleteKey != null){
-                    System.out.println("内存淘汰,策略: " + maxmemory_policy + " 删除key: " + deleteKey);
+                    if (Log.enabled(Log.LL_DEBUG)) {
+                        Log.debug("内存淘汰,策略: " + Config.MAXMEMORY_POLICY_NAMES[maxmemory_policy] + " 删除key: " + deleteKey);
+                    }
                     // 删除key
                     key_freed = true;
-                    redisDB[i].dict.remove(deleteKey);
-                    redisDB[i].expires.remove(deleteKey);
+                    dbDelete(redisDB[i], deleteKey, lazyfree_lazy_eviction);
+                    signalModifiedKey(redisDB[i], deleteKey);
+                    Replication.propagate(redisDB[i], "DEL", deleteKey);
+                    stat_evictedkeys ++;
                     mem_freed += 1;
                 }
 
@@ -756,99 +1377,247 @@ public class RedisServer
         return size;
     }
 
-    public static boolean isCmdDenyoom(String command) {
-        return "set".equalsIgnoreCase(command) || "setnx".equalsIgnoreCase(command);
+    // 已使用内存 = 数据库中的key + 已经摘除但还在等待后台线程回收的对象
+    static long getUsedMemory(){
+        return getDbSize() + LazyFree.pendingObjects();
     }
 
+    /**
+     * 执行命令
+     * 被修改的key由命令自己通知, 写命令执行期间 dirty 增加了才传播, 没有修改数据的写命令(例如删除不存在的key)不传播
+     */
     public static Object call(RedisClient redisClient, RedisRequest redisRequest, RedisDB selectedDB, String key) {
+        RedisCommand redisCommand = RedisCommand.lookupCommand(redisRequest.command);
+        long start = System.nanoTime();
+        Object result = null;
+        boolean failed = true;
+        // 失效通知的 NOLOOP 需要知道是谁修改的key, 所以通知完成之后才恢复
+        RedisClient prevClient = current_client;
+        current_client = redisClient;
+        long dirtyBefore = dirty;
+        try {
+            try {
+                result = execCommand(redisClient, redisRequest, selectedDB, key);
+                failed = result instanceof ErrorObject;
+            } finally {
+                // 抛出异常也算作执行失败, 统计不分配内存
+                long duration = System.nanoTime() - start;
+                stat_numcommands ++;
+                if (redisCommand != null){
+                    redisCommand.calls ++;
+                    redisCommand.latency.record(duration);
+                    if (failed){
+                        redisCommand.failedCalls ++;
+                    }
+                }
+                LatencyMonitor.addSampleIfNeeded("command", duration);
+                SlowLog.slowlogPushEntryIfNeeded(redisClient, redisRequest, duration);
+            }
+            // 被阻塞的命令还没有修改数据, dirty 不会增加
+            if (redisCommand != null && redisCommand.isWrite() && !(result instanceof ErrorObject) && dirty > dirtyBefore){
+                Replication.propagate(selectedDB, redisRequest);
+            }
+        } finally {
+            current_client = prevClient;
+        }
+        return result;
+    }
+
+    /**
+     * key被修改, 使监控这个key的客户端的事务失败, 给缓存了这个key的客户端发送失效通知
+     * 写命令只在真正修改了key之后调用, 同时计入 dirty
+     */
+    static void signalModifiedKey(RedisDB redisDB, String key){
+        dirty ++;
+        Multi.touchWatchedKey(redisDB, key);
+        Tracking.invalidateKey(key);
+    }
+
+    private static Object execCommand(RedisClient redisClient, RedisRequest redisRequest, RedisDB selectedDB, String key) {
         if ("get".equalsIgnoreCase(redisRequest.command)){
-            // String key = redisRequest.args.get(0);
-            return lookUpKeyRead(selectedDB, key);
+            RedisObject redisObject = lookUpKeyReadObject(selectedDB, key);
+            if (redisObject != null && redisObject.type != RedisConstants.REDIS_STRING){
+                return new ErrorObject("WRONGTYPE Operation against a key holding the wrong kind of value");
+            }
+            return redisObject == null ? null : redisObject.value;
         }
         if("set".equalsIgnoreCase(redisRequest.command)){
-            // 处理set命令
-            RedisObject redisObject = new RedisObject(redisRequest.args.get(1));
-            redisClient.selectDB.dict.set(redisRequest.args.get(0), redisObject);
-            Multi.touchWatchedKeys(redisClient, redisRequest);
-            return "OK";
+            return RedisString.set(selectedDB, redisRequest);
+        }
+        if ("setex".equalsIgnoreCase(redisRequest.command) || "psetex".equalsIgnoreCase(redisRequest.command)){
+            return RedisString.setex(selectedDB, redisRequest, "psetex".equalsIgnoreCase(redisRequest.command));
+        }
+        if ("incr".equalsIgnoreCase(redisRequest.command) || "decr".equalsIgnoreCase(redisRequest.command)){
+            if (redisRequest.args.size() != 1){
+                return new ErrorObject("ERR wrong number of arguments for '" + redisRequest.command.toLowerCase() + "' command");
+            }
+            return RedisString.incrDecr(selectedDB, key, "incr".equalsIgnoreCase(redisRequest.command) ? 1 : -1);
+        }
+        if ("incrby".equalsIgnoreCase(redisRequest.command) || "decrby".equalsIgnoreCase(redisRequest.command)){
+            return RedisString.incrby(selectedDB, redisRequest, "decrby".equalsIgnoreCase(redisRequest.command));
+        }
+        if ("append".equalsIgnoreCase(redisRequest.command)){
+            return RedisString.append(selectedDB, redisRequest);
+        }
+        if ("getrange".equalsIgnoreCase(redisRequest.command)){
+            return RedisString.getrange(selectedDB, redisRequest);
+        }
+        if ("setrange".equalsIgnoreCase(redisRequest.command)){
+            return RedisString.setrange(selectedDB, redisRequest);
+        }
+        if ("strlen".equalsIgnoreCase(redisRequest.command)){
+            return RedisString.strlen(selectedDB, redisRequest);
+        }
+        if ("setbit".equalsIgnoreCase(redisRequest.command)){
+            return Bitops.setbit(selectedDB, redisRequest);
+        }
+        if ("getbit".equalsIgnoreCase(redisRequest.command)){
+            return Bitops.getbit(selectedDB, redisRequest);
+        }
+        if ("bitcount".equalsIgnoreCase(redisRequest.command)){
+            return Bitops.bitcount(selectedDB, redisRequest);
+        }
+        if ("bitpos".equalsIgnoreCase(redisRequest.command)){
+            return Bitops.bitpos(selectedDB, redisRequest);
+        }
+        if ("bitop".equalsIgnoreCase(redisRequest.command)){
+            return Bitops.bitop(selectedDB, redisRequest);
+        }
+        if ("restore-string".equalsIgnoreCase(redisRequest.command)){
+            return RedisString.restoreString(selectedDB, redisRequest);
+        }
+        if ("mget".equalsIgnoreCase(redisRequest.command)){
+            return mget(selectedDB, redisRequest.args);
+        }
+        if ("mset".equalsIgnoreCase(redisRequest.command) || "msetnx".equalsIgnoreCase(redisRequest.command)){
+            return mset(selectedDB, redisRequest, "msetnx".equalsIgnoreCase(redisRequest.command));
+        }
+        if ("exists".equalsIgnoreCase(redisRequest.command)){
+            long count = 0;
+            for (String existsKey : redisRequest.args){
+                if (lookUpKeyReadObject(selectedDB, existsKey) != null){
+                    count ++;
+                }
+            }
+            return count;
         }
         if ("select".equalsIgnoreCase(redisRequest.command)){
             // 处理select命令
             int dbIndex = Integer.parseInt(redisRequest.args.get(0));
+            if (Cluster.cluster_enabled && dbIndex != 0){
+                return new ErrorObject("ERR SELECT is not allowed in cluster mode");
+            }
             if (dbIndex < 0 || dbIndex >= redisDB.length){
-                return "ERR invalid DB index";
+                return new ErrorObject("ERR invalid DB index");
             }
             redisClient.selectDB = redisDB[dbIndex];
             return "OK";
         }
         if ("expire".equalsIgnoreCase(redisRequest.command)){
-            // String key = redisRequest.args.get(0);
-            // 如果key不存在那么就返回0
-            RedisObject object = selectedDB.dict.getRedisObject(key);
-            if (object == null){
+            return expire(selectedDB, redisRequest, System.currentTimeMillis(), true);
+        }
+        if ("pexpire".equalsIgnoreCase(redisRequest.command)){
+            return expire(selectedDB, redisRequest, System.currentTimeMillis(), false);
+        }
+        if ("expireat".equalsIgnoreCase(redisRequest.command)){
+            return expire(selectedDB, redisRequest, 0, true);
+        }
+        if ("pexpireat".equalsIgnoreCase(redisRequest.command)){
+            // 参数是毫秒时间戳, 主从复制中其他的过期命令都被改写成 PEXPIREAT
+            return expire(selectedDB, redisRequest, 0, false);
+        }
+        if ("persist".equalsIgnoreCase(redisRequest.command)){
+            if (lookUpKeyWrite(selectedDB, key) == null || selectedDB.expires.getTTL(key) == null){
                 return 0;
             }
-            // 参数中是偏移事件
-            Long offsetTime = Long.parseLong(redisRequest.args.get(1));
-            Long expireTime = System.currentTimeMillis() + offsetTime * 1000;
-
-            selectedDB.expires.set(key, expireTime);
+            removeExpire(selectedDB, key);
+            signalModifiedKey(selectedDB, key);
             return 1;
         }
         if ("auth".equalsIgnoreCase(redisRequest.command)){
             return "OK";
         }
         if ("ping".equalsIgnoreCase(redisRequest.command)){
+            // RESP2 的订阅模式下 PING 的回复也是消息的格式
+            if (redisClient.resp == 2 && (!redisClient.subscribedChannels.isEmpty() || !redisClient.subscribedPatterns.isEmpty())){
+                return new ArrayObject("pong", redisRequest.args.isEmpty() ? "" : redisRequest.args.get(0));
+            }
             return "PONG";
         }
+        if ("hello".equalsIgnoreCase(redisRequest.command)){
+            return hello(redisClient, redisRequest);
+        }
+        if ("client".equalsIgnoreCase(redisRequest.command)){
+            return client(redisClient, redisRequest);
+        }
         if ("info".equalsIgnoreCase(redisRequest.command)){
-            return infoResponse;
+            return Info.info(redisRequest);
         }
-        if ("hello".equalsIgnoreCase(redisRequest.command)){
-            ErrorObject errorObject = new ErrorObject("ERR unknown command '" + redisRequest.command + "'");
-            return errorObject;
+        if ("latency".equalsIgnoreCase(redisRequest.command)){
+            return LatencyMonitor.latency(redisRequest);
         }
-        if ("ttl".equalsIgnoreCase(redisRequest.command)){
-            Long ttl = selectedDB.expires.getTTL(key);
-            if (ttl == null){
-                return -1;
-            }
-            long l = (ttl - System.currentTimeMillis()) / 1000;
-            return Long.valueOf(l);
+        if ("slowlog".equalsIgnoreCase(redisRequest.command)){
+            return SlowLog.slowlog(redisRequest);
         }
-        if ("keys".equalsIgnoreCase(redisRequest.command)){
-            String pattern = redisRequest.args.get(0);  // keys pattern中的pattrn参数
-            List<String> keys = new ArrayList<>();
-
-            for (RedisDB redisDb : redisDB){
-                // 判断是否过期
-                for (String getKey : redisDb.dict.ht[0].keySet()){
-                    if (redisDb.expires.ht[0].get(getKey) != null){
-                        // 如果过期了那么就不加入到list中
-                        if (redisDb.expires.getTTL(getKey) - System.currentTimeMillis() < 0){
-                            continue;
-                        }
-                    }
-                    // System.out.println(redisDb.expires.getTTL(getKey));
-                    if (isMatch(getKey, pattern)){
-                        keys.add(getKey);
-                    }
+        if ("config".equalsIgnoreCase(redisRequest.command)){
+            return Config.config(redisRequest);
+        }
+        if ("replicaof".equalsIgnoreCase(redisRequest.command) || "slaveof".equalsIgnoreCase(redisRequest.command)){
+            return Replication.replicaof(redisClient, redisRequest);
+        }
+        if ("sync".equalsIgnoreCase(redisRequest.command) || "psync".equalsIgnoreCase(redisRequest.command)){
+            return Replication.sync(redisClient, redisRequest);
+        }
+        if ("replconf".equalsIgnoreCase(redisRequest.command)){
+            return Replication.replconf(redisClient, redisRequest);
+        }
+        if ("cluster".equalsIgnoreCase(redisRequest.command)){
+            return Cluster.cluster(redisClient, redisRequest);
+        }
+        if ("asking".equalsIgnoreCase(redisRequest.command)){
+            return Cluster.asking(redisClient);
+        }
+        if ("migrate".equalsIgnoreCase(redisRequest.command)){
+            return Cluster.migrate(redisClient, redisRequest);
+        }
+        if ("del".equalsIgnoreCase(redisRequest.command) || "unlink".equalsIgnoreCase(redisRequest.command)){
+            // UNLINK 只摘除value, 大对象交给后台线程释放
+            boolean lazy = "unlink".equalsIgnoreCase(redisRequest.command);
+            long deleted = 0;
+            for (String delKey : redisRequest.args){
+                expireIfNeeded(selectedDB, delKey);
+                if (dbDelete(selectedDB, delKey, lazy)){
+                    signalModifiedKey(selectedDB, delKey);
+                    deleted ++;
                 }
-                if (redisDb.dict.rehash != -1){
-                    for (String getKey : redisDb.dict.ht[1].keySet()){
-                        if (redisDb.expires.ht[1].get(getKey) != null){
-                            // 如果过期了那么就不加入到list中
-                            if (redisDb.expires.getTTL(getKey) - System.currentTimeMillis() < 0){
-                                continue;
-                            }
-                        }
-                        if (isMatch(getKey, pattern)){
-                            keys.add(getKey);
-                        }
-                    }
+            }
+            return deleted;
+        }
+        if ("flushdb".equalsIgnoreCase(redisRequest.command) || "flushall".equalsIgnoreCase(redisRequest.command)){
+            // FLUSHDB [ASYNC|SYNC] / FLUSHALL [ASYNC|SYNC]
+            boolean async = false;
+            if (redisRequest.args.size() == 1 && "async".equalsIgnoreCase(key)){
+                async = true;
+            }else if (redisRequest.args.size() > 1 || (redisRequest.args.size() == 1 && !"sync".equalsIgnoreCase(key))){
+                return new ErrorObject("ERR syntax error");
+            }
+            Tracking.invalidateKeysOnFlush();
+            // 空数据库的清空也要传播, 保证从服务器和主服务器一致
+            dirty ++;
+            if ("flushall".equalsIgnoreCase(redisRequest.command)){
+                for (RedisDB db : redisDB){
+                    emptyDb(db, async);
                 }
+            }else {
+                emptyDb(selectedDB, async);
             }
-            return keys.toString();
+            return "OK";
+        }
+        if ("ttl".equalsIgnoreCase(redisRequest.command) || "pttl".equalsIgnoreCase(redisRequest.command)){
+            return ttl(selectedDB, key, "pttl".equalsIgnoreCase(redisRequest.command));
+        }
+        if ("keys".equalsIgnoreCase(redisRequest.command)){
+            return keys(selectedDB, redisRequest.args.get(0));
         }
         if ("multi".equalsIgnoreCase(redisRequest.command)){
             // 开启事务
@@ -862,45 +1631,28 @@ public class RedisServer
         }
         if ("exec".equalsIgnoreCase(redisRequest.command)){
             // 执行事务
-            return Multi.exec(redisClient, selectedDB,  key);
+            return Multi.exec(redisClient);
         }
         if ("discard".equalsIgnoreCase(redisRequest.command)){
             return Multi.discard(redisClient);
         }
         if ("subscribe".equalsIgnoreCase(redisRequest.command)){
-            // 订阅功能
-            for (String arg : redisRequest.args) {
-                // 添加channel到redisClient中
-                redisClient.subscribedChannels.add(arg);
-                List<RedisClient> clientList = pubsub_Channels.computeIfAbsent(arg, k -> new ArrayList<>());
-                // 添加当前客户端到订阅者
-                if (!clientList.contains(redisClient)){
-                    clientList.add(redisClient);
-                }else {
-                    return "ERR already subscribed";
-                }
-            }
-            return new ArrayObject("subscribe", redisRequest.args.get(0), 1);
+            return PubSub.subscribe(redisClient, redisRequest);
+        }
+        if ("unsubscribe".equalsIgnoreCase(redisRequest.command)){
+            return PubSub.unsubscribe(redisClient, redisRequest);
+        }
+        if ("psubscribe".equalsIgnoreCase(redisRequest.command)){
+            return PubSub.psubscribe(redisClient, redisRequest);
+        }
+        if ("punsubscribe".equalsIgnoreCase(redisRequest.command)){
+            return PubSub.punsubscribe(redisClient, redisRequest);
         }
         if ("publish".equalsIgnoreCase(redisRequest.command)){
-            // 发布功能
-            String channel = redisRequest.args.get(0);
-            String message = redisRequest.args.get(1);
-            List<RedisClient> redisClients = pubsub_Channels.get(channel);
-            for (RedisClient client : redisClients) {
-                client.returnValue = message;
-                client.write = true;
-
-                // 注册可写事件
-                SelectionKey selectionKey = client.channel.keyFor(selector);
-                selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
-            }
-
-            // 返回收到消息的客户端数
-            return Long.valueOf(redisClients.size()).toString();
+            return PubSub.publish(redisRequest);
         }
         if ("lpush".equalsIgnoreCase(redisRequest.command)){
-            RedisObject redisObject = selectedDB.dict.getRedisObject(key);
+            RedisObject redisObject = lookUpKeyWrite(selectedDB, key);
             if (redisObject != null && redisObject.type != RedisConstants.REDIS_LIST){
                 return new ErrorObject("WRONG TYPE Operation against a key holding the wrong kind of value");
             }
@@ -909,7 +1661,7 @@ public class RedisServer
                 redisObject = new RedisObject(zipList);
                 redisObject.type = RedisConstants.REDIS_LIST;
                 redisObject.encoding = RedisConstants.REDIS_ENCODING_ZIPLIST;
-                selectedDB.dict.set(key, redisObject);
+                dbAdd(selectedDB, key, redisObject);
             }
 //            if (redisObject == null){
 //                LinkedList zipList = new LinkedList();
@@ -923,13 +1675,14 @@ public class RedisServer
                 listTypePush(redisObject, value, true);
                 count ++;
             }
+            signalModifiedKey(selectedDB, key);
             return Long.valueOf(count).toString();
         }
         if ("lrange".equalsIgnoreCase(redisRequest.command)){
             long start = Long.parseLong(redisRequest.args.get(1));
             long end = Long.parseLong(redisRequest.args.get(2));
 
-            RedisObject redisObject = selectedDB.dict.getRedisObject(key);
+            RedisObject redisObject = lookUpKeyReadObject(selectedDB, key);
             if (redisObject != null && redisObject.type != RedisConstants.REDIS_LIST){
                 return new ErrorObject("WRONG TYPE Operation against a key holding the wrong kind of value");
             }
@@ -961,6 +1714,81 @@ public class RedisServer
                 return new ArrayObject(range.toArray());
             }
         }
+        if ("zadd".equalsIgnoreCase(redisRequest.command)){
+            return ZSet.zadd(selectedDB, redisRequest);
+        }
+        if ("zincrby".equalsIgnoreCase(redisRequest.command)){
+            return ZSet.zincrby(selectedDB, redisRequest);
+        }
+        if ("zrem".equalsIgnoreCase(redisRequest.command)){
+            return ZSet.zrem(selectedDB, redisRequest);
+        }
+        if ("zcard".equalsIgnoreCase(redisRequest.command)){
+            return ZSet.zcard(selectedDB, redisRequest);
+        }
+        if ("zscore".equalsIgnoreCase(redisRequest.command)){
+            return ZSet.zscore(selectedDB, redisRequest);
+        }
+        if ("zrank".equalsIgnoreCase(redisRequest.command) || "zrevrank".equalsIgnoreCase(redisRequest.command)){
+            return ZSet.zrank(selectedDB, redisRequest, "zrevrank".equalsIgnoreCase(redisRequest.command));
+        }
+        if ("zrange".equalsIgnoreCase(redisRequest.command) || "zrevrange".equalsIgnoreCase(redisRequest.command)){
+            return ZSet.zrange(selectedDB, redisRequest, "zrevrange".equalsIgnoreCase(redisRequest.command));
+        }
+        if ("zrangebyscore".equalsIgnoreCase(redisRequest.command)){
+            return ZSet.zrangebyscore(selectedDB, redisRequest);
+        }
+        if ("zcount".equalsIgnoreCase(redisRequest.command)){
+            return ZSet.zcount(selectedDB, redisRequest);
+        }
+        if ("hset".equalsIgnoreCase(redisRequest.command)){
+            return Hash.hset(selectedDB, redisRequest);
+        }
+        if ("hget".equalsIgnoreCase(redisRequest.command)){
+            return Hash.hget(selectedDB, redisRequest);
+        }
+        if ("hmget".equalsIgnoreCase(redisRequest.command)){
+            return Hash.hmget(selectedDB, redisRequest);
+        }
+        if ("hdel".equalsIgnoreCase(redisRequest.command)){
+            return Hash.hdel(selectedDB, redisRequest);
+        }
+        if ("hlen".equalsIgnoreCase(redisRequest.command)){
+            return Hash.hlen(selectedDB, redisRequest);
+        }
+        if ("hexists".equalsIgnoreCase(redisRequest.command)){
+            return Hash.hexists(selectedDB, redisRequest);
+        }
+        if ("hgetall".equalsIgnoreCase(redisRequest.command)){
+            return Hash.hgetall(selectedDB, redisRequest);
+        }
+        if ("hincrby".equalsIgnoreCase(redisRequest.command)){
+            return Hash.hincrby(selectedDB, redisRequest);
+        }
+        if ("sadd".equalsIgnoreCase(redisRequest.command)){
+            return RedisSet.sadd(selectedDB, redisRequest);
+        }
+        if ("srem".equalsIgnoreCase(redisRequest.command)){
+            return RedisSet.srem(selectedDB, redisRequest);
+        }
+        if ("sismember".equalsIgnoreCase(redisRequest.command)){
+            return RedisSet.sismember(selectedDB, redisRequest);
+        }
+        if ("scard".equalsIgnoreCase(redisRequest.command)){
+            return RedisSet.scard(selectedDB, redisRequest);
+        }
+        if ("smembers".equalsIgnoreCase(redisRequest.command)){
+            return RedisSet.smembers(selectedDB, redisRequest);
+        }
+        if ("sinter".equalsIgnoreCase(redisRequest.command)){
+            return RedisSet.sinter(selectedDB, redisRequest);
+        }
+        if ("sunion".equalsIgnoreCase(redisRequest.command)){
+            return RedisSet.sunion(selectedDB, redisRequest);
+        }
+        if ("sdiff".equalsIgnoreCase(redisRequest.command)){
+            return RedisSet.sdiff(selectedDB, redisRequest);
+        }
         if ("blpop".equalsIgnoreCase(redisRequest.command)){
             String s = redisRequest.args.get(1);
             long timeout = Long.parseLong(s);
@@ -991,13 +1819,14 @@ public class RedisServer
                 blockForKeys(redisClient, key, timeout);
                 return null;
             }
+            signalModifiedKey(selectedDB, key);
             return rtObject;
         }
-        return "ERR unknown command '" + redisRequest.command + "'";
+        return new ErrorObject("ERR unknown command '" + redisRequest.command + "'");
     }
 
     private static void blockForKeys(RedisClient redisClient, String key, long timeout) {
-        redisClient.flags = 4;
+        redisClient.flags |= RedisConstants.REDIS_BLOCKED;
         redisClient.bpop = new RedisClient.BlockingState();
         redisClient.bpop.timeout = System.currentTimeMillis() + timeout * 1000;
         redisClient.bpop.keys.add(key);
@@ -1027,56 +1856,150 @@ public class RedisServer
                 linkedList.add(value);
             }
         }else{
-            System.out.println("listTypePush error");
+            Log.warning("listTypePush error");
         }
     }
 
     private static void listTypeConversion() {
     }
 
-    public static boolean isMatch(String s, String p) {
-        // s表示被匹配的字符串str
-        int sLen = s.length();
-        // p表示匹配字符串s*
-        int pLen = p.length();
-
-        // dp[i][j] 表示：s 的前 i 个字符是否与 p 的前 j 个字符匹配
-        boolean[][] dp = new boolean[sLen + 1][pLen + 1];
+    /**
+     * HELLO [protover [AUTH username password] [SETNAME clientname]]
+     * 切换协议版本之后回复服务器信息, 回复已经按照新的协议编码
+     */
+    static Object hello(RedisClient redisClient, RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        int protover = redisClient.resp;
+        if (!args.isEmpty()) {
+            try {
+                protover = Integer.parseInt(args.get(0));
+            } catch (NumberFormatException e) {
+                return new ErrorObject("ERR Protocol version is not an integer or out of range");
+            }
+        }
+        String name = null;
+        for (int i = 1; i < args.size(); i++) {
+            String option = args.get(i);
+            if ("auth".equalsIgnoreCase(option) && i + 2 < args.size()) {
+                // 没有实现认证, 和 AUTH 命令一样直接通过
+                i += 2;
+            } else if ("setname".equalsIgnoreCase(option) && i + 1 < args.size()) {
+                name = args.get(++i);
+            } else {
+                return new ErrorObject("ERR Syntax error in HELLO option '" + option + "'");
+            }
+        }
+        if (protover < 2 || protover > 3) {
+            return new ErrorObject("NOPROTO unsupported protocol version");
+        }
+        if (name != null) {
+            redisClient.name = name;
+        }
+        redisClient.resp = protover;
+        return new MapObject(
+                "server", "redis",
+                "version", "7.0.0",
+                "proto", (long) protover,
+                "id", redisClient.id,
+                "mode", Cluster.cluster_enabled ? "cluster" : "standalone",
+                "role", Replication.isReplica() ? "replica" : "master",
+                "modules", new ArrayObject());
+    }
 
-        // 基础情况：两个空字符串匹配
-        dp[0][0] = true;
+    /**
+     * CLIENT ID | SETNAME name | GETNAME | TRACKING ... | GETREDIR
+     */
+    static Object client(RedisClient redisClient, RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        String sub = args.isEmpty() ? "" : args.get(0);
+        if ("id".equalsIgnoreCase(sub) && args.size() == 1) {
+            return redisClient.id;
+        }
+        if ("setname".equalsIgnoreCase(sub) && args.size() == 2) {
+            redisClient.name = args.get(1).isEmpty() ? null : args.get(1);
+            return "OK";
+        }
+        if ("getname".equalsIgnoreCase(sub) && args.size() == 1) {
+            return redisClient.name;
+        }
+        if ("tracking".equalsIgnoreCase(sub)) {
+            return Tracking.clientTracking(redisClient, args);
+        }
+        if ("getredir".equalsIgnoreCase(sub) && args.size() == 1) {
+            return Tracking.getRedirect(redisClient);
+        }
+        return new ErrorObject("ERR unknown subcommand or wrong number of arguments for '" + sub + "'");
+    }
 
-        // 处理模式p开头是连续*的情况：*可以匹配空字符串
-        for (int j = 1; j <= pLen; j++) {
-            if (p.charAt(j - 1) == '*') {
-                dp[0][j] = dp[0][j - 1]; // 当前状态依赖于前一个状态
+    /**
+     * MGET key [key ...]
+     * 每个key只查找一次(同时处理惰性删除), 不存在或者不是字符串的key回复空值, 所有的值编码到同一个数组回复中
+     */
+    static Object mget(RedisDB redisDB, List<String> keys) {
+        ReplyBuffer reply = new ReplyBuffer(32 + keys.size() * 16);
+        reply.addArrayLen(keys.size());
+        for (String key : keys) {
+            RedisObject redisObject = lookUpKeyReadObject(redisDB, key);
+            if (redisObject == null || redisObject.type != RedisConstants.REDIS_STRING) {
+                reply.addNull();
             } else {
-                // 遇到非'*'字符，后续不可能再匹配空字符串，直接跳出循环
-                break;
+                reply.addStringValue(redisObject.value);
             }
         }
-        // 填充dp数组
-        for (int i = 1; i <= sLen; i++) {
-            for (int j = 1; j <= pLen; j++) {
-                char charOfP = p.charAt(j - 1);
+        return reply.toByteArray();
+    }
 
-                if (charOfP == '*') {
-                    // 当遇到'*'时，有两种情况可以使dp[i][j]为true：
-                    // 1. 忽略'*'（即*匹配空串）：dp[i][j-1]
-                    // 2. 使用'*'匹配当前字符s[i-1]，并继续尝试用这个'*'匹配s中更前面的字符：dp[i-1][j]
-                    dp[i][j] = dp[i][j - 1] || dp[i - 1][j];
-                } else {
-                    // 当字符精确匹配，或模式中是'?'时，当前字符匹配成功
-                    // 并且前面的子串也需匹配成功
-                    if (charOfP == '?' || charOfP == s.charAt(i - 1)) {
-                        dp[i][j] = dp[i - 1][j - 1];
-                    }
-                    // 否则，dp[i][j]保持默认的false
+    /**
+     * MSET key value [key value ...] / MSETNX key value [key value ...]
+     * 内存检查在 processCommand 中对整个命令只做一次
+     * @param nx MSETNX: 只要有一个key存在就什么都不做, 返回0
+     */
+    static Object mset(RedisDB redisDB, RedisRequest redisRequest, boolean nx) {
+        List<String> args = redisRequest.args;
+        if (args.isEmpty() || args.size() % 2 != 0) {
+            return new ErrorObject("ERR wrong number of arguments for '" + redisRequest.command.toLowerCase() + "' command");
+        }
+        if (nx) {
+            for (int i = 0; i < args.size(); i += 2) {
+                if (lookUpKeyWrite(redisDB, args.get(i)) != null) {
+                    return 0;
                 }
             }
         }
+        for (int i = 0; i < args.size(); i += 2) {
+            setKey(redisDB, args.get(i), RedisString.createStringObject(args.get(i + 1)), false);
+            signalModifiedKey(redisDB, args.get(i));
+        }
+        return nx ? (Object) 1 : "OK";
+    }
 
-        return dp[sLen][pLen];
+    /**
+     * KEYS pattern
+     * 模式在遍历之前编译一次, 每个key的匹配不再分配内存, 已经过期的key不返回
+     */
+    static Object keys(RedisDB redisDB, String pattern) {
+        GlobPattern glob = GlobPattern.compile(pattern);
+        long now = System.currentTimeMillis();
+        ReplyBuffer reply = new ReplyBuffer();
+        int count = 0;
+        for (int i = 0; i <= 1; i++) {
+            // 渐进式哈希期间两张表都有数据
+            if (i == 1 && redisDB.dict.rehash == -1) {
+                break;
+            }
+            for (String key : redisDB.dict.ht[i].keySet()) {
+                if (!glob.matches(key)) {
+                    continue;
+                }
+                Long when = redisDB.expires.getTTL(key);
+                if (when != null && when <= now) {
+                    continue;
+                }
+                reply.addBulk(key);
+                count++;
+            }
+        }
+        return new ReplyBuffer(reply.len + 16).addArrayLen(count).addRaw(reply.buf, reply.len).toByteArray();
     }
 
     /**
@@ -1089,21 +2012,31 @@ public class RedisServer
 
     private static void closeClient(SocketChannel socketChannel, SelectionKey key, RedisClient redisClient) throws IOException {
         // 发布订阅的清除
-        // 首先从redisClient中获取自己订阅了哪些频道
-        List<String> subscribedChannels = redisClient.subscribedChannels;
-        if (redisClient.subscribedChannels != null && redisClient.subscribedChannels.size() > 0) {
-            for (String channelName : subscribedChannels){
-                // 遍历这些频道的名称并清除list中的对应的redisClient
-                List<RedisClient> redisClients = pubsub_Channels.get(channelName);
-                if (redisClients != null && redisClients.size() > 0) {
-                    redisClients.remove(redisClient);
-                }
-            }
-        }
+        PubSub.unsubscribeAll(redisClient);
+        // 取消监控的key
+        Multi.unwatchAllKeys(redisClient);
+        // 释放还没有发送的回复(共享回复的引用计数)
+        freeClientReplies(redisClient);
+        // 主从复制的连接
+        Replication.removeSlave(redisClient);
+        Replication.handleMasterDisconnect(redisClient);
+        // 集群节点之间的连接
+        Cluster.handleLinkDisconnect(redisClient);
+        // 关闭失效通知
+        Tracking.clientClosed(redisClient);
         socketChannel.close();
         clientsMap.remove(key);
         clients.remove(redisClient);
-        System.out.println("关闭连接" + socketChannel);
+        Log.verbose("Client closed connection " + redisClient.addr);
+    }
+
+    // 在命令处理之外关闭客户端(主从复制中断开连接)
+    static void freeClient(RedisClient redisClient) {
+        try {
+            closeClient(redisClient.channel, redisClient.channel.keyFor(selector), redisClient);
+        } catch (IOException e) {
+            Log.warning("Error closing client " + redisClient.addr + ": " + e.getMessage());
+        }
     }
 
     public static void serverCron() throws InterruptedException {
@@ -1115,35 +2048,100 @@ public class RedisServer
          * 4. 渐进式rehash
          * 5. 集群故障转移等
          */
-        Thread.sleep(10);
-
+        long start = System.nanoTime();
         activeExpireCycle(false);
+        LatencyMonitor.addSampleIfNeeded("expire-cycle", System.nanoTime() - start);
         clientsCron();
+        Replication.replicationCron();
+        Cluster.clusterCron();
+        Tracking.trackingLimitUsedSlots();
+
+        trackInstantaneousMetrics();
+        stat_peak_memory = Math.max(stat_peak_memory, usedHeapMemory());
+        LatencyMonitor.addSampleIfNeeded("cron", System.nanoTime() - start);
+    }
+
+    // 记录一次每秒命令数的采样
+    private static void trackInstantaneousMetrics() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - ops_sec_last_sample_time;
+        if (elapsed <= 0){
+            return;
+        }
+        ops_sec_samples[ops_sec_idx] = (stat_numcommands - ops_sec_last_sample_count) * 1000 / elapsed;
+        ops_sec_idx = (ops_sec_idx + 1) % STATS_METRIC_SAMPLES;
+        ops_sec_last_sample_time = now;
+        ops_sec_last_sample_count = stat_numcommands;
+    }
+
+    static long getInstantaneousOpsPerSec() {
+        long sum = 0;
+        for (long sample : ops_sec_samples){
+            sum += sample;
+        }
+        return sum / STATS_METRIC_SAMPLES;
+    }
+
+    static long usedHeapMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static String genRunId() {
+        byte[] bytes = new byte[20];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes){
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
     }
 
     /**
-     * 解决客户端阻塞函数
+     * 客户端的定时检查
+     * 1. 阻塞命令超时
+     * 2. 输出缓冲区的软限制 (超过软限制的持续时间只有在这里才能发现)
+     * 3. 关闭被标记为 REDIS_CLOSE_ASAP 的客户端
      */
     private static void clientsCron() {
+        List<RedisClient> toClose = null;
         for (RedisClient redisClient : clients){
-            if (redisClient.flags == 4){
+            if ((redisClient.flags & RedisConstants.REDIS_BLOCKED) != 0){
                 if (redisClient.bpop != null && redisClient.bpop.timeout <= System.currentTimeMillis()){
-                    // 如果已经超时了那么就注册写事件
-                    redisClient.write = true;
-                    redisClient.returnValue = null;
-
-                    SelectionKey selectionKey = redisClient.channel.keyFor(selector);
-                    selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+                    // 如果已经超时了那么就回复空值
+                    addReply(redisClient, null);
 
-                    redisClient.flags = 0;
+                    redisClient.flags &= ~RedisConstants.REDIS_BLOCKED;
                     redisClient.bpop = null;
                 }
             }
+            if (redisClient.replyBytes > 0 && checkClientOutputBufferLimits(redisClient)){
+                asyncCloseClient(redisClient);
+            }
+            if ((redisClient.flags & RedisConstants.REDIS_CLOSE_ASAP) != 0){
+                if (toClose == null){
+                    toClose = new ArrayList<>();
+                }
+                toClose.add(redisClient);
+            }
+        }
+        if (toClose != null){
+            for (RedisClient redisClient : toClose){
+                try {
+                    closeClient(redisClient.channel, redisClient.channel.keyFor(selector), redisClient);
+                } catch (IOException e) {
+                    Log.warning("Error closing client " + redisClient.addr + ": " + e.getMessage());
+                }
+            }
         }
     }
 
     // 过期键的主动删除 新版, 更贴合redis源码
     public static void activeExpireCycle(boolean flag) {
+        // 从服务器等主服务器传播 DEL
+        if (Replication.isReplica()) {
+            return;
+        }
         // --- 1. 参数初始化 (对应 Redis 源码中的 timelimit) ---
         // 慢模式：25ms (Redis默认值)；快模式：1ms (Redis默认值)
         // 原本设置的 50ms/10ms 对 Redis 来说太久了，会导致明显的命令卡顿
@@ -1156,14 +2154,42 @@ public class RedisServer
         long sum = 0;
         long maxSum = flag ? 100 : 1000; // 快模式更谨慎，删除量调低
 
+        // 本轮采样的总数和其中已过期的数量, 用于估算已过期未删除键的比例
+        long sampled = 0;
+        long sampledExpired = 0;
+
         // --- 2. 数据库轮询 (避免每次都从 0 号库开始) ---
         // 真实 Redis 会记录上一次清理到哪个 DB 了，这里我们简单处理
+        dbLoop:
         for (int i = 0; i < redisDB.length; i++) {
             RedisDB db = redisDB[i];
 
             // 如果过期字典为空，直接跳过
             if (db.expires.getDictSize() == 0) continue;
 
+            // 开启了过期键索引: 按过期时间顺序直接弹出到期的key, 每批 max_samples 个
+            if (db.expireIndex != null) {
+                List<String> dueKeys = new ArrayList<>(max_samples);
+                while (sum < maxSum) {
+                    long now = System.currentTimeMillis();
+                    dueKeys.clear();
+                    if (db.expireIndex.pollDue(now, max_samples, dueKeys) == 0) break;
+                    for (String key : dueKeys) {
+                        Long expireTime = db.expires.getTTL(key);
+                        // 索引和过期字典是同步维护的, 这里再确认一次
+                        if (expireTime == null || expireTime > now) continue;
+                        dbDelete(db, key, lazyfree_lazy_expire);
+                        updateExpiredStats(now - expireTime);
+                        Tracking.invalidateKey(key);
+                        Replication.propagate(db, "DEL", key);
+                        sum++;
+                    }
+                    if (System.currentTimeMillis() >= endTime) break dbLoop;
+                }
+                if (sum >= maxSum) break;
+                continue;
+            }
+
             // --- 3. 核心随机抽样循环 ---
             do {
                 // 本轮循环删除过期键的数量
@@ -1180,19 +2206,24 @@ public class RedisServer
                     long now = System.currentTimeMillis();
                     Long expireTime = db.expires.getTTL(key);
 
+                    sampled++;
                     if (expireTime != null && expireTime <= now) {
-                        // 记录日志会严重拖慢清理速度，建议仅在调试时开启
-                        // RedisObject redisObject = db.dict.getRedisObject(key);
-                        System.out.println("过期键的主动删除: " + key);
-                        db.dict.remove(key);
-                        db.expires.remove(key);
+                        // 每个键一条日志, 只在 debug 级别输出; 先判断级别, 避免拼接字符串
+                        if (Log.enabled(Log.LL_DEBUG)) {
+                            Log.debug("过期键的主动删除: " + key);
+                        }
+                        dbDelete(db, key, lazyfree_lazy_expire);
+                        updateExpiredStats(now - expireTime);
+                        Tracking.invalidateKey(key);
+                        Replication.propagate(db, "DEL", key);
                         sum++;
+                        sampledExpired++;
                         expired_this_loop++;
                     }
 
                     // 检查时间限制 (每 16 次操作检查一次，减少系统调用开销)
                     if ((sum & 15) == 0) {
-                        if (System.currentTimeMillis() >= endTime) return;
+                        if (System.currentTimeMillis() >= endTime) break dbLoop;
                     }
                 }
 
@@ -1207,11 +2238,17 @@ public class RedisServer
 
                 // 检查数量上限和时间上限
                 if (sum >= maxSum || System.currentTimeMillis() >= endTime) {
-                    return;
+                    break dbLoop;
                 }
 
             } while (db.expires.getDictSize() > 0);
         }
+
+        // 和Redis一样用指数平滑更新已过期未删除键的比例
+        if (sampled > 0) {
+            double current_perc = (double) sampledExpired / sampled;
+            stat_expired_stale_perc = current_perc * 0.05 + stat_expired_stale_perc * 0.95;
+        }
     }
 
     // 过期键的主动删除
@@ -1277,60 +2314,4 @@ public class RedisServer
             return message;
         }
     }
-
-    static String infoResponse = "# Server\r\n" +
-            "redis_version:7.0.0\r\n" +
-            "redis_mode:standalone\r\n" +
-            "os:Linux 5.4.0 x86_64\r\n" +
-            "arch_bits:64\r\n" +
-            "multiplexing_api:epoll\r\n" +
-            "process_id:12345\r\n" +
-            "run_id:abc123def456\r\n" + // 模拟运行ID
-            "tcp_port:6379\r\n" +
-            "uptime_in_seconds:1000\r\n" +
-            "uptime_in_days:0\r\n" +
-            "hz:10\r\n" +
-            "config_file:/path/to/redis.conf\r\n" +
-            "\r\n" +
-            "# Clients\r\n" +
-            "connected_clients:1\r\n" +
-            "client_recent_max_input_buffer:2\r\n" +
-            "blocked_clients:0\r\n" +
-            "\r\n" +
-            "# Memory\r\n" +
-            "used_memory:1048576\r\n" +
-            "used_memory_human:1.00M\r\n" +
-            "used_memory_rss:2097152\r\n" +
-            "used_memory_peak:2097152\r\n" +
-            "used_memory_peak_perc:50.00%\r\n" +
-            "mem_fragmentation_ratio:2.00\r\n" +
-            "maxmemory:0\r\n" +
-            "maxmemory_policy:noeviction\r\n" +
-            "mem_allocator:jemalloc-5.2.1\r\n" +
-            "\r\n" +
-            "# Persistence\r\n" +
-            "loading:0\r\n" +
-            "rdb_changes_since_last_save:0\r\n" +
-            "rdb_bgsave_in_progress:0\r\n" +
-            "aof_enabled:0\r\n" +
-            "\r\n" +
-            "# Stats\r\n" +
-            "total_connections_received:5\r\n" +
-            "total_commands_processed:100\r\n" +
-            "instantaneous_ops_per_sec:0\r\n" +
-            "rejected_connections:0\r\n" +
-            "keyspace_hits:50\r\n" +
-            "keyspace_misses:10\r\n" +
-            "\r\n" +
-            "# Replication\r\n" +
-            "role:master\r\n" +
-            "connected_slaves:0\r\n" +
-            "master_repl_offset:0\r\n" +
-            "\r\n" +
-            "# CPU\r\n" +
-            "used_cpu_sys:10.5\r\n" +
-            "used_cpu_user:20.3\r\n" +
-            "\r\n" +
-            "# Keyspace\r\n" +
-            "db0:keys=10,expires=0,avg_ttl=0\r\n";
 }
@@ -0,0 +1,438 @@
+package com.test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 集合
+ * 1. 所有元素都是整数且元素个数不超过 set-max-intset-entries 时使用整数集合编码(IntSet)
+ * 2. 加入非整数元素或元素个数超过阈值时转换为哈希表编码(HashSet)
+ * 3. SINTER 按集合大小从小到大排序, 只遍历最小的集合, 依次去其他集合中查找
+ *    整数集合和整数集合之间直接比较 long, 不需要转换成字符串
+ */
+public class RedisSet {
+    // 整数集合编码的阈值
+    static int set_max_intset_entries = 512;
+
+    private static final String WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+
+    /**
+     * 严格地把字符串解析为 long: 不允许前导0、正号、空白, 保证 long 转回字符串后和原字符串相同
+     * @return 解析成功返回true, 结果放在 out[0]
+     */
+    static boolean string2ll(String s, long[] out) {
+        int len = s.length();
+        if (len == 0 || len > 20) {
+            return false;
+        }
+        int i = 0;
+        boolean negative = s.charAt(0) == '-';
+        if (negative) {
+            if (len == 1) {
+                return false;
+            }
+            i = 1;
+        }
+        if (s.charAt(i) == '0') {
+            if (len == 1) {
+                out[0] = 0;
+                return true;
+            }
+            return false;
+        }
+        // 按负数累加, 这样可以表示 Long.MIN_VALUE
+        long value = 0;
+        for (; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            int digit = c - '0';
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return false;
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                return false;
+            }
+            value = -value;
+        }
+        out[0] = value;
+        return true;
+    }
+
+    // 根据第一个元素选择编码创建集合对象
+    static RedisServer.RedisObject setTypeCreate(String value) {
+        RedisServer.RedisObject redisObject;
+        if (string2ll(value, new long[1])) {
+            redisObject = new RedisServer.RedisObject(new IntSet());
+            redisObject.encoding = RedisConstants.REDIS_ENCODING_INTSET;
+        } else {
+            redisObject = new RedisServer.RedisObject(new HashSet<String>());
+            redisObject.encoding = RedisConstants.REDIS_ENCODING_HT;
+        }
+        redisObject.type = RedisConstants.REDIS_SET;
+        return redisObject;
+    }
+
+    // 整数集合编码转换为哈希表编码
+    static void setTypeConvert(RedisServer.RedisObject o) {
+        IntSet is = (IntSet) o.value;
+        Set<String> set = new HashSet<>(Math.max(16, (int) (is.size() / 0.75f) + 1));
+        for (int i = 0; i < is.size(); i++) {
+            set.add(Long.toString(is.get(i)));
+        }
+        o.value = set;
+        o.encoding = RedisConstants.REDIS_ENCODING_HT;
+    }
+
+    static int setTypeSize(RedisServer.RedisObject o) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_INTSET) {
+            return ((IntSet) o.value).size();
+        }
+        return ((Set<?>) o.value).size();
+    }
+
+    /**
+     * 添加元素
+     * @return 新增返回true, 元素已存在返回false
+     */
+    @SuppressWarnings("unchecked")
+    static boolean setTypeAdd(RedisServer.RedisObject o, String value) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_INTSET) {
+            long[] ll = new long[1];
+            if (string2ll(value, ll)) {
+                IntSet is = (IntSet) o.value;
+                if (!is.add(ll[0])) {
+                    return false;
+                }
+                if (is.size() > set_max_intset_entries) {
+                    setTypeConvert(o);
+                }
+                return true;
+            }
+            // 非整数元素, 转换后按哈希表添加
+            setTypeConvert(o);
+        }
+        return ((Set<String>) o.value).add(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    static boolean setTypeRemove(RedisServer.RedisObject o, String value) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_INTSET) {
+            long[] ll = new long[1];
+            return string2ll(value, ll) && ((IntSet) o.value).remove(ll[0]);
+        }
+        return ((Set<String>) o.value).remove(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    static boolean setTypeIsMember(RedisServer.RedisObject o, String value) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_INTSET) {
+            long[] ll = new long[1];
+            return string2ll(value, ll) && ((IntSet) o.value).find(ll[0]);
+        }
+        return ((Set<String>) o.value).contains(value);
+    }
+
+    // 整数元素的查找, 整数集合中直接二分查找, 不需要转换成字符串
+    @SuppressWarnings("unchecked")
+    static boolean setTypeIsMember(RedisServer.RedisObject o, long value) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_INTSET) {
+            return ((IntSet) o.value).find(value);
+        }
+        return ((Set<String>) o.value).contains(Long.toString(value));
+    }
+
+    // 把集合中所有的元素写入回复
+    @SuppressWarnings("unchecked")
+    static void addSetMembers(ReplyBuffer reply, RedisServer.RedisObject o) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_INTSET) {
+            IntSet is = (IntSet) o.value;
+            for (int i = 0; i < is.size(); i++) {
+                reply.addBulkLong(is.get(i));
+            }
+        } else {
+            for (String member : (Set<String>) o.value) {
+                reply.addBulk(member);
+            }
+        }
+    }
+
+    // ============= 命令 =============
+
+    private static RedisServer.RedisObject checkType(RedisServer.RedisObject o) {
+        if (o != null && o.type != RedisConstants.REDIS_SET) {
+            throw new IllegalStateException(WRONGTYPE);
+        }
+        return o;
+    }
+
+    // SADD key member [member ...]
+    public static Object sadd(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() < 2) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'sadd' command");
+        }
+        String key = redisRequest.args.get(0);
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyWrite(db, key));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (o == null) {
+            o = setTypeCreate(redisRequest.args.get(1));
+            RedisServer.dbAdd(db, key, o);
+        }
+        long added = 0;
+        for (int i = 1; i < redisRequest.args.size(); i++) {
+            if (setTypeAdd(o, redisRequest.args.get(i))) {
+                added++;
+            }
+        }
+        if (added > 0) {
+            RedisServer.signalModifiedKey(db, key);
+        }
+        return added;
+    }
+
+    // SREM key member [member ...]
+    public static Object srem(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        String key = redisRequest.args.get(0);
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyWrite(db, key));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (o == null) {
+            return 0L;
+        }
+        long removed = 0;
+        for (int i = 1; i < redisRequest.args.size(); i++) {
+            if (setTypeRemove(o, redisRequest.args.get(i))) {
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            if (setTypeSize(o) == 0) {
+                RedisServer.dbDelete(db, key, false);
+            }
+            RedisServer.signalModifiedKey(db, key);
+        }
+        return removed;
+    }
+
+    // SISMEMBER key member
+    public static Object sismember(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        try {
+            RedisServer.RedisObject o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+            return o != null && setTypeIsMember(o, redisRequest.args.get(1)) ? 1L : 0L;
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+    }
+
+    // SCARD key
+    public static Object scard(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        try {
+            RedisServer.RedisObject o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+            return o == null ? 0L : (long) setTypeSize(o);
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+    }
+
+    // SMEMBERS key
+    public static Object smembers(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        ReplyBuffer reply = new ReplyBuffer();
+        if (o == null) {
+            return reply.addSetLen(0).toByteArray();
+        }
+        reply.addSetLen(setTypeSize(o));
+        addSetMembers(reply, o);
+        return reply.toByteArray();
+    }
+
+    // 查找所有参数对应的集合, 不存在的key对应null
+    private static RedisServer.RedisObject[] lookupSets(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        RedisServer.RedisObject[] sets = new RedisServer.RedisObject[redisRequest.args.size()];
+        for (int i = 0; i < sets.length; i++) {
+            sets[i] = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(i)));
+        }
+        return sets;
+    }
+
+    // 先把元素写入 body, 最后补上集合长度 (RESP2 为数组)
+    private static byte[] setReply(ReplyBuffer body, long count) {
+        ReplyBuffer reply = new ReplyBuffer(body.length() + 16);
+        reply.addSetLen(count);
+        reply.addRaw(body.buf, body.len);
+        return reply.toByteArray();
+    }
+
+    // SINTER key [key ...]
+    @SuppressWarnings("unchecked")
+    public static Object sinter(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.isEmpty()) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'sinter' command");
+        }
+        RedisServer.RedisObject[] sets;
+        try {
+            sets = lookupSets(db, redisRequest);
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        for (RedisServer.RedisObject set : sets) {
+            // 有一个集合不存在, 交集一定为空
+            if (set == null) {
+                return new ReplyBuffer().addSetLen(0).toByteArray();
+            }
+        }
+        // 从最小的集合开始, 遍历次数最少, 并且越小的集合越早淘汰不满足条件的元素
+        Arrays.sort(sets, Comparator.comparingInt(RedisSet::setTypeSize));
+        ReplyBuffer body = new ReplyBuffer();
+        long count = 0;
+        if (sets[0].encoding == RedisConstants.REDIS_ENCODING_INTSET) {
+            IntSet is = (IntSet) sets[0].value;
+            outer:
+            for (int i = 0; i < is.size(); i++) {
+                long value = is.get(i);
+                for (int j = 1; j < sets.length; j++) {
+                    if (!setTypeIsMember(sets[j], value)) {
+                        continue outer;
+                    }
+                }
+                body.addBulkLong(value);
+                count++;
+            }
+        } else {
+            outer:
+            for (String member : (Set<String>) sets[0].value) {
+                for (int j = 1; j < sets.length; j++) {
+                    if (!setTypeIsMember(sets[j], member)) {
+                        continue outer;
+                    }
+                }
+                body.addBulk(member);
+                count++;
+            }
+        }
+        return setReply(body, count);
+    }
+
+    // SUNION key [key ...]
+    @SuppressWarnings("unchecked")
+    public static Object sunion(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.isEmpty()) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'sunion' command");
+        }
+        RedisServer.RedisObject[] sets;
+        try {
+            sets = lookupSets(db, redisRequest);
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        boolean allIntset = true;
+        int total = 0;
+        for (RedisServer.RedisObject set : sets) {
+            if (set != null) {
+                allIntset &= set.encoding == RedisConstants.REDIS_ENCODING_INTSET;
+                total += setTypeSize(set);
+            }
+        }
+        ReplyBuffer body = new ReplyBuffer();
+        long count;
+        if (allIntset) {
+            // 都是整数集合时结果仍然用整数集合去重, 输出有序
+            IntSet result = new IntSet();
+            for (RedisServer.RedisObject set : sets) {
+                if (set != null) {
+                    IntSet is = (IntSet) set.value;
+                    for (int i = 0; i < is.size(); i++) {
+                        result.add(is.get(i));
+                    }
+                }
+            }
+            for (int i = 0; i < result.size(); i++) {
+                body.addBulkLong(result.get(i));
+            }
+            count = result.size();
+        } else {
+            Set<String> result = new HashSet<>(Math.max(16, (int) (total / 0.75f) + 1));
+            for (RedisServer.RedisObject set : sets) {
+                if (set == null) {
+                    continue;
+                }
+                if (set.encoding == RedisConstants.REDIS_ENCODING_INTSET) {
+                    IntSet is = (IntSet) set.value;
+                    for (int i = 0; i < is.size(); i++) {
+                        result.add(Long.toString(is.get(i)));
+                    }
+                } else {
+                    result.addAll((Set<String>) set.value);
+                }
+            }
+            for (String member : result) {
+                body.addBulk(member);
+            }
+            count = result.size();
+        }
+        return setReply(body, count);
+    }
+
+    // SDIFF key [key ...], 遍历第一个集合, 去掉在其他任意集合中出现的元素
+    @SuppressWarnings("unchecked")
+    public static Object sdiff(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.isEmpty()) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'sdiff' command");
+        }
+        RedisServer.RedisObject[] sets;
+        try {
+            sets = lookupSets(db, redisRequest);
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (sets[0] == null) {
+            return new ReplyBuffer().addSetLen(0).toByteArray();
+        }
+        ReplyBuffer body = new ReplyBuffer();
+        long count = 0;
+        if (sets[0].encoding == RedisConstants.REDIS_ENCODING_INTSET) {
+            IntSet is = (IntSet) sets[0].value;
+            outer:
+            for (int i = 0; i < is.size(); i++) {
+                long value = is.get(i);
+                for (int j = 1; j < sets.length; j++) {
+                    if (sets[j] != null && setTypeIsMember(sets[j], value)) {
+                        continue outer;
+                    }
+                }
+                body.addBulkLong(value);
+                count++;
+            }
+        } else {
+            outer:
+            for (String member : (Set<String>) sets[0].value) {
+                for (int j = 1; j < sets.length; j++) {
+                    if (sets[j] != null && setTypeIsMember(sets[j], member)) {
+                        continue outer;
+                    }
+                }
+                body.addBulk(member);
+                count++;
+            }
+        }
+        return setReply(body, count);
+    }
+}
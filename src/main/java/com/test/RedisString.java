@@ -0,0 +1,490 @@
+package com.test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 字符串
+ * 1. 能表示为 long 的值使用整数编码(REDIS_ENCODING_INT), value 是可变的 LongValue
+ *    INCR/DECR 直接修改其中的 long, 不需要把字符串解析成数字再格式化回去, 也不需要创建新对象
+ * 2. 其他值使用原始编码(REDIS_ENCODING_RAW), value 是 String
+ *    APPEND/SETRANGE 第一次修改时转换为 Sds: 带空闲空间的字节数组, 之后的追加大多不需要重新分配和拷贝
+ */
+public class RedisString {
+    // 字符串的最大长度 512MB
+    static final long PROTO_MAX_BULK_LEN = 512L * 1024 * 1024;
+    // Sds 预分配的上限, 小于它时容量翻倍, 超过之后每次多分配 1MB
+    static final int SDS_MAX_PREALLOC = 1024 * 1024;
+
+    private static final String WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+    private static final String NOT_INTEGER = "ERR value is not an integer or out of range";
+    private static final String MAX_SIZE = "ERR string exceeds maximum allowed size (proto-max-bulk-len)";
+
+    // 整数编码的值
+    static final class LongValue {
+        long value;
+
+        LongValue(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(value);
+        }
+    }
+
+    // 可以原地修改的字符串, len 之后到 buf.length 为空闲空间
+    static final class Sds {
+        byte[] buf;
+        int len;
+
+        Sds(byte[] data, int capacity) {
+            buf = new byte[capacity];
+            System.arraycopy(data, 0, buf, 0, data.length);
+            len = data.length;
+        }
+
+        // 直接使用传入的数组, 不拷贝
+        Sds(byte[] buf) {
+            this.buf = buf;
+            len = buf.length;
+        }
+
+        // 保证能放下 newLen 个字节, 扩容时按 SDS 的策略预分配, 新增的部分为 0
+        void makeRoomFor(int newLen) {
+            if (newLen <= buf.length) {
+                return;
+            }
+            long capacity = newLen < SDS_MAX_PREALLOC ? (long) newLen * 2 : (long) newLen + SDS_MAX_PREALLOC;
+            byte[] newBuf = new byte[(int) Math.min(capacity, Integer.MAX_VALUE - 8)];
+            System.arraycopy(buf, 0, newBuf, 0, len);
+            buf = newBuf;
+        }
+
+        // 长度至少增长到 newLen, 新增的部分为 0 (len 之后的空闲空间始终是 0)
+        void growZero(int newLen) {
+            makeRoomFor(newLen);
+            if (newLen > len) {
+                len = newLen;
+            }
+        }
+
+        void append(byte[] data) {
+            makeRoomFor(len + data.length);
+            System.arraycopy(data, 0, buf, len, data.length);
+            len += data.length;
+        }
+
+        @Override
+        public String toString() {
+            return new String(buf, 0, len, StandardCharsets.UTF_8);
+        }
+    }
+
+    // 创建字符串对象, 整数使用整数编码
+    static RedisServer.RedisObject createStringObject(String value) {
+        long[] ll = new long[1];
+        if (RedisSet.string2ll(value, ll)) {
+            return createLongObject(ll[0]);
+        }
+        return new RedisServer.RedisObject(value);
+    }
+
+    static RedisServer.RedisObject createLongObject(long value) {
+        RedisServer.RedisObject redisObject = new RedisServer.RedisObject(new LongValue(value));
+        redisObject.encoding = RedisConstants.REDIS_ENCODING_INT;
+        return redisObject;
+    }
+
+    private static RedisServer.RedisObject checkType(RedisServer.RedisObject o) {
+        if (o != null && o.type != RedisConstants.REDIS_STRING) {
+            throw new IllegalStateException(WRONGTYPE);
+        }
+        return o;
+    }
+
+    // 字符串的字节内容, Sds 返回的数组可能比长度长, 只有 [0, stringLength) 有效
+    private static byte[] stringBytes(RedisServer.RedisObject o) {
+        if (o.value instanceof Sds) {
+            return ((Sds) o.value).buf;
+        }
+        return o.value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringLength(RedisServer.RedisObject o) {
+        if (o.encoding == RedisConstants.REDIS_ENCODING_INT) {
+            return ReplyBuffer.stringLength(((LongValue) o.value).value);
+        }
+        if (o.value instanceof Sds) {
+            return ((Sds) o.value).len;
+        }
+        return o.value.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // Sds 中的字节是否是合法的 UTF-8, 分段解码, 不为整个值分配字符数组
+    static boolean isValidUtf8(Sds sds) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        ByteBuffer in = ByteBuffer.wrap(sds.buf, 0, sds.len);
+        CharBuffer out = CharBuffer.allocate(8192);
+        while (true) {
+            CoderResult result = decoder.decode(in, out, true);
+            if (result.isError()) {
+                return false;
+            }
+            if (result.isUnderflow()) {
+                return true;
+            }
+            out.clear();
+        }
+    }
+
+    // 原地转换为 Sds 编码, 用于 APPEND/SETRANGE/SETBIT
+    static Sds toSds(RedisServer.RedisObject o) {
+        if (o.value instanceof Sds) {
+            return (Sds) o.value;
+        }
+        byte[] data = o.value.toString().getBytes(StandardCharsets.UTF_8);
+        Sds sds = new Sds(data, data.length);
+        o.value = sds;
+        o.encoding = RedisConstants.REDIS_ENCODING_RAW;
+        return sds;
+    }
+
+    /**
+     * SET key value [NX|XX] [GET] [EX seconds|PX milliseconds|EXAT timestamp|PXAT milliseconds-timestamp|KEEPTTL]
+     * 值和过期时间在同一个命令中写入, 缓存不再需要 SET + EXPIRE 两次往返, 也没有中间没有过期时间的窗口
+     * 不带 KEEPTTL 时清除旧的过期时间
+     * @return NX/XX 条件不满足时返回空值, 带 GET 时返回旧值
+     */
+    public static Object set(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        if (args.size() < 2) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'set' command");
+        }
+        boolean nx = false, xx = false, get = false, keepTtl = false;
+        String unit = null;
+        long expire = 0;
+        long[] ll = new long[1];
+        for (int i = 2; i < args.size(); i++) {
+            String option = args.get(i);
+            if ("nx".equalsIgnoreCase(option) && !xx) {
+                nx = true;
+            } else if ("xx".equalsIgnoreCase(option) && !nx) {
+                xx = true;
+            } else if ("get".equalsIgnoreCase(option)) {
+                get = true;
+            } else if ("keepttl".equalsIgnoreCase(option) && unit == null) {
+                keepTtl = true;
+            } else if (("ex".equalsIgnoreCase(option) || "px".equalsIgnoreCase(option)
+                    || "exat".equalsIgnoreCase(option) || "pxat".equalsIgnoreCase(option))
+                    && !keepTtl && unit == null && i + 1 < args.size()) {
+                unit = option.toLowerCase();
+                if (!RedisSet.string2ll(args.get(++i), ll)) {
+                    return new RedisServer.ErrorObject(NOT_INTEGER);
+                }
+                expire = ll[0];
+            } else {
+                return new RedisServer.ErrorObject("ERR syntax error");
+            }
+        }
+        long when = -1;
+        if (unit != null) {
+            when = expireTime(expire, unit.startsWith("e"), unit.endsWith("at"));
+            if (when == -1) {
+                return new RedisServer.ErrorObject("ERR invalid expire time in 'set' command");
+            }
+        }
+        String key = args.get(0);
+        RedisServer.RedisObject old;
+        if (get) {
+            old = RedisServer.lookUpKeyReadObject(db, key);
+            if (old != null && old.type != RedisConstants.REDIS_STRING) {
+                return new RedisServer.ErrorObject(WRONGTYPE);
+            }
+        } else {
+            old = RedisServer.lookUpKeyWrite(db, key);
+        }
+        // 旧值在覆盖时会被释放, 先编码好回复
+        byte[] oldReply = get ? new ReplyBuffer().addStringValue(old == null ? null : old.value).toByteArray() : null;
+        if ((nx && old != null) || (xx && old == null)) {
+            return oldReply;
+        }
+        RedisServer.setKey(db, key, createStringObject(args.get(1)), keepTtl);
+        if (when != -1) {
+            RedisServer.setExpire(db, key, when);
+        }
+        RedisServer.signalModifiedKey(db, key);
+        return get ? oldReply : "OK";
+    }
+
+    /**
+     * SETEX key seconds value / PSETEX key milliseconds value
+     */
+    public static Object setex(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest, boolean milliseconds) {
+        String command = redisRequest.command.toLowerCase();
+        if (redisRequest.args.size() != 3) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for '" + command + "' command");
+        }
+        long[] ll = new long[1];
+        if (!RedisSet.string2ll(redisRequest.args.get(1), ll)) {
+            return new RedisServer.ErrorObject(NOT_INTEGER);
+        }
+        long when = expireTime(ll[0], !milliseconds, false);
+        if (when == -1) {
+            return new RedisServer.ErrorObject("ERR invalid expire time in '" + command + "' command");
+        }
+        String key = redisRequest.args.get(0);
+        RedisServer.setKey(db, key, createStringObject(redisRequest.args.get(2)), false);
+        RedisServer.setExpire(db, key, when);
+        RedisServer.signalModifiedKey(db, key);
+        return "OK";
+    }
+
+    /**
+     * RESTORE-STRING key base64-value
+     * 内部命令, 全量同步的快照和 MIGRATE 用它重建不是合法 UTF-8 的值(例如位图)
+     * 命令的参数按 UTF-8 解码, 这样的值直接用 SET 发送会丢失数据, base64 编码之后只有 ASCII 字符
+     * 和 SET 一样覆盖旧值并清除过期时间
+     */
+    public static Object restoreString(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() != 2) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'restore-string' command");
+        }
+        byte[] data;
+        try {
+            data = Base64.getDecoder().decode(redisRequest.args.get(1));
+        } catch (IllegalArgumentException e) {
+            return new RedisServer.ErrorObject("ERR invalid base64 payload");
+        }
+        String key = redisRequest.args.get(0);
+        RedisServer.setKey(db, key, new RedisServer.RedisObject(new Sds(data)), false);
+        RedisServer.signalModifiedKey(db, key);
+        return "OK";
+    }
+
+    /**
+     * 把 SET/SETEX 的过期参数转换为毫秒时间戳
+     * @param seconds 参数的单位是秒
+     * @param absolute 参数是时间戳, 否则是相对当前时间的偏移
+     * @return 参数不是正数或者溢出时返回-1
+     */
+    static long expireTime(long expire, boolean seconds, boolean absolute) {
+        if (expire <= 0 || (seconds && expire > Long.MAX_VALUE / 1000)) {
+            return -1;
+        }
+        long when = seconds ? expire * 1000 : expire;
+        if (!absolute) {
+            long now = System.currentTimeMillis();
+            if (when > Long.MAX_VALUE - now) {
+                return -1;
+            }
+            when += now;
+        }
+        return when;
+    }
+
+    /**
+     * INCR/DECR/INCRBY/DECRBY
+     * 整数编码的值原地加上增量, 只有一次字典查找和一次加法
+     * 原始编码的值能解析为整数时转换为整数编码, 之后的自增就不再解析字符串
+     */
+    static Object incrDecr(RedisServer.RedisDB db, String key, long incr) {
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyWrite(db, key));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (o == null) {
+            RedisServer.dbAdd(db, key, createLongObject(incr));
+            RedisServer.signalModifiedKey(db, key);
+            return incr;
+        }
+        LongValue lv;
+        if (o.encoding == RedisConstants.REDIS_ENCODING_INT) {
+            lv = (LongValue) o.value;
+        } else {
+            long[] ll = new long[1];
+            if (!RedisSet.string2ll(o.value.toString(), ll)) {
+                return new RedisServer.ErrorObject(NOT_INTEGER);
+            }
+            lv = new LongValue(ll[0]);
+            o.value = lv;
+            o.encoding = RedisConstants.REDIS_ENCODING_INT;
+        }
+        long value = lv.value;
+        long result = value + incr;
+        // 同号相加结果变号说明溢出
+        if (((value ^ result) & (incr ^ result)) < 0) {
+            return new RedisServer.ErrorObject("ERR increment or decrement would overflow");
+        }
+        lv.value = result;
+        RedisServer.signalModifiedKey(db, key);
+        return result;
+    }
+
+    // INCRBY key increment / DECRBY key decrement
+    public static Object incrby(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest, boolean decr) {
+        if (redisRequest.args.size() != 2) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for '" + redisRequest.command.toLowerCase() + "' command");
+        }
+        long[] ll = new long[1];
+        if (!RedisSet.string2ll(redisRequest.args.get(1), ll)) {
+            return new RedisServer.ErrorObject(NOT_INTEGER);
+        }
+        if (decr && ll[0] == Long.MIN_VALUE) {
+            return new RedisServer.ErrorObject("ERR decrement would overflow");
+        }
+        return incrDecr(db, redisRequest.args.get(0), decr ? -ll[0] : ll[0]);
+    }
+
+    /**
+     * APPEND key value
+     * @return 追加之后的字节长度
+     */
+    public static Object append(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() != 2) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'append' command");
+        }
+        String key = redisRequest.args.get(0);
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyWrite(db, key));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        String value = redisRequest.args.get(1);
+        if (o == null) {
+            o = createStringObject(value);
+            RedisServer.dbAdd(db, key, o);
+            RedisServer.signalModifiedKey(db, key);
+            return (long) stringLength(o);
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        if ((long) stringLength(o) + data.length > PROTO_MAX_BULK_LEN) {
+            return new RedisServer.ErrorObject(MAX_SIZE);
+        }
+        Sds sds = toSds(o);
+        sds.append(data);
+        RedisServer.signalModifiedKey(db, key);
+        return (long) sds.len;
+    }
+
+    /**
+     * GETRANGE key start end
+     * 负数下标从末尾开始计算, 两端都包含
+     */
+    public static Object getrange(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() != 3) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'getrange' command");
+        }
+        long[] ll = new long[1];
+        if (!RedisSet.string2ll(redisRequest.args.get(1), ll)) {
+            return new RedisServer.ErrorObject(NOT_INTEGER);
+        }
+        long start = ll[0];
+        if (!RedisSet.string2ll(redisRequest.args.get(2), ll)) {
+            return new RedisServer.ErrorObject(NOT_INTEGER);
+        }
+        long end = ll[0];
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (o == null || (start < 0 && end < 0 && start > end)) {
+            return "";
+        }
+        byte[] data = stringBytes(o);
+        int strlen = o.value instanceof Sds ? ((Sds) o.value).len : data.length;
+        if (start < 0) {
+            start = strlen + start;
+        }
+        if (end < 0) {
+            end = strlen + end;
+        }
+        if (start < 0) {
+            start = 0;
+        }
+        if (end < 0) {
+            end = 0;
+        }
+        if (end >= strlen) {
+            end = strlen - 1;
+        }
+        if (strlen == 0 || start > end) {
+            return "";
+        }
+        int n = (int) (end - start + 1);
+        return new ReplyBuffer(n + 16).addBulk(data, (int) start, n).toByteArray();
+    }
+
+    /**
+     * SETRANGE key offset value
+     * 从 offset 开始覆盖, 超出原长度的部分用 0 填充
+     * @return 修改之后的字节长度
+     */
+    public static Object setrange(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() != 3) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'setrange' command");
+        }
+        long[] ll = new long[1];
+        if (!RedisSet.string2ll(redisRequest.args.get(1), ll)) {
+            return new RedisServer.ErrorObject(NOT_INTEGER);
+        }
+        long offset = ll[0];
+        if (offset < 0) {
+            return new RedisServer.ErrorObject("ERR offset is out of range");
+        }
+        String key = redisRequest.args.get(0);
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyWrite(db, key));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        byte[] data = redisRequest.args.get(2).getBytes(StandardCharsets.UTF_8);
+        if (data.length == 0) {
+            // 不创建空的key, 也不修改已有的值
+            return o == null ? 0L : (long) stringLength(o);
+        }
+        if (offset + data.length > PROTO_MAX_BULK_LEN) {
+            return new RedisServer.ErrorObject(MAX_SIZE);
+        }
+        int newLen = (int) offset + data.length;
+        Sds sds;
+        if (o == null) {
+            // 新建的值只按需要的长度分配, 之后的追加再预分配
+            sds = new Sds(new byte[0], newLen);
+            o = new RedisServer.RedisObject(sds);
+            RedisServer.dbAdd(db, key, o);
+        } else {
+            sds = toSds(o);
+        }
+        sds.growZero(newLen);
+        System.arraycopy(data, 0, sds.buf, (int) offset, data.length);
+        RedisServer.signalModifiedKey(db, key);
+        return (long) sds.len;
+    }
+
+    // STRLEN key
+    public static Object strlen(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() != 1) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'strlen' command");
+        }
+        RedisServer.RedisObject o;
+        try {
+            o = checkType(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        return o == null ? 0L : (long) stringLength(o);
+    }
+}
@@ -0,0 +1,816 @@
+package com.test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 主从复制
+ * 1. 从服务器: REPLICAOF host port 之后在 replicationCron 中连接主服务器, 发送
+ *    REPLCONF listening-port 和 PSYNC ? -1, 主服务器的连接作为一个带 REDIS_MASTER 标志的客户端,
+ *    收到的快照和命令流都走普通的 processQueryBuf -> call 执行, 只是不回复
+ * 2. 全量同步: 主服务器把所有 RedisDB 编码成一串重建数据的命令(SELECT / SET / LPUSH / HSET / SADD / ZADD / PEXPIREAT),
+ *    以 +FULLRESYNC <replid> <offset> 和 $<长度> 开头发送; 单线程中一次生成, 就是一个时间点的快照
+ * 3. 命令传播: 写命令在 call 中执行成功后编码一次, 作为 SharedReply 放入所有从服务器的输出队列;
+ *    EXPIRE 改写为 PEXPIREAT, 主服务器删除过期键 / 淘汰key 时传播 DEL, 从服务器自己不删除过期键
+ * 4. 从服务器默认只读 (replica-read-only), 只执行主服务器发来的写命令
+ * 5. 从服务器每秒发送 REPLCONF ACK <offset>, 主服务器每 repl-ping-replica-period 秒在命令流中发送 PING,
+ *    双方超过 repl-timeout 秒没有收到数据时断开连接
+ * 6. 部分重同步: 命令流同时写入固定大小的环形缓冲区(复制积压缓冲区 backlog), 命令流由复制ID + 偏移量定位;
+ *    从服务器断线重连时发送 PSYNC <replid> <offset+1>, 复制ID一致并且这个偏移量之后的数据还在 backlog 中时
+ *    主服务器回复 +CONTINUE 并只补发缺少的部分, 否则退回全量同步
+ * 7. 从服务器把收到的命令流原样写入自己的 backlog 并转发给下级从服务器, 所以和主服务器有相同的复制ID和偏移量;
+ *    提升为主服务器时换新的复制ID, 旧ID保存为 replid2, 原来的兄弟节点仍然可以用旧ID部分重同步
+ */
+public class Replication {
+    // 从服务器的复制状态
+    static final int REPL_STATE_NONE = 0;        // 不是从服务器
+    static final int REPL_STATE_CONNECT = 1;     // 需要连接主服务器
+    static final int REPL_STATE_CONNECTING = 2;  // 正在建立 TCP 连接
+    static final int REPL_STATE_TRANSFER = 3;    // 已经发送 PSYNC, 等待主服务器的回复
+    static final int REPL_STATE_CONNECTED = 4;   // 正在接收快照和命令流
+
+    static final int REPL_BACKLOG_MIN_SIZE = 16 * 1024;
+
+    static int repl_timeout = 60;                // 秒
+    static int repl_ping_replica_period = 10;    // 秒
+    static boolean repl_slave_ro = true;
+
+    // ===== 主服务器 =====
+    static String master_replid = RedisServer.genRunId();
+    static String master_replid2 = null;         // 提升为主服务器之前的复制ID
+    static long second_replid_offset = -1;       // replid2 只在这个偏移量之前有效
+    static long master_repl_offset = 0;          // 命令流的字节数(从服务器上是已经执行的字节数)
+    static List<RedisServer.RedisClient> slaves = new ArrayList<>();
+    private static int slaveseldb = -1;          // 命令流中最后一次 SELECT 的数据库, -1 表示下一条命令之前必须 SELECT
+    private static long lastPingTime = 0;
+    static long stat_sync_full = 0;              // 全量同步的次数
+    static long stat_sync_partial_ok = 0;        // 部分重同步成功(命中 backlog)的次数
+    static long stat_sync_partial_err = 0;       // 请求部分重同步但是被拒绝(没有命中)的次数
+
+    // ===== 复制积压缓冲区 (环形), 第一个从服务器连接之后才创建 =====
+    static int repl_backlog_size = 1024 * 1024;
+    static byte[] repl_backlog;
+    static int repl_backlog_idx;                 // 下一个字节写入的位置
+    static int repl_backlog_histlen;             // 缓冲区中有效数据的长度
+    static long repl_backlog_off;                // 缓冲区中第一个字节的偏移量 (和 PSYNC 的偏移量一样从1开始)
+
+    // ===== 从服务器 =====
+    static String masterhost;
+    static int masterport;
+    static int repl_state = REPL_STATE_NONE;
+    static RedisServer.RedisClient master;       // 主服务器的连接, 连接建立之后才有
+    private static SocketChannel repl_transfer_s; // 正在建立的连接
+    private static long repl_transfer_start;     // 开始连接的时间
+    static long repl_transfer_left;              // 快照中还没有执行的字节数
+    static long repl_down_since = 0;             // 和主服务器断开的时间, 0 表示没有断开过
+    // 断开之前的复制进度, 重连时用来请求部分重同步; replid 为 null 表示没有
+    static String cached_master_replid;
+    static long cached_master_offset;
+    static int cached_master_db = -1;            // 断开时命令流所在的数据库, 部分重同步后命令流接着用
+    private static long lastCronTime = 0;
+
+    static boolean isReplica() {
+        return masterhost != null;
+    }
+
+    // ============= 从服务器 =============
+
+    // REPLICAOF host port | REPLICAOF NO ONE
+    public static Object replicaof(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() != 2) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for '" + redisRequest.command + "' command");
+        }
+        if (Cluster.cluster_enabled) {
+            return new RedisServer.ErrorObject("ERR REPLICAOF not allowed in cluster mode.");
+        }
+        String host = redisRequest.args.get(0);
+        String portArg = redisRequest.args.get(1);
+        if ("no".equalsIgnoreCase(host) && "one".equalsIgnoreCase(portArg)) {
+            if (masterhost != null) {
+                replicationUnsetMaster();
+                Log.notice("MASTER MODE enabled (user request from '" + redisClient.addr + "')");
+            }
+            return "OK";
+        }
+        int port;
+        try {
+            port = Integer.parseInt(portArg);
+        } catch (NumberFormatException e) {
+            return new RedisServer.ErrorObject("ERR value is not an integer or out of range");
+        }
+        if (host.equalsIgnoreCase(masterhost) && port == masterport) {
+            return "OK Already connected to specified master";
+        }
+        replicationSetMaster(host, port);
+        Log.notice("REPLICAOF " + host + ":" + port + " enabled (user request from '" + redisClient.addr + "')");
+        return "OK";
+    }
+
+    /**
+     * 成为 host:port 的从服务器, 在 replicationCron 中连接
+     * 启动参数 --replicaof 在 initServer 之前调用, 所以这里不直接连接
+     */
+    static void replicationSetMaster(String host, int port) {
+        boolean wasMaster = masterhost == null;
+        cancelHandshake();
+        if (master != null) {
+            // 断开时记下复制进度, 新的主服务器可能可以接着同步(例如它原来是同一个主服务器的从服务器)
+            RedisServer.freeClient(master);
+        } else if (wasMaster && repl_backlog != null) {
+            // 原来的主服务器降级: 用自己的复制ID和偏移量请求部分重同步
+            cached_master_replid = master_replid;
+            cached_master_offset = master_repl_offset;
+            cached_master_db = -1;
+        }
+        // 下级从服务器重新同步
+        disconnectSlaves();
+        masterhost = host;
+        masterport = port;
+        repl_state = REPL_STATE_CONNECT;
+        repl_down_since = 0;
+    }
+
+    static void replicationUnsetMaster() {
+        cancelHandshake();
+        if (master != null) {
+            RedisServer.freeClient(master);
+        }
+        discardCachedMaster();
+        masterhost = null;
+        repl_state = REPL_STATE_NONE;
+        // 成为新的主服务器, 数据集从这里开始和原来的主服务器分叉
+        shiftReplicationId();
+        if (repl_backlog == null) {
+            createReplicationBacklog();
+        }
+        // 下级从服务器需要知道新的复制ID, 断开之后它们会用 replid2 部分重同步
+        disconnectSlaves();
+        slaveseldb = -1;
+    }
+
+    // 换一个新的复制ID, 旧ID在当前偏移量之前仍然有效
+    private static void shiftReplicationId() {
+        master_replid2 = master_replid;
+        second_replid_offset = master_repl_offset + 1;
+        master_replid = RedisServer.genRunId();
+        Log.notice("Setting secondary replication ID to " + master_replid2 + ", valid up to offset: " + second_replid_offset
+                + ". New replication ID is " + master_replid);
+    }
+
+    private static void discardCachedMaster() {
+        cached_master_replid = null;
+        cached_master_db = -1;
+    }
+
+    private static void connectWithMaster() {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(masterhost, masterport));
+            channel.register(RedisServer.selector, SelectionKey.OP_CONNECT);
+            repl_transfer_s = channel;
+            repl_transfer_start = System.currentTimeMillis();
+            repl_state = REPL_STATE_CONNECTING;
+            Log.notice("Connecting to MASTER " + masterhost + ":" + masterport);
+        } catch (IOException e) {
+            Log.warning("Unable to connect to MASTER: " + e.getMessage());
+        }
+    }
+
+    private static void cancelHandshake() {
+        if (repl_transfer_s != null) {
+            try {
+                repl_transfer_s.close();
+            } catch (IOException ignored) {
+            }
+            repl_transfer_s = null;
+        }
+        if (repl_state == REPL_STATE_CONNECTING) {
+            repl_state = REPL_STATE_CONNECT;
+        }
+    }
+
+    // 连接建立: 把连接包装成主服务器客户端, 发送握手命令
+    static void handleConnect(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            channel.finishConnect();
+        } catch (IOException e) {
+            Log.warning("Error condition on socket for SYNC: " + e.getMessage());
+            cancelHandshake();
+            return;
+        }
+        repl_transfer_s = null;
+        RedisServer.RedisClient client = new RedisServer.RedisClient();
+        client.channel = channel;
+        client.addr = masterhost + ":" + masterport;
+        client.flags = RedisConstants.REDIS_MASTER;
+        client.selectDB = RedisServer.redisDB[0];
+        client.lastinteraction = System.currentTimeMillis();
+        key.attach(ByteBuffer.allocate(1024));
+        key.interestOps(SelectionKey.OP_READ);
+        RedisServer.clientsMap.put(key, client);
+        RedisServer.clients.add(client);
+        master = client;
+        repl_state = REPL_STATE_TRANSFER;
+        Log.notice("MASTER <-> REPLICA sync started");
+
+        sendToMaster("REPLCONF", "listening-port", String.valueOf(RedisServer.port));
+        if (cached_master_replid != null) {
+            Log.notice("Trying a partial resynchronization (request " + cached_master_replid + ":" + (cached_master_offset + 1) + ").");
+            sendToMaster("PSYNC", cached_master_replid, String.valueOf(cached_master_offset + 1));
+        } else {
+            sendToMaster("PSYNC", "?", "-1");
+        }
+    }
+
+    // 给主服务器发送命令, 主服务器的连接上默认不发送回复, 这里临时允许
+    private static void sendToMaster(String... argv) {
+        ReplyBuffer buf = new ReplyBuffer();
+        addCommand(buf, argv);
+        master.flags |= RedisConstants.REDIS_MASTER_FORCE_REPLY;
+        RedisServer.addReplyRaw(master, buf.toByteArray());
+        master.flags &= ~RedisConstants.REDIS_MASTER_FORCE_REPLY;
+    }
+
+    /**
+     * 处理 PSYNC 的回复, 在读取主服务器的数据之后、执行命令之前调用
+     * 依次是 REPLCONF 的 +OK, 然后是
+     * 1. 全量同步: +FULLRESYNC <replid> <offset>, $<快照长度>, 后面就是快照中的命令
+     * 2. 部分重同步: +CONTINUE <replid>, 后面直接是 backlog 中补发的命令流
+     * @return 握手已经完成, 可以执行 queryBuf 中的命令
+     */
+    static boolean processSyncReply(RedisServer.RedisClient client) {
+        while (repl_state == REPL_STATE_TRANSFER) {
+            int lineEnd = -1;
+            for (int i = 0; i + 1 < client.queryBufLen; i++) {
+                if (client.queryBuf[i] == '\r' && client.queryBuf[i + 1] == '\n') {
+                    lineEnd = i;
+                    break;
+                }
+            }
+            if (lineEnd < 0) {
+                return false;
+            }
+            String line = new String(client.queryBuf, 0, lineEnd, StandardCharsets.UTF_8);
+            System.arraycopy(client.queryBuf, lineEnd + 2, client.queryBuf, 0, client.queryBufLen - lineEnd - 2);
+            client.queryBufLen -= lineEnd + 2;
+
+            if (line.startsWith("-")) {
+                Log.warning("Error reply from MASTER during the handshake: " + line.substring(1));
+                RedisServer.freeClient(client);
+                return false;
+            }
+            if (line.startsWith("+CONTINUE")) {
+                String[] parts = line.split(" ");
+                if (parts.length > 1 && !parts[1].equals(master_replid)) {
+                    // 主服务器是被提升的从服务器, 命令流接着旧ID继续, 以后用新ID
+                    master_replid2 = master_replid;
+                    second_replid_offset = master_repl_offset + 1;
+                    master_replid = parts[1];
+                    Log.notice("Master replication ID changed to " + master_replid);
+                    disconnectSlaves();
+                }
+                if (cached_master_db >= 0) {
+                    client.selectDB = RedisServer.redisDB[cached_master_db];
+                }
+                discardCachedMaster();
+                if (repl_backlog == null) {
+                    createReplicationBacklog();
+                }
+                repl_state = REPL_STATE_CONNECTED;
+                repl_down_since = 0;
+                Log.notice("Successful partial resynchronization with master, continuing from offset " + (master_repl_offset + 1));
+            } else if (line.startsWith("+FULLRESYNC")) {
+                String[] parts = line.split(" ");
+                master_replid = parts[1];
+                master_repl_offset = Long.parseLong(parts[2]);
+                master_replid2 = null;
+                second_replid_offset = -1;
+                discardCachedMaster();
+                // 数据集整个换掉, 下级从服务器也要重新同步, backlog 从新的偏移量开始
+                disconnectSlaves();
+                createReplicationBacklog();
+                Log.notice("Full resync from master: " + parts[1] + ":" + parts[2]);
+            } else if (line.startsWith("$")) {
+                repl_transfer_left = Long.parseLong(line.substring(1));
+                // 丢弃旧数据, 从快照重建, 客户端的缓存全部失效
+                Tracking.invalidateKeysOnFlush();
+                for (RedisServer.RedisDB db : RedisServer.redisDB) {
+                    RedisServer.emptyDb(db, false);
+                }
+                repl_state = REPL_STATE_CONNECTED;
+                repl_down_since = 0;
+                Log.notice("MASTER <-> REPLICA sync: receiving " + repl_transfer_left + " bytes from master");
+                if (repl_transfer_left == 0) {
+                    Log.notice("MASTER <-> REPLICA sync: Finished with success");
+                }
+            }
+            // 其它的是 REPLCONF 的 +OK, 忽略
+        }
+        return true;
+    }
+
+    /**
+     * 主服务器的连接上解析出了一条命令 (还没有执行), 先算快照, 快照执行完之后才是命令流:
+     * 原样写入 backlog 并转发给下级从服务器
+     */
+    static void masterProcessed(byte[] data, int length) {
+        if (repl_transfer_left > 0) {
+            repl_transfer_left -= length;
+            if (repl_transfer_left == 0) {
+                Log.notice("MASTER <-> REPLICA sync: Finished with success");
+            }
+            return;
+        }
+        feedReplicationStream(data, 0, length);
+    }
+
+    // 主服务器的连接断开 (closeClient 中调用)
+    static void handleMasterDisconnect(RedisServer.RedisClient client) {
+        if (client != master) {
+            return;
+        }
+        // 只有完整同步过的数据集才能接着同步
+        if (repl_state == REPL_STATE_CONNECTED && repl_transfer_left == 0) {
+            cached_master_replid = master_replid;
+            cached_master_offset = master_repl_offset;
+            cached_master_db = client.selectDB.id;
+        }
+        master = null;
+        repl_transfer_left = 0;
+        if (masterhost != null) {
+            repl_state = REPL_STATE_CONNECT;
+            repl_down_since = System.currentTimeMillis();
+            Log.warning("Connection with master lost.");
+        }
+    }
+
+    // ============= 主服务器 =============
+
+    // SYNC / PSYNC replid offset
+    public static Object sync(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        if ((redisClient.flags & RedisConstants.REDIS_SLAVE) != 0) {
+            return RedisServer.NO_REPLY;
+        }
+        if (masterhost != null && (repl_state != REPL_STATE_CONNECTED || repl_transfer_left > 0)) {
+            return new RedisServer.ErrorObject("NOMASTERLINK Can't SYNC while not connected with my master");
+        }
+        boolean psync = "psync".equalsIgnoreCase(redisRequest.command);
+        if (psync) {
+            if (redisRequest.args.size() != 2) {
+                return new RedisServer.ErrorObject("ERR wrong number of arguments for 'psync' command");
+            }
+            if (masterTryPartialResynchronization(redisClient, redisRequest.args.get(0), redisRequest.args.get(1))) {
+                return RedisServer.NO_REPLY;
+            }
+        }
+
+        // 全量同步, backlog 从快照的偏移量开始记录
+        if (repl_backlog == null) {
+            createReplicationBacklog();
+        }
+        // 快照的最后 SELECT 命令流当前所在的数据库, 之后的命令流接着用
+        byte[] snapshot = snapshot(isReplica() ? master.selectDB.id : slaveseldb);
+        attachSlave(redisClient);
+        stat_sync_full++;
+
+        ReplyBuffer header = new ReplyBuffer();
+        if (psync) {
+            header.addRaw(("+FULLRESYNC " + master_replid + " " + master_repl_offset + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        header.addRaw(("$" + snapshot.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+        RedisServer.addReplyRaw(redisClient, header.toByteArray());
+        // 快照不复制到回复块中, 也不计入输出缓冲区限制
+        SharedReply shared = new SharedReply(snapshot);
+        redisClient.replSnapshot = shared;
+        RedisServer.addReplyShared(redisClient, shared);
+        Log.notice("Replica " + redisClient.addr + " asks for synchronization, full resync with " + snapshot.length + " bytes snapshot");
+        return RedisServer.NO_REPLY;
+    }
+
+    /**
+     * 尝试部分重同步
+     * 复制ID是当前ID, 或者是 replid2 并且偏移量在切换ID之前, 同时偏移量之后的数据都还在 backlog 中
+     * @return false 表示需要全量同步
+     */
+    private static boolean masterTryPartialResynchronization(RedisServer.RedisClient redisClient, String replid, String offsetArg) {
+        long psyncOffset;
+        try {
+            psyncOffset = Long.parseLong(offsetArg);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if ("?".equals(replid)) {
+            return false;
+        }
+        if (!replid.equals(master_replid) && !(replid.equals(master_replid2) && psyncOffset <= second_replid_offset)) {
+            Log.notice("Partial resynchronization not accepted: Replication ID mismatch (Replica asked for '" + replid
+                    + "', my replication IDs are '" + master_replid + "' and '" + master_replid2 + "')");
+            stat_sync_partial_err++;
+            return false;
+        }
+        byte[] missing = replicationBacklogFrom(psyncOffset);
+        if (missing == null) {
+            Log.notice("Unable to partial resync with replica " + redisClient.addr + " for lack of backlog (Replica request was: "
+                    + psyncOffset + ", backlog covers " + repl_backlog_off + "-" + (repl_backlog_off + repl_backlog_histlen) + ").");
+            stat_sync_partial_err++;
+            return false;
+        }
+
+        attachSlave(redisClient);
+        stat_sync_partial_ok++;
+        RedisServer.addReplyRaw(redisClient, ("+CONTINUE " + master_replid + "\r\n").getBytes(StandardCharsets.UTF_8));
+        if (missing.length > 0) {
+            RedisServer.addReplyShared(redisClient, new SharedReply(missing));
+        }
+        Log.notice("Partial resynchronization request from " + redisClient.addr + " accepted. Sending " + missing.length
+                + " bytes of backlog starting from offset " + psyncOffset + ".");
+        return true;
+    }
+
+    private static void attachSlave(RedisServer.RedisClient redisClient) {
+        redisClient.flags |= RedisConstants.REDIS_SLAVE;
+        redisClient.replAckTime = System.currentTimeMillis();
+        redisClient.replAckOff = master_repl_offset;
+        slaves.add(redisClient);
+    }
+
+    // REPLCONF listening-port <port> | ACK <offset> | 其它选项
+    public static Object replconf(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        if (args.size() % 2 != 0) {
+            return new RedisServer.ErrorObject("ERR syntax error");
+        }
+        for (int i = 0; i < args.size(); i += 2) {
+            String option = args.get(i);
+            try {
+                if ("listening-port".equalsIgnoreCase(option)) {
+                    redisClient.slaveListeningPort = Integer.parseInt(args.get(i + 1));
+                } else if ("ack".equalsIgnoreCase(option)) {
+                    // ACK 不回复
+                    if ((redisClient.flags & RedisConstants.REDIS_SLAVE) != 0) {
+                        redisClient.replAckOff = Math.max(redisClient.replAckOff, Long.parseLong(args.get(i + 1)));
+                        redisClient.replAckTime = System.currentTimeMillis();
+                    }
+                    return RedisServer.NO_REPLY;
+                }
+            } catch (NumberFormatException e) {
+                return new RedisServer.ErrorObject("ERR value is not an integer or out of range");
+            }
+        }
+        return "OK";
+    }
+
+    // 从服务器断开 (closeClient 中调用)
+    static void removeSlave(RedisServer.RedisClient client) {
+        if ((client.flags & RedisConstants.REDIS_SLAVE) != 0) {
+            slaves.remove(client);
+            Log.notice("Connection with replica " + client.addr + " lost.");
+        }
+    }
+
+    private static void disconnectSlaves() {
+        for (RedisServer.RedisClient slave : new ArrayList<>(slaves)) {
+            RedisServer.freeClient(slave);
+        }
+    }
+
+    /**
+     * 传播一条写命令 (call 中写命令执行成功之后调用)
+     * 相对时间在从服务器上执行时会变, 改写成绝对时间:
+     * EXPIRE/PEXPIRE/EXPIREAT 改写成 PEXPIREAT, SETEX/PSETEX 改写成 SET PXAT, SET 的 EX/PX/EXAT 改写成 PXAT
+     */
+    static void propagate(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (repl_backlog == null && slaves.isEmpty()) {
+            return;
+        }
+        String command = redisRequest.command;
+        if ("expire".equalsIgnoreCase(command) || "pexpire".equalsIgnoreCase(command) || "expireat".equalsIgnoreCase(command)) {
+            String key = redisRequest.args.get(0);
+            Long when = db.expires.getTTL(key);
+            if (when != null) {
+                propagate(db, "PEXPIREAT", key, String.valueOf(when));
+            }
+            return;
+        }
+        if ("setex".equalsIgnoreCase(command) || "psetex".equalsIgnoreCase(command)) {
+            String key = redisRequest.args.get(0);
+            propagate(db, "SET", key, redisRequest.args.get(2), "PXAT", String.valueOf(db.expires.getTTL(key)));
+            return;
+        }
+        String[] argv = new String[redisRequest.args.size() + 1];
+        argv[0] = command;
+        for (int i = 0; i < redisRequest.args.size(); i++) {
+            argv[i + 1] = redisRequest.args.get(i);
+        }
+        if ("set".equalsIgnoreCase(command)) {
+            // NX/XX 条件不满足时从服务器上同样不会写入, 改不改写都没有影响
+            Long when = db.expires.getTTL(redisRequest.args.get(0));
+            for (int i = 3; i < argv.length - 1 && when != null; i++) {
+                if ("ex".equalsIgnoreCase(argv[i]) || "px".equalsIgnoreCase(argv[i]) || "exat".equalsIgnoreCase(argv[i])) {
+                    argv[i] = "PXAT";
+                    argv[i + 1] = String.valueOf(when);
+                    break;
+                }
+            }
+        }
+        propagate(db, argv);
+    }
+
+    /**
+     * 命令只编码一次, 写入 backlog, 所有从服务器共享同一份数据
+     * 从服务器只转发主服务器的命令流(见 masterProcessed), 自己的写命令不传播
+     * @param db 命令所在的数据库, null 表示和数据库无关(PING)
+     */
+    static void propagate(RedisServer.RedisDB db, String... argv) {
+        if ((repl_backlog == null && slaves.isEmpty()) || isReplica()) {
+            return;
+        }
+        ReplyBuffer buf = new ReplyBuffer(64);
+        if (db != null && db.id != slaveseldb) {
+            addCommand(buf, "SELECT", String.valueOf(db.id));
+            slaveseldb = db.id;
+        }
+        addCommand(buf, argv);
+        feedReplicationStream(buf.buf, 0, buf.len);
+    }
+
+    // 命令流: 推进偏移量, 写入 backlog, 发给所有从服务器
+    private static void feedReplicationStream(byte[] data, int off, int length) {
+        master_repl_offset += length;
+        if (repl_backlog != null) {
+            feedReplicationBacklog(data, off, length);
+        }
+        if (!slaves.isEmpty()) {
+            SharedReply shared = new SharedReply(Arrays.copyOfRange(data, off, off + length));
+            for (RedisServer.RedisClient slave : slaves) {
+                RedisServer.addReplyShared(slave, shared);
+            }
+        }
+    }
+
+    // ============= 复制积压缓冲区 =============
+
+    // 创建(或者清空) backlog, 从当前偏移量之后开始记录
+    static void createReplicationBacklog() {
+        repl_backlog = new byte[repl_backlog_size];
+        repl_backlog_idx = 0;
+        repl_backlog_histlen = 0;
+        repl_backlog_off = master_repl_offset + 1;
+    }
+
+    // 修改大小时直接丢弃已有的数据, 之后重连的从服务器需要全量同步
+    static void resizeReplicationBacklog(int size) {
+        repl_backlog_size = size;
+        if (repl_backlog != null && repl_backlog.length != size) {
+            createReplicationBacklog();
+        }
+    }
+
+    /**
+     * 写入环形缓冲区, 写满后覆盖最旧的数据
+     * 调用之前 master_repl_offset 已经加上了 length
+     */
+    static void feedReplicationBacklog(byte[] data, int off, int length) {
+        int size = repl_backlog.length;
+        // 比整个缓冲区还长的数据只有最后 size 个字节有用
+        if (length > size) {
+            off += length - size;
+            repl_backlog_histlen += length - size;
+            length = size;
+        }
+        while (length > 0) {
+            int n = Math.min(size - repl_backlog_idx, length);
+            System.arraycopy(data, off, repl_backlog, repl_backlog_idx, n);
+            repl_backlog_idx = (repl_backlog_idx + n) % size;
+            repl_backlog_histlen += n;
+            off += n;
+            length -= n;
+        }
+        if (repl_backlog_histlen > size) {
+            repl_backlog_histlen = size;
+        }
+        repl_backlog_off = master_repl_offset - repl_backlog_histlen + 1;
+    }
+
+    /**
+     * backlog 中从 offset 开始到最新的数据
+     * @return offset 已经被覆盖或者超出了当前偏移量时返回null
+     */
+    static byte[] replicationBacklogFrom(long offset) {
+        if (repl_backlog == null || offset < repl_backlog_off || offset > repl_backlog_off + repl_backlog_histlen) {
+            return null;
+        }
+        int size = repl_backlog.length;
+        int skip = (int) (offset - repl_backlog_off);
+        int length = repl_backlog_histlen - skip;
+        // 最旧的数据在 idx - histlen 的位置
+        int start = (repl_backlog_idx - repl_backlog_histlen + skip + size) % size;
+        byte[] data = new byte[length];
+        int first = Math.min(length, size - start);
+        System.arraycopy(repl_backlog, start, data, 0, first);
+        System.arraycopy(repl_backlog, 0, data, first, length - first);
+        return data;
+    }
+
+    static void addCommand(ReplyBuffer buf, String... argv) {
+        buf.addArrayLen(argv.length);
+        for (String arg : argv) {
+            buf.addBulk(arg);
+        }
+    }
+
+    /**
+     * 把所有数据库编码成重建数据的命令
+     * 已经过期的key不发送; 集合类的对象每个key一条命令
+     * @param streamDb 命令流当前所在的数据库, 快照最后 SELECT 这个数据库; -1 表示命令流下一条命令之前会 SELECT
+     */
+    static byte[] snapshot(int streamDb) {
+        ReplyBuffer buf = new ReplyBuffer(1024);
+        long now = System.currentTimeMillis();
+        for (RedisServer.RedisDB db : RedisServer.redisDB) {
+            if (db.dict.getDictSize() == 0) {
+                continue;
+            }
+            addCommand(buf, "SELECT", String.valueOf(db.id));
+            for (Hashtable<String, RedisServer.RedisObject> table : db.dict.ht) {
+                for (Map.Entry<String, RedisServer.RedisObject> entry : table.entrySet()) {
+                    String key = entry.getKey();
+                    Long when = db.expires.getTTL(key);
+                    if (when != null && when <= now) {
+                        continue;
+                    }
+                    addObject(buf, key, entry.getValue(), false);
+                    if (when != null) {
+                        addCommand(buf, "PEXPIREAT", key, String.valueOf(when));
+                    }
+                }
+            }
+        }
+        if (streamDb >= 0) {
+            addCommand(buf, "SELECT", String.valueOf(streamDb));
+        }
+        return buf.toByteArray();
+    }
+
+    /**
+     * 把一个key编码成重建它的命令 (全量同步的快照和 MIGRATE 使用)
+     * @param asking 每条命令之前加上 ASKING (MIGRATE 的目标节点可能还在导入这个槽)
+     * @return 写入的命令数(包括 ASKING), 空列表不写
+     */
+    @SuppressWarnings("unchecked")
+    static int addObject(ReplyBuffer buf, String key, RedisServer.RedisObject o, boolean asking) {
+        int start = buf.len;
+        if (asking) {
+            addCommand(buf, "ASKING");
+        }
+        switch (o.type) {
+            case RedisConstants.REDIS_STRING:
+                addStringObject(buf, key, o);
+                break;
+            case RedisConstants.REDIS_LIST: {
+                // LPUSH 每个元素都插到头部, 所以从尾到头发送
+                List<String> elements = new ArrayList<>();
+                if (o.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+                    elements.addAll(((ZipList) o.value).range(0, -1));
+                } else {
+                    for (Object element : (LinkedList<Object>) o.value) {
+                        elements.add(String.valueOf(element));
+                    }
+                }
+                if (elements.isEmpty()) {
+                    buf.len = start;
+                    return 0;
+                }
+                buf.addArrayLen(elements.size() + 2);
+                buf.addBulk("LPUSH");
+                buf.addBulk(key);
+                for (int i = elements.size() - 1; i >= 0; i--) {
+                    buf.addBulk(elements.get(i));
+                }
+                break;
+            }
+            case RedisConstants.REDIS_HASH: {
+                buf.addArrayLen(Hash.hashTypeLength(o) * 2 + 2);
+                buf.addBulk("HSET");
+                buf.addBulk(key);
+                if (o.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+                    ZipList zl = (ZipList) o.value;
+                    for (int pos = zl.head(); pos != -1; pos = zl.next(pos)) {
+                        buf.addBulk(zl.get(pos));
+                    }
+                } else {
+                    for (Hashtable<String, String> table : ((RedisServer.Dict<String>) o.value).ht) {
+                        for (Map.Entry<String, String> field : table.entrySet()) {
+                            buf.addBulk(field.getKey());
+                            buf.addBulk(field.getValue());
+                        }
+                    }
+                }
+                break;
+            }
+            case RedisConstants.REDIS_SET:
+                buf.addArrayLen(RedisSet.setTypeSize(o) + 2);
+                buf.addBulk("SADD");
+                buf.addBulk(key);
+                RedisSet.addSetMembers(buf, o);
+                break;
+            case RedisConstants.REDIS_ZSET: {
+                buf.addArrayLen(ZSet.zsetLength(o) * 2 + 2);
+                buf.addBulk("ZADD");
+                buf.addBulk(key);
+                if (o.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+                    // 压缩列表中是 member, score 相邻存放, ZADD 的参数是 score member
+                    ZipList zl = (ZipList) o.value;
+                    for (int pos = zl.head(); pos != -1; ) {
+                        int scorePos = zl.next(pos);
+                        buf.addBulk(zl.get(scorePos));
+                        buf.addBulk(zl.get(pos));
+                        pos = zl.next(scorePos);
+                    }
+                } else {
+                    ZSet.ZSkipList zsl = ((ZSet.ZSetObject) o.value).zsl;
+                    for (ZSet.ZSkipListNode node = zsl.header.forward[0]; node != null; node = node.forward[0]) {
+                        buf.addBulk(ZSet.formatScore(node.score));
+                        buf.addBulk(node.member);
+                    }
+                }
+                break;
+            }
+            default:
+                buf.len = start;
+                return 0;
+        }
+        return asking ? 2 : 1;
+    }
+
+    /**
+     * 字符串对象写成 SET
+     * 命令的参数按 UTF-8 解码, 不是合法 UTF-8 的值(例如位图)写成 RESTORE-STRING, 值用 base64 编码
+     * 不管值是什么, 一个key都只有一条命令, 编码的长度和值的长度成正比
+     */
+    private static void addStringObject(ReplyBuffer buf, String key, RedisServer.RedisObject o) {
+        if (!(o.value instanceof RedisString.Sds) || RedisString.isValidUtf8((RedisString.Sds) o.value)) {
+            addCommand(buf, "SET", key, String.valueOf(o.value));
+            return;
+        }
+        RedisString.Sds sds = (RedisString.Sds) o.value;
+        ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(sds.buf, 0, sds.len));
+        buf.addArrayLen(3);
+        buf.addBulk("RESTORE-STRING");
+        buf.addBulk(key);
+        buf.addBulk(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+    }
+
+    // ============= 定时任务 =============
+
+    // serverCron 中调用, 每秒执行一次
+    static void replicationCron() {
+        long now = System.currentTimeMillis();
+        if (now - lastCronTime < 1000) {
+            return;
+        }
+        lastCronTime = now;
+
+        // 从服务器: 重连 / 握手超时 / 主服务器超时 / 发送 ACK
+        if (masterhost != null) {
+            if (repl_state == REPL_STATE_CONNECT) {
+                connectWithMaster();
+            } else if (repl_state == REPL_STATE_CONNECTING && now - repl_transfer_start > repl_timeout * 1000L) {
+                Log.warning("Timeout connecting to the MASTER...");
+                cancelHandshake();
+            } else if (master != null && now - master.lastinteraction > repl_timeout * 1000L) {
+                Log.warning("MASTER timeout: no data nor PING received...");
+                RedisServer.freeClient(master);
+            } else if (repl_state == REPL_STATE_CONNECTED && master != null) {
+                sendToMaster("REPLCONF", "ACK", String.valueOf(master_repl_offset));
+            }
+        }
+
+        // 主服务器: 定期 PING, 断开很久没有 ACK 的从服务器
+        if (!slaves.isEmpty()) {
+            if (now - lastPingTime >= repl_ping_replica_period * 1000L) {
+                propagate(null, "PING");
+                lastPingTime = now;
+            }
+            for (RedisServer.RedisClient slave : new ArrayList<>(slaves)) {
+                if (now - slave.replAckTime > repl_timeout * 1000L) {
+                    Log.warning("Disconnecting timedout replica: " + slave.addr);
+                    RedisServer.freeClient(slave);
+                }
+            }
+        }
+    }
+}
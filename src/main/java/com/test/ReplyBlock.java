@@ -0,0 +1,31 @@
+package com.test;
+
+/**
+ * 客户端私有回复的固定大小的块
+ * 1. 回复追加到输出队列队尾的块中, 块写满之后在队尾再开一个新块, 已经写入的数据不再移动
+ * 2. 大回复被拆到多个块中, 不需要像可扩容的缓冲区那样反复 Arrays.copyOf 扩容
+ * 3. 部分发送时只记下队首块发送到的位置(RedisClient.sentLen), 剩下的数据原地等下次发送
+ */
+public class ReplyBlock {
+    // 每个块的大小 (和Redis的 PROTO_REPLY_CHUNK_BYTES 一样是16KB)
+    static final int PROTO_REPLY_CHUNK_BYTES = 16 * 1024;
+
+    final byte[] buf = new byte[PROTO_REPLY_CHUNK_BYTES];
+    int used;
+
+    // 剩余可写的字节数
+    int free() {
+        return buf.length - used;
+    }
+
+    /**
+     * 尽可能多地追加 data[off, off + length)
+     * @return 实际追加的字节数, 块写满时可能小于 length
+     */
+    int append(byte[] data, int off, int length) {
+        int n = Math.min(length, free());
+        System.arraycopy(data, off, buf, used, n);
+        used += n;
+        return n;
+    }
+}
@@ -0,0 +1,368 @@
+package com.test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * RESP 回复缓冲区
+ * 命令在遍历数据结构的同时直接把回复编码成 RESP 字节, 不需要先把结果收集到 List 中再统一格式化
+ * 数字直接按位写入字节数组, 不经过字符串拼接
+ * RESP3 (HELLO 3) 的映射/集合/推送/浮点数/空值/布尔/大整数/原样字符串按 resp 选择编码,
+ * RESP2 客户端收到的是对应的数组/批量字符串/整数
+ */
+public class ReplyBuffer {
+    private static final byte[] NULL_BULK = "$-1\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL_MULTI_BULK = "*-1\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESP3_NULL = "_\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESP3_TRUE = "#t\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESP3_FALSE = "#f\r\n".getBytes(StandardCharsets.UTF_8);
+
+    // 数组的最大长度, 部分 JVM 在数组中保留了几个字的头部
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    byte[] buf;
+    int len;
+    int resp;  // 协议版本 2 或 3
+
+    public ReplyBuffer() {
+        this(64);
+    }
+
+    // 协议版本取当前正在执行命令的客户端
+    public ReplyBuffer(int initialCapacity) {
+        this(initialCapacity, RedisServer.currentResp());
+    }
+
+    public ReplyBuffer(int initialCapacity, int resp) {
+        buf = new byte[initialCapacity];
+        this.resp = resp;
+    }
+
+    // 确保还能写入 n 个字节, 容量按 long 计算, 超过 1GB 之后翻倍不会溢出成负数
+    private void ensureCapacity(int n) {
+        if (n > buf.length - len) {
+            long required = (long) len + n;
+            if (required > MAX_CAPACITY) {
+                throw new OutOfMemoryError("Reply buffer exceeds " + MAX_CAPACITY + " bytes");
+            }
+            buf = Arrays.copyOf(buf, (int) Math.min(MAX_CAPACITY, Math.max((long) buf.length * 2, required)));
+        }
+    }
+
+    // 写入一个前缀字符和一个整数, 例如 "*3\r\n" "$5\r\n" ":42\r\n"
+    private void writePrefixedLong(byte prefix, long value) {
+        ensureCapacity(1 + 20 + 2);
+        buf[len++] = prefix;
+        len = writeLong(buf, len, value);
+        buf[len++] = '\r';
+        buf[len++] = '\n';
+    }
+
+    /**
+     * 把 long 按十进制写入 dest 的 pos 位置
+     * @return 写入后的位置
+     */
+    static int writeLong(byte[] dest, int pos, long value) {
+        if (value == Long.MIN_VALUE) {
+            byte[] bytes = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(bytes, 0, dest, pos, bytes.length);
+            return pos + bytes.length;
+        }
+        if (value < 0) {
+            dest[pos++] = '-';
+            value = -value;
+        }
+        // 先算出位数, 再从低位往高位写
+        int end = pos + stringLength(value);
+        for (int i = end - 1; i >= pos; i--) {
+            dest[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    // 数组头 *<n>\r\n
+    public ReplyBuffer addArrayLen(long n) {
+        writePrefixedLong((byte) '*', n);
+        return this;
+    }
+
+    // 映射头 %<n>\r\n, RESP2 为 *<2n>\r\n, 后面跟 n 对 key value
+    public ReplyBuffer addMapLen(long n) {
+        if (resp >= 3) {
+            writePrefixedLong((byte) '%', n);
+        } else {
+            writePrefixedLong((byte) '*', n * 2);
+        }
+        return this;
+    }
+
+    // 集合头 ~<n>\r\n, RESP2 为数组
+    public ReplyBuffer addSetLen(long n) {
+        writePrefixedLong(resp >= 3 ? (byte) '~' : (byte) '*', n);
+        return this;
+    }
+
+    // 推送头 ><n>\r\n, RESP2 为数组 (发布订阅的消息, 失效通知)
+    public ReplyBuffer addPushLen(long n) {
+        writePrefixedLong(resp >= 3 ? (byte) '>' : (byte) '*', n);
+        return this;
+    }
+
+    // 布尔 #t / #f, RESP2 为整数 1 / 0
+    public ReplyBuffer addBool(boolean value) {
+        if (resp >= 3) {
+            return addRaw(value ? RESP3_TRUE : RESP3_FALSE);
+        }
+        return addLong(value ? 1 : 0);
+    }
+
+    /**
+     * 浮点数 ,<value>\r\n, RESP2 为批量字符串
+     * 格式和 ZSet.formatScore 相同, 整数值按位写入, 不经过字符串
+     */
+    public ReplyBuffer addDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e17) {
+            if (resp >= 3) {
+                writePrefixedLong((byte) ',', (long) value);
+                return this;
+            }
+            return addBulkLong((long) value);
+        }
+        if (Double.isNaN(value)) {
+            return addDouble("nan");
+        }
+        if (Double.isInfinite(value)) {
+            return addDouble(value > 0 ? "inf" : "-inf");
+        }
+        return addDouble(Double.toString(value));
+    }
+
+    // 已经格式化好的浮点数, 例如压缩列表中保存的分数
+    public ReplyBuffer addDouble(String value) {
+        if (resp >= 3) {
+            writePrefixedAscii((byte) ',', value);
+            return this;
+        }
+        return addBulk(value);
+    }
+
+    // 大整数 (<digits>\r\n, RESP2 为批量字符串
+    public ReplyBuffer addBigNumber(String digits) {
+        if (resp >= 3) {
+            writePrefixedAscii((byte) '(', digits);
+            return this;
+        }
+        return addBulk(digits);
+    }
+
+    /**
+     * 原样字符串 =<len>\r\n<fmt>:<text>\r\n, 客户端可以直接显示, 不需要转义
+     * @param format 三个字符的格式, txt 或者 mkd
+     */
+    public ReplyBuffer addVerbatim(String format, String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        if (resp < 3) {
+            return addBulk(data);
+        }
+        writePrefixedLong((byte) '=', data.length + 4);
+        ensureCapacity(4 + data.length + 2);
+        for (int i = 0; i < 3; i++) {
+            buf[len++] = (byte) format.charAt(i);
+        }
+        buf[len++] = ':';
+        System.arraycopy(data, 0, buf, len, data.length);
+        len += data.length;
+        buf[len++] = '\r';
+        buf[len++] = '\n';
+        return this;
+    }
+
+    // 前缀字符加 ASCII 字符串, 逐个字符写入不分配内存
+    private void writePrefixedAscii(byte prefix, String value) {
+        ensureCapacity(1 + value.length() + 2);
+        buf[len++] = prefix;
+        for (int i = 0; i < value.length(); i++) {
+            buf[len++] = (byte) value.charAt(i);
+        }
+        buf[len++] = '\r';
+        buf[len++] = '\n';
+    }
+
+    // 整数 :<n>\r\n
+    public ReplyBuffer addLong(long n) {
+        writePrefixedLong((byte) ':', n);
+        return this;
+    }
+
+    // 批量字符串 $<len>\r\n<data>\r\n
+    public ReplyBuffer addBulk(byte[] data) {
+        if (data == null) {
+            return addNull();
+        }
+        return addBulk(data, 0, data.length);
+    }
+
+    public ReplyBuffer addBulk(byte[] data, int offset, int length) {
+        writePrefixedLong((byte) '$', length);
+        ensureCapacity(length + 2);
+        System.arraycopy(data, offset, buf, len, length);
+        len += length;
+        buf[len++] = '\r';
+        buf[len++] = '\n';
+        return this;
+    }
+
+    public ReplyBuffer addBulk(String value) {
+        return addBulk(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 字符串对象的值(String / 整数编码 / Sds)以批量字符串的形式返回
+    public ReplyBuffer addStringValue(Object value) {
+        if (value instanceof RedisString.LongValue) {
+            return addBulkLong(((RedisString.LongValue) value).value);
+        }
+        if (value instanceof RedisString.Sds) {
+            RedisString.Sds sds = (RedisString.Sds) value;
+            return addBulk(sds.buf, 0, sds.len);
+        }
+        return addBulk(value == null ? null : value.toString());
+    }
+
+    // 整数以批量字符串的形式返回
+    public ReplyBuffer addBulkLong(long value) {
+        writePrefixedLong((byte) '$', stringLength(value));
+        ensureCapacity(20 + 2);
+        len = writeLong(buf, len, value);
+        buf[len++] = '\r';
+        buf[len++] = '\n';
+        return this;
+    }
+
+    // long 的十进制字符串长度
+    static int stringLength(long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+        int n = 1;
+        if (value < 0) {
+            n++;
+            value = -value;
+        }
+        for (; value >= 10; value /= 10) {
+            n++;
+        }
+        return n;
+    }
+
+    // 错误 -<message>\r\n
+    public ReplyBuffer addError(String message) {
+        return addRaw(RespUtil.formatError(message));
+    }
+
+    /**
+     * 按照命令的返回值类型编码一个回复
+     * null: 空值, String: "OK"/"QUEUED" 为简单字符串, 其他为批量字符串
+     * Integer/Long: 整数, ErrorObject/Throwable: 错误, ArrayObject: 数组, byte[]: 已经编码好的回复
+     * RedisString.LongValue/Sds: 字符串对象的值, 批量字符串
+     * RESP3 的类型: Double: 浮点数, Boolean: 布尔, BigInteger: 大整数, MapObject: 映射, VerbatimObject: 原样字符串
+     */
+    public ReplyBuffer addReply(Object value) {
+        if (value == null) {
+            return addNull();
+        }
+        if (value instanceof String) {
+            String s = (String) value;
+            if ("OK".equals(s) || "QUEUED".equals(s)) {
+                writePrefixedAscii((byte) '+', s);
+                return this;
+            }
+            return addBulk(s);
+        }
+        if (value instanceof Long || value instanceof Integer) {
+            return addLong(((Number) value).longValue());
+        }
+        if (value instanceof RedisServer.ErrorObject) {
+            return addError(((RedisServer.ErrorObject) value).message);
+        }
+        if (value instanceof Throwable) {
+            return addError(((Throwable) value).getMessage());
+        }
+        if (value instanceof RedisServer.ArrayObject) {
+            Object[] elements = ((RedisServer.ArrayObject) value).elements;
+            if (elements == null) {
+                return addArrayLen(0);
+            }
+            addArrayLen(elements.length);
+            for (Object element : elements) {
+                addReply(element);
+            }
+            return this;
+        }
+        if (value instanceof RedisServer.MapObject) {
+            Object[] elements = ((RedisServer.MapObject) value).keysAndValues;
+            addMapLen(elements.length / 2);
+            for (Object element : elements) {
+                addReply(element);
+            }
+            return this;
+        }
+        if (value instanceof Double) {
+            return addDouble((Double) value);
+        }
+        if (value instanceof Boolean) {
+            return addBool((Boolean) value);
+        }
+        if (value instanceof BigInteger) {
+            return addBigNumber(value.toString());
+        }
+        if (value instanceof RedisServer.VerbatimObject) {
+            RedisServer.VerbatimObject verbatim = (RedisServer.VerbatimObject) value;
+            return addVerbatim(verbatim.format, verbatim.text);
+        }
+        if (value instanceof byte[]) {
+            return addRaw((byte[]) value);
+        }
+        if (value instanceof RedisString.LongValue || value instanceof RedisString.Sds) {
+            return addStringValue(value);
+        }
+        throw new IllegalArgumentException("Unsupported reply type: " + value.getClass());
+    }
+
+    // 空值 $-1\r\n, RESP3 为 _\r\n
+    public ReplyBuffer addNull() {
+        return addRaw(resp >= 3 ? RESP3_NULL : NULL_BULK);
+    }
+
+    // 空数组 *-1\r\n (例如 EXEC 失败), RESP3 为 _\r\n
+    public ReplyBuffer addNullArray() {
+        return addRaw(resp >= 3 ? RESP3_NULL : NULL_MULTI_BULK);
+    }
+
+    // 已经编码好的 RESP 数据
+    public ReplyBuffer addRaw(byte[] data) {
+        return addRaw(data, data.length);
+    }
+
+    public ReplyBuffer addRaw(byte[] data, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, 0, buf, len, length);
+        len += length;
+        return this;
+    }
+
+    // 清空已写入的数据, 保留底层数组继续使用
+    public ReplyBuffer reset() {
+        len = 0;
+        return this;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+}
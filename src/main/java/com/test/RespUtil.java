@@ -45,7 +45,6 @@ public class RespUtil {
             if (buffer.remaining() < 2 || buffer.get() != '\r' || buffer.get() != '\n') {
                 return -1;
             }
-            int totalProcessed = 1 + 2; // 已处理'*'和CRLF
 
             // 创建参数列表(初始长度为参数数量)
             List<String> args = new ArrayList<>(argCount);
@@ -54,7 +53,6 @@ public class RespUtil {
                 if (buffer.remaining() < 3) return 0; // 需要更多数据
                 // 如果格式错误那么就返回-1
                 if (buffer.get() != '$') return -1;
-                totalProcessed++;
 
                 // 读出参数
                 int paramLen = parseNumber(buffer); // 参数长度
@@ -64,7 +62,6 @@ public class RespUtil {
                 if (buffer.remaining() < 2 || buffer.get() != '\r' || buffer.get() != '\n') {
                     return -1;
                 }
-                totalProcessed += 2;
 
                 // 参数值
                 if (buffer.remaining() < paramLen + 2) return 0; // 检查剩余的长度是否满足 参数长度 + CRLF(2)的长度，如果不满足就属于数据不完整
@@ -75,20 +72,19 @@ public class RespUtil {
                 buffer.get(param);
                 // 将参数加入到list中
                 args.add(new String(param, StandardCharsets.UTF_8));
-                totalProcessed += paramLen;
 
                 // 消费参数后的CRLF
                 if (buffer.remaining() < 2 || buffer.get() != '\r' || buffer.get() != '\n') {
                     return -1;
                 }
-                totalProcessed += 2;
             }
 
             if (!args.isEmpty()) {
                 redisRequest.command = args.get(0);
                 redisRequest.args = args.subList(1, args.size());
             }
-            return totalProcessed;
+            // 以缓冲区实际读到的位置计算处理的字节数(包括数字本身), 一次读到多条命令时后面的命令从这里开始解析
+            return buffer.position() - offset;
         } catch (Exception e) {
             return -1;
         }
@@ -123,8 +119,20 @@ public class RespUtil {
         return ("+" + value + "\r\n").getBytes(StandardCharsets.UTF_8);
     }
 
+    /**
+     * 错误回复, 消息以错误码开头(例如 ERR / WRONGTYPE / EXECABORT)时直接使用, 否则加上 ERR 前缀
+     */
     static byte[] formatError(String message) {
-        return ("-ERR " + message + "\r\n").getBytes(StandardCharsets.UTF_8);
+        return ("-" + (hasErrorCode(message) ? message : "ERR " + message) + "\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 第一个单词全部是大写字母就认为是错误码
+    private static boolean hasErrorCode(String message) {
+        int i = 0;
+        while (i < message.length() && message.charAt(i) >= 'A' && message.charAt(i) <= 'Z') {
+            i++;
+        }
+        return i > 0 && (i == message.length() || message.charAt(i) == ' ');
     }
 
     static byte[] formatInteger(int value) {
@@ -0,0 +1,34 @@
+package com.test;
+
+/**
+ * 多个客户端共享的回复 (发布订阅的消息, 主从复制的命令流和快照)
+ * 1. PUBLISH 只编码一次, 每个订阅者的输出队列中放的都是同一个对象的引用, 数据不复制
+ * 2. data 创建之后不再修改, 发送时直接从 data 写入 socket
+ * 3. 引用计数记录还有多少个客户端没有发送完, 计数归零时从 shared_reply_bytes 中扣除,
+ *    这样共享的数据只按一份计算内存, 不会因为订阅者多而被重复统计
+ */
+public class SharedReply {
+    // 所有还没有发送完的共享回复占用的字节数
+    static long shared_reply_bytes = 0;
+
+    final byte[] data;
+    private int refcount;
+
+    SharedReply(byte[] data) {
+        this.data = data;
+    }
+
+    // 加入一个客户端的输出队列, 第一次加入时开始计算内存
+    void retain() {
+        if (refcount++ == 0) {
+            shared_reply_bytes += data.length;
+        }
+    }
+
+    // 一个客户端发送完成(或者断开连接)
+    void release() {
+        if (--refcount == 0) {
+            shared_reply_bytes -= data.length;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.test;
+
+import java.util.List;
+
+/**
+ * 慢查询日志 (SLOWLOG GET / LEN / RESET)
+ * 1. 执行时间超过 slowlog-log-slower-than 微秒的命令记录到日志中, 负数表示关闭, 0 表示记录所有命令
+ * 2. 日志是预先分配好的环形数组, 最多 slowlog-max-len 条, 写满之后覆盖最旧的记录
+ * 3. 快命令的开销只有 call 中已经有的一对 System.nanoTime 和一次比较
+ * 4. 参数最多记录 SLOWLOG_ENTRY_MAX_ARGC 个, 每个最多 SLOWLOG_ENTRY_MAX_STRING 个字符, 和Redis一样
+ */
+public class SlowLog {
+    static final int SLOWLOG_ENTRY_MAX_ARGC = 32;
+    static final int SLOWLOG_ENTRY_MAX_STRING = 128;
+
+    static long slowlog_log_slower_than = 10000;
+    static int slowlog_max_len = 128;
+
+    static class SlowLogEntry {
+        long id;
+        long time;      // 秒级时间戳
+        long duration;  // 微秒
+        String[] argv;
+        String peerId;  // 客户端地址 ip:port
+        String clientName;  // CLIENT SETNAME / HELLO SETNAME 设置的名称
+    }
+
+    private static SlowLogEntry[] entries = newEntries(slowlog_max_len);
+    private static int head;  // 下一条记录写入的位置
+    private static int size;
+    private static long nextId;
+
+    private static SlowLogEntry[] newEntries(int len) {
+        SlowLogEntry[] array = new SlowLogEntry[len];
+        for (int i = 0; i < len; i++) {
+            array[i] = new SlowLogEntry();
+        }
+        return array;
+    }
+
+    // 修改最大长度, 保留最新的记录
+    static void setMaxLen(int maxLen) {
+        if (maxLen < 0) {
+            throw new IllegalArgumentException("argument must be a non-negative number");
+        }
+        SlowLogEntry[] resized = newEntries(maxLen);
+        int keep = Math.min(size, maxLen);
+        for (int i = 0; i < keep; i++) {
+            // 从新到旧复制, 放到新数组的末尾
+            resized[keep - 1 - i] = entryAt(i);
+        }
+        entries = resized;
+        size = keep;
+        head = maxLen == 0 ? 0 : keep % maxLen;
+        slowlog_max_len = maxLen;
+    }
+
+    // 第 i 新的记录, 0 是最新的
+    static SlowLogEntry entryAt(int i) {
+        return entries[(head - 1 - i + entries.length * 2) % entries.length];
+    }
+
+    /**
+     * 命令执行完之后调用, 超过阈值时记录
+     * @param durationNanos 执行时间(纳秒)
+     */
+    static void slowlogPushEntryIfNeeded(RedisServer.RedisClient redisClient, RedisServer.RedisRequest redisRequest, long durationNanos) {
+        if (slowlog_log_slower_than < 0 || durationNanos / 1000 < slowlog_log_slower_than || entries.length == 0) {
+            return;
+        }
+        SlowLogEntry entry = entries[head];
+        entry.id = nextId++;
+        entry.time = System.currentTimeMillis() / 1000;
+        entry.duration = durationNanos / 1000;
+        entry.argv = truncatedArgv(redisRequest);
+        entry.peerId = redisClient.addr;
+        entry.clientName = redisClient.name;
+        head = (head + 1) % entries.length;
+        if (size < entries.length) {
+            size++;
+        }
+    }
+
+    // 命令名 + 参数, 太多的参数和太长的参数截断
+    private static String[] truncatedArgv(RedisServer.RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        int argc = args.size() + 1;
+        int n = Math.min(argc, SLOWLOG_ENTRY_MAX_ARGC);
+        String[] argv = new String[n];
+        for (int i = 0; i < n; i++) {
+            if (i == n - 1 && n != argc) {
+                // 最后一个位置说明省略了多少个参数
+                argv[i] = "... (" + (argc - n + 1) + " more arguments)";
+                break;
+            }
+            String arg = i == 0 ? redisRequest.command : args.get(i - 1);
+            if (arg.length() > SLOWLOG_ENTRY_MAX_STRING) {
+                arg = arg.substring(0, SLOWLOG_ENTRY_MAX_STRING) + "... (" + (arg.length() - SLOWLOG_ENTRY_MAX_STRING) + " more bytes)";
+            }
+            argv[i] = arg;
+        }
+        return argv;
+    }
+
+    // SLOWLOG GET [count] | LEN | RESET
+    public static Object slowlog(RedisServer.RedisRequest redisRequest) {
+        List<String> args = redisRequest.args;
+        String sub = args.isEmpty() ? "" : args.get(0);
+        if ("get".equalsIgnoreCase(sub) && args.size() <= 2) {
+            long count = 10;
+            if (args.size() == 2) {
+                try {
+                    count = Long.parseLong(args.get(1));
+                } catch (NumberFormatException e) {
+                    return new RedisServer.ErrorObject("ERR value is not an integer or out of range");
+                }
+                if (count < -1) {
+                    return new RedisServer.ErrorObject("ERR count should be greater than or equal to -1");
+                }
+            }
+            return get(count == -1 ? size : (int) Math.min(count, size));
+        }
+        if ("len".equalsIgnoreCase(sub) && args.size() == 1) {
+            return (long) size;
+        }
+        if ("reset".equalsIgnoreCase(sub) && args.size() == 1) {
+            for (int i = 0; i < size; i++) {
+                entryAt(i).argv = null;
+            }
+            size = 0;
+            return "OK";
+        }
+        return new RedisServer.ErrorObject("ERR unknown subcommand or wrong number of arguments for '" + sub + "'");
+    }
+
+    // 从新到旧返回 count 条: id, 时间戳, 耗时(微秒), 参数, 客户端地址, 客户端名称
+    private static Object get(int count) {
+        ReplyBuffer reply = new ReplyBuffer();
+        reply.addArrayLen(count);
+        for (int i = 0; i < count; i++) {
+            SlowLogEntry entry = entryAt(i);
+            reply.addArrayLen(6);
+            reply.addLong(entry.id);
+            reply.addLong(entry.time);
+            reply.addLong(entry.duration);
+            reply.addArrayLen(entry.argv.length);
+            for (String arg : entry.argv) {
+                reply.addBulk(arg);
+            }
+            reply.addBulk(entry.peerId == null ? "" : entry.peerId);
+            reply.addBulk(entry.clientName == null ? "" : entry.clientName);
+        }
+        return reply.toByteArray();
+    }
+}
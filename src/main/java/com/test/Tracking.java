@@ -0,0 +1,335 @@
+package com.test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 客户端缓存的失效通知 (CLIENT TRACKING)
+ * 1. 默认模式: 开启跟踪的客户端通过 lookUpKeyRead 读过的 key 记录在跟踪表中 (key -> 客户端ID),
+ *    key 被修改(call 中的写命令)、过期(惰性删除和主动删除)或者被淘汰时, 给读过它的客户端发送一次失效通知,
+ *    然后从表中删除, 客户端再次读取时重新记录
+ * 2. BCAST 模式: 不记录读过的 key, 客户端订阅 key 的前缀(没有前缀表示所有 key),
+ *    被修改的 key 按前缀收集起来, 在 beforeSleep 中每个客户端每个前缀合并成一条通知
+ * 3. 通知的格式: RESP3 为推送 >2 invalidate [key ...]; RESP2 的连接没有推送,
+ *    需要 REDIRECT 到一个订阅了 __redis__:invalidate 频道的连接, 以发布订阅消息的格式发送
+ * 4. 跟踪表最多 tracking-table-max-keys 个 key, 超过时在 serverCron 中从最早记录的 key 开始淘汰,
+ *    淘汰的 key 也发送失效通知, 这样客户端不会缓存收不到通知的数据
+ * 5. FLUSHDB / FLUSHALL 给所有开启跟踪的客户端发送 key 为空的通知, 表示清空全部缓存
+ * 注: 不区分数据库, 不同数据库中同名的 key 共用一项
+ */
+public class Tracking {
+    static final String INVALIDATE_CHANNEL = "__redis__:invalidate";
+    private static final byte[] INVALIDATE = "invalidate".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE = "message".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INVALIDATE_CHANNEL_BYTES = INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REDIR_BROKEN = new ReplyBuffer(32, 3).addPushLen(1).addBulk("tracking-redir-broken").toByteArray();
+
+    static long tracking_table_max_keys = 1000000;  // 0 表示不限制
+
+    // key -> 读过这个key的客户端ID, 按记录的先后顺序, 淘汰时从最早的开始
+    static final LinkedHashMap<String, Set<Long>> trackingTable = new LinkedHashMap<>();
+    static long tracking_total_items = 0;  // 表中客户端ID的总数
+    // 开启了跟踪的客户端, 跟踪表中只保存ID, 关闭跟踪或者断开连接之后ID找不到, 通知直接跳过
+    static final Map<Long, RedisServer.RedisClient> trackingClients = new HashMap<>();
+    // BCAST 模式: 前缀 -> 订阅的客户端以及等待发送的 key
+    static final Map<String, BcastState> prefixTable = new HashMap<>();
+    // 跟踪表淘汰跟不上时逐步加大每次的工作量
+    private static int timeoutCounter = 0;
+
+    static class BcastState {
+        Set<RedisServer.RedisClient> clients = new LinkedHashSet<>();
+        List<String> keys = new ArrayList<>();
+        List<RedisServer.RedisClient> modifiers = new ArrayList<>();  // 修改 key 的客户端, NOLOOP 用
+    }
+
+    /**
+     * CLIENT TRACKING ON|OFF [REDIRECT id] [PREFIX prefix ...] [BCAST] [NOLOOP]
+     */
+    static Object clientTracking(RedisServer.RedisClient redisClient, List<String> args) {
+        if (args.size() < 2) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'client|tracking' command");
+        }
+        boolean on;
+        if ("on".equalsIgnoreCase(args.get(1))) {
+            on = true;
+        } else if ("off".equalsIgnoreCase(args.get(1))) {
+            on = false;
+        } else {
+            return new RedisServer.ErrorObject("ERR syntax error");
+        }
+        long redirectId = 0;
+        boolean bcast = false;
+        boolean noloop = false;
+        List<String> prefixes = new ArrayList<>();
+        for (int i = 2; i < args.size(); i++) {
+            String option = args.get(i);
+            if ("redirect".equalsIgnoreCase(option) && i + 1 < args.size()) {
+                if (redirectId != 0) {
+                    return new RedisServer.ErrorObject("ERR A client can only redirect to a single other client");
+                }
+                try {
+                    redirectId = Long.parseLong(args.get(++i));
+                } catch (NumberFormatException e) {
+                    return new RedisServer.ErrorObject("ERR value is not an integer or out of range");
+                }
+            } else if ("bcast".equalsIgnoreCase(option)) {
+                bcast = true;
+            } else if ("noloop".equalsIgnoreCase(option)) {
+                noloop = true;
+            } else if ("prefix".equalsIgnoreCase(option) && i + 1 < args.size()) {
+                prefixes.add(args.get(++i));
+            } else {
+                return new RedisServer.ErrorObject("ERR syntax error");
+            }
+        }
+
+        if (!on) {
+            disableTracking(redisClient);
+            return "OK";
+        }
+        if (!prefixes.isEmpty() && !bcast) {
+            return new RedisServer.ErrorObject("ERR PREFIX option requires BCAST mode to be enabled");
+        }
+        boolean wasBcast = (redisClient.flags & RedisConstants.REDIS_TRACKING_BCAST) != 0;
+        if ((redisClient.flags & RedisConstants.REDIS_TRACKING) != 0 && wasBcast != bcast) {
+            return new RedisServer.ErrorObject("ERR You can't switch BCAST mode on/off before disabling tracking for this client, "
+                    + "and then re-enabling it with a different mode.");
+        }
+        RedisServer.RedisClient target = null;
+        if (redirectId != 0 && redirectId != redisClient.id) {
+            for (RedisServer.RedisClient client : RedisServer.clients) {
+                if (client.id == redirectId) {
+                    target = client;
+                    break;
+                }
+            }
+            if (target == null) {
+                return new RedisServer.ErrorObject("ERR The client ID you want redirect to does not exist");
+            }
+        }
+        enableTracking(redisClient, redirectId == redisClient.id ? 0 : redirectId, target, bcast, noloop, prefixes);
+        return "OK";
+    }
+
+    private static void enableTracking(RedisServer.RedisClient redisClient, long redirectId, RedisServer.RedisClient target,
+                                       boolean bcast, boolean noloop, List<String> prefixes) {
+        redisClient.flags |= RedisConstants.REDIS_TRACKING;
+        redisClient.flags &= ~(RedisConstants.REDIS_TRACKING_BROKEN_REDIR | RedisConstants.REDIS_TRACKING_NOLOOP);
+        if (noloop) {
+            redisClient.flags |= RedisConstants.REDIS_TRACKING_NOLOOP;
+        }
+        redisClient.trackingRedirectId = redirectId;
+        redisClient.trackingRedirect = target;
+        trackingClients.put(redisClient.id, redisClient);
+        if (bcast) {
+            redisClient.flags |= RedisConstants.REDIS_TRACKING_BCAST;
+            if (prefixes.isEmpty()) {
+                prefixes = Collections.singletonList("");
+            }
+            for (String prefix : prefixes) {
+                if (redisClient.trackingPrefixes.add(prefix)) {
+                    prefixTable.computeIfAbsent(prefix, k -> new BcastState()).clients.add(redisClient);
+                }
+            }
+        }
+    }
+
+    // CLIENT TRACKING OFF 或者断开连接, 跟踪表中的ID不用清理, 发送时找不到就跳过
+    static void disableTracking(RedisServer.RedisClient redisClient) {
+        if ((redisClient.flags & RedisConstants.REDIS_TRACKING) == 0) {
+            return;
+        }
+        for (String prefix : redisClient.trackingPrefixes) {
+            BcastState state = prefixTable.get(prefix);
+            state.clients.remove(redisClient);
+            if (state.clients.isEmpty()) {
+                prefixTable.remove(prefix);
+            }
+        }
+        redisClient.trackingPrefixes.clear();
+        redisClient.flags &= ~(RedisConstants.REDIS_TRACKING | RedisConstants.REDIS_TRACKING_BCAST
+                | RedisConstants.REDIS_TRACKING_NOLOOP | RedisConstants.REDIS_TRACKING_BROKEN_REDIR);
+        redisClient.trackingRedirectId = 0;
+        redisClient.trackingRedirect = null;
+        trackingClients.remove(redisClient.id);
+    }
+
+    // CLIENT GETREDIR: -1 没有开启跟踪, 0 没有重定向
+    static long getRedirect(RedisServer.RedisClient redisClient) {
+        if ((redisClient.flags & RedisConstants.REDIS_TRACKING) == 0) {
+            return -1;
+        }
+        return redisClient.trackingRedirectId;
+    }
+
+    // 断开连接 (closeClient 中调用), 重定向到这个连接的客户端收到 tracking-redir-broken
+    static void clientClosed(RedisServer.RedisClient redisClient) {
+        disableTracking(redisClient);
+        for (RedisServer.RedisClient client : trackingClients.values()) {
+            if (client.trackingRedirect == redisClient) {
+                client.trackingRedirect = null;
+                client.flags |= RedisConstants.REDIS_TRACKING_BROKEN_REDIR;
+                if (client.resp >= 3) {
+                    RedisServer.addReplyRaw(client, REDIR_BROKEN);
+                }
+            }
+        }
+    }
+
+    // ============= 记录和失效 =============
+
+    // 正在执行命令的客户端读了一个key (lookUpKeyReadObject 中调用, key 不存在也记录)
+    static void rememberKey(String key) {
+        RedisServer.RedisClient client = RedisServer.current_client;
+        if (client == null || (client.flags & (RedisConstants.REDIS_TRACKING | RedisConstants.REDIS_TRACKING_BCAST))
+                != RedisConstants.REDIS_TRACKING) {
+            return;
+        }
+        Set<Long> ids = trackingTable.get(key);
+        if (ids == null) {
+            ids = new HashSet<>();
+            trackingTable.put(key, ids);
+        }
+        if (ids.add(client.id)) {
+            tracking_total_items++;
+        }
+    }
+
+    // key 被修改、过期或者淘汰
+    static void invalidateKey(String key) {
+        if (trackingClients.isEmpty()) {
+            return;
+        }
+        if (!prefixTable.isEmpty()) {
+            for (Map.Entry<String, BcastState> entry : prefixTable.entrySet()) {
+                if (key.startsWith(entry.getKey())) {
+                    entry.getValue().keys.add(key);
+                    entry.getValue().modifiers.add(RedisServer.current_client);
+                }
+            }
+        }
+        Set<Long> ids = trackingTable.remove(key);
+        if (ids != null) {
+            sendInvalidation(key, ids);
+        }
+    }
+
+    private static void sendInvalidation(String key, Set<Long> ids) {
+        tracking_total_items -= ids.size();
+        List<String> keys = Collections.singletonList(key);
+        for (long id : ids) {
+            RedisServer.RedisClient client = trackingClients.get(id);
+            if (client == null || (client.flags & RedisConstants.REDIS_TRACKING_BCAST) != 0) {
+                continue;
+            }
+            // NOLOOP: 自己修改的 key 不通知自己
+            if ((client.flags & RedisConstants.REDIS_TRACKING_NOLOOP) != 0 && client == RedisServer.current_client) {
+                continue;
+            }
+            sendTrackingMessage(client, keys);
+        }
+    }
+
+    // FLUSHDB / FLUSHALL / 全量同步之前, 通知所有客户端清空缓存
+    static void invalidateKeysOnFlush() {
+        for (RedisServer.RedisClient client : trackingClients.values()) {
+            sendTrackingMessage(client, null);
+        }
+        trackingTable.clear();
+        tracking_total_items = 0;
+    }
+
+    /**
+     * 发送失效通知
+     * @param keys null 表示所有 key
+     */
+    private static void sendTrackingMessage(RedisServer.RedisClient client, List<String> keys) {
+        RedisServer.RedisClient target = client;
+        if (client.trackingRedirectId != 0) {
+            target = client.trackingRedirect;
+            // 重定向的连接已经断开, 已经通知过 tracking-redir-broken
+            if (target == null) {
+                return;
+            }
+        }
+        ReplyBuffer buf = new ReplyBuffer(64, target.resp);
+        if (target.resp >= 3) {
+            buf.addPushLen(2).addBulk(INVALIDATE);
+        } else if (target.subscribedChannels.contains(INVALIDATE_CHANNEL)) {
+            buf.addArrayLen(3).addBulk(MESSAGE).addBulk(INVALIDATE_CHANNEL_BYTES);
+        } else {
+            // RESP2 的连接只能通过订阅的频道接收通知
+            return;
+        }
+        if (keys == null) {
+            buf.addNullArray();
+        } else {
+            buf.addArrayLen(keys.size());
+            for (String key : keys) {
+                buf.addBulk(key);
+            }
+        }
+        RedisServer.addReplyRaw(target, buf.toByteArray());
+    }
+
+    // BCAST 模式: 把这一轮事件循环中被修改的 key 按前缀发送 (beforeSleep 中调用)
+    static void broadcastInvalidationMessages() {
+        if (prefixTable.isEmpty()) {
+            return;
+        }
+        for (BcastState state : prefixTable.values()) {
+            if (state.keys.isEmpty()) {
+                continue;
+            }
+            for (RedisServer.RedisClient client : state.clients) {
+                List<String> keys = state.keys;
+                if ((client.flags & RedisConstants.REDIS_TRACKING_NOLOOP) != 0) {
+                    keys = new ArrayList<>();
+                    for (int i = 0; i < state.keys.size(); i++) {
+                        if (state.modifiers.get(i) != client) {
+                            keys.add(state.keys.get(i));
+                        }
+                    }
+                    if (keys.isEmpty()) {
+                        continue;
+                    }
+                }
+                sendTrackingMessage(client, keys);
+            }
+            state.keys.clear();
+            state.modifiers.clear();
+        }
+    }
+
+    /**
+     * 跟踪表超过 tracking-table-max-keys 时从最早记录的 key 开始淘汰 (serverCron 中调用)
+     * 每次最多处理 100 * (timeoutCounter + 1) 个 key, 处理完还超过上限时下次加大工作量
+     */
+    static void trackingLimitUsedSlots() {
+        if (tracking_table_max_keys == 0 || trackingTable.size() <= tracking_table_max_keys) {
+            timeoutCounter = 0;
+            return;
+        }
+        int effort = 100 * (timeoutCounter + 1);
+        Iterator<Map.Entry<String, Set<Long>>> iterator = trackingTable.entrySet().iterator();
+        while (trackingTable.size() > tracking_table_max_keys && effort-- > 0) {
+            Map.Entry<String, Set<Long>> entry = iterator.next();
+            iterator.remove();
+            sendInvalidation(entry.getKey(), entry.getValue());
+        }
+        if (trackingTable.size() > tracking_table_max_keys) {
+            timeoutCounter++;
+        } else {
+            timeoutCounter = 0;
+        }
+    }
+}
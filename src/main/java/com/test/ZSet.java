@@ -0,0 +1,972 @@
+package com.test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 有序集合
+ * 1. 小有序集合使用压缩列表编码: member 和 score 相邻存放, 按 score(相同时按 member) 升序排列
+ * 2. 元素数量超过 zset-max-ziplist-entries 或 member 长度超过 zset-max-ziplist-value 时
+ *    转换为跳表编码: 字典(member -> score) + 跳表(按 score 排序)
+ * 3. 跳表的每一层记录跨度(span), 排名相关的查询都是 O(logN)
+ */
+public class ZSet {
+    // 压缩列表编码的阈值
+    static int zset_max_ziplist_entries = 128;
+    static int zset_max_ziplist_value = 64;
+
+    static final int ZSKIPLIST_MAXLEVEL = 32;
+    static final double ZSKIPLIST_P = 0.25;
+
+    // ZADD 的选项
+    static final int ZADD_NX = 1;   // 只添加新元素
+    static final int ZADD_XX = 2;   // 只更新已有元素
+    static final int ZADD_INCR = 4; // 增加分数而不是设置分数
+    static final int ZADD_CH = 8;   // 返回值包含被更新分数的元素数
+
+    // zsetAdd 的结果
+    static final int ZADD_OUT_NOP = 0;
+    static final int ZADD_OUT_ADDED = 1;
+    static final int ZADD_OUT_UPDATED = 2;
+
+    // 跳表节点
+    static class ZSkipListNode {
+        String member;
+        double score;
+        ZSkipListNode backward;   // 后退指针, 只有第0层有
+        ZSkipListNode[] forward;  // 每一层的前进指针
+        int[] span;               // 每一层前进指针跨过的节点数
+
+        ZSkipListNode(int level, double score, String member) {
+            this.score = score;
+            this.member = member;
+            this.forward = new ZSkipListNode[level];
+            this.span = new int[level];
+        }
+    }
+
+    // 跳表
+    static class ZSkipList {
+        ZSkipListNode header;
+        ZSkipListNode tail;
+        long length;
+        int level;
+
+        ZSkipList() {
+            level = 1;
+            header = new ZSkipListNode(ZSKIPLIST_MAXLEVEL, 0, null);
+        }
+
+        // 幂次定律的随机层数: 越高的层数出现的概率越小
+        static int randomLevel() {
+            int level = 1;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (level < ZSKIPLIST_MAXLEVEL && random.nextDouble() < ZSKIPLIST_P) {
+                level++;
+            }
+            return level;
+        }
+
+        // 插入一个新节点, 调用方需要保证 member 不存在
+        ZSkipListNode insert(double score, String member) {
+            ZSkipListNode[] update = new ZSkipListNode[ZSKIPLIST_MAXLEVEL];
+            int[] rank = new int[ZSKIPLIST_MAXLEVEL];
+
+            // 1. 从最高层往下找到每一层插入位置的前一个节点, 同时记录它的排名
+            ZSkipListNode x = header;
+            for (int i = level - 1; i >= 0; i--) {
+                rank[i] = i == level - 1 ? 0 : rank[i + 1];
+                while (x.forward[i] != null && less(x.forward[i], score, member)) {
+                    rank[i] += x.span[i];
+                    x = x.forward[i];
+                }
+                update[i] = x;
+            }
+
+            // 2. 新节点的层数比当前跳表高时, 高出来的层由头节点指向新节点
+            int newLevel = randomLevel();
+            if (newLevel > level) {
+                for (int i = level; i < newLevel; i++) {
+                    rank[i] = 0;
+                    update[i] = header;
+                    update[i].span[i] = (int) length;
+                }
+                level = newLevel;
+            }
+
+            // 3. 逐层插入并更新跨度
+            x = new ZSkipListNode(newLevel, score, member);
+            for (int i = 0; i < newLevel; i++) {
+                x.forward[i] = update[i].forward[i];
+                update[i].forward[i] = x;
+
+                x.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+                update[i].span[i] = (rank[0] - rank[i]) + 1;
+            }
+            // 比新节点高的层跨过的节点数加一
+            for (int i = newLevel; i < level; i++) {
+                update[i].span[i]++;
+            }
+
+            // 4. 后退指针
+            x.backward = update[0] == header ? null : update[0];
+            if (x.forward[0] != null) {
+                x.forward[0].backward = x;
+            } else {
+                tail = x;
+            }
+            length++;
+            return x;
+        }
+
+        // 删除节点, update 是每一层中 x 的前一个节点
+        private void deleteNode(ZSkipListNode x, ZSkipListNode[] update) {
+            for (int i = 0; i < level; i++) {
+                if (update[i].forward[i] == x) {
+                    update[i].span[i] += x.span[i] - 1;
+                    update[i].forward[i] = x.forward[i];
+                } else {
+                    update[i].span[i] -= 1;
+                }
+            }
+            if (x.forward[0] != null) {
+                x.forward[0].backward = x.backward;
+            } else {
+                tail = x.backward;
+            }
+            while (level > 1 && header.forward[level - 1] == null) {
+                level--;
+            }
+            length--;
+        }
+
+        // 删除 score 和 member 都匹配的节点
+        boolean delete(double score, String member) {
+            ZSkipListNode[] update = new ZSkipListNode[ZSKIPLIST_MAXLEVEL];
+            ZSkipListNode x = header;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.forward[i] != null && less(x.forward[i], score, member)) {
+                    x = x.forward[i];
+                }
+                update[i] = x;
+            }
+            x = x.forward[0];
+            if (x != null && x.score == score && x.member.equals(member)) {
+                deleteNode(x, update);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 更新节点的分数
+         * 新分数仍然落在前后两个节点之间时直接原地修改, 否则删除后重新插入
+         */
+        ZSkipListNode updateScore(double curScore, String member, double newScore) {
+            ZSkipListNode[] update = new ZSkipListNode[ZSKIPLIST_MAXLEVEL];
+            ZSkipListNode x = header;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.forward[i] != null && less(x.forward[i], curScore, member)) {
+                    x = x.forward[i];
+                }
+                update[i] = x;
+            }
+            x = x.forward[0];
+
+            if ((x.backward == null || x.backward.score < newScore) &&
+                    (x.forward[0] == null || x.forward[0].score > newScore)) {
+                x.score = newScore;
+                return x;
+            }
+            deleteNode(x, update);
+            return insert(newScore, member);
+        }
+
+        /**
+         * 获取元素的排名(从1开始), 不存在返回0
+         * 沿途累加跨度, O(logN)
+         */
+        long getRank(double score, String member) {
+            long rank = 0;
+            ZSkipListNode x = header;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.forward[i] != null && !greater(x.forward[i], score, member)) {
+                    rank += x.span[i];
+                    x = x.forward[i];
+                }
+                if (x.member != null && x.member.equals(member)) {
+                    return rank;
+                }
+            }
+            return 0;
+        }
+
+        // 获取排名为 rank(从1开始) 的节点
+        ZSkipListNode getElementByRank(long rank) {
+            long traversed = 0;
+            ZSkipListNode x = header;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.forward[i] != null && traversed + x.span[i] <= rank) {
+                    traversed += x.span[i];
+                    x = x.forward[i];
+                }
+                if (traversed == rank) {
+                    return x;
+                }
+            }
+            return null;
+        }
+
+        // 跳表中是否有元素落在范围内
+        boolean isInRange(RangeSpec range) {
+            if (range.min > range.max || (range.min == range.max && (range.minex || range.maxex))) {
+                return false;
+            }
+            if (tail == null || !range.gteMin(tail.score)) {
+                return false;
+            }
+            ZSkipListNode first = header.forward[0];
+            return first != null && range.lteMax(first.score);
+        }
+
+        // 范围内的第一个节点
+        ZSkipListNode firstInRange(RangeSpec range) {
+            if (!isInRange(range)) {
+                return null;
+            }
+            ZSkipListNode x = header;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.forward[i] != null && !range.gteMin(x.forward[i].score)) {
+                    x = x.forward[i];
+                }
+            }
+            x = x.forward[0];
+            return range.lteMax(x.score) ? x : null;
+        }
+
+        // 范围内的最后一个节点
+        ZSkipListNode lastInRange(RangeSpec range) {
+            if (!isInRange(range)) {
+                return null;
+            }
+            ZSkipListNode x = header;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.forward[i] != null && range.lteMax(x.forward[i].score)) {
+                    x = x.forward[i];
+                }
+            }
+            return range.gteMin(x.score) ? x : null;
+        }
+
+        // 节点是否排在 (score, member) 之前
+        private static boolean less(ZSkipListNode node, double score, String member) {
+            return node.score < score || (node.score == score && node.member.compareTo(member) < 0);
+        }
+
+        // 节点是否排在 (score, member) 之后
+        private static boolean greater(ZSkipListNode node, double score, String member) {
+            return node.score > score || (node.score == score && node.member.compareTo(member) > 0);
+        }
+    }
+
+    // 跳表编码的有序集合: 字典用于 O(1) 查分数, 跳表用于排序
+    static class ZSetObject {
+        RedisServer.Dict<Double> dict = new RedisServer.Dict<>();
+        ZSkipList zsl = new ZSkipList();
+    }
+
+    // 分数范围, 例如 (1 5 表示 1 < score <= 5
+    static class RangeSpec {
+        double min, max;
+        boolean minex, maxex; // 是否为开区间
+
+        boolean gteMin(double value) {
+            return minex ? value > min : value >= min;
+        }
+
+        boolean lteMax(double value) {
+            return maxex ? value < max : value <= max;
+        }
+    }
+
+    // ============= 对象创建与编码转换 =============
+
+    static RedisServer.RedisObject createZsetZiplistObject() {
+        RedisServer.RedisObject redisObject = new RedisServer.RedisObject(new ZipList());
+        redisObject.type = RedisConstants.REDIS_ZSET;
+        redisObject.encoding = RedisConstants.REDIS_ENCODING_ZIPLIST;
+        return redisObject;
+    }
+
+    static RedisServer.RedisObject createZsetObject() {
+        RedisServer.RedisObject redisObject = new RedisServer.RedisObject(new ZSetObject());
+        redisObject.type = RedisConstants.REDIS_ZSET;
+        redisObject.encoding = RedisConstants.REDIS_ENCODING_SKIPLIST;
+        return redisObject;
+    }
+
+    // 压缩列表编码转换为跳表编码
+    static void zsetConvertToSkiplist(RedisServer.RedisObject zobj) {
+        ZipList zl = (ZipList) zobj.value;
+        ZSetObject zs = new ZSetObject();
+        for (int pos = zl.head(); pos != -1; ) {
+            String member = zl.get(pos);
+            pos = zl.next(pos);
+            double score = parseScore(zl.get(pos));
+            pos = zl.next(pos);
+            zs.zsl.insert(score, member);
+            zs.dict.set(member, score);
+        }
+        zobj.value = zs;
+        zobj.encoding = RedisConstants.REDIS_ENCODING_SKIPLIST;
+    }
+
+    static long zsetLength(RedisServer.RedisObject zobj) {
+        if (zobj.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            return ((ZipList) zobj.value).size() / 2;
+        }
+        return ((ZSetObject) zobj.value).zsl.length;
+    }
+
+    // ============= 压缩列表编码的操作 =============
+
+    // 查找 member 所在 entry 的偏移量, 不存在返回-1
+    static int zzlFind(ZipList zl, String member) {
+        byte[] bytes = member.getBytes(StandardCharsets.UTF_8);
+        for (int pos = zl.head(); pos != -1; pos = zl.next(zl.next(pos))) {
+            if (zl.equalsAt(pos, bytes)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    // 按顺序插入 (member, score)
+    static void zzlInsert(ZipList zl, String member, double score) {
+        for (int pos = zl.head(); pos != -1; ) {
+            int scorePos = zl.next(pos);
+            double s = parseScore(zl.get(scorePos));
+            if (s > score || (s == score && zl.get(pos).compareTo(member) > 0)) {
+                // 插入到第一个比它大的元素之前
+                int memberPos = zl.insertAt(pos, member);
+                zl.insertAt(zl.next(memberPos), formatScore(score));
+                return;
+            }
+            pos = zl.next(scorePos);
+        }
+        zl.insertAt(-1, member);
+        zl.insertAt(-1, formatScore(score));
+    }
+
+    // 删除 pos 位置的 (member, score)
+    static void zzlDelete(ZipList zl, int pos) {
+        zl.deleteAt(pos);
+        zl.deleteAt(pos);
+    }
+
+    // ============= 通用操作 =============
+
+    // 获取 member 的分数, 不存在返回null
+    static Double zsetScore(RedisServer.RedisObject zobj, String member) {
+        if (zobj.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) zobj.value;
+            int pos = zzlFind(zl, member);
+            return pos == -1 ? null : parseScore(zl.get(zl.next(pos)));
+        }
+        return ((ZSetObject) zobj.value).dict.get(member);
+    }
+
+    /**
+     * 添加或更新元素
+     * @param flags ZADD_NX / ZADD_XX / ZADD_INCR
+     * @param newScore 长度为1的数组, INCR 时返回新的分数
+     * @return ZADD_OUT_ADDED / ZADD_OUT_UPDATED / ZADD_OUT_NOP
+     */
+    static int zsetAdd(RedisServer.RedisObject zobj, double score, String member, int flags, double[] newScore) {
+        boolean incr = (flags & ZADD_INCR) != 0;
+        boolean nx = (flags & ZADD_NX) != 0;
+        boolean xx = (flags & ZADD_XX) != 0;
+
+        if (zobj.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) zobj.value;
+            int pos = zzlFind(zl, member);
+            if (pos != -1) {
+                if (nx) {
+                    return ZADD_OUT_NOP;
+                }
+                double curScore = parseScore(zl.get(zl.next(pos)));
+                if (incr) {
+                    score += curScore;
+                    if (Double.isNaN(score)) {
+                        throw new IllegalArgumentException("resulting score is not a number (NaN)");
+                    }
+                }
+                if (newScore != null) {
+                    newScore[0] = score;
+                }
+                if (score == curScore) {
+                    return ZADD_OUT_NOP;
+                }
+                // 分数变化后位置可能改变, 删除后重新按顺序插入
+                zzlDelete(zl, pos);
+                zzlInsert(zl, member, score);
+                return ZADD_OUT_UPDATED;
+            }
+            if (xx) {
+                return ZADD_OUT_NOP;
+            }
+            if (newScore != null) {
+                newScore[0] = score;
+            }
+            // 插入之前检查阈值, 超过时先转换为跳表再插入, 过长的元素不会写进压缩列表的长度字段
+            if (zl.size() / 2 + 1 > zset_max_ziplist_entries ||
+                    member.getBytes(StandardCharsets.UTF_8).length > zset_max_ziplist_value) {
+                zsetConvertToSkiplist(zobj);
+                ZSetObject zs = (ZSetObject) zobj.value;
+                zs.zsl.insert(score, member);
+                zs.dict.set(member, score);
+            } else {
+                zzlInsert(zl, member, score);
+            }
+            return ZADD_OUT_ADDED;
+        }
+
+        ZSetObject zs = (ZSetObject) zobj.value;
+        Double curScore = zs.dict.get(member);
+        if (curScore != null) {
+            if (nx) {
+                return ZADD_OUT_NOP;
+            }
+            if (incr) {
+                score += curScore;
+                if (Double.isNaN(score)) {
+                    throw new IllegalArgumentException("resulting score is not a number (NaN)");
+                }
+            }
+            if (newScore != null) {
+                newScore[0] = score;
+            }
+            if (score == curScore) {
+                return ZADD_OUT_NOP;
+            }
+            zs.zsl.updateScore(curScore, member, score);
+            zs.dict.set(member, score);
+            return ZADD_OUT_UPDATED;
+        }
+        if (xx) {
+            return ZADD_OUT_NOP;
+        }
+        if (newScore != null) {
+            newScore[0] = score;
+        }
+        zs.zsl.insert(score, member);
+        zs.dict.set(member, score);
+        return ZADD_OUT_ADDED;
+    }
+
+    // 删除元素, 返回是否存在
+    static boolean zsetDel(RedisServer.RedisObject zobj, String member) {
+        if (zobj.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) zobj.value;
+            int pos = zzlFind(zl, member);
+            if (pos == -1) {
+                return false;
+            }
+            zzlDelete(zl, pos);
+            return true;
+        }
+        ZSetObject zs = (ZSetObject) zobj.value;
+        Double score = zs.dict.get(member);
+        if (score == null) {
+            return false;
+        }
+        zs.dict.remove(member);
+        zs.zsl.delete(score, member);
+        return true;
+    }
+
+    /**
+     * 获取元素的排名(从0开始), 不存在返回-1
+     * @param reverse 是否按分数从大到小排名
+     */
+    static long zsetRank(RedisServer.RedisObject zobj, String member, boolean reverse) {
+        long length = zsetLength(zobj);
+        long rank;
+        if (zobj.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) zobj.value;
+            byte[] bytes = member.getBytes(StandardCharsets.UTF_8);
+            rank = 1;
+            int pos = zl.head();
+            while (pos != -1 && !zl.equalsAt(pos, bytes)) {
+                pos = zl.next(zl.next(pos));
+                rank++;
+            }
+            if (pos == -1) {
+                return -1;
+            }
+        } else {
+            ZSetObject zs = (ZSetObject) zobj.value;
+            Double score = zs.dict.get(member);
+            if (score == null) {
+                return -1;
+            }
+            rank = zs.zsl.getRank(score, member);
+        }
+        return reverse ? length - rank : rank - 1;
+    }
+
+    /**
+     * 按排名范围输出元素, start/end 已经转换为合法的非负下标
+     * 直接从跳表/压缩列表上边遍历边编码, 不创建中间集合
+     */
+    static void zsetRangeByRank(RedisServer.RedisObject zobj, long start, long end, boolean reverse,
+                                boolean withScores, ReplyBuffer reply) {
+        long count = end - start + 1;
+        reply.addArrayLen(withScores ? count * 2 : count);
+
+        if (zobj.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) zobj.value;
+            int pos = reverse ? zl.prev(zl.tail()) : zl.index((int) (start * 2));
+            if (reverse) {
+                for (long i = 0; i < start; i++) {
+                    pos = zl.prev(zl.prev(pos));
+                }
+            }
+            for (long i = 0; i < count; i++) {
+                int scorePos = zl.next(pos);
+                reply.addBulk(zl.get(pos));
+                if (withScores) {
+                    reply.addDouble(zl.get(scorePos));
+                }
+                if (reverse) {
+                    // 前一个 entry 是上一个元素的 score, 再往前一个才是 member
+                    int prevScorePos = zl.prev(pos);
+                    pos = prevScorePos == -1 ? -1 : zl.prev(prevScorePos);
+                } else {
+                    pos = zl.next(scorePos);
+                }
+            }
+            return;
+        }
+
+        ZSkipList zsl = ((ZSetObject) zobj.value).zsl;
+        // 通过跨度直接定位到起始排名的节点, 不需要从头遍历
+        ZSkipListNode node = zsl.getElementByRank(reverse ? zsl.length - start : start + 1);
+        for (long i = 0; i < count; i++) {
+            reply.addBulk(node.member);
+            if (withScores) {
+                reply.addDouble(node.score);
+            }
+            node = reverse ? node.backward : node.forward[0];
+        }
+    }
+
+    /**
+     * 按分数范围输出元素
+     * 跳表编码下先用跨度算出范围内的元素个数写入数组头, 然后一边遍历一边编码
+     */
+    static void zsetRangeByScore(RedisServer.RedisObject zobj, RangeSpec range, long offset, long limit,
+                                 boolean withScores, ReplyBuffer reply) {
+        if (zobj.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) zobj.value;
+            // 小有序集合先数一遍范围内的元素个数
+            long total = 0;
+            for (int pos = zl.head(); pos != -1; pos = zl.next(zl.next(pos))) {
+                double score = parseScore(zl.get(zl.next(pos)));
+                if (!range.lteMax(score)) {
+                    break;
+                }
+                if (range.gteMin(score)) {
+                    total++;
+                }
+            }
+            long count = rangeCount(total, offset, limit);
+            reply.addArrayLen(withScores ? count * 2 : count);
+            long skipped = 0;
+            for (int pos = zl.head(); pos != -1 && count > 0; pos = zl.next(zl.next(pos))) {
+                int scorePos = zl.next(pos);
+                double score = parseScore(zl.get(scorePos));
+                if (!range.gteMin(score)) {
+                    continue;
+                }
+                if (skipped++ < offset) {
+                    continue;
+                }
+                reply.addBulk(zl.get(pos));
+                if (withScores) {
+                    reply.addDouble(zl.get(scorePos));
+                }
+                count--;
+            }
+            return;
+        }
+
+        ZSkipList zsl = ((ZSetObject) zobj.value).zsl;
+        ZSkipListNode first = zsl.firstInRange(range);
+        if (first == null) {
+            reply.addArrayLen(0);
+            return;
+        }
+        ZSkipListNode last = zsl.lastInRange(range);
+        long firstRank = zsl.getRank(first.score, first.member);
+        long lastRank = zsl.getRank(last.score, last.member);
+        long count = rangeCount(lastRank - firstRank + 1, offset, limit);
+        reply.addArrayLen(withScores ? count * 2 : count);
+        if (count == 0) {
+            return;
+        }
+        ZSkipListNode node = offset == 0 ? first : zsl.getElementByRank(firstRank + offset);
+        for (long i = 0; i < count; i++) {
+            reply.addBulk(node.member);
+            if (withScores) {
+                reply.addDouble(node.score);
+            }
+            node = node.forward[0];
+        }
+    }
+
+    // 分数范围内的元素个数
+    static long zsetCount(RedisServer.RedisObject zobj, RangeSpec range) {
+        if (zobj.encoding == RedisConstants.REDIS_ENCODING_ZIPLIST) {
+            ZipList zl = (ZipList) zobj.value;
+            long count = 0;
+            for (int pos = zl.head(); pos != -1; pos = zl.next(zl.next(pos))) {
+                double score = parseScore(zl.get(zl.next(pos)));
+                if (!range.lteMax(score)) {
+                    break;
+                }
+                if (range.gteMin(score)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        ZSkipList zsl = ((ZSetObject) zobj.value).zsl;
+        ZSkipListNode first = zsl.firstInRange(range);
+        if (first == null) {
+            return 0;
+        }
+        ZSkipListNode last = zsl.lastInRange(range);
+        return zsl.getRank(last.score, last.member) - zsl.getRank(first.score, first.member) + 1;
+    }
+
+    // 应用 LIMIT offset count 之后的元素个数, limit < 0 表示不限制
+    private static long rangeCount(long total, long offset, long limit) {
+        long count = Math.max(0, total - offset);
+        return limit < 0 ? count : Math.min(count, limit);
+    }
+
+    // ============= 命令 =============
+
+    private static final String WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+
+    // 取出有序集合对象, key 存在但不是有序集合时抛出异常
+    private static RedisServer.RedisObject lookupZset(RedisServer.RedisObject redisObject) {
+        if (redisObject != null && redisObject.type != RedisConstants.REDIS_ZSET) {
+            throw new IllegalStateException(WRONGTYPE);
+        }
+        return redisObject;
+    }
+
+    // ZADD key [NX|XX] [CH] [INCR] score member [score member ...]
+    public static Object zadd(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        return zaddGeneric(db, redisRequest, 0);
+    }
+
+    // ZINCRBY key increment member
+    public static Object zincrby(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        if (redisRequest.args.size() != 3) {
+            return new RedisServer.ErrorObject("ERR wrong number of arguments for 'zincrby' command");
+        }
+        return zaddGeneric(db, redisRequest, ZADD_INCR);
+    }
+
+    private static Object zaddGeneric(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest, int flags) {
+        String key = redisRequest.args.get(0);
+        int idx = 1;
+        // 解析选项
+        while (idx < redisRequest.args.size()) {
+            String opt = redisRequest.args.get(idx);
+            if ("nx".equalsIgnoreCase(opt)) flags |= ZADD_NX;
+            else if ("xx".equalsIgnoreCase(opt)) flags |= ZADD_XX;
+            else if ("ch".equalsIgnoreCase(opt)) flags |= ZADD_CH;
+            else if ("incr".equalsIgnoreCase(opt)) flags |= ZADD_INCR;
+            else break;
+            idx++;
+        }
+        int elements = redisRequest.args.size() - idx;
+        if (elements == 0 || elements % 2 != 0) {
+            return new RedisServer.ErrorObject("ERR syntax error");
+        }
+        elements /= 2;
+        if ((flags & ZADD_NX) != 0 && (flags & ZADD_XX) != 0) {
+            return new RedisServer.ErrorObject("ERR XX and NX options at the same time are not compatible");
+        }
+        boolean incr = (flags & ZADD_INCR) != 0;
+        if (incr && elements > 1) {
+            return new RedisServer.ErrorObject("ERR INCR option supports a single increment-element pair");
+        }
+
+        // 先解析所有分数, 有一个不合法就整个命令失败, 不做任何修改
+        double[] scores = new double[elements];
+        try {
+            for (int i = 0; i < elements; i++) {
+                scores[i] = parseScore(redisRequest.args.get(idx + i * 2));
+            }
+        } catch (NumberFormatException e) {
+            return new RedisServer.ErrorObject("ERR value is not a valid float");
+        }
+
+        RedisServer.RedisObject zobj;
+        try {
+            zobj = lookupZset(RedisServer.lookUpKeyWrite(db, key));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (zobj == null) {
+            if ((flags & ZADD_XX) != 0) {
+                return incr ? null : (Object) 0L;
+            }
+            String firstMember = redisRequest.args.get(idx + 1);
+            if (zset_max_ziplist_entries == 0 || firstMember.getBytes(StandardCharsets.UTF_8).length > zset_max_ziplist_value) {
+                zobj = createZsetObject();
+            } else {
+                zobj = createZsetZiplistObject();
+            }
+            RedisServer.dbAdd(db, key, zobj);
+        }
+
+        long added = 0;
+        long updated = 0;
+        double[] newScore = new double[1];
+        boolean processed = false;
+        for (int i = 0; i < elements; i++) {
+            int retval;
+            try {
+                retval = zsetAdd(zobj, scores[i], redisRequest.args.get(idx + i * 2 + 1), flags, newScore);
+            } catch (IllegalArgumentException e) {
+                return new RedisServer.ErrorObject("ERR " + e.getMessage());
+            }
+            if (retval == ZADD_OUT_ADDED) added++;
+            if (retval == ZADD_OUT_UPDATED) updated++;
+            if (retval != ZADD_OUT_NOP || (incr && (flags & ZADD_NX) == 0)) processed = true;
+        }
+        if (zsetLength(zobj) == 0) {
+            RedisServer.dbDelete(db, key, false);
+        }
+        if (added + updated > 0) {
+            RedisServer.signalModifiedKey(db, key);
+        }
+        if (incr) {
+            return processed ? (Object) newScore[0] : null;
+        }
+        return (flags & ZADD_CH) != 0 ? added + updated : added;
+    }
+
+    // ZREM key member [member ...]
+    public static Object zrem(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        String key = redisRequest.args.get(0);
+        RedisServer.RedisObject zobj;
+        try {
+            zobj = lookupZset(RedisServer.lookUpKeyWrite(db, key));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        if (zobj == null) {
+            return 0L;
+        }
+        long deleted = 0;
+        for (String member : redisRequest.args.subList(1, redisRequest.args.size())) {
+            if (zsetDel(zobj, member)) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            if (zsetLength(zobj) == 0) {
+                RedisServer.dbDelete(db, key, false);
+            }
+            RedisServer.signalModifiedKey(db, key);
+        }
+        return deleted;
+    }
+
+    // ZCARD key
+    public static Object zcard(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        try {
+            RedisServer.RedisObject zobj = lookupZset(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+            return zobj == null ? 0L : zsetLength(zobj);
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+    }
+
+    // ZSCORE key member
+    public static Object zscore(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        try {
+            RedisServer.RedisObject zobj = lookupZset(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+            Double score = zobj == null ? null : zsetScore(zobj, redisRequest.args.get(1));
+            return score;
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+    }
+
+    // ZRANK key member / ZREVRANK key member
+    public static Object zrank(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest, boolean reverse) {
+        try {
+            RedisServer.RedisObject zobj = lookupZset(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+            if (zobj == null) {
+                return null;
+            }
+            long rank = zsetRank(zobj, redisRequest.args.get(1), reverse);
+            return rank < 0 ? null : (Object) rank;
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+    }
+
+    // ZRANGE key start stop [WITHSCORES] / ZREVRANGE key start stop [WITHSCORES]
+    public static Object zrange(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest, boolean reverse) {
+        long start;
+        long end;
+        try {
+            start = Long.parseLong(redisRequest.args.get(1));
+            end = Long.parseLong(redisRequest.args.get(2));
+        } catch (NumberFormatException e) {
+            return new RedisServer.ErrorObject("ERR value is not an integer or out of range");
+        }
+        boolean withScores = false;
+        if (redisRequest.args.size() == 4 && "withscores".equalsIgnoreCase(redisRequest.args.get(3))) {
+            withScores = true;
+        } else if (redisRequest.args.size() != 3) {
+            return new RedisServer.ErrorObject("ERR syntax error");
+        }
+
+        RedisServer.RedisObject zobj;
+        try {
+            zobj = lookupZset(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        ReplyBuffer reply = new ReplyBuffer();
+        if (zobj == null) {
+            return reply.addArrayLen(0).toByteArray();
+        }
+        // 负数下标从尾部开始计算
+        long length = zsetLength(zobj);
+        if (start < 0) start = length + start;
+        if (end < 0) end = length + end;
+        if (start < 0) start = 0;
+        if (start > end || start >= length) {
+            return reply.addArrayLen(0).toByteArray();
+        }
+        if (end >= length) end = length - 1;
+        zsetRangeByRank(zobj, start, end, reverse, withScores, reply);
+        return reply.toByteArray();
+    }
+
+    // ZRANGEBYSCORE key min max [WITHSCORES] [LIMIT offset count]
+    public static Object zrangebyscore(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        RangeSpec range;
+        try {
+            range = parseRange(redisRequest.args.get(1), redisRequest.args.get(2));
+        } catch (NumberFormatException e) {
+            return new RedisServer.ErrorObject("ERR min or max is not a float");
+        }
+        boolean withScores = false;
+        long offset = 0;
+        long limit = -1;
+        for (int i = 3; i < redisRequest.args.size(); i++) {
+            String opt = redisRequest.args.get(i);
+            if ("withscores".equalsIgnoreCase(opt)) {
+                withScores = true;
+            } else if ("limit".equalsIgnoreCase(opt) && i + 2 < redisRequest.args.size()) {
+                try {
+                    offset = Long.parseLong(redisRequest.args.get(i + 1));
+                    limit = Long.parseLong(redisRequest.args.get(i + 2));
+                } catch (NumberFormatException e) {
+                    return new RedisServer.ErrorObject("ERR value is not an integer or out of range");
+                }
+                i += 2;
+            } else {
+                return new RedisServer.ErrorObject("ERR syntax error");
+            }
+        }
+
+        RedisServer.RedisObject zobj;
+        try {
+            zobj = lookupZset(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+        ReplyBuffer reply = new ReplyBuffer();
+        if (zobj == null || offset < 0) {
+            return reply.addArrayLen(0).toByteArray();
+        }
+        zsetRangeByScore(zobj, range, offset, limit, withScores, reply);
+        return reply.toByteArray();
+    }
+
+    // ZCOUNT key min max
+    public static Object zcount(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest) {
+        RangeSpec range;
+        try {
+            range = parseRange(redisRequest.args.get(1), redisRequest.args.get(2));
+        } catch (NumberFormatException e) {
+            return new RedisServer.ErrorObject("ERR min or max is not a float");
+        }
+        try {
+            RedisServer.RedisObject zobj = lookupZset(RedisServer.lookUpKeyReadObject(db, redisRequest.args.get(0)));
+            return zobj == null ? 0L : zsetCount(zobj, range);
+        } catch (IllegalStateException e) {
+            return new RedisServer.ErrorObject(e.getMessage());
+        }
+    }
+
+    // ============= 分数的解析与格式化 =============
+
+    static double parseScore(String value) {
+        double score;
+        if ("inf".equalsIgnoreCase(value) || "+inf".equalsIgnoreCase(value)) {
+            score = Double.POSITIVE_INFINITY;
+        } else if ("-inf".equalsIgnoreCase(value)) {
+            score = Double.NEGATIVE_INFINITY;
+        } else {
+            score = Double.parseDouble(value);
+        }
+        if (Double.isNaN(score)) {
+            throw new NumberFormatException("value is not a valid float");
+        }
+        return score;
+    }
+
+    // 整数分数不输出小数部分, 和 Redis 保持一致
+    static String formatScore(double score) {
+        if (score == Double.POSITIVE_INFINITY) {
+            return "inf";
+        }
+        if (score == Double.NEGATIVE_INFINITY) {
+            return "-inf";
+        }
+        if (score == Math.rint(score) && Math.abs(score) < 1e17) {
+            return Long.toString((long) score);
+        }
+        return Double.toString(score);
+    }
+
+    // 解析分数范围, "(" 开头表示开区间
+    static RangeSpec parseRange(String min, String max) {
+        RangeSpec range = new RangeSpec();
+        if (min.startsWith("(")) {
+            range.minex = true;
+            min = min.substring(1);
+        }
+        if (max.startsWith("(")) {
+            range.maxex = true;
+            max = max.substring(1);
+        }
+        range.min = parseScore(min);
+        range.max = parseScore(max);
+        return range;
+    }
+}
@@ -2,6 +2,7 @@ package com.test;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -65,7 +66,7 @@ public class ZipList {
     public void insertFromTail(String s) {
         // 1. 计算空间：不再需要额外的 +1 给结束符 '0'
         // prevlen(4) + encoding(2) + data(s.length)
-        int entryLength = 4 + 2 + s.getBytes().length;
+        int entryLength = 4 + 2 + s.getBytes(StandardCharsets.UTF_8).length;
         int requiredSpace = entryLength;
 
         // 2. 扩容逻辑
@@ -93,7 +94,7 @@ public class ZipList {
         pos = writeEncoding(data, pos, s);
 
         // 写入真实字符串数据
-        byte[] strBytes = s.getBytes();
+        byte[] strBytes = s.getBytes(StandardCharsets.UTF_8);
         System.arraycopy(strBytes, 0, data, pos, strBytes.length);
         pos += strBytes.length;
 
@@ -118,7 +119,7 @@ public class ZipList {
         // 1. 计算新节点所需空间（包含 prevlen + encoding + entry-data）
         int entryLength = calculateEntryLength(s);
         // 使用字符串的字节数组计算字节长度
-        int requiredSpace = 4 + 2 + s.getBytes().length;; // prevlen(4) + entry
+        int requiredSpace = 4 + 2 + s.getBytes(StandardCharsets.UTF_8).length; // prevlen(4) + entry
 
         // 2. 计算当前 ziplist 长度（用于后续内存移动）
         int currentLength = totalLength;
@@ -167,7 +168,8 @@ public class ZipList {
             // 后续插入，旧的尾巴整体向后挪了 requiredSpace 字节
             tailOffset += requiredSpace;
         }
-        data[tailOffset + requiredSpace] = (byte) 0XFF;
+        // zlend 已经随着上面的整体搬移到了新的末尾, 这里按总长度重新写一次
+        data[totalLength - 1] = ZIPLIST_END;
         entryCount++;
 
         setZlbytes(totalLength);
@@ -178,7 +180,7 @@ public class ZipList {
     // 计算字符串元素所需的长度
     private int calculateEntryLength(String s) {
         // 实际中需要根据字符串长度计算，这里简化
-        return s.getBytes().length + 2; // 假设 encoding 占2字节
+        return s.getBytes(StandardCharsets.UTF_8).length + 2; // 假设 encoding 占2字节
     }
 
     // 写入 prevlen
@@ -194,7 +196,7 @@ public class ZipList {
 
     // 写入 encoding (固定两个字节的长度)
     private int writeEncoding(byte[] data, int pos, String s) {
-        int len = s.getBytes().length;
+        int len = s.getBytes(StandardCharsets.UTF_8).length;
         // 使用大端序存储长度
         // 提取int最高的8位(2位encoding只能获得int的16位)
         data[pos] = (byte) (len >> 8);
@@ -299,7 +301,7 @@ public class ZipList {
         int dataPos = encodingPos + 2;
 
         // 4. 根据读到的长度直接截取字符串，既准确又安全
-        return new String(data, dataPos, len);
+        return new String(data, dataPos, len, StandardCharsets.UTF_8);
     }
 
     // 使用 ByteBuffer 的替代实现
@@ -332,7 +334,7 @@ public class ZipList {
             int len = ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
             pos += 2;
             // 3. 提取数据
-            list.add(new String(data, pos, len));
+            list.add(new String(data, pos, len, StandardCharsets.UTF_8));
             // 4. 跳到下一个节点开头
             pos += len;
         }
@@ -350,6 +352,158 @@ public class ZipList {
         return list.subList(start, end + 1);
     }
 
+    // ============= 按偏移量访问 (有序集合/哈希等需要在中间插入删除的场景) =============
+
+    // 元素个数
+    public int size() {
+        return entryCount;
+    }
+
+    // 第一个 entry 的偏移量, 没有元素时返回-1
+    public int head() {
+        return entryCount == 0 ? -1 : 10;
+    }
+
+    // 最后一个 entry 的偏移量, 没有元素时返回-1
+    public int tail() {
+        return entryCount == 0 ? -1 : tailOffset;
+    }
+
+    // 下一个 entry 的偏移量, 已经是最后一个时返回-1
+    public int next(int pos) {
+        int next = pos + entryLength(pos);
+        return next >= totalLength - 1 ? -1 : next;
+    }
+
+    // 上一个 entry 的偏移量, 已经是第一个时返回-1
+    public int prev(int pos) {
+        if (pos == 10) {
+            return -1;
+        }
+        return pos - readPrevlen(data, pos);
+    }
+
+    // 第 index 个 entry 的偏移量(从头部开始), 越界返回-1
+    public int index(int index) {
+        if (index < 0 || index >= entryCount) {
+            return -1;
+        }
+        int pos = 10;
+        for (int i = 0; i < index; i++) {
+            pos += entryLength(pos);
+        }
+        return pos;
+    }
+
+    // 读取 pos 位置的 entry
+    public String get(int pos) {
+        return parseEntryAtPos(data, pos);
+    }
+
+    // 比较 pos 位置的 entry 和字符串是否相等, 不创建新的字符串
+    public boolean equalsAt(int pos, byte[] bytes) {
+        int len = ((data[pos + 4] & 0xFF) << 8) | (data[pos + 5] & 0xFF);
+        if (len != bytes.length) {
+            return false;
+        }
+        int dataPos = pos + 6;
+        for (int i = 0; i < len; i++) {
+            if (data[dataPos + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // entry 的总长度: prevlen(4) + encoding(2) + data
+    private int entryLength(int pos) {
+        int len = ((data[pos + 4] & 0xFF) << 8) | (data[pos + 5] & 0xFF);
+        return 4 + 2 + len;
+    }
+
+    /**
+     * 在 pos 位置插入一个 entry, 原来在 pos 的 entry 及之后的 entry 整体后移
+     * @param pos 插入位置, -1 表示插入到尾部
+     * @return 新 entry 的偏移量
+     */
+    public int insertAt(int pos, String s) {
+        byte[] strBytes = s.getBytes(StandardCharsets.UTF_8);
+        int requiredSpace = 4 + 2 + strBytes.length;
+        boolean append = pos == -1;
+        if (append) {
+            pos = totalLength - 1;
+        }
+
+        // 1. 扩容
+        if (data.length < totalLength + requiredSpace) {
+            data = Arrays.copyOf(data, totalLength + requiredSpace + 10);
+        }
+
+        // 2. 计算新 entry 的 prevlen: 插入在中间时就是原来 pos 位置 entry 的 prevlen
+        int prevlen;
+        if (append) {
+            prevlen = entryCount == 0 ? 0 : pos - tailOffset;
+        } else {
+            prevlen = readPrevlen(data, pos);
+        }
+
+        // 3. 把 pos 之后的所有字节(包括 zlend)向后搬移
+        System.arraycopy(data, pos, data, pos + requiredSpace, totalLength - pos);
+
+        // 4. 写入新 entry
+        int writePos = writePrevlen(data, pos, prevlen);
+        writePos = writeEncoding(data, writePos, s);
+        System.arraycopy(strBytes, 0, data, writePos, strBytes.length);
+
+        // 5. 后一个 entry 的前一个节点变成了新 entry
+        if (!append) {
+            writePrevlen(data, pos + requiredSpace, requiredSpace);
+            tailOffset += requiredSpace;
+        } else {
+            tailOffset = pos;
+        }
+
+        totalLength += requiredSpace;
+        entryCount++;
+        setZlbytes(totalLength);
+        setZltail(tailOffset);
+        setZllen(entryCount);
+        return pos;
+    }
+
+    /**
+     * 删除 pos 位置的 entry
+     * @return 删除后原来下一个 entry 的偏移量, 删除的是最后一个时返回-1
+     */
+    public int deleteAt(int pos) {
+        int len = entryLength(pos);
+        int next = pos + len;
+        int prevlen = readPrevlen(data, pos);
+        boolean isTail = next >= totalLength - 1;
+
+        if (isTail) {
+            tailOffset = entryCount == 1 ? 10 : pos - prevlen;
+        } else {
+            // 下一个 entry 的前一个节点变成了被删除 entry 的前一个节点
+            writePrevlen(data, next, prevlen);
+            tailOffset -= len;
+        }
+        // 把后面的字节(包括 zlend)向前搬移
+        System.arraycopy(data, next, data, pos, totalLength - next);
+
+        totalLength -= len;
+        entryCount--;
+        setZlbytes(totalLength);
+        setZltail(tailOffset);
+        setZllen(entryCount);
+        return isTail ? -1 : pos;
+    }
+
+    // 当前占用的字节数
+    public int getTotalLength() {
+        return totalLength;
+    }
+
     // 打印 ziplist 内容（用于调试）
     public void print() {
         List<String> range = range(0, entryCount - 1);
@@ -0,0 +1,158 @@
+package com.test;
+
+import static com.test.TestUtil.request;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for Bitops.
+ */
+public class BitopsTest extends TestCase
+{
+    // 按 long 统计的结果和逐字节统计相同, 包括不对齐的起止位置
+    public void testPopcount()
+    {
+        byte[] buf = new byte[1000];
+        new Random(1).nextBytes(buf);
+        for (int start = 0; start < 20; start++) {
+            for (int end = 980; end <= 1000; end++) {
+                long expected = 0;
+                for (int i = start; i < end; i++) {
+                    expected += Integer.bitCount(buf[i] & 0xff);
+                }
+                assertEquals(expected, Bitops.popcount(buf, start, end));
+            }
+        }
+    }
+
+    // 每个字节从最高位开始编号
+    public void testBitpos()
+    {
+        byte[] buf = new byte[100];
+        buf[70] = 0x10;
+        assertEquals(70 * 8 + 3, Bitops.bitpos(buf, 0, 799, 1));
+        assertEquals(70 * 8 + 3, Bitops.bitpos(buf, 5, 70 * 8 + 3, 1));
+        assertEquals(-1, Bitops.bitpos(buf, 5, 70 * 8 + 2, 1));
+        assertEquals(-1, Bitops.bitpos(buf, 70 * 8 + 4, 799, 1));
+
+        Arrays.fill(buf, (byte) 0xff);
+        buf[99] = (byte) 0xfe;
+        assertEquals(799, Bitops.bitpos(buf, 3, 799, 0));
+        assertEquals(-1, Bitops.bitpos(buf, 0, 798, 0));
+    }
+
+    private static RedisServer.RedisDB db(Object... keyValues)
+    {
+        RedisServer.maxmemory = Long.MAX_VALUE;
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            byte[] value = (byte[]) keyValues[i + 1];
+            RedisServer.dbAdd(db, (String) keyValues[i], new RedisServer.RedisObject(new RedisString.Sds(value, value.length)));
+        }
+        return db;
+    }
+
+    private static byte[] bytes(RedisServer.RedisDB db, String key)
+    {
+        RedisString.Sds sds = (RedisString.Sds) RedisServer.lookUpKeyReadObject(db, key).value;
+        return Arrays.copyOf(sds.buf, sds.len);
+    }
+
+    // 按位指定范围, 起止位置在同一个字节中时首尾两次减法作用于同一个字节
+    public void testBitcountBitRange()
+    {
+        byte[] buf = {(byte) 0xb6, (byte) 0xff, 0x0f, 0x5a, (byte) 0x81};
+        RedisServer.RedisDB db = db("bm", buf);
+        assertEquals(4L, Bitops.bitcount(db, request("bitcount", "bm", "1", "6", "bit")));
+        assertEquals(1L, Bitops.bitcount(db, request("bitcount", "bm", "2", "2", "bit")));
+        assertEquals(0L, Bitops.bitcount(db, request("bitcount", "bm", "1", "1", "bit")));
+        assertEquals(6L, Bitops.bitcount(db, request("bitcount", "bm", "8", "13", "BIT")));
+        for (int start = 0; start < 40; start++) {
+            for (int end = start; end < 40; end++) {
+                long expected = 0;
+                for (int i = start; i <= end; i++) {
+                    expected += (buf[i >> 3] >> (7 - (i & 7))) & 1;
+                }
+                assertEquals(expected, Bitops.bitcount(db,
+                        request("bitcount", "bm", String.valueOf(start), String.valueOf(end), "bit")));
+            }
+        }
+        assertEquals(1L, Bitops.bitcount(db, request("bitcount", "bm", "-1", "-1", "bit")));
+    }
+
+    // 没有指定 end 时全1的值右边看作0, 指定了 end 时返回-1
+    public void testBitposZeroOnAllOnes()
+    {
+        byte[] ones = new byte[17];
+        Arrays.fill(ones, (byte) 0xff);
+        RedisServer.RedisDB db = db("ones", ones);
+        assertEquals(17L * 8, Bitops.bitpos(db, request("bitpos", "ones", "0")));
+        assertEquals(17L * 8, Bitops.bitpos(db, request("bitpos", "ones", "0", "3")));
+        assertEquals(-1L, Bitops.bitpos(db, request("bitpos", "ones", "0", "0", "-1")));
+        assertEquals(-1L, Bitops.bitpos(db, request("bitpos", "ones", "0", "5", "100", "bit")));
+        assertEquals(0L, Bitops.bitpos(db, request("bitpos", "ones", "1")));
+        assertEquals(0L, Bitops.bitpos(db, request("bitpos", "missing", "0")));
+        assertEquals(-1L, Bitops.bitpos(db, request("bitpos", "missing", "1")));
+    }
+
+    // 较短的值和不存在的key看作右边补0, 结果的长度是最长的值的长度
+    public void testBitopDifferentLengths()
+    {
+        byte[] a = new byte[21];
+        new Random(2).nextBytes(a);
+        byte[] b = {(byte) 0xf0, 0x0f, (byte) 0xaa};
+        RedisServer.RedisDB db = db("a", a, "b", b);
+
+        assertEquals(21L, Bitops.bitop(db, request("bitop", "or", "dest", "a", "b", "missing")));
+        byte[] or = bytes(db, "dest");
+        assertEquals(21L, Bitops.bitop(db, request("bitop", "xor", "dest", "b", "missing", "a")));
+        byte[] xor = bytes(db, "dest");
+        assertEquals(21L, Bitops.bitop(db, request("bitop", "and", "dest", "a", "b")));
+        byte[] and = bytes(db, "dest");
+        for (int i = 0; i < a.length; i++) {
+            int v = i < b.length ? b[i] : 0;
+            assertEquals((byte) (a[i] | v), or[i]);
+            assertEquals((byte) (a[i] ^ v), xor[i]);
+            assertEquals((byte) (a[i] & v), and[i]);
+        }
+        assertEquals(21L, Bitops.bitop(db, request("bitop", "and", "dest", "missing", "a")));
+        assertTrue(Arrays.equals(new byte[21], bytes(db, "dest")));
+
+        assertEquals(3L, Bitops.bitop(db, request("bitop", "not", "dest", "b")));
+        assertTrue(Arrays.equals(new byte[]{0x0f, (byte) 0xf0, 0x55}, bytes(db, "dest")));
+        // 所有源都不存在时删除目标key
+        assertEquals(0L, Bitops.bitop(db, request("bitop", "or", "dest", "missing")));
+        assertNull(RedisServer.lookUpKeyReadObject(db, "dest"));
+    }
+
+    // 写到末尾之后时保留原来的内容, 新增的字节为0, 预分配的空间之内不再重新分配
+    public void testSetbitGrowsExistingSds()
+    {
+        RedisServer.RedisDB db = db("bm", new byte[]{'a', 'b'});
+        assertEquals(0L, Bitops.setbit(db, request("setbit", "bm", "100", "1")));
+        RedisString.Sds sds = (RedisString.Sds) RedisServer.lookUpKeyReadObject(db, "bm").value;
+        assertEquals(13, sds.len);
+        assertEquals(26, sds.buf.length);
+        byte[] expected = new byte[13];
+        expected[0] = 'a';
+        expected[1] = 'b';
+        expected[12] = 0x08;
+        assertTrue(Arrays.equals(expected, bytes(db, "bm")));
+
+        byte[] buf = sds.buf;
+        assertEquals(0L, Bitops.setbit(db, request("setbit", "bm", "200", "1")));
+        assertSame(buf, sds.buf);
+        assertEquals(26, sds.len);
+        assertEquals(1L, Bitops.getbit(db, request("getbit", "bm", "200")));
+        assertEquals(1L, Bitops.setbit(db, request("setbit", "bm", "100", "0")));
+        assertEquals(6L + 1, Bitops.bitcount(db, request("bitcount", "bm")));
+
+        // 字符串编码的值第一次 SETBIT 时转换为 Sds
+        RedisServer.dbAdd(db, "s", RedisString.createStringObject("ab"));
+        assertEquals(0L, Bitops.setbit(db, request("setbit", "s", "23", "1")));
+        assertTrue(Arrays.equals(new byte[]{'a', 'b', 1}, bytes(db, "s")));
+    }
+}
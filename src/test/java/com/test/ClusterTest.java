@@ -0,0 +1,36 @@
+package com.test;
+
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for Cluster.
+ */
+public class ClusterTest extends TestCase
+{
+    public void testKeyHashSlot()
+    {
+        assertEquals(12739, Cluster.keyHashSlot("123456789"));
+        assertEquals(12182, Cluster.keyHashSlot("foo"));
+        assertEquals(Cluster.keyHashSlot("user1000"), Cluster.keyHashSlot("{user1000}.following"));
+        assertEquals(Cluster.keyHashSlot("{user1000}.followers"), Cluster.keyHashSlot("{user1000}.following"));
+    }
+
+    // 只用第一对花括号, 花括号中为空时计算整个key
+    public void testHashTag()
+    {
+        assertEquals(Cluster.keyHashSlot("bar"), Cluster.keyHashSlot("foo{bar}{zap}"));
+        assertEquals(Cluster.keyHashSlot("{bar"), Cluster.keyHashSlot("foo{{bar}}zap"));
+        assertEquals(Cluster.crc16("foo{}{bar}".getBytes(), 0, 10) & 16383, Cluster.keyHashSlot("foo{}{bar}"));
+        assertEquals(Cluster.crc16("foo{bar".getBytes(), 0, 7) & 16383, Cluster.keyHashSlot("foo{bar"));
+    }
+
+    public void testSlotRanges()
+    {
+        BitSet bits = Cluster.parseSlotRanges("0-5460,5462,16383");
+        assertEquals(5463, bits.cardinality());
+        assertEquals("0-5460,5462,16383", Cluster.slotRanges(bits));
+        assertTrue(Cluster.parseSlotRanges("-").isEmpty());
+    }
+}
@@ -0,0 +1,100 @@
+package com.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for ExpireIndex.
+ */
+public class ExpireIndexTest extends TestCase
+{
+    public void testPollDueInExpireOrder()
+    {
+        ExpireIndex index = new ExpireIndex();
+        index.add("c", 300);
+        index.add("a", 100);
+        index.add("b", 200);
+        index.add("b2", 200);
+        assertEquals(4, index.size());
+        assertEquals(100, index.nextExpireTime());
+        assertEquals(3, index.countDue(200));
+
+        List<String> out = new ArrayList<>();
+        assertEquals(2, index.pollDue(200, 2, out));
+        assertEquals("a", out.get(0));
+        assertTrue(out.get(1).startsWith("b"));
+
+        out.clear();
+        assertEquals(1, index.pollDue(200, 10, out));
+        assertTrue(out.get(0).startsWith("b"));
+
+        out.clear();
+        assertEquals(0, index.pollDue(299, 10, out));
+        assertEquals(1, index.size());
+        assertEquals(300, index.nextExpireTime());
+    }
+
+    public void testRemove()
+    {
+        ExpireIndex index = new ExpireIndex();
+        index.add("a", 100);
+        index.add("b", 100);
+        index.remove("a", 100);
+        index.remove("a", 100);
+        index.remove("b", 999);
+        assertEquals(1, index.size());
+        index.remove("b", 100);
+        assertEquals(0, index.size());
+        assertEquals(-1, index.nextExpireTime());
+    }
+
+    // 到期的数量随增删和弹出维护, 和逐个统计的结果一致
+    public void testCountDueIsMaintained()
+    {
+        ExpireIndex index = new ExpireIndex();
+        Map<String, Long> expected = new HashMap<>();
+        Random random = new Random(1);
+        List<String> out = new ArrayList<>();
+        long now = 0;
+        for (int round = 0; round < 5000; round++) {
+            String key = "k" + random.nextInt(300);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                Long old = expected.remove(key);
+                if (old != null) {
+                    index.remove(key, old);
+                }
+                // 新的过期时间可能在已经统计过的时间之前
+                long when = now - 50 + random.nextInt(200);
+                index.add(key, when);
+                expected.put(key, when);
+            } else if (op < 7) {
+                Long old = expected.remove(key);
+                if (old != null) {
+                    index.remove(key, old);
+                }
+            } else if (op < 8) {
+                out.clear();
+                index.pollDue(now, 1 + random.nextInt(5), out);
+                for (String polled : out) {
+                    assertTrue(expected.remove(polled) <= now);
+                }
+            } else {
+                now += random.nextInt(10);
+            }
+            long due = 0;
+            for (long when : expected.values()) {
+                if (when <= now) {
+                    due++;
+                }
+            }
+            assertEquals(due, index.countDue(now));
+            assertEquals(expected.size(), index.size());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for GlobPattern.
+ */
+public class GlobPatternTest extends TestCase
+{
+    public void testSyntax()
+    {
+        assertTrue(GlobPattern.compile("news.*").matches("news.sport"));
+        assertTrue(GlobPattern.compile("news.*").matches("news."));
+        assertFalse(GlobPattern.compile("news.*").matches("news"));
+        assertTrue(GlobPattern.compile("h?llo").matches("hallo"));
+        assertFalse(GlobPattern.compile("h?llo").matches("hllo"));
+        assertTrue(GlobPattern.compile("h[ae]llo").matches("hello"));
+        assertFalse(GlobPattern.compile("h[ae]llo").matches("hillo"));
+        assertTrue(GlobPattern.compile("h[^e]llo").matches("hallo"));
+        assertFalse(GlobPattern.compile("h[^e]llo").matches("hello"));
+        assertTrue(GlobPattern.compile("h[a-c]llo").matches("hbllo"));
+        assertTrue(GlobPattern.compile("a\\*b").matches("a*b"));
+        assertFalse(GlobPattern.compile("a\\*b").matches("axb"));
+        assertTrue(GlobPattern.compile("*").matches(""));
+        assertTrue(GlobPattern.compile("a**b*c").matches("aXbYbZc"));
+    }
+
+    public void testLiteralPrefix()
+    {
+        assertEquals("news.", GlobPattern.compile("news.*").literalPrefix());
+        assertEquals("", GlobPattern.compile("*.sport").literalPrefix());
+        assertEquals("a*b", GlobPattern.compile("a\\*b?").literalPrefix());
+        assertEquals("exact", GlobPattern.compile("exact").literalPrefix());
+    }
+
+    public void testFastPaths()
+    {
+        assertTrue(GlobPattern.compile("*").matches("anything"));
+        assertTrue(GlobPattern.compile("user:1").matches("user:1"));
+        assertFalse(GlobPattern.compile("user:1").matches("user:10"));
+        assertTrue(GlobPattern.compile("user:*:profile").matches("user:42:profile"));
+        assertFalse(GlobPattern.compile("user:*:profile").matches("user:42:session"));
+        // 前缀和后缀不能重叠
+        assertFalse(GlobPattern.compile("ab*ba").matches("aba"));
+        assertTrue(GlobPattern.compile("ab*ba").matches("abba"));
+        assertTrue(GlobPattern.compile("user:?*:profile").matches("user:7:profile"));
+        assertFalse(GlobPattern.compile("user:?*:profile").matches("user::profile"));
+    }
+
+    // 原来的动态规划实现(只支持 * 和 ?), 作为对照
+    private static boolean dpMatch(String s, String p)
+    {
+        boolean[][] dp = new boolean[s.length() + 1][p.length() + 1];
+        dp[0][0] = true;
+        for (int j = 1; j <= p.length() && p.charAt(j - 1) == '*'; j++) {
+            dp[0][j] = true;
+        }
+        for (int i = 1; i <= s.length(); i++) {
+            for (int j = 1; j <= p.length(); j++) {
+                char c = p.charAt(j - 1);
+                if (c == '*') {
+                    dp[i][j] = dp[i][j - 1] || dp[i - 1][j];
+                } else if (c == '?' || c == s.charAt(i - 1)) {
+                    dp[i][j] = dp[i - 1][j - 1];
+                }
+            }
+        }
+        return dp[s.length()][p.length()];
+    }
+
+    // 只包含 * 和 ? 的模式, 结果应该和原来的动态规划实现一致
+    public void testMatchesDynamicProgramming()
+    {
+        Random random = new Random(7);
+        char[] patternChars = {'a', 'b', '*', '?'};
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder p = new StringBuilder();
+            for (int j = random.nextInt(6); j > 0; j--) {
+                p.append(patternChars[random.nextInt(patternChars.length)]);
+            }
+            StringBuilder s = new StringBuilder();
+            for (int j = random.nextInt(8); j > 0; j--) {
+                s.append(random.nextBoolean() ? 'a' : 'b');
+            }
+            assertEquals(p + " " + s, dpMatch(s.toString(), p.toString()),
+                    GlobPattern.compile(p.toString()).matches(s.toString()));
+        }
+    }
+}
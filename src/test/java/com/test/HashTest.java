@@ -0,0 +1,94 @@
+package com.test;
+
+import static com.test.TestUtil.request;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for Hash.
+ */
+public class HashTest extends TestCase
+{
+    @Override
+    protected void setUp()
+    {
+        RedisServer.maxmemory = Long.MAX_VALUE;
+    }
+
+    // 字段数超过 hash-max-ziplist-entries 时转换为字典
+    public void testConvertOnEntries()
+    {
+        int entries = Hash.hash_max_ziplist_entries;
+        Hash.hash_max_ziplist_entries = 4;
+        try {
+            RedisServer.RedisDB db = new RedisServer.RedisDB();
+            for (int i = 1; i <= 4; i++) {
+                Hash.hset(db, request("hset", "h", "f" + i, "v" + i));
+            }
+            RedisServer.RedisObject o = RedisServer.lookUpKeyReadObject(db, "h");
+            assertEquals(RedisConstants.REDIS_ENCODING_ZIPLIST, o.encoding);
+            Hash.hset(db, request("hset", "h", "f5", "v5"));
+            assertEquals(RedisConstants.REDIS_ENCODING_HT, o.encoding);
+            assertEquals(5L, Hash.hashTypeLength(o));
+            assertEquals("v3", Hash.hashTypeGetValue(o, "f3"));
+        } finally {
+            Hash.hash_max_ziplist_entries = entries;
+        }
+    }
+
+    // field 或 value 超过 hash-max-ziplist-value 时在写入之前转换
+    public void testConvertOnValueLength()
+    {
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        char[] chars = new char[Hash.hash_max_ziplist_value];
+        Arrays.fill(chars, 'x');
+        String atLimit = new String(chars);
+        Hash.hset(db, request("hset", "h", "f1", atLimit));
+        RedisServer.RedisObject o = RedisServer.lookUpKeyReadObject(db, "h");
+        assertEquals(RedisConstants.REDIS_ENCODING_ZIPLIST, o.encoding);
+        Hash.hset(db, request("hset", "h", atLimit + "y", "v"));
+        assertEquals(RedisConstants.REDIS_ENCODING_HT, o.encoding);
+        assertEquals(atLimit, Hash.hashTypeGetValue(o, "f1"));
+        assertEquals("v", Hash.hashTypeGetValue(o, atLimit + "y"));
+    }
+
+    public void testHincrbyOverflow()
+    {
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        assertEquals(Long.MAX_VALUE - 1, Hash.hincrby(db, request("hincrby", "h", "n", Long.toString(Long.MAX_VALUE - 1))));
+        assertEquals(Long.MAX_VALUE, Hash.hincrby(db, request("hincrby", "h", "n", "1")));
+        assertTrue(Hash.hincrby(db, request("hincrby", "h", "n", "1")) instanceof RedisServer.ErrorObject);
+        assertEquals(Long.toString(Long.MAX_VALUE), Hash.hget(db, request("hget", "h", "n")));
+
+        Hash.hset(db, request("hset", "h", "m", Long.toString(Long.MIN_VALUE)));
+        assertTrue(Hash.hincrby(db, request("hincrby", "h", "m", "-1")) instanceof RedisServer.ErrorObject);
+        assertEquals(-1L, Hash.hincrby(db, request("hincrby", "h", "m", Long.toString(Long.MAX_VALUE))));
+    }
+
+    // 删除最后一个 field 之后 key 也被删除
+    public void testHdelLastFieldDeletesKey()
+    {
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        Hash.hset(db, request("hset", "h", "a", "1", "b", "2"));
+        assertEquals(1L, Hash.hdel(db, request("hdel", "h", "a", "missing")));
+        assertNotNull(RedisServer.lookUpKeyReadObject(db, "h"));
+        assertEquals(1L, Hash.hdel(db, request("hdel", "h", "b")));
+        assertNull(RedisServer.lookUpKeyReadObject(db, "h"));
+        assertEquals(0L, Hash.hdel(db, request("hdel", "h", "b")));
+    }
+
+    // 压缩列表按 UTF-8 保存, 非 ASCII 的 field 按 UTF-8 查找
+    public void testNonAsciiField()
+    {
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        Hash.hset(db, request("hset", "h", "名字", "值", "é", "e"));
+        RedisServer.RedisObject o = RedisServer.lookUpKeyReadObject(db, "h");
+        assertEquals(RedisConstants.REDIS_ENCODING_ZIPLIST, o.encoding);
+        assertEquals("值", Hash.hget(db, request("hget", "h", "名字")));
+        assertEquals(0L, Hash.hset(db, request("hset", "h", "é", "f")));
+        assertEquals("f", Hash.hashTypeGetValue(o, "é"));
+        assertEquals(2L, Hash.hashTypeLength(o));
+    }
+}
@@ -0,0 +1,67 @@
+package com.test;
+
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for IntSet.
+ */
+public class IntSetTest extends TestCase
+{
+    public void testUpgradeKeepsOrder()
+    {
+        IntSet is = new IntSet();
+        assertTrue(is.add(5));
+        assertTrue(is.add(-3));
+        assertFalse(is.add(5));
+        assertEquals(IntSet.INTSET_ENC_INT16, is.encoding);
+
+        assertTrue(is.add(100000));
+        assertEquals(IntSet.INTSET_ENC_INT32, is.encoding);
+        assertTrue(is.add(-5000000000L));
+        assertEquals(IntSet.INTSET_ENC_INT64, is.encoding);
+
+        assertEquals(4, is.size());
+        assertEquals(-5000000000L, is.get(0));
+        assertEquals(-3, is.get(1));
+        assertEquals(5, is.get(2));
+        assertEquals(100000, is.get(3));
+        assertTrue(is.find(100000));
+        assertFalse(is.find(6));
+    }
+
+    public void testMatchesTreeSet()
+    {
+        IntSet is = new IntSet();
+        TreeSet<Long> model = new TreeSet<>();
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < 5000; i++) {
+            long value = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(model.remove(value), is.remove(value));
+            } else {
+                assertEquals(model.add(value), is.add(value));
+            }
+        }
+        assertEquals(model.size(), is.size());
+        int i = 0;
+        for (long value : model) {
+            assertEquals(value, is.get(i++));
+        }
+    }
+
+    public void testString2ll()
+    {
+        long[] out = new long[1];
+        assertTrue(RedisSet.string2ll("-9223372036854775808", out));
+        assertEquals(Long.MIN_VALUE, out[0]);
+        assertTrue(RedisSet.string2ll("9223372036854775807", out));
+        assertEquals(Long.MAX_VALUE, out[0]);
+        assertFalse(RedisSet.string2ll("9223372036854775808", out));
+        assertFalse(RedisSet.string2ll("007", out));
+        assertFalse(RedisSet.string2ll("-0", out));
+        assertFalse(RedisSet.string2ll("+1", out));
+        assertFalse(RedisSet.string2ll("1a", out));
+    }
+}
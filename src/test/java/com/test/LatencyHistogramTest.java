@@ -0,0 +1,45 @@
+package com.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for LatencyHistogram.
+ */
+public class LatencyHistogramTest extends TestCase
+{
+    public void testBucketBounds()
+    {
+        for (long v : new long[]{0, 1, 63, 64, 65, 127, 128, 1000, 123456789L, (1L << 40) - 1}) {
+            int i = LatencyHistogram.bucketIndex(v);
+            assertTrue(v + "", LatencyHistogram.bucketLowest(i) <= v);
+            assertTrue(v + "", LatencyHistogram.bucketHighest(i) >= v);
+        }
+        // 桶是连续的, 相邻的桶之间没有空隙
+        for (int i = 1; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            assertEquals(LatencyHistogram.bucketHighest(i - 1) + 1, LatencyHistogram.bucketLowest(i));
+        }
+    }
+
+    // 百分位数和精确值的相对误差不超过一个桶的宽度(1/32)
+    public void testPercentileAccuracy()
+    {
+        Random random = new Random(3);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 16);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long estimate = histogram.percentile(p);
+            assertTrue(p + ": " + exact + " " + estimate, estimate >= exact && estimate <= exact + exact / 32 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.percentile(100));
+        assertEquals(values.length, histogram.count());
+    }
+}
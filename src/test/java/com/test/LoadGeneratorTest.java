@@ -0,0 +1,34 @@
+package com.test;
+
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for LoadGenerator.
+ */
+public class LoadGeneratorTest extends TestCase
+{
+    // 回复按完整的长度切分, 不完整时返回 -1
+    public void testReplyLength()
+    {
+        byte[] bytes = ("+OK\r\n" + "$-1\r\n" + "$3\r\nabc\r\n" + "*2\r\n$1\r\nk\r\n:5\r\n" + "$10\r\nabc").getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        int[] expected = {5, 5, 9, 15};
+        for (int length : expected) {
+            assertEquals(length, LoadGenerator.replyLength(bytes, offset, bytes.length));
+            offset += length;
+        }
+        assertEquals(-1, LoadGenerator.replyLength(bytes, offset, bytes.length));
+        // 数组中的元素不完整
+        assertEquals(-1, LoadGenerator.replyLength(bytes, 19, 30));
+    }
+
+    public void testZipfCdf()
+    {
+        double[] cdf = LoadGenerator.zipfCdf(1000, 0.99);
+        assertEquals(1.0, cdf[cdf.length - 1], 1e-9);
+        // 第一个key比第二个key热
+        assertTrue(cdf[0] > cdf[1] - cdf[0]);
+    }
+}
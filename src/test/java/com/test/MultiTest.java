@@ -0,0 +1,188 @@
+package com.test;
+
+import static com.test.TestUtil.request;
+
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for MULTI/EXEC/WATCH, two clients sharing one database.
+ */
+public class MultiTest extends TestCase
+{
+    private RedisServer.RedisDB[] savedDB;
+    private RedisServer.RedisDB db;
+    private RedisServer.RedisClient a;
+    private RedisServer.RedisClient b;
+
+    @Override
+    protected void setUp()
+    {
+        RedisServer.maxmemory = Long.MAX_VALUE;
+        savedDB = RedisServer.redisDB;
+        db = new RedisServer.RedisDB();
+        RedisServer.redisDB = new RedisServer.RedisDB[]{db};
+        a = newClient();
+        b = newClient();
+        // 有 backlog 时写命令才会传播, 用偏移量判断是否传播
+        Replication.master_repl_offset = 0;
+        Replication.createReplicationBacklog();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        RedisServer.redisDB = savedDB;
+        Replication.repl_backlog = null;
+        Replication.repl_backlog_histlen = 0;
+        Replication.master_repl_offset = 0;
+    }
+
+    private RedisServer.RedisClient newClient()
+    {
+        RedisServer.RedisClient client = new RedisServer.RedisClient();
+        client.selectDB = db;
+        return client;
+    }
+
+    private static Object run(RedisServer.RedisClient client, String command, String... args)
+    {
+        return RedisServer.processCommand(client, request(command, args));
+    }
+
+    private static String runReply(RedisServer.RedisClient client, String command, String... args)
+    {
+        Object result = run(client, command, args);
+        if (result instanceof RedisServer.ErrorObject) {
+            return ((RedisServer.ErrorObject) result).getMessage();
+        }
+        return result instanceof byte[] ? new String((byte[]) result, StandardCharsets.UTF_8) : String.valueOf(result);
+    }
+
+    private int watchers(String key)
+    {
+        return db.watched_keys.containsKey(key) ? db.watched_keys.get(key).size() : 0;
+    }
+
+    // EXEC 回复队列中每个命令真正的执行结果
+    public void testExecRepliesWithQueuedResults()
+    {
+        assertEquals("OK", runReply(a, "multi"));
+        assertEquals("QUEUED", runReply(a, "set", "k", "1"));
+        assertEquals("QUEUED", runReply(a, "incr", "k"));
+        assertEquals("QUEUED", runReply(a, "get", "k"));
+        assertEquals("QUEUED", runReply(a, "hget", "k", "f"));
+        assertNull(RedisServer.lookUpKeyReadObject(db, "k"));
+        assertEquals("*4\r\n+OK\r\n:2\r\n$1\r\n2\r\n"
+                + "-WRONGTYPE Operation against a key holding the wrong kind of value\r\n", runReply(a, "exec"));
+        assertEquals("ERR EXEC without MULTI", runReply(a, "exec"));
+    }
+
+    // 其他客户端修改了监控的key, EXEC 返回空数组并且不执行队列中的命令
+    public void testWatchedKeyModifiedAbortsExec()
+    {
+        assertEquals("OK", runReply(a, "watch", "k"));
+        assertEquals(1, watchers("k"));
+        assertEquals("OK", runReply(b, "set", "k", "other"));
+        assertEquals("OK", runReply(a, "multi"));
+        assertEquals("QUEUED", runReply(a, "set", "k", "mine"));
+        assertEquals("*-1\r\n", runReply(a, "exec"));
+        assertEquals("other", RedisServer.lookUpKeyReadObject(db, "k").value.toString());
+        // 事务结束后监控的key从两边的索引中删除
+        assertEquals(0, watchers("k"));
+        assertTrue(a.watched_keys.isEmpty());
+
+        // 删除一个存在的key也算修改
+        assertEquals("OK", runReply(a, "watch", "k"));
+        assertEquals("1", runReply(b, "del", "k"));
+        assertEquals("OK", runReply(a, "multi"));
+        assertEquals("*-1\r\n", runReply(a, "exec"));
+    }
+
+    // 没有修改数据的写命令不会让事务失败, 也不会传播
+    public void testNoopWritesDoNotAbortExec()
+    {
+        assertEquals("OK", runReply(b, "set", "k", "0"));
+        assertEquals("1", runReply(b, "sadd", "s", "a"));
+        assertEquals("OK", runReply(a, "watch", "k", "s", "missing"));
+        long offset = Replication.master_repl_offset;
+        assertEquals("0", runReply(b, "del", "missing"));
+        assertEquals("null", runReply(b, "set", "k", "5", "nx"));
+        assertEquals("null", runReply(b, "set", "missing", "5", "xx"));
+        assertEquals("0", runReply(b, "srem", "s", "b"));
+        assertEquals("0", runReply(b, "sadd", "s", "a"));
+        assertEquals("0", runReply(b, "persist", "k"));
+        assertEquals("0", runReply(b, "expire", "missing", "100"));
+        assertEquals("0", runReply(b, "msetnx", "k", "1", "missing", "1"));
+        assertEquals(offset, Replication.master_repl_offset);
+
+        assertEquals("OK", runReply(a, "multi"));
+        assertEquals("QUEUED", runReply(a, "set", "k", "1"));
+        assertEquals("*1\r\n+OK\r\n", runReply(a, "exec"));
+        assertEquals("1", RedisServer.lookUpKeyReadObject(db, "k").value.toString());
+        assertTrue(Replication.master_repl_offset > offset);
+    }
+
+    // 多个key的命令只通知真正被修改的key
+    public void testMultiKeyDelOnlyTouchesDeletedKeys()
+    {
+        assertEquals("OK", runReply(b, "set", "k1", "v"));
+        assertEquals("OK", runReply(a, "watch", "k2"));
+        assertEquals("1", runReply(b, "del", "k1", "k2"));
+        assertEquals("OK", runReply(a, "multi"));
+        assertEquals("*0\r\n", runReply(a, "exec"));
+    }
+
+    // UNWATCH / DISCARD / EXEC 都会清理监控索引, 不影响其他客户端的监控
+    public void testWatchIndexCleanup()
+    {
+        assertEquals("OK", runReply(a, "watch", "k1", "k2"));
+        assertEquals("OK", runReply(a, "watch", "k1"));
+        assertEquals("OK", runReply(b, "watch", "k1"));
+        assertEquals(2, a.watched_keys.size());
+        assertEquals(2, watchers("k1"));
+        assertEquals(1, watchers("k2"));
+
+        assertEquals("OK", runReply(a, "unwatch"));
+        assertTrue(a.watched_keys.isEmpty());
+        assertEquals(1, watchers("k1"));
+        assertFalse(db.watched_keys.containsKey("k2"));
+
+        // 取消监控之后 a 不再受影响, b 的事务失败
+        assertEquals("OK", runReply(a, "set", "k1", "v"));
+        assertEquals("OK", runReply(a, "multi"));
+        assertEquals("*0\r\n", runReply(a, "exec"));
+        assertEquals("OK", runReply(b, "multi"));
+        assertEquals("*-1\r\n", runReply(b, "exec"));
+        assertTrue(db.watched_keys.isEmpty());
+
+        assertEquals("OK", runReply(a, "watch", "k1"));
+        assertEquals("OK", runReply(a, "multi"));
+        assertEquals("ERR WATCH inside MULTI is not allowed", runReply(a, "watch", "k2"));
+        assertEquals("OK", runReply(a, "discard"));
+        assertTrue(a.watched_keys.isEmpty());
+        assertTrue(db.watched_keys.isEmpty());
+    }
+
+    // 入队时出错(命令不存在或者参数个数不对)时 EXEC 放弃整个事务
+    public void testQueueErrorsAbortExec()
+    {
+        assertEquals("OK", runReply(a, "multi"));
+        assertEquals("ERR unknown command 'nosuchcommand'", runReply(a, "nosuchcommand"));
+        assertEquals("EXECABORT Transaction discarded because of previous errors.", runReply(a, "exec"));
+
+        assertEquals("OK", runReply(a, "multi"));
+        assertEquals("QUEUED", runReply(a, "set", "b", "1"));
+        assertEquals("ERR wrong number of arguments for 'set' command", runReply(a, "set", "a"));
+        assertEquals("ERR wrong number of arguments for 'get' command", runReply(a, "get", "a", "b"));
+        assertEquals("EXECABORT Transaction discarded because of previous errors.", runReply(a, "exec"));
+        assertNull(RedisServer.lookUpKeyReadObject(db, "b"));
+        assertEquals(0, a.flags & (RedisConstants.REDIS_MULTI | RedisConstants.REDIS_DIRTY_EXEC));
+
+        // 事务之外参数个数不对的命令同样不执行
+        assertEquals("ERR wrong number of arguments for 'set' command", runReply(a, "set", "a"));
+        assertEquals("ERR wrong number of arguments for 'lpush' command", runReply(a, "lpush", "a"));
+        assertNull(RedisServer.lookUpKeyReadObject(db, "a"));
+    }
+}
@@ -0,0 +1,97 @@
+package com.test;
+
+import static com.test.TestUtil.request;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for RedisString.
+ */
+public class RedisStringTest extends TestCase
+{
+    public void testIntEncoding()
+    {
+        assertEquals(RedisConstants.REDIS_ENCODING_INT, RedisString.createStringObject("-42").encoding);
+        assertEquals(RedisConstants.REDIS_ENCODING_INT, RedisString.createStringObject("9223372036854775807").encoding);
+        // 转回字符串之后和原来不同的不能用整数编码
+        assertEquals(RedisConstants.REDIS_ENCODING_RAW, RedisString.createStringObject("007").encoding);
+        assertEquals(RedisConstants.REDIS_ENCODING_RAW, RedisString.createStringObject("+1").encoding);
+        assertEquals(RedisConstants.REDIS_ENCODING_RAW, RedisString.createStringObject("9223372036854775808").encoding);
+    }
+
+    // 小于 1MB 时容量翻倍, 连续追加不会每次都重新分配
+    public void testSdsPrealloc()
+    {
+        RedisString.Sds sds = new RedisString.Sds("ab".getBytes(), 2);
+        sds.append("cd".getBytes());
+        assertEquals(8, sds.buf.length);
+        byte[] buf = sds.buf;
+        sds.append("ef".getBytes());
+        assertSame(buf, sds.buf);
+        assertEquals("abcdef", sds.toString());
+
+        sds.makeRoomFor(RedisString.SDS_MAX_PREALLOC * 2);
+        assertEquals(RedisString.SDS_MAX_PREALLOC * 3, sds.buf.length);
+        assertEquals(0, sds.buf[6]);
+    }
+
+    private static String error(Object reply)
+    {
+        assertTrue(reply instanceof RedisServer.ErrorObject);
+        return ((RedisServer.ErrorObject) reply).getMessage();
+    }
+
+    // 互斥的选项和缺少参数都是语法错误, 不会写入
+    public void testSetOptionParsing()
+    {
+        RedisServer.maxmemory = Long.MAX_VALUE;
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        String syntax = error(RedisString.set(db, request("set", "k", "v", "NX", "XX")));
+        assertTrue(syntax.contains("syntax error"));
+        assertEquals(syntax, error(RedisString.set(db, request("set", "k", "v", "XX", "NX"))));
+        assertEquals(syntax, error(RedisString.set(db, request("set", "k", "v", "KEEPTTL", "EX", "10"))));
+        assertEquals(syntax, error(RedisString.set(db, request("set", "k", "v", "EX", "10", "KEEPTTL"))));
+        assertEquals(syntax, error(RedisString.set(db, request("set", "k", "v", "EX", "10", "PX", "10"))));
+        assertEquals(syntax, error(RedisString.set(db, request("set", "k", "v", "EX"))));
+        assertTrue(error(RedisString.set(db, request("set", "k", "v", "EX", "ten"))).contains("not an integer"));
+        assertTrue(error(RedisString.set(db, request("set", "k", "v", "EX", "0"))).contains("invalid expire time"));
+        assertNull(RedisServer.lookUpKeyReadObject(db, "k"));
+
+        assertEquals("OK", RedisString.set(db, request("set", "k", "v", "ex", "10", "nx")));
+        assertNotNull(db.expires.getTTL("k"));
+    }
+
+    public void testExpireTime()
+    {
+        assertEquals(-1, RedisString.expireTime(0, true, false));
+        assertEquals(-1, RedisString.expireTime(-5, false, true));
+        // 秒转换为毫秒溢出
+        assertEquals(-1, RedisString.expireTime(Long.MAX_VALUE / 1000 + 1, true, true));
+        assertEquals(Long.MAX_VALUE / 1000 * 1000, RedisString.expireTime(Long.MAX_VALUE / 1000, true, true));
+        // 加上当前时间溢出
+        assertEquals(-1, RedisString.expireTime(Long.MAX_VALUE - 1, false, false));
+        assertEquals(Long.MAX_VALUE - 1, RedisString.expireTime(Long.MAX_VALUE - 1, false, true));
+        long now = System.currentTimeMillis();
+        long when = RedisString.expireTime(10, true, false);
+        assertTrue(when >= now + 10000 && when <= System.currentTimeMillis() + 10000);
+    }
+
+    // key不存在返回-2, 没有过期时间返回-1
+    public void testTtl()
+    {
+        RedisServer.maxmemory = Long.MAX_VALUE;
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        assertEquals(-2L, RedisServer.ttl(db, "k", false));
+        assertEquals(-2L, RedisServer.ttl(db, "k", true));
+        RedisString.set(db, request("set", "k", "v"));
+        assertEquals(-1L, RedisServer.ttl(db, "k", false));
+        assertEquals(-1L, RedisServer.ttl(db, "k", true));
+        RedisString.set(db, request("set", "k", "v", "PX", "100000"));
+        assertEquals(100L, RedisServer.ttl(db, "k", false));
+        long pttl = (Long) RedisServer.ttl(db, "k", true);
+        assertTrue(pttl > 99000 && pttl <= 100000);
+        // 已经过期的key和不存在一样
+        RedisServer.setExpire(db, "k", System.currentTimeMillis() - 1);
+        assertEquals(-2L, RedisServer.ttl(db, "k", true));
+    }
+}
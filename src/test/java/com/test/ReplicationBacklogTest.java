@@ -0,0 +1,128 @@
+package com.test;
+
+import static com.test.TestUtil.request;
+
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the replication backlog.
+ */
+public class ReplicationBacklogTest extends TestCase
+{
+    @Override
+    protected void setUp()
+    {
+        Replication.master_repl_offset = 0;
+        Replication.repl_backlog_size = 16;
+        Replication.createReplicationBacklog();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        Replication.repl_backlog = null;
+        Replication.repl_backlog_histlen = 0;
+        Replication.master_repl_offset = 0;
+        Replication.repl_backlog_size = 1024 * 1024;
+    }
+
+    private static void feed(String s)
+    {
+        byte[] data = s.getBytes(StandardCharsets.UTF_8);
+        Replication.master_repl_offset += data.length;
+        Replication.feedReplicationBacklog(data, 0, data.length);
+    }
+
+    private static String from(long offset)
+    {
+        byte[] data = Replication.replicationBacklogFrom(offset);
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+
+    public void testPartialRange()
+    {
+        feed("abcdef");
+        assertEquals(1, Replication.repl_backlog_off);
+        assertEquals("abcdef", from(1));
+        assertEquals("def", from(4));
+        // 已经同步到最新的偏移量, 没有需要补发的数据
+        assertEquals("", from(7));
+        // 超出当前偏移量
+        assertNull(from(8));
+    }
+
+    // 写满之后覆盖最旧的数据, 被覆盖的偏移量不能部分重同步
+    public void testWrapAround()
+    {
+        feed("0123456789");
+        feed("abcdefghij");
+        assertEquals(20, Replication.master_repl_offset);
+        assertEquals(16, Replication.repl_backlog_histlen);
+        assertEquals(5, Replication.repl_backlog_off);
+        assertNull(from(4));
+        assertEquals("456789abcdefghij", from(5));
+        assertEquals("fghij", from(16));
+    }
+
+    // 一次写入比缓冲区还长的数据只保留最后的部分
+    public void testFeedLargerThanBacklog()
+    {
+        feed("xy");
+        feed("0123456789abcdefghij");
+        assertEquals(22, Replication.master_repl_offset);
+        assertEquals(7, Replication.repl_backlog_off);
+        assertEquals("456789abcdefghij", from(7));
+    }
+
+    // 传播一条命令, 返回写入 backlog 的内容
+    private static String propagated(RedisServer.RedisDB db, RedisServer.RedisRequest redisRequest)
+    {
+        long offset = Replication.master_repl_offset;
+        Replication.propagate(db, redisRequest);
+        return from(offset + 1);
+    }
+
+    private static String command(String... argv)
+    {
+        ReplyBuffer buf = new ReplyBuffer();
+        Replication.addCommand(buf, argv);
+        return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // 相对时间改写成 PXAT 绝对时间, 从服务器执行时不会因为延迟而变长
+    public void testPropagateRewritesExpireToPxat()
+    {
+        Replication.resizeReplicationBacklog(4096);
+        RedisServer.maxmemory = Long.MAX_VALUE;
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+
+        String[][] sets = {{"k1", "v", "EX", "100"}, {"k2", "v", "px", "100000", "NX"}, {"k3", "v", "EXAT", "4102444800"}};
+        for (String[] args : sets) {
+            RedisServer.RedisRequest set = request("set", args);
+            assertEquals("OK", RedisString.set(db, set));
+            String when = String.valueOf(db.expires.getTTL(args[0]));
+            String[] expected = new String[args.length + 1];
+            expected[0] = "set";
+            System.arraycopy(args, 0, expected, 1, args.length);
+            expected[3] = "PXAT";
+            expected[4] = when;
+            assertTrue(propagated(db, set).endsWith(command(expected)));
+        }
+        assertEquals(4102444800000L, (long) db.expires.getTTL("k3"));
+
+        RedisServer.RedisRequest setex = request("setex", "k4", "100", "v");
+        assertEquals("OK", RedisString.setex(db, setex, false));
+        assertTrue(propagated(db, setex).endsWith(command("SET", "k4", "v", "PXAT", String.valueOf(db.expires.getTTL("k4")))));
+
+        RedisServer.RedisRequest psetex = request("psetex", "k5", "100000", "v");
+        assertEquals("OK", RedisString.setex(db, psetex, true));
+        assertTrue(propagated(db, psetex).endsWith(command("SET", "k5", "v", "PXAT", String.valueOf(db.expires.getTTL("k5")))));
+
+        // 没有过期参数的 SET 原样传播
+        RedisServer.RedisRequest plain = request("set", "k6", "v");
+        RedisString.set(db, plain);
+        assertTrue(propagated(db, plain).endsWith(command("set", "k6", "v")));
+    }
+}
@@ -0,0 +1,94 @@
+package com.test;
+
+import static com.test.TestUtil.request;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for encoding keys as commands (full sync snapshot and MIGRATE).
+ */
+public class ReplicationTest extends TestCase
+{
+    @Override
+    protected void setUp()
+    {
+        RedisServer.maxmemory = Long.MAX_VALUE;
+    }
+
+    // 解析 addObject 写出的命令并在另一个数据库上执行, 返回执行的命令数
+    private static int replay(ReplyBuffer buf, RedisServer.RedisDB db)
+    {
+        RedisServer.RedisClient client = new RedisServer.RedisClient();
+        int commands = 0;
+        for (int offset = 0; offset < buf.len; commands++) {
+            RedisServer.RedisRequest request = new RedisServer.RedisRequest();
+            int processed = RespUtil.parseCommand(buf.buf, offset, buf.len - offset, request);
+            assertTrue(processed > 0);
+            offset += processed;
+            // ASKING 只影响集群的重定向, 这里没有开启集群模式
+            if ("ASKING".equals(request.command)) {
+                continue;
+            }
+            Object result = RedisServer.call(client, request, db, request.args.isEmpty() ? null : request.args.get(0));
+            assertFalse(result instanceof RedisServer.ErrorObject);
+        }
+        return commands;
+    }
+
+    private static byte[] bytes(RedisServer.RedisObject o)
+    {
+        RedisString.Sds sds = (RedisString.Sds) o.value;
+        return Arrays.copyOf(sds.buf, sds.len);
+    }
+
+    // 不是合法 UTF-8 的值(位图)只用一条命令就能原样重建, 带 ASKING 时多一条
+    public void testBinaryStringRoundTrip()
+    {
+        byte[] data = new byte[10000];
+        new Random(1).nextBytes(data);
+        data[0] = (byte) 0xff;
+        RedisString.Sds sds = new RedisString.Sds(data, data.length + 100);
+        assertFalse(RedisString.isValidUtf8(sds));
+        RedisServer.RedisObject o = new RedisServer.RedisObject(sds);
+
+        for (boolean asking : new boolean[]{false, true}) {
+            ReplyBuffer buf = new ReplyBuffer(64, 2);
+            int commands = Replication.addObject(buf, "bitmap", o, asking);
+            assertEquals(asking ? 2 : 1, commands);
+            // base64 编码后的长度是原来的 4/3
+            assertTrue(buf.len < data.length * 4 / 3 + 100);
+
+            RedisServer.RedisDB db = new RedisServer.RedisDB();
+            RedisServer.dbAdd(db, "bitmap", RedisString.createStringObject("old"));
+            RedisServer.setExpire(db, "bitmap", System.currentTimeMillis() + 100000);
+            assertEquals(commands, replay(buf, db));
+            assertTrue(Arrays.equals(data, bytes(RedisServer.lookUpKeyReadObject(db, "bitmap"))));
+            // 和 SET 一样清除旧的过期时间
+            assertNull(db.expires.getTTL("bitmap"));
+        }
+    }
+
+    // 合法 UTF-8 的值仍然用 SET 发送
+    public void testUtf8StringUsesSet()
+    {
+        byte[] data = "位图 bitmap".getBytes(StandardCharsets.UTF_8);
+        RedisServer.RedisObject o = new RedisServer.RedisObject(new RedisString.Sds(data, data.length));
+        ReplyBuffer buf = new ReplyBuffer(64, 2);
+        assertEquals(1, Replication.addObject(buf, "k", o, false));
+        RedisServer.RedisRequest request = new RedisServer.RedisRequest();
+        RespUtil.parseCommand(buf.buf, 0, buf.len, request);
+        assertEquals("SET", request.command);
+        assertEquals("位图 bitmap", request.args.get(1));
+    }
+
+    public void testRestoreStringRejectsInvalidPayload()
+    {
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        assertTrue(RedisString.restoreString(db, request("restore-string", "k", "not base64!")) instanceof RedisServer.ErrorObject);
+        assertNull(RedisServer.lookUpKeyReadObject(db, "k"));
+    }
+}
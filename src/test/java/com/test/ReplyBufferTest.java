@@ -0,0 +1,44 @@
+package com.test;
+
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for ReplyBuffer.
+ */
+public class ReplyBufferTest extends TestCase
+{
+    private static String encode(int resp, Object value)
+    {
+        ReplyBuffer buf = new ReplyBuffer(16, resp).addReply(value);
+        return new String(buf.buf, 0, buf.len, StandardCharsets.UTF_8);
+    }
+
+    public void testResp3Types()
+    {
+        assertEquals("_\r\n", encode(3, null));
+        assertEquals("%1\r\n$1\r\nk\r\n:1\r\n", encode(3, new RedisServer.MapObject("k", 1L)));
+        assertEquals(",3\r\n", encode(3, 3.0));
+        assertEquals(",1.5\r\n", encode(3, 1.5));
+        assertEquals(",-inf\r\n", encode(3, Double.NEGATIVE_INFINITY));
+        assertEquals("#t\r\n", encode(3, true));
+        assertEquals("(12345678901234567890\r\n", encode(3, new java.math.BigInteger("12345678901234567890")));
+        assertEquals("=7\r\ntxt:abc\r\n", encode(3, new RedisServer.VerbatimObject("txt", "abc")));
+        ReplyBuffer buf = new ReplyBuffer(16, 3).addSetLen(2).addPushLen(1);
+        assertEquals("~2\r\n>1\r\n", new String(buf.buf, 0, buf.len, StandardCharsets.UTF_8));
+    }
+
+    // RESP2 的客户端收到的是原来的类型
+    public void testResp2Fallback()
+    {
+        assertEquals("$-1\r\n", encode(2, null));
+        assertEquals("*2\r\n$1\r\nk\r\n:1\r\n", encode(2, new RedisServer.MapObject("k", 1L)));
+        assertEquals("$1\r\n3\r\n", encode(2, 3.0));
+        assertEquals("$3\r\n1.5\r\n", encode(2, 1.5));
+        assertEquals(":1\r\n", encode(2, true));
+        assertEquals("$3\r\nabc\r\n", encode(2, new RedisServer.VerbatimObject("txt", "abc")));
+        ReplyBuffer buf = new ReplyBuffer(16, 2).addSetLen(2).addPushLen(1).addNullArray();
+        assertEquals("*2\r\n*1\r\n*-1\r\n", new String(buf.buf, 0, buf.len, StandardCharsets.UTF_8));
+    }
+}
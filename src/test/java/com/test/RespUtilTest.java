@@ -0,0 +1,35 @@
+package com.test;
+
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for RespUtil.
+ */
+public class RespUtilTest extends TestCase
+{
+    // 一次读到多条命令时, 返回值必须正好是第一条命令的长度
+    public void testParsePipelinedCommands()
+    {
+        String first = "*3\r\n$3\r\nSET\r\n$12\r\nkey:00000001\r\n$10\r\nvalue-0001\r\n";
+        String second = "*2\r\n$3\r\nGET\r\n$12\r\nkey:00000001\r\n";
+        byte[] bytes = (first + second).getBytes(StandardCharsets.UTF_8);
+
+        RedisServer.RedisRequest request = new RedisServer.RedisRequest();
+        int processed = RespUtil.parseCommand(bytes, 0, bytes.length, request);
+        assertEquals(first.length(), processed);
+        assertEquals("SET", request.command);
+        assertEquals("value-0001", request.args.get(1));
+
+        request = new RedisServer.RedisRequest();
+        assertEquals(second.length(), RespUtil.parseCommand(bytes, processed, bytes.length - processed, request));
+        assertEquals("GET", request.command);
+    }
+
+    public void testParseIncompleteCommand()
+    {
+        byte[] bytes = "*2\r\n$3\r\nGET\r\n$12\r\nkey:".getBytes(StandardCharsets.UTF_8);
+        assertEquals(0, RespUtil.parseCommand(bytes, 0, bytes.length, new RedisServer.RedisRequest()));
+    }
+}
@@ -0,0 +1,106 @@
+package com.test;
+
+import static com.test.TestUtil.request;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for SlowLog.
+ */
+public class SlowLogTest extends TestCase
+{
+    private final RedisServer.RedisClient client = new RedisServer.RedisClient();
+
+    private void push(String arg)
+    {
+        SlowLog.slowlogPushEntryIfNeeded(client, request("get", arg), 0);
+    }
+
+    private static long len()
+    {
+        return (Long) SlowLog.slowlog(request("slowlog", "len"));
+    }
+
+    @Override
+    protected void setUp()
+    {
+        SlowLog.slowlog_log_slower_than = 0;
+        SlowLog.setMaxLen(3);
+        SlowLog.slowlog(request("slowlog", "reset"));
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        SlowLog.slowlog_log_slower_than = 10000;
+        SlowLog.setMaxLen(128);
+        SlowLog.slowlog(request("slowlog", "reset"));
+    }
+
+    // 写满之后覆盖最旧的记录, entryAt(0) 始终是最新的
+    public void testRingWraparound()
+    {
+        for (int i = 0; i < 5; i++) {
+            push("k" + i);
+        }
+        assertEquals(3L, len());
+        assertEquals("k4", SlowLog.entryAt(0).argv[1]);
+        assertEquals("k3", SlowLog.entryAt(1).argv[1]);
+        assertEquals("k2", SlowLog.entryAt(2).argv[1]);
+        assertEquals(SlowLog.entryAt(1).id + 1, SlowLog.entryAt(0).id);
+    }
+
+    // 缩小时保留最新的记录, 放大之后继续追加
+    public void testSetMaxLen()
+    {
+        for (int i = 0; i < 4; i++) {
+            push("k" + i);
+        }
+        SlowLog.setMaxLen(2);
+        assertEquals(2L, len());
+        assertEquals("k3", SlowLog.entryAt(0).argv[1]);
+        assertEquals("k2", SlowLog.entryAt(1).argv[1]);
+
+        SlowLog.setMaxLen(5);
+        assertEquals(2L, len());
+        for (int i = 4; i < 8; i++) {
+            push("k" + i);
+        }
+        assertEquals(5L, len());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("k" + (7 - i), SlowLog.entryAt(i).argv[1]);
+        }
+
+        SlowLog.setMaxLen(0);
+        push("k8");
+        assertEquals(0L, len());
+    }
+
+    public void testArgumentTruncation()
+    {
+        List<String> args = new ArrayList<>();
+        char[] chars = new char[SlowLog.SLOWLOG_ENTRY_MAX_STRING + 10];
+        Arrays.fill(chars, 'x');
+        args.add(new String(chars));
+        for (int i = 1; i < 40; i++) {
+            args.add("a" + i);
+        }
+        RedisServer.RedisRequest redisRequest = request("rpush");
+        redisRequest.args = args;
+        client.name = "worker";
+        SlowLog.slowlogPushEntryIfNeeded(client, redisRequest, 0);
+
+        String[] argv = SlowLog.entryAt(0).argv;
+        assertEquals(SlowLog.SLOWLOG_ENTRY_MAX_ARGC, argv.length);
+        assertEquals("rpush", argv[0]);
+        assertEquals(new String(chars, 0, SlowLog.SLOWLOG_ENTRY_MAX_STRING) + "... (10 more bytes)", argv[1]);
+        assertEquals("a29", argv[SlowLog.SLOWLOG_ENTRY_MAX_ARGC - 2]);
+        // 41 个参数只放得下 31 个, 最后一个位置说明省略的个数
+        assertEquals("... (10 more arguments)", argv[SlowLog.SLOWLOG_ENTRY_MAX_ARGC - 1]);
+        assertEquals("worker", SlowLog.entryAt(0).clientName);
+    }
+}
@@ -0,0 +1,22 @@
+package com.test;
+
+import java.util.Arrays;
+
+/**
+ * 单元测试共用的方法
+ */
+final class TestUtil
+{
+    private TestUtil()
+    {
+    }
+
+    // 构造一个命令请求, args 不包括命令名
+    static RedisServer.RedisRequest request(String command, String... args)
+    {
+        RedisServer.RedisRequest redisRequest = new RedisServer.RedisRequest();
+        redisRequest.command = command;
+        redisRequest.args = Arrays.asList(args);
+        return redisRequest;
+    }
+}
@@ -0,0 +1,107 @@
+package com.test;
+
+import static com.test.TestUtil.request;
+
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for ZSet.
+ */
+public class ZSetTest extends TestCase
+{
+    public void testSkipListRankAndRange()
+    {
+        ZSet.ZSkipList zsl = new ZSet.ZSkipList();
+        for (int i = 0; i < 1000; i++) {
+            zsl.insert(i, "m" + i);
+        }
+        zsl.delete(500, "m500");
+        zsl.updateScore(10, "m10", 2000);
+
+        assertEquals(999, zsl.length);
+        assertEquals(1, zsl.getRank(0, "m0"));
+        assertEquals(11, zsl.getRank(11, "m11"));
+        assertEquals(999, zsl.getRank(2000, "m10"));
+        assertEquals("m501", zsl.getElementByRank(500).member);
+
+        ZSet.RangeSpec range = ZSet.parseRange("(100", "200");
+        assertEquals("m101", zsl.firstInRange(range).member);
+        assertEquals("m200", zsl.lastInRange(range).member);
+    }
+
+    public void testZiplistConvertsToSkiplist()
+    {
+        int entries = ZSet.zset_max_ziplist_entries;
+        ZSet.zset_max_ziplist_entries = 4;
+        try {
+            RedisServer.RedisObject zobj = ZSet.createZsetZiplistObject();
+            for (int i = 5; i > 0; i--) {
+                ZSet.zsetAdd(zobj, i, "m" + i, 0, null);
+                if (i > 1) {
+                    assertEquals(RedisConstants.REDIS_ENCODING_ZIPLIST, zobj.encoding);
+                }
+            }
+            assertEquals(RedisConstants.REDIS_ENCODING_SKIPLIST, zobj.encoding);
+            assertEquals(5, ZSet.zsetLength(zobj));
+            assertEquals(2, ZSet.zsetRank(zobj, "m3", false));
+            assertEquals(Double.valueOf(4), ZSet.zsetScore(zobj, "m4"));
+        } finally {
+            ZSet.zset_max_ziplist_entries = entries;
+        }
+    }
+
+    // 超长的元素在插入压缩列表之前就转换, 不会截断2字节的长度字段
+    public void testLongMemberConvertsBeforeInsert()
+    {
+        RedisServer.RedisObject zobj = ZSet.createZsetZiplistObject();
+        ZSet.zsetAdd(zobj, 1, "a", 0, null);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            sb.append('x');
+        }
+        String member = sb.toString();
+        ZSet.zsetAdd(zobj, 2, member, 0, null);
+        assertEquals(RedisConstants.REDIS_ENCODING_SKIPLIST, zobj.encoding);
+        assertEquals(2, ZSet.zsetLength(zobj));
+        assertEquals(Double.valueOf(2), ZSet.zsetScore(zobj, member));
+        assertEquals(1, ZSet.zsetRank(zobj, member, false));
+    }
+
+    // 压缩列表中的 ±inf 按 formatScore 写入的 "inf"/"-inf" 保存, 读回时要能解析
+    public void testInfiniteScoresInZiplist()
+    {
+        RedisServer.maxmemory = Long.MAX_VALUE;
+        RedisServer.RedisDB db = new RedisServer.RedisDB();
+        assertEquals(1L, ZSet.zadd(db, request("zadd", "z", "+inf", "a")));
+        assertEquals(1L, ZSet.zadd(db, request("zadd", "z", "1", "b")));
+        assertEquals(1L, ZSet.zadd(db, request("zadd", "z", "-inf", "c")));
+        RedisServer.RedisObject zobj = RedisServer.lookUpKeyReadObject(db, "z");
+        assertEquals(RedisConstants.REDIS_ENCODING_ZIPLIST, zobj.encoding);
+        assertEquals(Double.POSITIVE_INFINITY, ZSet.zscore(db, request("zscore", "z", "a")));
+        assertEquals(Double.NEGATIVE_INFINITY, ZSet.zscore(db, request("zscore", "z", "c")));
+        assertEquals(3L, ZSet.zcount(db, request("zcount", "z", "-inf", "+inf")));
+        assertEquals(1L, ZSet.zcount(db, request("zcount", "z", "(1", "+inf")));
+        String range = new String((byte[]) ZSet.zrangebyscore(db, request("zrangebyscore", "z", "-inf", "+inf")), StandardCharsets.UTF_8);
+        assertEquals("*3\r\n$1\r\nc\r\n$1\r\nb\r\n$1\r\na\r\n", range);
+        assertEquals(2L, ZSet.zsetRank(zobj, "a", false));
+
+        // 转换为跳表时分数不变
+        ZSet.zsetConvertToSkiplist(zobj);
+        assertEquals(Double.valueOf(Double.POSITIVE_INFINITY), ZSet.zsetScore(zobj, "a"));
+        assertEquals(Double.valueOf(Double.NEGATIVE_INFINITY), ZSet.zsetScore(zobj, "c"));
+        assertEquals(0L, ZSet.zsetRank(zobj, "c", false));
+    }
+
+    // 非 ASCII 的元素按 UTF-8 比较
+    public void testNonAsciiMemberInZiplist()
+    {
+        RedisServer.RedisObject zobj = ZSet.createZsetZiplistObject();
+        ZSet.zsetAdd(zobj, 2, "成员", 0, null);
+        ZSet.zsetAdd(zobj, 1, "é", 0, null);
+        assertEquals(Double.valueOf(2), ZSet.zsetScore(zobj, "成员"));
+        assertEquals(1L, ZSet.zsetRank(zobj, "成员", false));
+        assertEquals(0L, ZSet.zsetRank(zobj, "é", false));
+    }
+}